@@ -0,0 +1,67 @@
+package com.sammarder.iheartdevs.bench;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.sammarder.iheartdevs.traceprocessing.PluginClassIndex;
+import com.sammarder.iheartdevs.traceprocessing.StackTraceProcessor;
+
+/**
+ * Measures how long the StackTraceProcessor takes to assemble a trace of a number of frames, one line at a time. One
+ * operation is a whole trace. The same trace is printed over and over again, so after the first one every trace is
+ * recognized by its fingerprint and only counted, which keeps the store out of the measurement.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class AssemblyBenchmark {
+	@Param({ "10", "100", "1000" })
+	public int frames;
+
+	private File directory;
+	private Pipeline pipeline;
+	private StackTraceProcessor processor;
+	private String[] lines;
+
+	@Setup
+	public void setUp() throws Exception {
+		directory = Pipeline.createTempDirectory("ihd-assembly");
+		pipeline = new Pipeline(directory, new PluginClassIndex());
+		processor = pipeline.getProcessor();
+		List<String> trace = SyntheticTraces.createTrace(new Random(42), frames, null);
+		lines = trace.toArray(new String[trace.size()]);
+	}
+
+	@Benchmark
+	public void assemble(Blackhole blackhole) {
+		Thread thread = Thread.currentThread();
+		for (String line : lines) {
+			blackhole.consume(processor.process(thread, line));
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		pipeline.close();
+		Pipeline.delete(directory);
+	}
+}
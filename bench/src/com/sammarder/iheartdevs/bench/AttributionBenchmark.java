@@ -0,0 +1,105 @@
+package com.sammarder.iheartdevs.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.bukkit.plugin.Plugin;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.sammarder.iheartdevs.traceprocessing.PluginClassIndex;
+import com.sammarder.iheartdevs.traceprocessing.TraceMetaInfo;
+
+/**
+ * Measures TraceMetaInfo.findPlugin() against an index of pluginCount synthetic plugin jars. Every jar has a few
+ * packages of empty class files (the index only reads the names). One operation is one trace of 30 frames, a third of
+ * which belong to a plugin.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class AttributionBenchmark {
+	private static final int PACKAGES_PER_PLUGIN = 5;
+	private static final int CLASSES_PER_PACKAGE = 20;
+
+	@Param({ "100" })
+	public int pluginCount;
+
+	private File directory;
+	private PluginClassIndex index;
+	private List<String>[] traces;
+	private int next;
+
+	@Setup
+	@SuppressWarnings("unchecked")
+	public void setUp() throws Exception {
+		HeadlessServer.install();
+		directory = Pipeline.createTempDirectory("ihd-attribution");
+		index = new PluginClassIndex();
+		String[] packages = new String[pluginCount * PACKAGES_PER_PLUGIN];
+		for (int i = 0; i < pluginCount; i++) {
+			Plugin plugin = HeadlessServer.createPlugin("Plugin" + i);
+			File jar = new File(directory, plugin.getName() + ".jar");
+			for (int j = 0; j < PACKAGES_PER_PLUGIN; j++) {
+				packages[i * PACKAGES_PER_PLUGIN + j] = "com.example.plugin" + i + ".feature" + j;
+			}
+			writeJar(jar, packages, i * PACKAGES_PER_PLUGIN, PACKAGES_PER_PLUGIN);
+			index.addPlugin(plugin, jar);
+		}
+		Random random = new Random(42);
+		traces = new List[256];
+		for (int i = 0; i < traces.length; i++) {
+			traces[i] = SyntheticTraces.createTrace(random, 30, packages);
+		}
+	}
+
+	@Benchmark
+	public void findPlugin(Blackhole blackhole) {
+		blackhole.consume(TraceMetaInfo.findPlugin(traces[next], index));
+		next = (next + 1) % traces.length;
+	}
+
+	@TearDown
+	public void tearDown() {
+		HeadlessServer.removePlugins();
+		Pipeline.delete(directory);
+	}
+
+	private static void writeJar(File jar, String[] packages, int first, int count) throws IOException {
+		ZipOutputStream os = null;
+		try {
+			os = new ZipOutputStream(new FileOutputStream(jar));
+			for (int i = first; i < first + count; i++) {
+				for (int j = 0; j < CLASSES_PER_PACKAGE; j++) {
+					os.putNextEntry(new ZipEntry(packages[i].replace('.', '/') + "/Class" + j + ".class"));
+					os.closeEntry();
+				}
+			}
+		} finally {
+			try {
+				os.close();
+			} catch (Exception e) {
+			}
+		}
+	}
+}
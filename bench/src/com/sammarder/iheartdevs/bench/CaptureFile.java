@@ -0,0 +1,156 @@
+package com.sammarder.iheartdevs.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A file of captured System.err output, memory mapped so that files of several gigabytes can be replayed without
+ * reading them into the heap. The file is mapped one window at a time (a single mapping can't be larger than 2 GB) and
+ * split into lines, which keep their line separator so they can be written to a stream exactly as they were printed.
+ * The file can be split into parts that are replayed by different threads.
+ */
+public class CaptureFile {
+	// How much of the file is mapped at a time.
+	private static final long WINDOW_SIZE = 256 * 1024 * 1024;
+	// Longer lines are cut into pieces of this size.
+	private static final int MAX_LINE_LENGTH = 1024 * 1024;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long size;
+
+	/**
+	 * Constructor for opening a capture file.
+	 * 
+	 * @param file
+	 *            The file.
+	 * @throws IOException
+	 *             If the file could not be opened.
+	 */
+	public CaptureFile(File file) throws IOException {
+		this.file = new RandomAccessFile(file, "r");
+		this.channel = this.file.getChannel();
+		this.size = channel.size();
+	}
+
+	/**
+	 * @return The size of the file in bytes.
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * Splits the file into parts that start at the beginning of a line.
+	 * 
+	 * @param count
+	 *            The number of parts.
+	 * @return The positions where the parts start, followed by the size of the file. Parts may be empty.
+	 * @throws IOException
+	 *             If the file could not be read.
+	 */
+	public long[] split(int count) throws IOException {
+		long[] starts = new long[count + 1];
+		starts[count] = size;
+		for (int i = 1; i < count; i++) {
+			starts[i] = Math.max(starts[i - 1], findLineStart(size * i / count));
+		}
+		return starts;
+	}
+
+	/**
+	 * Creates a reader for part of the file.
+	 * 
+	 * @param start
+	 *            The position of the first line.
+	 * @param end
+	 *            The position after the last line.
+	 * @return The reader. Every reader should only be used by one thread.
+	 */
+	public LineReader read(long start, long end) {
+		return new LineReader(start, end);
+	}
+
+	/**
+	 * Closes the file. Lines that were already read stay valid until the mapping is garbage collected.
+	 */
+	public void close() {
+		try {
+			file.close();
+		} catch (IOException e) {
+		}
+	}
+
+	/**
+	 * Gets the position of the first line that starts at or after a position.
+	 */
+	private long findLineStart(long position) throws IOException {
+		if (position == 0) {
+			return 0;
+		}
+		LineReader reader = new LineReader(position - 1, size);
+		// The rest of the line the position is in.
+		reader.next();
+		return reader.position;
+	}
+
+	/**
+	 * Reads part of a CaptureFile one line at a time.
+	 */
+	public class LineReader {
+		private final long end;
+		private final byte[] line = new byte[MAX_LINE_LENGTH];
+		private long position;
+		private MappedByteBuffer window;
+		private long windowStart;
+		private int length;
+
+		LineReader(long start, long end) {
+			this.position = start;
+			this.end = end;
+		}
+
+		/**
+		 * Reads the next line (with its line separator, unless it is the last line of the file and doesn't have
+		 * one).
+		 * 
+		 * @return false if there are no more lines.
+		 * @throws IOException
+		 *             If the file could not be mapped.
+		 */
+		public boolean next() throws IOException {
+			length = 0;
+			while (position < end && length < line.length) {
+				if (window == null || position >= windowStart + window.limit()) {
+					windowStart = position;
+					window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+							Math.min(WINDOW_SIZE, size - position));
+				}
+				byte b = window.get((int) (position - windowStart));
+				line[length++] = b;
+				position++;
+				if (b == '\n') {
+					break;
+				}
+			}
+			return length > 0;
+		}
+
+		/**
+		 * @return The bytes of the line read by next(). Only the first getLength() bytes are part of it.
+		 */
+		public byte[] getLine() {
+			return line;
+		}
+
+		/**
+		 * @return The length of the line read by next().
+		 */
+		public int getLength() {
+			return length;
+		}
+	}
+}
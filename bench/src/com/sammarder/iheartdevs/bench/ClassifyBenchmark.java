@@ -0,0 +1,44 @@
+package com.sammarder.iheartdevs.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.sammarder.iheartdevs.traceprocessing.TraceLineClassifier;
+
+/**
+ * Measures TraceLineClassifier.classify(), which runs on every line before anything else happens to it. One operation
+ * is one line, out of a mix of log lines and stack traces.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ClassifyBenchmark {
+	private String[] lines;
+	private int next;
+
+	@Setup
+	public void setUp() {
+		lines = SyntheticTraces.createOutput(new Random(42), 10000, 20, 12);
+	}
+
+	@Benchmark
+	public void classify(Blackhole blackhole) {
+		blackhole.consume(TraceLineClassifier.classify(lines[next]));
+		next = (next + 1) % lines.length;
+	}
+}
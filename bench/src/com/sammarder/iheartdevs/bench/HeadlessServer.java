@@ -0,0 +1,164 @@
+package com.sammarder.iheartdevs.bench;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginManager;
+
+/**
+ * Just enough of a Bukkit server for the capture pipeline to run without one. The server, its PluginManager and every
+ * plugin are dynamic proxies, so this works with whatever version of the Bukkit API is on the class path: methods that
+ * the pipeline doesn't use return null, false, 0 or an empty array or collection. Events are dropped and the plugins
+ * are the ones created by createPlugin().
+ */
+public class HeadlessServer {
+	private static final String NAME = "HeadlessServer";
+	private static final List<Plugin> plugins = new CopyOnWriteArrayList<Plugin>();
+	private static final Logger logger = Logger.getLogger(NAME);
+
+	// Instantiation is forbidden
+	private HeadlessServer() {
+	}
+
+	/**
+	 * Makes the headless server the one Bukkit.getServer() returns, unless there already is a server.
+	 */
+	public static synchronized void install() {
+		if (Bukkit.getServer() != null) {
+			return;
+		}
+		// IHeartDevs logs what it is doing, which would drown out the results.
+		logger.setLevel(Level.WARNING);
+		final PluginManager pluginManager = proxy(PluginManager.class, new Handler() {
+			@Override
+			Object invoke(String method, Object[] args) {
+				if (method.equals("getPlugins")) {
+					return plugins.toArray(new Plugin[plugins.size()]);
+				}
+				return NOT_HANDLED;
+			}
+		});
+		Bukkit.setServer(proxy(Server.class, new Handler() {
+			@Override
+			Object invoke(String method, Object[] args) {
+				if (method.equals("getLogger")) {
+					return logger;
+				} else if (method.equals("getPluginManager")) {
+					return pluginManager;
+				} else if (method.equals("getName")) {
+					return NAME;
+				} else if (method.equals("getVersion") || method.equals("getBukkitVersion")) {
+					return "benchmark";
+				}
+				return NOT_HANDLED;
+			}
+		}));
+	}
+
+	/**
+	 * Creates a plugin that only has a name. It is listed by the PluginManager of the headless server.
+	 * 
+	 * @param name
+	 *            The name of the plugin.
+	 * @return The plugin.
+	 */
+	public static Plugin createPlugin(final String name) {
+		Plugin plugin = proxy(Plugin.class, new Handler() {
+			@Override
+			Object invoke(String method, Object[] args) {
+				if (method.equals("getName") || method.equals("toString")) {
+					return name;
+				} else if (method.equals("isEnabled")) {
+					return true;
+				}
+				return NOT_HANDLED;
+			}
+		});
+		plugins.add(plugin);
+		return plugin;
+	}
+
+	/**
+	 * Forgets every plugin created by createPlugin().
+	 */
+	public static void removePlugins() {
+		plugins.clear();
+	}
+
+	private static <T> T proxy(Class<T> type, final Handler handler) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						Object result = handler.invoke(method.getName(), args);
+						if (result != Handler.NOT_HANDLED) {
+							return result;
+						}
+						// Proxies are only equal to themselves.
+						if (method.getName().equals("equals") && args != null && args.length == 1) {
+							return proxy == args[0];
+						} else if (method.getName().equals("hashCode") && args == null) {
+							return System.identityHashCode(proxy);
+						}
+						return getDefault(method.getReturnType());
+					}
+				}));
+	}
+
+	/**
+	 * Gets the "nothing" of a type: null, false, 0 or an empty array or collection.
+	 */
+	private static Object getDefault(Class<?> type) {
+		if (type == boolean.class) {
+			return false;
+		} else if (type == char.class) {
+			return (char) 0;
+		} else if (type == byte.class) {
+			return (byte) 0;
+		} else if (type == short.class) {
+			return (short) 0;
+		} else if (type == int.class) {
+			return 0;
+		} else if (type == long.class) {
+			return 0L;
+		} else if (type == float.class) {
+			return 0f;
+		} else if (type == double.class) {
+			return 0d;
+		} else if (type.isArray()) {
+			return Array.newInstance(type.getComponentType(), 0);
+		} else if (type == Set.class) {
+			return Collections.emptySet();
+		} else if (type == Map.class) {
+			return Collections.emptyMap();
+		} else if (type == List.class || type == Collection.class) {
+			return Collections.emptyList();
+		}
+		return null;
+	}
+
+	/**
+	 * Answers the calls to a proxy that it knows about.
+	 */
+	private abstract static class Handler {
+		static final Object NOT_HANDLED = new Object();
+
+		/**
+		 * @return The result or NOT_HANDLED to fall back to the default of the return type.
+		 */
+		abstract Object invoke(String method, Object[] args);
+	}
+}
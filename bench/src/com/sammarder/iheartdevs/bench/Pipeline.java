@@ -0,0 +1,126 @@
+package com.sammarder.iheartdevs.bench;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.sammarder.iheartdevs.ConfigurationManager;
+import com.sammarder.iheartdevs.FolderManager;
+import com.sammarder.iheartdevs.storage.TraceStore;
+import com.sammarder.iheartdevs.traceprocessing.ErrorFileComparator;
+import com.sammarder.iheartdevs.traceprocessing.ErrorFileFilter;
+import com.sammarder.iheartdevs.traceprocessing.FingerprintIndex;
+import com.sammarder.iheartdevs.traceprocessing.PluginClassIndex;
+import com.sammarder.iheartdevs.traceprocessing.SearchIndex;
+import com.sammarder.iheartdevs.traceprocessing.StackTraceProcessor;
+
+/**
+ * The capture pipeline of IHeartDevs (a StackTraceProcessor and everything it saves to) set up the same way
+ * IHeartDevs.onLoad() does, but in a directory of its own and with the default configuration. The headless server is
+ * installed first.
+ */
+public class Pipeline {
+	private final File directory;
+	private final TraceStore store;
+	private final FolderManager folderManager;
+	private final FingerprintIndex fingerprints;
+	private final SearchIndex searchIndex;
+	private final PluginClassIndex classIndex;
+	private final StackTraceProcessor processor;
+
+	/**
+	 * Constructor for creating a new Pipeline.
+	 * 
+	 * @param directory
+	 *            The directory to store error logs in. It is created if it doesn't exist.
+	 * @param classIndex
+	 *            The index that traces are attributed with.
+	 * @throws IOException
+	 *             If the store could not be opened.
+	 */
+	public Pipeline(File directory, PluginClassIndex classIndex) throws IOException {
+		HeadlessServer.install();
+		this.directory = directory;
+		this.classIndex = classIndex;
+		directory.mkdirs();
+		store = new TraceStore(directory, ConfigurationManager.getStoreSegmentSize() * 1024 * 1024,
+				ConfigurationManager.shouldCompressTraces());
+		folderManager = new FolderManager(directory, store, new ErrorFileFilter(), new ErrorFileComparator<File>());
+		fingerprints = new FingerprintIndex(new File(directory, "fingerprints.dat"), new File(directory,
+				"fingerprints-journal.dat"));
+		searchIndex = new SearchIndex(new File(directory, "search.dat"), new File(directory, "search-journal.dat"));
+		searchIndex.catchUp(store, fingerprints);
+		store.startWriter(ConfigurationManager.getStoreSyncPolicy(), ConfigurationManager.getStoreSyncEvery(),
+				ConfigurationManager.getStoreSyncInterval());
+		processor = new StackTraceProcessor(null, folderManager, classIndex, fingerprints, searchIndex);
+	}
+
+	/**
+	 * @return The StackTraceProcessor that lines are fed to.
+	 */
+	public StackTraceProcessor getProcessor() {
+		return processor;
+	}
+
+	/**
+	 * @return The store that traces are saved in.
+	 */
+	public TraceStore getStore() {
+		return store;
+	}
+
+	/**
+	 * @return The index that traces are attributed with.
+	 */
+	public PluginClassIndex getClassIndex() {
+		return classIndex;
+	}
+
+	/**
+	 * Saves every trace that is still being assembled and closes the store.
+	 */
+	public void close() {
+		processor.shutdown();
+		store.close(5000);
+	}
+
+	/**
+	 * Closes the pipeline and deletes its directory.
+	 */
+	public void destroy() {
+		close();
+		delete(directory);
+	}
+
+	/**
+	 * Creates an empty directory in the temporary directory.
+	 * 
+	 * @param prefix
+	 *            The start of the name of the directory.
+	 * @return The directory.
+	 * @throws IOException
+	 *             If the directory could not be created.
+	 */
+	public static File createTempDirectory(String prefix) throws IOException {
+		File directory = File.createTempFile(prefix, "");
+		if (!directory.delete() || !directory.mkdir()) {
+			throw new IOException("Could not create " + directory);
+		}
+		return directory;
+	}
+
+	/**
+	 * Deletes a file or a directory and everything in it.
+	 * 
+	 * @param file
+	 *            The file or directory.
+	 */
+	public static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,71 @@
+package com.sammarder.iheartdevs.bench;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sammarder.iheartdevs.traceprocessing.FilteredErrorStream;
+import com.sammarder.iheartdevs.traceprocessing.IMessageProcessor;
+import com.sammarder.iheartdevs.traceprocessing.PluginClassIndex;
+
+/**
+ * Measures println() through a FilteredErrorStream in front of the whole capture pipeline, which is what every line a
+ * server prints to System.err costs. One operation is one line. With traceEvery 0 only log lines are printed, otherwise
+ * a stack trace of 12 frames follows about every traceEvery log lines. Lines that the StackTraceProcessor doesn't take
+ * are accepted by a last processor that ignores them; otherwise FilteredErrorStream would report every one of them as
+ * an InputProcessingException and this would measure that instead.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PrintlnBenchmark {
+	@Param({ "0", "50" })
+	public int traceEvery;
+
+	private File directory;
+	private Pipeline pipeline;
+	private FilteredErrorStream stream;
+	private String[] lines;
+	private int next;
+
+	@Setup
+	public void setUp() throws Exception {
+		directory = Pipeline.createTempDirectory("ihd-println");
+		pipeline = new Pipeline(directory, new PluginClassIndex());
+		stream = new FilteredErrorStream(pipeline.getProcessor(), new IMessageProcessor() {
+			@Override
+			public boolean process(Thread source, CharSequence message) {
+				return true;
+			}
+		});
+		lines = SyntheticTraces.createOutput(new Random(42), 10000, traceEvery, 12);
+	}
+
+	@Benchmark
+	public void println() {
+		stream.println(lines[next]);
+		next = (next + 1) % lines.length;
+	}
+
+	@TearDown
+	public void tearDown() {
+		pipeline.close();
+		Pipeline.delete(directory);
+	}
+}
@@ -0,0 +1,556 @@
+package com.sammarder.iheartdevs.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.sammarder.iheartdevs.ConfigurationManager;
+import com.sammarder.iheartdevs.Utilities;
+import com.sammarder.iheartdevs.metrics.LatencyHistogram;
+import com.sammarder.iheartdevs.metrics.PipelineMetrics;
+import com.sammarder.iheartdevs.traceprocessing.ChunkRingBuffer;
+import com.sammarder.iheartdevs.traceprocessing.FilteredErrorStream;
+import com.sammarder.iheartdevs.traceprocessing.IMessageProcessor;
+import com.sammarder.iheartdevs.traceprocessing.PluginClassIndex;
+import com.sammarder.iheartdevs.traceprocessing.TraceLineClassifier;
+
+/**
+ * Pushes System.err output through the capture pipeline (FilteredErrorStream, StackTraceProcessor and the store)
+ * outside of a server and reports how it held up. Usage:
+ * 
+ * <pre>
+ * java com.sammarder.iheartdevs.bench.ReplayTool replay &lt;file&gt; [-speed max|N] [-threads K] [options]
+ * java com.sammarder.iheartdevs.bench.ReplayTool storm [-traces N] [-unique F] [-pool P] [-frames F] [-threads K]
+ *                                                      [-out file] [options]
+ * </pre>
+ * 
+ * replay replays a capture file: -speed 1 replays it at the speed it was recorded, -speed N N times as fast and -speed
+ * max (the default) as fast as possible. Lines may start with a server log timestamp ("2014-01-01 12:34:56 [SEVERE] "
+ * or "[12:34:56 WARN]: "), which sets the time of the line and is stripped before it is printed. The file is split
+ * into K parts (between stack traces) that are printed by K threads at the same time.
+ * <p>
+ * storm prints N stack traces from K threads. A fraction F of them are unique and the rest are picked from a pool of P
+ * traces that keep repeating. With -out, the storm is written to a capture file instead, so it can be replayed later.
+ * <p>
+ * Options: -async hands lines off through a ring buffer (like AsyncCapture), -keep dir keeps the error logs in a
+ * directory instead of deleting them afterwards.
+ */
+public class ReplayTool {
+	private String mode;
+	private File file;
+	private double speed;
+	private int threads = 1;
+	private boolean async;
+	private File keep;
+	private long traces = 100000;
+	private double unique = 0.1;
+	private int pool = 20;
+	private int frames = 30;
+	private File out;
+
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private FilteredErrorStream stream;
+
+	/**
+	 * Runs the tool.
+	 * 
+	 * @param args
+	 *            The mode and options (see the class description).
+	 * @throws Exception
+	 *             If something went wrong.
+	 */
+	public static void main(String[] args) throws Exception {
+		ReplayTool tool = new ReplayTool();
+		if (!tool.parse(args)) {
+			System.err.println("Usage: ReplayTool replay <file> [-speed max|N] [-threads K] [-async] [-keep dir]");
+			System.err.println("       ReplayTool storm [-traces N] [-unique F] [-pool P] [-frames F] [-threads K]"
+					+ " [-out file] [-async] [-keep dir]");
+			System.exit(1);
+		}
+		if (tool.out != null) {
+			tool.writeStorm();
+		} else {
+			tool.run();
+		}
+	}
+
+	private boolean parse(String[] args) {
+		if (args.length == 0 || !(args[0].equals("replay") || args[0].equals("storm"))) {
+			return false;
+		}
+		mode = args[0];
+		int i = 1;
+		if (mode.equals("replay")) {
+			if (args.length < 2) {
+				return false;
+			}
+			file = new File(args[i++]);
+		}
+		try {
+			for (; i < args.length; i++) {
+				String option = args[i];
+				if (option.equals("-async")) {
+					async = true;
+					continue;
+				}
+				if (i + 1 == args.length) {
+					return false;
+				}
+				String value = args[++i];
+				if (option.equals("-speed")) {
+					speed = value.equals("max") ? 0 : Double.parseDouble(value);
+				} else if (option.equals("-threads")) {
+					threads = Math.max(1, Integer.parseInt(value));
+				} else if (option.equals("-keep")) {
+					keep = new File(value);
+				} else if (option.equals("-traces")) {
+					traces = Long.parseLong(value);
+				} else if (option.equals("-unique")) {
+					unique = Double.parseDouble(value);
+				} else if (option.equals("-pool")) {
+					pool = Math.max(1, Integer.parseInt(value));
+				} else if (option.equals("-frames")) {
+					frames = Math.max(1, Integer.parseInt(value));
+				} else if (option.equals("-out")) {
+					out = new File(value);
+				} else {
+					return false;
+				}
+			}
+		} catch (NumberFormatException e) {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Replays the capture file or the storm through the pipeline and prints the report.
+	 */
+	private void run() throws Exception {
+		File directory = keep != null ? keep : Pipeline.createTempDirectory("ihd-replay");
+		Pipeline pipeline = new Pipeline(directory, new PluginClassIndex());
+		// Lines that aren't part of a trace are printed normally on a server. Without this processor,
+		// FilteredErrorStream would report every one of them as an InputProcessingException.
+		IMessageProcessor passThrough = new IMessageProcessor() {
+			@Override
+			public boolean process(Thread source, CharSequence message) {
+				return true;
+			}
+		};
+		ChunkRingBuffer ringBuffer = null;
+		if (async) {
+			ringBuffer = new ChunkRingBuffer(ConfigurationManager.getAsyncBufferSize(),
+					ConfigurationManager.getAsyncOverflowPolicy(), ConfigurationManager.getAsyncBlockTimeout());
+			stream = new FilteredErrorStream(ringBuffer, pipeline.getProcessor(), passThrough);
+		} else {
+			stream = new FilteredErrorStream(pipeline.getProcessor(), passThrough);
+		}
+		PrintStream stdout = System.out;
+		// The pipeline prints about the traces it saves, which would end up between the results.
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+		}));
+		for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+			memoryPool.resetPeakUsage();
+		}
+
+		List<Worker> workers = createWorkers();
+		long start = System.nanoTime();
+		for (Worker worker : workers) {
+			worker.start();
+		}
+		long lines = 0;
+		long bytes = 0;
+		for (Worker worker : workers) {
+			worker.join();
+			if (worker.failure != null) {
+				stdout.println(worker.getName() + " failed: " + worker.failure);
+			}
+			lines += worker.lines;
+			bytes += worker.bytes;
+		}
+		long elapsed = System.nanoTime() - start;
+		stream.shutdown(60 * 1000);
+		pipeline.close();
+		long finished = System.nanoTime() - start;
+		System.setOut(stdout);
+
+		report(lines, bytes, elapsed, finished, pipeline.getStore().size(), ringBuffer);
+		if (keep == null) {
+			Pipeline.delete(directory);
+		} else {
+			System.out.println("The error logs were kept in " + keep);
+		}
+	}
+
+	private List<Worker> createWorkers() throws IOException {
+		List<Worker> workers = new ArrayList<Worker>();
+		if (mode.equals("replay")) {
+			CaptureFile capture = new CaptureFile(file);
+			long[] parts = capture.split(threads);
+			TimestampPrefix[] prefixes = new TimestampPrefix[threads];
+			// Every part is timed against the first line of the file, so the parts stay in step with each other.
+			long firstTime = alignParts(capture, parts, prefixes);
+			for (int i = 0; i < threads; i++) {
+				workers.add(new ReplayWorker(i, capture.read(parts[i], parts[i + 1]), firstTime, prefixes[i]));
+			}
+		} else {
+			List<List<String>> repeated = new ArrayList<List<String>>();
+			Random random = new Random(42);
+			for (int i = 0; i < pool; i++) {
+				repeated.add(SyntheticTraces.createTrace(random, frames, null));
+			}
+			for (int i = 0; i < threads; i++) {
+				long count = traces / threads + (i < traces % threads ? 1 : 0);
+				workers.add(new StormWorker(i, count, repeated));
+			}
+		}
+		return workers;
+	}
+
+	/**
+	 * Moves every split point forward to the next line that doesn't continue a stack trace, so that no trace is printed
+	 * half by one thread and half by the next, and works out which day every part starts on. This reads the whole file
+	 * once.
+	 * 
+	 * @param parts
+	 *            The result of CaptureFile.split(), which is changed in place.
+	 * @param prefixes
+	 *            Filled with the TimestampPrefix every part has to start with.
+	 * @return The time of the first line with a timestamp or -1 if no line has one.
+	 */
+	private static long alignParts(CaptureFile capture, long[] parts, TimestampPrefix[] prefixes) throws IOException {
+		TimestampPrefix prefix = new TimestampPrefix();
+		prefixes[0] = new TimestampPrefix();
+		long firstTime = -1;
+		int next = 1;
+		long position = 0;
+		// false while reading the rest of a line that was too long to read at once.
+		boolean lineStart = true;
+		CaptureFile.LineReader reader = capture.read(0, capture.getSize());
+		while (reader.next()) {
+			byte[] line = reader.getLine();
+			int length = reader.getLength();
+			long time = prefix.time;
+			long dayOffset = prefix.dayOffset;
+			int skip = prefix.parse(line, length);
+			if (firstTime < 0 && skip > 0) {
+				firstTime = prefix.time;
+			}
+			if (lineStart && next < prefixes.length && position >= parts[next] && !continuesTrace(line, skip, length)) {
+				while (next < prefixes.length && position >= parts[next]) {
+					parts[next] = position;
+					prefixes[next++] = new TimestampPrefix(time, dayOffset);
+				}
+			}
+			position += length;
+			lineStart = line[length - 1] == '\n';
+		}
+		// The last trace ran past the remaining split points, so those parts are empty.
+		while (next < prefixes.length) {
+			parts[next] = capture.getSize();
+			prefixes[next++] = new TimestampPrefix(prefix.time, prefix.dayOffset);
+		}
+		return firstTime;
+	}
+
+	/**
+	 * Determines if a line (without its timestamp) is part of a stack trace other than its first line.
+	 */
+	private static boolean continuesTrace(byte[] line, int skip, int length) {
+		int end = length;
+		while (end > skip && (line[end - 1] == '\n' || line[end - 1] == '\r')) {
+			end--;
+		}
+		// Only the ASCII structure of the line matters, so any single byte character set will do.
+		String text = new String(line, skip, end - skip, Charset.forName("ISO-8859-1"));
+		return TraceLineClassifier.isContinuation(TraceLineClassifier.classify(text));
+	}
+
+	/**
+	 * Writes the storm to a capture file instead of printing it.
+	 */
+	private void writeStorm() throws IOException {
+		Writer writer = null;
+		try {
+			writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(out), "UTF-8"));
+			List<List<String>> repeated = new ArrayList<List<String>>();
+			Random random = new Random(42);
+			for (int i = 0; i < pool; i++) {
+				repeated.add(SyntheticTraces.createTrace(random, frames, null));
+			}
+			for (long i = 0; i < traces; i++) {
+				for (String line : createStormTrace(random, repeated, 0, i)) {
+					writer.write(line);
+					writer.write('\n');
+				}
+			}
+		} finally {
+			try {
+				writer.close();
+			} catch (Exception e) {
+			}
+		}
+		System.out.println("Wrote " + traces + " stack traces to " + out);
+	}
+
+	/**
+	 * Picks the next trace of a storm: either a unique one or one of the repeated ones.
+	 */
+	private List<String> createStormTrace(Random random, List<List<String>> repeated, int thread, long number) {
+		if (random.nextDouble() >= unique) {
+			return repeated.get(random.nextInt(repeated.size()));
+		}
+		List<String> trace = SyntheticTraces.createTrace(random, frames, null);
+		// A frame that no other trace has makes the fingerprint unique.
+		String className = "Storm" + thread + "x" + number;
+		trace.add(1, "\tat com.example.storm." + className + ".run(" + className + ".java:1)");
+		return trace;
+	}
+
+	private void report(long lines, long bytes, long elapsed, long finished, int saved, ChunkRingBuffer ringBuffer) {
+		double seconds = elapsed / 1e9;
+		System.out.println(String.format("Printed %d lines (%s) from %d thread(s) in %.2f s, and everything was"
+				+ " saved after %.2f s", lines, Utilities.formatBytes(bytes), threads, seconds, finished / 1e9));
+		System.out.println(String.format("Throughput: %.0f lines/s, %.1f MB/s", lines / seconds, bytes / seconds
+				/ 1024 / 1024));
+		LatencyHistogram.Snapshot snapshot = latency.snapshot();
+		System.out.println("Time per printed line: median < " + formatNanos(snapshot.getMedian()) + ", 99% < "
+				+ formatNanos(snapshot.getP99()) + ", 99.9% < " + formatNanos(snapshot.getPercentile(99.9))
+				+ ", max < " + formatNanos(snapshot.getMax()));
+		System.out.println("Stack traces assembled: " + PipelineMetrics.TRACES_ASSEMBLED.sum() + ", error logs saved: "
+				+ saved + " (the rest were repeats or over the rate limit)");
+		if (ringBuffer != null) {
+			System.out.println("Dropped by the ring buffer: " + ringBuffer.getDroppedChunks() + " lines");
+		}
+		long peak = 0;
+		for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (memoryPool.getType() == MemoryType.HEAP) {
+				peak += memoryPool.getPeakUsage().getUsed();
+			}
+		}
+		System.out.println("Heap: " + Utilities.formatBytes(peak) + " at the peak, "
+				+ Utilities.formatBytes(ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed())
+				+ " now");
+		System.out.println("Pipeline:");
+		for (String line : PipelineMetrics.describe()) {
+			System.out.println("    " + line);
+		}
+	}
+
+	private static String formatNanos(long nanos) {
+		if (nanos < 1000) {
+			return nanos + " ns";
+		} else if (nanos < 1000 * 1000) {
+			return String.format("%.1f us", nanos / 1000.0);
+		} else {
+			return String.format("%.1f ms", nanos / 1000.0 / 1000.0);
+		}
+	}
+
+	/**
+	 * A thread that prints lines to the stream and times every one of them.
+	 */
+	private abstract class Worker extends Thread {
+		long lines;
+		long bytes;
+		Exception failure;
+
+		Worker(String name) {
+			super(name);
+		}
+
+		@Override
+		public void run() {
+			try {
+				print();
+			} catch (Exception e) {
+				failure = e;
+			}
+		}
+
+		abstract void print() throws Exception;
+	}
+
+	/**
+	 * Prints a part of the capture file.
+	 */
+	private class ReplayWorker extends Worker {
+		private final CaptureFile.LineReader reader;
+		private final long firstTime;
+		private final TimestampPrefix prefix;
+
+		ReplayWorker(int number, CaptureFile.LineReader reader, long firstTime, TimestampPrefix prefix) {
+			super("Replay " + number);
+			this.reader = reader;
+			this.firstTime = firstTime;
+			this.prefix = prefix;
+		}
+
+		@Override
+		void print() throws Exception {
+			long startNanos = System.nanoTime();
+			while (reader.next()) {
+				byte[] line = reader.getLine();
+				int length = reader.getLength();
+				int skip = prefix.parse(line, length);
+				if (skip > 0 && speed > 0 && firstTime >= 0) {
+					// Wait until the line is due.
+					long due = startNanos + (long) ((prefix.time - firstTime) * 1000 * 1000 / speed);
+					long wait = due - System.nanoTime();
+					if (wait > 0) {
+						Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+					}
+				}
+				long start = System.nanoTime();
+				stream.write(line, skip, length - skip);
+				latency.record(System.nanoTime() - start);
+				lines++;
+				bytes += length - skip;
+			}
+		}
+	}
+
+	/**
+	 * Prints a part of the storm.
+	 */
+	private class StormWorker extends Worker {
+		private final int number;
+		private final long count;
+		private final List<List<String>> repeated;
+
+		StormWorker(int number, long count, List<List<String>> repeated) {
+			super("Storm " + number);
+			this.number = number;
+			this.count = count;
+			this.repeated = repeated;
+		}
+
+		@Override
+		void print() {
+			Random random = new Random(number);
+			for (long i = 0; i < count; i++) {
+				for (String line : createStormTrace(random, repeated, number, i)) {
+					long start = System.nanoTime();
+					stream.println(line);
+					latency.record(System.nanoTime() - start);
+					lines++;
+					bytes += line.length() + 1;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Recognizes the timestamp a server log puts in front of every line: "2014-01-01 12:34:56 [SEVERE] ",
+	 * "[12:34:56 WARN]: " or "[12:34:56] [Server thread/WARN]: ". Only the time of day is used. A time that is much
+	 * earlier than the one before is taken to be on the next day.
+	 */
+	private static class TimestampPrefix {
+		private static final long DAY = 24 * 60 * 60 * 1000;
+
+		// The time (in milliseconds) of the last line that had a timestamp.
+		long time = -1;
+		private long dayOffset;
+
+		TimestampPrefix() {
+		}
+
+		/**
+		 * Creates a TimestampPrefix that continues where another one was, for lines in the middle of a file.
+		 * 
+		 * @param time
+		 *            The time of the last line before that had a timestamp or -1 if there wasn't one.
+		 * @param dayOffset
+		 *            How many days (in milliseconds) have passed since the first line of the file.
+		 */
+		TimestampPrefix(long time, long dayOffset) {
+			this.time = time;
+			this.dayOffset = dayOffset;
+		}
+
+		/**
+		 * Parses the timestamp of a line.
+		 * 
+		 * @return The length of the timestamp (and level) or 0 if the line doesn't start with one.
+		 */
+		int parse(byte[] line, int length) {
+			int i = 0;
+			if (length > 11 && isDigits(line, length, 0, 4) && line[4] == '-' && isDigits(line, length, 5, 2)
+					&& line[7] == '-' && isDigits(line, length, 8, 2) && line[10] == ' ') {
+				i = 11;
+			} else if (length > 0 && line[0] == '[') {
+				i = 1;
+			}
+			if (i + 8 > length || !isDigits(line, length, i, 2) || line[i + 2] != ':'
+					|| !isDigits(line, length, i + 3, 2) || line[i + 5] != ':' || !isDigits(line, length, i + 6, 2)) {
+				return 0;
+			}
+			long lineTime = ((number(line, i, 2) * 60 + number(line, i + 3, 2)) * 60 + number(line, i + 6, 2)) * 1000;
+			i += 8;
+			// The level: "[SEVERE] ", " WARN]: " or "] [Server thread/WARN]: ".
+			for (int brackets = 0; brackets < 2; brackets++) {
+				int close = i;
+				while (close < length && close < i + 48 && line[close] != ']') {
+					close++;
+				}
+				if (close == length || line[close] != ']') {
+					break;
+				}
+				boolean closedRightAway = close == i;
+				i = close + 1;
+				if (i < length && line[i] == ':') {
+					i++;
+				}
+				if (i < length && line[i] == ' ') {
+					i++;
+				}
+				if (!closedRightAway || i == length || line[i] != '[') {
+					break;
+				}
+			}
+
+			lineTime += dayOffset;
+			if (time >= 0 && lineTime < time - DAY / 2) {
+				dayOffset += DAY;
+				lineTime += DAY;
+			}
+			time = lineTime;
+			return i;
+		}
+
+		private static boolean isDigits(byte[] line, int length, int start, int count) {
+			if (start + count > length) {
+				return false;
+			}
+			for (int i = start; i < start + count; i++) {
+				if (line[i] < '0' || line[i] > '9') {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private static long number(byte[] line, int start, int count) {
+			long value = 0;
+			for (int i = start; i < start + count; i++) {
+				value = value * 10 + line[i] - '0';
+			}
+			return value;
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package com.sammarder.iheartdevs.bench;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.sammarder.iheartdevs.ConfigurationManager;
+import com.sammarder.iheartdevs.storage.TraceStore;
+
+/**
+ * Measures how fast the TraceStore writes or reads error logs. Writing is measured without the writer thread, so an
+ * operation includes compressing the log and writing it to its segment (but not forcing it to the disk). Reading picks
+ * logs at random out of a store that already has logs in it. One operation is one log of about 3 kilobytes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class StoreBenchmark {
+	// How many logs the store has before reading starts.
+	private static final int READ_LOGS = 20000;
+
+	/**
+	 * A store in a directory of its own and the logs that are written to it. For read(), READ_LOGS logs are written to
+	 * it first.
+	 */
+	@State(Scope.Thread)
+	public static class Store {
+		File directory;
+		TraceStore store;
+		String[] logs;
+		Random random;
+		int next;
+
+		@Setup
+		public void setUp(BenchmarkParams params) throws Exception {
+			HeadlessServer.install();
+			directory = Pipeline.createTempDirectory("ihd-store");
+			store = new TraceStore(directory, ConfigurationManager.getStoreSegmentSize() * 1024 * 1024,
+					ConfigurationManager.shouldCompressTraces());
+			random = new Random(42);
+			logs = new String[64];
+			for (int i = 0; i < logs.length; i++) {
+				StringBuilder log = new StringBuilder("Server Uptime: 1 hour\nStacktrace:\n");
+				List<String> trace = SyntheticTraces.createTrace(random, 40, new String[] { "com.example.plugin" });
+				for (String line : trace) {
+					log.append(line).append('\n');
+				}
+				logs[i] = log.toString();
+			}
+			if (params.getBenchmark().endsWith(".read")) {
+				for (; next < READ_LOGS; next++) {
+					store.append(logs[next % logs.length], next);
+				}
+			}
+		}
+
+		@TearDown
+		public void tearDown() {
+			store.close(5000);
+			Pipeline.delete(directory);
+		}
+	}
+
+	@Benchmark
+	public void write(Store store, Blackhole blackhole) throws Exception {
+		blackhole.consume(store.store.append(store.logs[store.next % store.logs.length], store.next++));
+	}
+
+	@Benchmark
+	public void read(Store store, Blackhole blackhole) throws Exception {
+		blackhole.consume(store.store.read(store.random.nextInt(READ_LOGS)).getContents());
+	}
+}
@@ -0,0 +1,103 @@
+package com.sammarder.iheartdevs.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Makes up the kind of output a server prints to System.err: log lines and stack traces whose frames go through the
+ * JDK, Bukkit and Minecraft before they reach (sometimes) a plugin. The same seed always makes up the same output.
+ * This class only contains static methods and therefore cannot be instantiated.
+ */
+public class SyntheticTraces {
+	private static final String[] EXCEPTIONS = { "java.lang.NullPointerException",
+			"java.lang.IllegalArgumentException", "java.lang.IllegalStateException",
+			"java.lang.ArrayIndexOutOfBoundsException", "java.util.ConcurrentModificationException",
+			"org.bukkit.event.EventException" };
+	private static final String[] LIBRARY_FRAMES = { "java.util.ArrayList.get(ArrayList.java:%d)",
+			"java.util.HashMap$HashIterator.nextNode(HashMap.java:%d)",
+			"org.bukkit.plugin.java.JavaPluginLoader$1.execute(JavaPluginLoader.java:%d)",
+			"org.bukkit.plugin.SimplePluginManager.callEvent(SimplePluginManager.java:%d)",
+			"net.minecraft.server.PlayerConnection.a(PlayerConnection.java:%d)",
+			"net.minecraft.server.MinecraftServer.run(MinecraftServer.java:%d)",
+			"sun.reflect.NativeMethodAccessorImpl.invoke0(Native Method)" };
+	private static final String[] LOG_LINES = { "[Server thread/INFO]: Player%d joined the game",
+			"[Server thread/WARN]: Can't keep up! Did the system time change, or is the server overloaded? Running %dms"
+					+ " behind, skipping 40 tick(s)", "[Server thread/INFO]: Saving chunks for level 'world'/%d",
+			"[Craft Scheduler Thread - %d/INFO]: [Essentials] Backup started", "Loaded %d recipes" };
+
+	// Instantiation is forbidden
+	private SyntheticTraces() {
+	}
+
+	/**
+	 * Makes up a stack trace. Every third frame belongs to a plugin package if pluginPackages is given.
+	 * 
+	 * @param random
+	 *            Picks the exception, the message and the frames.
+	 * @param frames
+	 *            The number of frames.
+	 * @param pluginPackages
+	 *            The packages of the plugins that frames may belong to or null for none.
+	 * @return The lines of the trace, starting with the exception.
+	 */
+	public static List<String> createTrace(Random random, int frames, String[] pluginPackages) {
+		List<String> lines = new ArrayList<String>(frames + 2);
+		lines.add(EXCEPTIONS[random.nextInt(EXCEPTIONS.length)] + ": Could not pass event " + random.nextInt(100));
+		for (int i = 0; i < frames; i++) {
+			if (pluginPackages != null && i % 3 == 1) {
+				String pluginPackage = pluginPackages[random.nextInt(pluginPackages.length)];
+				int classNumber = random.nextInt(20);
+				lines.add("\tat " + pluginPackage + ".Class" + classNumber + ".method" + random.nextInt(10) + "(Class"
+						+ classNumber + ".java:" + random.nextInt(500) + ")");
+			} else {
+				lines.add("\tat " + String.format(LIBRARY_FRAMES[random.nextInt(LIBRARY_FRAMES.length)],
+						random.nextInt(2000)));
+			}
+			// Deep traces usually have a cause.
+			if (i == frames / 2 && frames >= 20) {
+				lines.add("Caused by: " + EXCEPTIONS[random.nextInt(EXCEPTIONS.length)] + ": " + random.nextInt());
+			}
+		}
+		return lines;
+	}
+
+	/**
+	 * Makes up a line that isn't part of a stack trace.
+	 * 
+	 * @param random
+	 *            Picks the line.
+	 * @return The line.
+	 */
+	public static String createLogLine(Random random) {
+		return String.format(LOG_LINES[random.nextInt(LOG_LINES.length)], random.nextInt(1000));
+	}
+
+	/**
+	 * Makes up output that mixes log lines and stack traces.
+	 * 
+	 * @param random
+	 *            Picks the lines.
+	 * @param count
+	 *            About how many lines to make up.
+	 * @param traceEvery
+	 *            A stack trace is started after about this many lines or 0 for no stack traces.
+	 * @param frames
+	 *            The number of frames of every stack trace.
+	 * @return The lines.
+	 */
+	public static String[] createOutput(Random random, int count, int traceEvery, int frames) {
+		List<String> lines = new ArrayList<String>(count);
+		int sinceTrace = 0;
+		while (lines.size() < count) {
+			if (traceEvery > 0 && sinceTrace >= traceEvery) {
+				lines.addAll(createTrace(random, frames, null));
+				sinceTrace = 0;
+			} else {
+				lines.add(createLogLine(random));
+				sinceTrace++;
+			}
+		}
+		return lines.toArray(new String[lines.size()]);
+	}
+}
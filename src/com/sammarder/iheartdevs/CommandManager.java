@@ -1,19 +1,23 @@
 package com.sammarder.iheartdevs;
 
 import java.awt.Color;
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabCompleter;
 
-import com.sammarder.iheartdevs.traceprocessing.GistLogPublisher;
+import com.sammarder.iheartdevs.metrics.PipelineMetrics;
+import com.sammarder.iheartdevs.storage.StoredTrace;
+import com.sammarder.iheartdevs.traceprocessing.CompletionIndex;
+import com.sammarder.iheartdevs.traceprocessing.FingerprintIndex;
+import com.sammarder.iheartdevs.traceprocessing.PublishQueue;
+import com.sammarder.iheartdevs.traceprocessing.SearchIndex;
 
 //TODO: Finish implementing commands.
 
@@ -21,19 +25,34 @@ import com.sammarder.iheartdevs.traceprocessing.GistLogPublisher;
  * CommandExecutor for IHeartDevs. In other words, it deals with commands. Note that argument detection is a bit fuzzy.
  * Most people are used to inputting commands in a certain way. It's probably a bit different for everyone. Although
  * commands that don't perfectly fit the help file are allowed, I feel that it will improve the user's experience with
- * plugin (even though invalid commands sometimes work).
+ * plugin (even though invalid commands sometimes work). It also tab completes commands, error log IDs and the names of
+ * plugins and exceptions.
  */
-public class CommandManager implements CommandExecutor {
+public class CommandManager implements CommandExecutor, TabCompleter {
 	// Note: A bunch of these methods are not static when they could be. However, they are private and should never be
 	// accessed from a static context so they are all non-static.
 
 	// For maximum compatibility, I'm using spaces.
 	private static final String TAB = "    ";
+	// Every command that can follow /ihd.
+	private static final String[] COMMANDS = { "help", "list", "view", "search", "publish", "stats" };
+	// The options of /ihd list (see TraceQuery).
+	private static final String[] LIST_OPTIONS = { "latest", "-plugin", "-exception", "-time", "-descending" };
+	// The most suggestions tab completion gives at once.
+	private static final int MAX_COMPLETIONS = 20;
 
 	// A FolderManager object that points to the folder where all of the error logs are stored.
 	private FolderManager errorFolderManager;
-	// A GistLogPublisher for publishing stack traces online.
-	private GistLogPublisher publisher;
+	// Knows how often every error log has happened.
+	private FingerprintIndex fingerprintIndex;
+	// Finds error logs by what is in them.
+	private SearchIndex searchIndex;
+	// The most recently viewed error logs.
+	private TraceViewCache viewCache;
+	// Publishes stack traces online in the background.
+	private PublishQueue publishQueue;
+	// Runs commands in the background.
+	private CommandRunner commandRunner;
 	// A SimpleDateFormat for formatting System.currentTimeMillis() in a human-readable format.
 	private SimpleDateFormat dateFormat;
 
@@ -42,15 +61,31 @@ public class CommandManager implements CommandExecutor {
 	 * 
 	 * @param errorFolderManager
 	 *            A FolderManager object that points to the error log folder.
+	 * @param fingerprintIndex
+	 *            The FingerprintIndex that counts how often every error log has happened.
+	 * @param searchIndex
+	 *            The SearchIndex that finds error logs.
+	 * @param viewCache
+	 *            The TraceViewCache that error logs are viewed through.
+	 * @param publishQueue
+	 *            The PublishQueue that publishes error logs.
+	 * @param commandRunner
+	 *            The CommandRunner that runs commands in the background.
 	 */
-	public CommandManager(FolderManager errorFolderManager, GistLogPublisher publisher, SimpleDateFormat dateFormat) {
+	public CommandManager(FolderManager errorFolderManager, FingerprintIndex fingerprintIndex,
+			SearchIndex searchIndex, TraceViewCache viewCache, PublishQueue publishQueue, CommandRunner commandRunner,
+			SimpleDateFormat dateFormat) {
 		this.errorFolderManager = errorFolderManager;
-		this.publisher = publisher;
+		this.fingerprintIndex = fingerprintIndex;
+		this.searchIndex = searchIndex;
+		this.viewCache = viewCache;
+		this.publishQueue = publishQueue;
+		this.commandRunner = commandRunner;
 		this.dateFormat = dateFormat;
 	}
 
 	@Override
-	public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+	public boolean onCommand(final CommandSender sender, Command command, String label, final String[] args) {
 		// I don't believe that the current command API would allow anything else, but I might as well check for it.
 		if (!command.getName().equalsIgnoreCase("ihd")) {
 			// Do nothing, but don't show command help either.
@@ -64,44 +99,123 @@ public class CommandManager implements CommandExecutor {
 			return false;
 		}
 
-		String primaryArg = args[0].toLowerCase();
+		// Permissions are checked here, on the main thread. Everything that reads error logs runs in the background.
+		final String primaryArg = args[0].toLowerCase();
 		if (primaryArg.equals("help")) {
-			return processHelpCommand(sender, args);
-		} else if (primaryArg.equals("list")) {
-			if (sender.hasPermission("ihd.list")) {
-				return processListCommand(sender, args);
-			} else {
-				displayNoPermissionsMessage(sender);
-			}
-		} else if (primaryArg.equals("view")) {
-			if (sender.hasPermission("ihd.view")) {
-				return processViewCommand(sender, args);
+			CommandReply reply = new CommandReply();
+			boolean handled = processHelpCommand(reply, args);
+			reply.sendTo(sender);
+			return handled;
+		} else if (primaryArg.equals("stats")) {
+			// Only reads counters, so there is no need to go to the background.
+			if (sender.hasPermission("ihd.stats")) {
+				CommandReply reply = new CommandReply();
+				processStatsCommand(reply);
+				reply.sendTo(sender);
 			} else {
 				displayNoPermissionsMessage(sender);
 			}
-		} else if (primaryArg.equals("publish")) {
-			if (sender.hasPermission("ihd.publish")) {
-				return processPublishCommand(sender, args);
+			return true;
+		} else if (primaryArg.equals("list") || primaryArg.equals("view") || primaryArg.equals("search")
+				|| primaryArg.equals("publish")) {
+			if (sender.hasPermission("ihd." + primaryArg)) {
+				commandRunner.run(sender, new ICommandTask() {
+					@Override
+					public void execute(CommandReply reply) {
+						if (primaryArg.equals("list")) {
+							processListCommand(reply, args);
+						} else if (primaryArg.equals("view")) {
+							processViewCommand(reply, args);
+						} else if (primaryArg.equals("search")) {
+							processSearchCommand(reply, args);
+						} else {
+							processPublishCommand(sender, reply, args);
+						}
+					}
+				});
 			} else {
 				displayNoPermissionsMessage(sender);
 			}
+			return true;
 		}
 
 		// Improper initial argument was supplied so display the main command help.
 		return false;
 	}
 
+	@Override
+	public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+		// Bukkit calls this on every keystroke, so nothing here may touch the disk.
+		List<String> completions = new ArrayList<String>();
+		if (!command.getName().equalsIgnoreCase("ihd") || args.length == 0) {
+			return completions;
+		}
+		String typed = args[args.length - 1];
+		String primaryArg = args[0].toLowerCase();
+		if (args.length == 1 || (args.length == 2 && primaryArg.equals("help"))) {
+			for (String name : COMMANDS) {
+				if (startsWithIgnoreCase(name, typed) && (name.equals("help") || sender.hasPermission("ihd." + name))) {
+					completions.add(name);
+				}
+			}
+			return completions;
+		}
+		if (primaryArg.equals("help") || !sender.hasPermission("ihd." + primaryArg)) {
+			return completions;
+		}
+
+		CompletionIndex index = searchIndex.getCompletions();
+		String previousArg = args[args.length - 2].toLowerCase();
+		if (primaryArg.equals("view") && args.length == 2) {
+			if (startsWithIgnoreCase("latest", typed)) {
+				completions.add("latest");
+			}
+			completions.addAll(index.completeId(typed, MAX_COMPLETIONS));
+		} else if (primaryArg.equals("list")) {
+			if (previousArg.equals("-plugin") || previousArg.equals("-p")) {
+				completions.addAll(index.completePlugin(typed, MAX_COMPLETIONS));
+			} else if (previousArg.equals("-exception") || previousArg.equals("-e")) {
+				completions.addAll(index.completeException(typed, MAX_COMPLETIONS));
+			} else if (!previousArg.equals("-time") && !previousArg.equals("-t")) {
+				for (String option : LIST_OPTIONS) {
+					if (startsWithIgnoreCase(option, typed)) {
+						completions.add(option);
+					}
+				}
+			}
+		} else if (primaryArg.equals("publish")
+				&& (args.length == 2 || (args.length == 3 && (previousArg.equals("-force")
+						|| previousArg.equals("-f"))))) {
+			// Only the start of a selector is completed (see TraceSelector).
+			String pluginPrefix = "plugin:";
+			if (startsWithIgnoreCase(typed, pluginPrefix)) {
+				for (String plugin : index.completePlugin(typed.substring(pluginPrefix.length()), MAX_COMPLETIONS)) {
+					completions.add(pluginPrefix + plugin);
+				}
+			} else {
+				if (args.length == 2 && startsWithIgnoreCase("-force", typed)) {
+					completions.add("-force");
+				}
+				if (startsWithIgnoreCase(pluginPrefix, typed)) {
+					completions.add(pluginPrefix);
+				}
+				completions.addAll(index.completeId(typed, MAX_COMPLETIONS));
+			}
+		}
+		return completions;
+	}
+
 	/**
 	 * Processes the "/ihd help ..." command. Returns false if the main command help should be called.
 	 * 
 	 * @param args
 	 *            The arguments from the original command. The first argument should be "help" (case doesn't matter).
-	 * @param sender
-	 *            The player or console who sent the command. The sender is assumed to have permission to use this
-	 *            command.
+	 * @param reply
+	 *            Collects the messages for the player or console who sent the command. The sender is assumed to have
+	 *            permission to use this command.
 	 * @return false if the main command help should be displayed, true otherwise.
 	 */
-	private boolean processHelpCommand(CommandSender sender, String... args) {
+	private boolean processHelpCommand(CommandReply reply, String... args) {
 		// Must have at least two arguments.
 		if (args.length < 2) {
 			// Only one argument so display the main command help.
@@ -110,13 +224,19 @@ public class CommandManager implements CommandExecutor {
 
 		String secondaryArg = args[1].toLowerCase();
 		if (secondaryArg.equals("view")) {
-			displayViewCommandHelp(sender);
+			displayViewCommandHelp(reply);
 			return true;
 		} else if (secondaryArg.equals("list")) {
-			displayListCommandHelp(sender);
+			displayListCommandHelp(reply);
+			return true;
+		} else if (secondaryArg.equals("search")) {
+			displaySearchCommandHelp(reply);
 			return true;
 		} else if (secondaryArg.equals("publish")) {
-			displayPublishCommandHelp(sender);
+			displayPublishCommandHelp(reply);
+			return true;
+		} else if (secondaryArg.equals("stats")) {
+			displayStatsCommandHelp(reply);
 			return true;
 		}
 		// Second arg did not match a command, so display the main command help.
@@ -128,118 +248,234 @@ public class CommandManager implements CommandExecutor {
 	 * 
 	 * @param args
 	 *            The arguments from the original command. The first argument must be "list" (but case doesn't matter).
-	 * @param sender
-	 *            The player or console who sent the command. The sender is assumed to have permission to use this
-	 *            command.
+	 * @param reply
+	 *            Collects the messages for the player or console who sent the command. The sender is assumed to have
+	 *            permission to use this command.
 	 * @return true, unless something goes awry. Then generatePseudoHelpCommand("list", sender) will be returned.
 	 */
-	private boolean processListCommand(CommandSender sender, String... args) {
-		// Accept "list" and "list ##"
-		if (args.length > 2) {
-			displayListCommandHelp(sender);
+	private boolean processListCommand(CommandReply reply, String... args) {
+		// Accept "list", "list ##" and any mix of "latest" and the options of TraceQuery.
+		TraceQuery query;
+		try {
+			query = TraceQuery.parse(args, 1, System.currentTimeMillis());
+		} catch (InputProcessingException e) {
+			reply.sendMessage(e.getMessage());
+			displayListCommandHelp(reply);
+			return true;
+		}
+		int i = query.getPage();
+
+		if (!query.isFiltered() && !query.isDescending() && !query.isLatest()) {
+			// Just a slice of the store's index, so there's no need to collect every ID first.
+			StoredTrace[] files = errorFolderManager.getFilesFromPage(i);
+			if (files == null) {
+				reply.sendMessage("There aren't " + String.valueOf(i) + " pages of error logs. Congratulations!");
+			} else {
+				displayFiles(reply, files);
+			}
+			return true;
+		}
+
+		int[] ids;
+		if (query.isFiltered()) {
+			ids = query.select(searchIndex, errorFolderManager);
+		} else if (query.isLatest()) {
+			int latest = errorFolderManager.getLatestId();
+			ids = latest < 0 ? new int[0] : new int[] { latest };
+		} else {
+			ids = errorFolderManager.getIdsBetween(Long.MIN_VALUE, Long.MAX_VALUE);
+		}
+		if (ids.length == 0) {
+			reply.sendMessage("No error logs match. Congratulations!");
+			return true;
+		}
+		if (query.isLatest()) {
+			ids = new int[] { ids[ids.length - 1] };
+		} else if (query.isDescending()) {
+			// getFilesFromPage() starts at the end.
+			for (int low = 0, high = ids.length - 1; low < high; low++, high--) {
+				int temp = ids[low];
+				ids[low] = ids[high];
+				ids[high] = temp;
+			}
+		}
+		StoredTrace[] files = errorFolderManager.getFilesFromPage(ids, i);
+		int pages = errorFolderManager.getPageCount(ids.length);
+		if (files == null) {
+			reply.sendMessage("There are only " + pages + " pages of error logs that match.");
+		} else {
+			if (!query.isLatest()) {
+				reply.sendMessage(ids.length + " error logs match (page " + i + " of " + pages + "):");
+			}
+			displayFiles(reply, files);
+		}
+
+		// Turns out we always return true.
+		return true;
+	}
+
+	/**
+	 * Processes the "/ihd search ..." command.
+	 * 
+	 * @param args
+	 *            The arguments from the original command. The first argument must be "search" (but case doesn't
+	 *            matter).
+	 * @param reply
+	 *            Collects the messages for the player or console who sent the command. The sender is assumed to have
+	 *            permission to use this command.
+	 * @return true, unless something goes awry. Then generatePseudoHelpCommand("search", sender) will be returned.
+	 */
+	private boolean processSearchCommand(CommandReply reply, String... args) {
+		// Accept "search <terms>" and "search <terms> ##"
+		if (args.length < 2) {
+			displaySearchCommandHelp(reply);
 			return true;
 		}
 
-		int i = 1;
-		// Use the given page number, if provided.
-		if (args.length == 2) {
+		int last = args.length;
+		int page = 1;
+		// Numbers aren't indexed, so a number at the end can only be a page.
+		if (args.length > 2) {
 			try {
-				i = Integer.parseInt(args[1]);
-				if (i < 1) {
+				page = Integer.parseInt(args[args.length - 1]);
+				last--;
+				if (page < 1) {
 					// Not terribly efficient, but prevents code duplication.
 					throw new Exception();
 				}
+			} catch (NumberFormatException e) {
+				page = 1;
 			} catch (Exception e) {
-				displayListCommandHelp(sender);
+				displaySearchCommandHelp(reply);
 				return true;
 			}
 		}
+		StringBuilder query = new StringBuilder(args[1]);
+		for (int i = 2; i < last; i++) {
+			query.append(' ').append(args[i]);
+		}
 
-		File[] files = errorFolderManager.getFilesFromPage(i);
+		int[] ids = searchIndex.search(query.toString());
+		if (ids.length == 0) {
+			reply.sendMessage("No error logs match " + query + ".");
+			return true;
+		}
+		StoredTrace[] files = errorFolderManager.getFilesFromPage(ids, page);
+		int pages = errorFolderManager.getPageCount(ids.length);
 		if (files == null) {
-			sender.sendMessage("There aren't " + String.valueOf(i) + " pages of error logs. Congratulations!");
+			reply.sendMessage("There are only " + pages + " pages of error logs that match " + query + ".");
 		} else {
-			sender.sendMessage("ID\t\t\tDate");
-			for (File file : files) {
-				sender.sendMessage(file.getName() + "\t\t" + dateFormat.format(new Date(file.lastModified())));
-			}
+			reply.sendMessage(ids.length + " error logs match " + query + " (page " + page + " of " + pages + "):");
+			displayFiles(reply, files);
 		}
-
-		// Turns out we always return true.
 		return true;
 	}
 
+	/**
+	 * Processes the "/ihd stats" command.
+	 * 
+	 * @param reply
+	 *            Collects the messages for the player or console who sent the command. The sender is assumed to have
+	 *            permission to use this command.
+	 */
+	private void processStatsCommand(CommandReply reply) {
+		reply.sendMessage("Stack trace pipeline since the server started:");
+		for (String line : PipelineMetrics.describe()) {
+			reply.sendMessage(TAB + line);
+		}
+	}
+
+	/**
+	 * Displays a table of error logs: their IDs, when they last happened and how often they happened.
+	 * 
+	 * @param reply
+	 *            The CommandReply to send the message(s) to.
+	 * @param files
+	 *            The error logs to display.
+	 */
+	private void displayFiles(CommandReply reply, StoredTrace[] files) {
+		reply.sendMessage("ID\t\t\tDate\t\t\tCount");
+		for (StoredTrace file : files) {
+			FingerprintIndex.Occurrence occurrence = fingerprintIndex.getByTraceId(file.getId());
+			long lastSeen = occurrence == null ? file.getTimestamp() : occurrence.getLastSeen();
+			reply.sendMessage(file.getId() + "\t\t\t" + formatDate(lastSeen) + "\t\t"
+					+ (occurrence == null ? 1 : occurrence.getCount()));
+		}
+	}
+
 	/**
 	 * Processes the "/ihd view ..." command.
 	 * 
 	 * @param args
 	 *            The arguments from the original command. The first argument must be "view" (but case doesn't matter).
-	 * @param sender
-	 *            The player or console who sent the command. The sender is assumed to have permission to use this
-	 *            command.
+	 * @param reply
+	 *            Collects the messages for the player or console who sent the command. The sender is assumed to have
+	 *            permission to use this command.
 	 * @return true, unless something goes awry. then generatePseudoHelpCommand("view", sender) will be returned.
 	 */
-	private boolean processViewCommand(CommandSender sender, String... args) {
-		// Accept view <id>
-		if (args.length != 2) {
-			displayViewCommandHelp(sender);
+	private boolean processViewCommand(CommandReply reply, String... args) {
+		// Accept view <id> and view <id> <page>, where the ID may be "latest"
+		if (args.length != 2 && args.length != 3) {
+			displayViewCommandHelp(reply);
 			return true;
 		}
 
 		int id = 0;
+		int page = 1;
 
 		try {
-			id = Integer.parseInt(args[1]);
-			if (id < 1) {
+			if (args[1].equalsIgnoreCase("latest")) {
+				id = errorFolderManager.getLatestId();
+				if (id < 0) {
+					reply.sendMessage("There aren't any error logs. Congratulations!");
+					return true;
+				}
+			} else {
+				id = Integer.parseInt(args[1]);
+			}
+			if (args.length == 3) {
+				page = Integer.parseInt(args[2]);
+			}
+			if (id < 0 || page < 1) {
 				// Not terribly efficient, but prevents code duplication.
 				throw new Exception();
 			}
 		} catch (Exception e) {
-			displayViewCommandHelp(sender);
+			displayViewCommandHelp(reply);
 			return true;
 		}
 
-		File file = errorFolderManager.getFile(String.valueOf(id) + ".txt");
+		TraceViewCache.ParsedTrace file = viewCache.get(id);
 		if (file == null) {
-			sender.sendMessage("Could not find an error log with an ID of " + String.valueOf(id));
+			reply.sendMessage("Could not find an error log with an ID of " + String.valueOf(id));
 			return true;
 		}
-		BufferedReader reader = null;
-
-		try {
-			reader = new BufferedReader(new FileReader(file));
-			String temp;
-			boolean foundException = false;
-			while ((temp = reader.readLine()) != null) {
-				if (!foundException) {
-					if (temp.equals("Stacktrace:")) {
-						foundException = true;
-					}
-					continue;
-				} else {
-					sender.sendMessage(temp);
-				}
-			}
-			if (!foundException) {
-				sender.sendMessage("Malformed file. Please type "
-						+ Utilities.formatCommand("/ihd publish " + String.valueOf(id))
-						+ " and send the log to the creator of IHeartDevs.");
-			}
-			return true;
-		} catch (FileNotFoundException e) {
-			sender.sendMessage("Could not find an error log with an ID of " + String.valueOf(id));
+		if (file.isMalformed()) {
+			reply.sendMessage("Malformed file. Please type "
+					+ Utilities.formatCommand("/ihd publish " + String.valueOf(id))
+					+ " and send the log to the creator of IHeartDevs.");
 			return true;
-		} catch (IOException e) {
-			sender.sendMessage("Something bad happened when trying to read error log " + String.valueOf(id));
+		}
+		int pages = file.getPageCount();
+		if (page > pages) {
+			reply.sendMessage("Error log " + id + " only has " + pages + " pages.");
 			return true;
-		} finally {
-			try {
-				reader.close();
-			} catch (Exception e) {
-
-			}
 		}
-
+		FingerprintIndex.Occurrence occurrence = fingerprintIndex.getByTraceId(id);
+		if (page == 1 && occurrence != null && occurrence.getCount() > 1) {
+			reply.sendMessage("Happened " + occurrence.getCount() + " times between "
+					+ formatDate(occurrence.getFirstSeen()) + " and "
+					+ formatDate(occurrence.getLastSeen()));
+		}
+		if (pages > 1) {
+			reply.sendMessage("Error log " + id + " (page " + page + " of " + pages + "):");
+		}
+		reply.sendMessage(file.getPage(page));
+		if (page < pages) {
+			reply.sendMessage("Type " + Utilities.formatCommand("/ihd view " + id + " " + (page + 1))
+					+ " for the next page.");
+		}
+		return true;
 	}
 
 	/**
@@ -251,33 +487,55 @@ public class CommandManager implements CommandExecutor {
 	 * @param sender
 	 *            The player or console who sent the command. The sender is assumed to have permission to use this
 	 *            command.
+	 * @param reply
+	 *            Collects the messages for the sender.
 	 * @return true, unless something goes awry. Then generatePseudoHelpCommand("publish", sender) will be returned.
 	 */
-	private boolean processPublishCommand(CommandSender sender, String... args) {
-		if (args.length != 2) {
-			displayPublishCommandHelp(sender);
+	private boolean processPublishCommand(CommandSender sender, CommandReply reply, String... args) {
+		boolean force = args.length > 1 && (args[1].equalsIgnoreCase("-force") || args[1].equalsIgnoreCase("-f"));
+		int first = force ? 2 : 1;
+		if (args.length <= first) {
+			displayPublishCommandHelp(reply);
 			return true;
 		}
 
-		int id = 0;
+		// Plugin names may contain spaces.
+		StringBuilder selector = new StringBuilder(args[first]);
+		for (int i = first + 1; i < args.length; i++) {
+			selector.append(' ').append(args[i]);
+		}
+		int[] ids;
 		try {
-			id = Integer.parseInt(args[1]);
-		} catch (Exception e) {
-			displayPublishCommandHelp(sender);
+			ids = TraceSelector.select(selector.toString(), fingerprintIndex);
+		} catch (InputProcessingException e) {
+			reply.sendMessage(e.getMessage());
 			return true;
 		}
 
-		File file = errorFolderManager.getFile(String.valueOf(id) + ".txt");
-		if (file == null) {
-			sender.sendMessage("Could not find file: " + String.valueOf(id) + ".txt");
+		// Skip the logs that don't exist, so a range can have gaps.
+		int found = 0;
+		for (int id : ids) {
+			if (errorFolderManager.exists(id)) {
+				ids[found++] = id;
+			}
+		}
+		if (found == 0) {
+			if (ids.length == 1) {
+				reply.sendMessage("Could not find an error log with an ID of " + String.valueOf(ids[0]));
+			} else {
+				reply.sendMessage("Could not find any of those error logs.");
+			}
 			return true;
 		}
-		String result = publisher.publish("Stacktrace", "Bug Report provided by IHeartDevs", file);
-		if (result != null) {
-			sender.sendMessage("Log " + String.valueOf(id) + " has been successfully published to " + result);
-			sender.sendMessage("Please pass that link on to the developer of the plugin.");
+		ids = Arrays.copyOf(ids, found);
+
+		// Publishing can take a while, so the sender is told how it went once it is done.
+		publishQueue.submit(ids, sender, force);
+		if (ids.length == 1) {
+			reply.sendMessage("Log " + String.valueOf(ids[0]) + " is being published. You will get a link when it is"
+					+ " done.");
 		} else {
-			sender.sendMessage("An error occurred when trying to publish the error report. See the console log for more details.");
+			reply.sendMessage(ids.length + " logs are being published together. You will get a link when it is done.");
 		}
 
 		return true;
@@ -286,49 +544,104 @@ public class CommandManager implements CommandExecutor {
 	/**
 	 * Displays command help for the "/ihd view" command.
 	 * 
-	 * @param sender
-	 *            The CommandSender to send the message(s) to.
+	 * @param reply
+	 *            The CommandReply to send the message(s) to.
 	 */
-	private void displayViewCommandHelp(CommandSender sender) {
-		sender.sendMessage("The view command prints out the specific details of an error log.");
-		sender.sendMessage("Syntax: " + Utilities.formatCommand("/ihd view <id>"));
-		sender.sendMessage("Arguments: ");
-		sender.sendMessage(TAB + "id: The ID the log to view.");
-		sender.sendMessage("Note: Use " + Utilities.formatCommand("/ihd help list") + " for help getting a log ID.");
+	private void displayViewCommandHelp(CommandReply reply) {
+		reply.sendMessage("The view command prints out the specific details of an error log.");
+		reply.sendMessage("Syntax: " + Utilities.formatCommand("/ihd view <id> [page]"));
+		reply.sendMessage("Arguments: ");
+		reply.sendMessage(TAB + "id: The ID the log to view, or latest for the newest log.");
+		reply.sendMessage(TAB + "page: The page of the log to view. Long logs are split into pages of "
+				+ TraceViewCache.PAGE_SIZE + " lines.");
+		reply.sendMessage("Note: Use " + Utilities.formatCommand("/ihd help list") + " for help getting a log ID.");
 	}
 
 	/**
 	 * Displays command help for the "/ihd list" command.
 	 * 
-	 * @param sender
-	 *            The CommandSender to send the message(s) to.
+	 * @param reply
+	 *            The CommandReply to send the message(s) to.
 	 */
-	private void displayListCommandHelp(CommandSender sender) {
-		sender.sendMessage("The list command lists several previous error logs and their associated IDs.");
-		sender.sendMessage("Syntax: " + Utilities.formatCommand("/ihd list <N>"));
-		sender.sendMessage("Arguments: ");
-		sender.sendMessage(TAB + "N: Displays the previous N error logs.");
-		// Unimplemented arguments
-		// sender.sendMessage(TAB + "-time #W#D#H#M#S: Displays error logs from a relative point in time.");
-		// sender.sendMessage(TAB + TAB + "Ex: " + Utilities.formatCommand("/ihd list -t 3D40M")
-		// + " lists logs that are older than 3 days, 40 minute.");
-		// sender.sendMessage(TAB
-		// + "-plugin Name: Displays error logs from a given plugin. Note that this is case sensitive.");
-		// sender.sendMessage(TAB + "-descending: Displays results in reverse order");
+	private void displayListCommandHelp(CommandReply reply) {
+		reply.sendMessage("The list command lists several previous error logs and their associated IDs.");
+		reply.sendMessage("Syntax: " + Utilities.formatCommand("/ihd list [N] [latest] [options]"));
+		reply.sendMessage("Arguments: ");
+		reply.sendMessage(TAB + "N: Displays page N of the error logs.");
+		reply.sendMessage(TAB + "latest: Displays only the newest error log that matches.");
+		reply.sendMessage(TAB + "-time #W#D#H#M#S: Displays error logs from a relative point in time until now.");
+		reply.sendMessage(TAB + TAB + "Ex: " + Utilities.formatCommand("/ihd list -t 3D40M")
+				+ " lists logs from the last 3 days, 40 minutes.");
+		reply.sendMessage(TAB + TAB + "Ex: " + Utilities.formatCommand("/ihd list -t 3D-1D")
+				+ " lists logs from between 3 days and 1 day ago.");
+		reply.sendMessage(TAB + "-plugin Name: Displays error logs from a given plugin. Case doesn't matter.");
+		reply.sendMessage(TAB + "-exception Type: Displays error logs with a given type of exception.");
+		reply.sendMessage(TAB + "-descending: Displays results in reverse order (oldest first).");
+	}
+
+	/**
+	 * Displays command help for the "/ihd search" command.
+	 * 
+	 * @param reply
+	 *            The CommandReply to send the message(s) to.
+	 */
+	private void displaySearchCommandHelp(CommandReply reply) {
+		reply.sendMessage("The search command lists the error logs that contain every given term, newest first.");
+		reply.sendMessage("Syntax: " + Utilities.formatCommand("/ihd search <terms> [N]"));
+		reply.sendMessage("Arguments: ");
+		reply.sendMessage(TAB + "terms: Exception names, words of their messages, class or method names, or"
+				+ " plugin:Name. Case doesn't matter.");
+		reply.sendMessage(TAB + TAB + "Ex: " + Utilities.formatCommand("/ihd search NullPointerException onEnable")
+				+ " finds NullPointerExceptions thrown in an onEnable method.");
+		reply.sendMessage(TAB + "N: Displays page N of the results.");
 	}
 
 	/**
 	 * Displays command help for the "/ihd publish" command.
 	 * 
-	 * @param sender
-	 *            The CommandSender to send the message(s) to.
+	 * @param reply
+	 *            The CommandReply to send the message(s) to.
 	 */
-	private void displayPublishCommandHelp(CommandSender sender) {
-		sender.sendMessage("The publish command uploads an error log to gist.github.com for easy sharing with developers.");
-		sender.sendMessage("Syntax: " + Utilities.formatCommand("/ihd publish <id>"));
-		sender.sendMessage("Arguments: ");
-		sender.sendMessage(TAB + "id: The ID of the log to publish.");
-		sender.sendMessage("Note: Use " + Utilities.formatCommand("/ihd help list") + " for help getting a log ID.");
+	private void displayPublishCommandHelp(CommandReply reply) {
+		reply.sendMessage("The publish command uploads an error log to gist.github.com for easy sharing with developers.");
+		reply.sendMessage("Syntax: " + Utilities.formatCommand("/ihd publish [-force] <logs>"));
+		reply.sendMessage("Arguments: ");
+		reply.sendMessage(TAB + "-force: Upload the log(s) even if they were published before.");
+		reply.sendMessage(TAB + "logs: The log(s) to publish. Several logs are published together under one link.");
+		reply.sendMessage(TAB + TAB + "Ex: " + Utilities.formatCommand("/ihd publish 12") + " publishes log 12.");
+		reply.sendMessage(TAB + TAB + "Ex: " + Utilities.formatCommand("/ihd publish 10-15,18")
+				+ " publishes logs 10 to 15 and 18.");
+		reply.sendMessage(TAB + TAB + "Ex: " + Utilities.formatCommand("/ihd publish plugin:Name")
+				+ " publishes every distinct error from a plugin.");
+		reply.sendMessage(TAB + TAB + "Ex: " + Utilities.formatCommand("/ihd publish fingerprint:1a2b3c")
+				+ " publishes the error with a fingerprint.");
+		reply.sendMessage("Note: Use " + Utilities.formatCommand("/ihd help list") + " for help getting a log ID.");
+	}
+
+	/**
+	 * Displays command help for the "/ihd stats" command.
+	 * 
+	 * @param reply
+	 *            The CommandReply to send the message(s) to.
+	 */
+	private void displayStatsCommandHelp(CommandReply reply) {
+		reply.sendMessage("The stats command shows what capturing stack traces has done since the server started and"
+				+ " how long it took.");
+		reply.sendMessage("Syntax: " + Utilities.formatCommand("/ihd stats"));
+		reply.sendMessage("Note: The same numbers are available through JMX as " + PipelineMetrics.OBJECT_NAME + ".");
+	}
+
+	/**
+	 * Formats a time. Commands run on several threads at once, and SimpleDateFormat isn't thread safe.
+	 * 
+	 * @param time
+	 *            The time in milliseconds.
+	 * @return The formatted time.
+	 */
+	private String formatDate(long time) {
+		synchronized (dateFormat) {
+			return dateFormat.format(new Date(time));
+		}
 	}
 
 	/**
@@ -349,4 +662,11 @@ public class CommandManager implements CommandExecutor {
 	 * letter. if (arg.equalsIgnoreCase(s) || arg.substring(0, 1).equalsIgnoreCase(s)) { return true; } } return false;
 	 * }
 	 */
+
+	/**
+	 * Determines if a string starts with a prefix, ignoring case.
+	 */
+	private static boolean startsWithIgnoreCase(String s, String prefix) {
+		return s.regionMatches(true, 0, prefix, 0, prefix.length());
+	}
 }
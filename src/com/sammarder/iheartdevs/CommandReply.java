@@ -0,0 +1,48 @@
+package com.sammarder.iheartdevs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bukkit.command.CommandSender;
+
+/**
+ * Collects the messages a command sends, so that a command running in the background can send all of them at once on
+ * the main thread when it is done.
+ */
+public class CommandReply {
+	private final List<String> messages = new ArrayList<String>();
+
+	/**
+	 * Adds a message.
+	 * 
+	 * @param message
+	 *            The message.
+	 */
+	public void sendMessage(String message) {
+		messages.add(message);
+	}
+
+	/**
+	 * Adds several messages.
+	 * 
+	 * @param messages
+	 *            The messages, in order.
+	 */
+	public void sendMessage(String[] messages) {
+		for (String message : messages) {
+			this.messages.add(message);
+		}
+	}
+
+	/**
+	 * Sends every message in one batch.
+	 * 
+	 * @param sender
+	 *            The CommandSender to send the messages to.
+	 */
+	public void sendTo(CommandSender sender) {
+		if (!messages.isEmpty()) {
+			sender.sendMessage(messages.toArray(new String[messages.size()]));
+		}
+	}
+}
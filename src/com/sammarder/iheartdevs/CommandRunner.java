@@ -0,0 +1,190 @@
+package com.sammarder.iheartdevs;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import org.bukkit.Bukkit;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Runs commands that read error logs on a small pool of background threads, so browsing a large archive never holds up
+ * the main thread. The reply of a command is sent in one batch on the main thread when it is done. Every sender can
+ * only have a few commands queued or running at a time, and the commands of a player who logs out are cancelled.
+ * Cancelling is cooperative: a command that hasn't started yet is skipped and the reply of one that is running is
+ * thrown away. (Interrupting it could close the files of the trace store.)
+ */
+public class CommandRunner {
+	// How many commands (of every sender) can wait for a thread.
+	private static final int QUEUE_SIZE = 32;
+
+	private final Plugin plugin;
+	private final int maxPerSender;
+	private final ThreadPoolExecutor executor;
+	// The commands that are queued or running, by the name of their sender.
+	private final Map<String, List<Task>> tasks = new HashMap<String, List<Task>>();
+
+	/**
+	 * Constructor for creating a new CommandRunner.
+	 * 
+	 * @param plugin
+	 *            The plugin to schedule replies with.
+	 * @param threads
+	 *            How many commands can run at the same time.
+	 * @param maxPerSender
+	 *            How many commands every sender can have queued or running at the same time.
+	 */
+	public CommandRunner(Plugin plugin, int threads, int maxPerSender) {
+		this.plugin = plugin;
+		this.maxPerSender = Math.max(1, maxPerSender);
+		threads = Math.max(1, threads);
+		executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(
+				QUEUE_SIZE), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "IHeartDevs command runner #" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		// Nobody uses the commands most of the time.
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Runs a command in the background. This must be called on the main thread.
+	 * 
+	 * @param sender
+	 *            The player or console who sent the command.
+	 * @param command
+	 *            The command.
+	 */
+	public void run(CommandSender sender, ICommandTask command) {
+		Task task = new Task(sender, command);
+		synchronized (tasks) {
+			List<Task> running = tasks.get(task.name);
+			if (running == null) {
+				running = new ArrayList<Task>();
+				tasks.put(task.name, running);
+			}
+			if (running.size() >= maxPerSender) {
+				sender.sendMessage("You already have " + running.size() + " commands running. Please wait for them"
+						+ " to finish.");
+				return;
+			}
+			running.add(task);
+		}
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			forget(task);
+			sender.sendMessage("IHeartDevs is busy right now. Please try again in a moment.");
+		}
+	}
+
+	/**
+	 * Cancels every command of a sender (because the player logged out, for example).
+	 * 
+	 * @param name
+	 *            The name of the sender.
+	 */
+	public void cancel(String name) {
+		List<Task> cancelled;
+		synchronized (tasks) {
+			cancelled = tasks.remove(name);
+		}
+		if (cancelled == null) {
+			return;
+		}
+		for (Task task : cancelled) {
+			task.cancelled = true;
+			// Gives the thread to the next command right away if this one hasn't started.
+			executor.remove(task);
+		}
+	}
+
+	/**
+	 * Stops running commands. Commands that are running get some time to finish, but their replies won't be sent.
+	 * 
+	 * @param timeout
+	 *            The maximum amount of time (in milliseconds) to wait.
+	 */
+	public void shutdown(long timeout) {
+		executor.shutdown();
+		try {
+			executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void forget(Task task) {
+		synchronized (tasks) {
+			List<Task> running = tasks.get(task.name);
+			if (running != null && running.remove(task) && running.isEmpty()) {
+				tasks.remove(task.name);
+			}
+		}
+	}
+
+	/**
+	 * A command of a sender.
+	 */
+	private class Task implements Runnable {
+		final CommandSender sender;
+		final String name;
+		final ICommandTask command;
+		volatile boolean cancelled;
+
+		Task(CommandSender sender, ICommandTask command) {
+			this.sender = sender;
+			this.name = sender.getName();
+			this.command = command;
+		}
+
+		@Override
+		public void run() {
+			final CommandReply reply = new CommandReply();
+			try {
+				if (cancelled) {
+					return;
+				}
+				command.execute(reply);
+			} catch (RuntimeException e) {
+				// Logged rather than printed, since printing it would make it an error log of its own.
+				IHeartDevs.log(Level.WARNING, "/ihd failed for " + name + ": " + e);
+				reply.sendMessage("Something went wrong. Please check the server log.");
+			} finally {
+				forget(this);
+			}
+			if (cancelled) {
+				return;
+			}
+			try {
+				Bukkit.getScheduler().runTask(plugin, new Runnable() {
+					@Override
+					public void run() {
+						// Players who logged out in the meantime don't get anything.
+						if (!cancelled && (!(sender instanceof Player) || ((Player) sender).isOnline())) {
+							reply.sendTo(sender);
+						}
+					}
+				});
+			} catch (Exception e) {
+				// The plugin is being disabled, so there is nobody to reply to.
+			}
+		}
+	}
+}
@@ -1,10 +1,46 @@
 package com.sammarder.iheartdevs;
 
+import com.sammarder.iheartdevs.storage.TraceWriter.SyncPolicy;
+import com.sammarder.iheartdevs.traceprocessing.GistLogPublisher;
+import com.sammarder.iheartdevs.traceprocessing.ChunkRingBuffer.OverflowPolicy;
+
 /**
  * Static class for easy access to config information. Because all methods are static, instantiation is forbidden.
  */
 public class ConfigurationManager {
 	private static boolean useExtendedInfo = true;
+	private static boolean usePerThreadAssembly = true;
+	private static boolean useAsyncCapture = false;
+	private static int asyncBufferSize = 4096;
+	private static OverflowPolicy asyncOverflowPolicy = OverflowPolicy.DROP_OLDEST;
+	private static long asyncBlockTimeout = 50;
+	private static boolean deduplicateTraces = true;
+	private static boolean fingerprintIgnoreLineNumbers = true;
+	private static double traceRateLimit = 2;
+	private static int traceRateBurst = 20;
+	private static double pluginTraceRateLimit = 1;
+	private static int pluginTraceRateBurst = 10;
+	private static int stormSampleSize = 10;
+	private static long stormSummaryInterval = 60;
+	private static long storeSegmentSize = 16;
+	private static boolean compressTraces = true;
+	private static SyncPolicy storeSyncPolicy = SyncPolicy.INTERVAL;
+	private static int storeSyncEvery = 10;
+	private static long storeSyncInterval = 1000;
+	private static String publisher = "gist";
+	private static String gistApiUrl = GistLogPublisher.DEFAULT_URL;
+	private static String pasteUrl = "https://hastebin.com/documents";
+	private static String pasteFormField = "";
+	private static String pasteResponseField = "key";
+	private static String pasteViewUrl = "https://hastebin.com/%s";
+	private static int publishThreads = 2;
+	private static int publishConnectTimeout = 5000;
+	private static int publishReadTimeout = 10000;
+	private static int publishMaxAttempts = 5;
+	private static long publishCacheExpiry = 24;
+	private static long viewCacheSize = 1024;
+	private static int commandThreads = 2;
+	private static int commandsPerSender = 2;
 
 	// Instantiation is forbidden
 	private ConfigurationManager() {
@@ -19,6 +55,49 @@ public class ConfigurationManager {
 	public static void loadConfiguration(IHeartDevs plugin) {
 		// The default is the current value.
 		useExtendedInfo = plugin.getConfig().getBoolean("LogExtendedInfo", useExtendedInfo);
+		usePerThreadAssembly = plugin.getConfig().getBoolean("PerThreadAssembly", usePerThreadAssembly);
+		useAsyncCapture = plugin.getConfig().getBoolean("AsyncCapture", useAsyncCapture);
+		asyncBufferSize = Math.max(2, plugin.getConfig().getInt("AsyncBufferSize", asyncBufferSize));
+		asyncBlockTimeout = Math.max(0, plugin.getConfig().getLong("AsyncBlockTimeout", asyncBlockTimeout));
+		deduplicateTraces = plugin.getConfig().getBoolean("DeduplicateTraces", deduplicateTraces);
+		fingerprintIgnoreLineNumbers = plugin.getConfig().getBoolean("FingerprintIgnoreLineNumbers",
+				fingerprintIgnoreLineNumbers);
+		traceRateLimit = plugin.getConfig().getDouble("TraceRateLimit", traceRateLimit);
+		traceRateBurst = Math.max(1, plugin.getConfig().getInt("TraceRateBurst", traceRateBurst));
+		pluginTraceRateLimit = plugin.getConfig().getDouble("PluginTraceRateLimit", pluginTraceRateLimit);
+		pluginTraceRateBurst = Math.max(1, plugin.getConfig().getInt("PluginTraceRateBurst", pluginTraceRateBurst));
+		stormSampleSize = Math.max(0, plugin.getConfig().getInt("StormSampleSize", stormSampleSize));
+		stormSummaryInterval = Math.max(1, plugin.getConfig().getLong("StormSummaryInterval", stormSummaryInterval));
+		storeSegmentSize = Math.max(1, plugin.getConfig().getLong("StoreSegmentSize", storeSegmentSize));
+		compressTraces = plugin.getConfig().getBoolean("CompressTraces", compressTraces);
+		storeSyncEvery = Math.max(1, plugin.getConfig().getInt("StoreSyncEvery", storeSyncEvery));
+		storeSyncInterval = Math.max(0, plugin.getConfig().getLong("StoreSyncInterval", storeSyncInterval));
+		publisher = plugin.getConfig().getString("Publisher", publisher).toLowerCase();
+		gistApiUrl = plugin.getConfig().getString("GistApiUrl", gistApiUrl);
+		pasteUrl = plugin.getConfig().getString("PasteUrl", pasteUrl);
+		pasteFormField = plugin.getConfig().getString("PasteFormField", pasteFormField);
+		pasteResponseField = plugin.getConfig().getString("PasteResponseField", pasteResponseField);
+		pasteViewUrl = plugin.getConfig().getString("PasteViewUrl", pasteViewUrl);
+		publishThreads = Math.max(1, plugin.getConfig().getInt("PublishThreads", publishThreads));
+		publishConnectTimeout = Math.max(1, plugin.getConfig().getInt("PublishConnectTimeout", publishConnectTimeout));
+		publishReadTimeout = Math.max(1, plugin.getConfig().getInt("PublishReadTimeout", publishReadTimeout));
+		publishMaxAttempts = Math.max(1, plugin.getConfig().getInt("PublishMaxAttempts", publishMaxAttempts));
+		publishCacheExpiry = Math.max(0, plugin.getConfig().getLong("PublishCacheExpiry", publishCacheExpiry));
+		viewCacheSize = Math.max(0, plugin.getConfig().getLong("ViewCacheSize", viewCacheSize));
+		commandThreads = Math.max(1, plugin.getConfig().getInt("CommandThreads", commandThreads));
+		commandsPerSender = Math.max(1, plugin.getConfig().getInt("CommandsPerSender", commandsPerSender));
+		try {
+			asyncOverflowPolicy = OverflowPolicy.valueOf(plugin.getConfig()
+					.getString("AsyncOverflowPolicy", asyncOverflowPolicy.name()).toUpperCase());
+		} catch (IllegalArgumentException e) {
+			IHeartDevs.log("Unknown AsyncOverflowPolicy. Using " + asyncOverflowPolicy.name() + " instead.");
+		}
+		try {
+			storeSyncPolicy = SyncPolicy.valueOf(plugin.getConfig()
+					.getString("StoreSyncPolicy", storeSyncPolicy.name()).toUpperCase());
+		} catch (IllegalArgumentException e) {
+			IHeartDevs.log("Unknown StoreSyncPolicy. Using " + storeSyncPolicy.name() + " instead.");
+		}
 	}
 
 	/**
@@ -30,4 +109,294 @@ public class ConfigurationManager {
 	public static boolean shouldUseExtendedInfo() {
 		return useExtendedInfo;
 	}
+
+	/**
+	 * Determines if stack traces should be assembled separately for every thread that prints them.
+	 * 
+	 * @return true if every thread gets its own trace buffer, false if all threads share one.
+	 */
+	public static boolean shouldUsePerThreadAssembly() {
+		return usePerThreadAssembly;
+	}
+
+	/**
+	 * Determines if System.err output should be handed off to a separate thread instead of being processed by the
+	 * thread that printed it.
+	 * 
+	 * @return true if output should be processed asynchronously, false otherwise.
+	 */
+	public static boolean shouldUseAsyncCapture() {
+		return useAsyncCapture;
+	}
+
+	/**
+	 * Gets how many chunks of output can be waiting for the consumer thread at once.
+	 * 
+	 * @return The requested size of the ring buffer.
+	 */
+	public static int getAsyncBufferSize() {
+		return asyncBufferSize;
+	}
+
+	/**
+	 * Gets what to do with output that is printed while the ring buffer is full.
+	 * 
+	 * @return The overflow policy of the ring buffer.
+	 */
+	public static OverflowPolicy getAsyncOverflowPolicy() {
+		return asyncOverflowPolicy;
+	}
+
+	/**
+	 * Gets how long a thread waits for room in the ring buffer when the overflow policy is BLOCK.
+	 * 
+	 * @return The timeout in milliseconds.
+	 */
+	public static long getAsyncBlockTimeout() {
+		return asyncBlockTimeout;
+	}
+
+	/**
+	 * Determines if a stack trace that has already been saved should only be counted instead of saved again.
+	 * 
+	 * @return true if repeated traces should be counted, false if every trace should be saved.
+	 */
+	public static boolean shouldDeduplicateTraces() {
+		return deduplicateTraces;
+	}
+
+	/**
+	 * Determines if two traces that only differ by line numbers should be treated as the same trace.
+	 * 
+	 * @return true if line numbers should be left out of trace fingerprints, false otherwise.
+	 */
+	public static boolean shouldFingerprintIgnoreLineNumbers() {
+		return fingerprintIgnoreLineNumbers;
+	}
+
+	/**
+	 * Gets how many new stack traces per second are saved in total. Bursts of up to getTraceRateBurst() are allowed.
+	 * 
+	 * @return The rate in traces per second. Anything less than or equal to 0 means there is no limit.
+	 */
+	public static double getTraceRateLimit() {
+		return traceRateLimit;
+	}
+
+	/**
+	 * Gets how many new stack traces can be saved in a burst before getTraceRateLimit() applies.
+	 * 
+	 * @return The number of traces.
+	 */
+	public static int getTraceRateBurst() {
+		return traceRateBurst;
+	}
+
+	/**
+	 * Gets how many new stack traces per second are saved for any one plugin.
+	 * 
+	 * @return The rate in traces per second. Anything less than or equal to 0 means there is no limit.
+	 */
+	public static double getPluginTraceRateLimit() {
+		return pluginTraceRateLimit;
+	}
+
+	/**
+	 * Gets how many new stack traces can be saved for any one plugin in a burst before getPluginTraceRateLimit()
+	 * applies.
+	 * 
+	 * @return The number of traces.
+	 */
+	public static int getPluginTraceRateBurst() {
+		return pluginTraceRateBurst;
+	}
+
+	/**
+	 * Gets how many of the traces that were over the rate limit are kept in a storm summary.
+	 * 
+	 * @return The number of sampled traces.
+	 */
+	public static int getStormSampleSize() {
+		return stormSampleSize;
+	}
+
+	/**
+	 * Gets how long traces that are over the rate limit are collected before a storm summary is saved.
+	 * 
+	 * @return The interval in seconds.
+	 */
+	public static long getStormSummaryInterval() {
+		return stormSummaryInterval;
+	}
+
+	/**
+	 * Gets how large a segment of the trace store can grow before a new one is started.
+	 * 
+	 * @return The size in megabytes.
+	 */
+	public static long getStoreSegmentSize() {
+		return storeSegmentSize;
+	}
+
+	/**
+	 * Determines if new error logs should be compressed before they are stored.
+	 * 
+	 * @return true if error logs should be compressed, false if they should be stored as plain text.
+	 */
+	public static boolean shouldCompressTraces() {
+		return compressTraces;
+	}
+
+	/**
+	 * Gets when stored error logs are forced to the disk.
+	 * 
+	 * @return The policy.
+	 */
+	public static SyncPolicy getStoreSyncPolicy() {
+		return storeSyncPolicy;
+	}
+
+	/**
+	 * Gets how many error logs are written between syncs when the policy is COUNT.
+	 * 
+	 * @return The number of error logs.
+	 */
+	public static int getStoreSyncEvery() {
+		return storeSyncEvery;
+	}
+
+	/**
+	 * Gets how long written error logs can go unsynced when the policy is INTERVAL.
+	 * 
+	 * @return The interval in milliseconds.
+	 */
+	public static long getStoreSyncInterval() {
+		return storeSyncInterval;
+	}
+
+	/**
+	 * Gets which site error logs are published to.
+	 * 
+	 * @return "gist" or "paste" (or something unknown, which should be treated as "gist").
+	 */
+	public static String getPublisher() {
+		return publisher;
+	}
+
+	/**
+	 * Gets where new gists are created. This only needs changing to test against a stand-in for GitHub.
+	 * 
+	 * @return The URL.
+	 */
+	public static String getGistApiUrl() {
+		return gistApiUrl;
+	}
+
+	/**
+	 * Gets how many error logs can be published at the same time.
+	 * 
+	 * @return The number of threads.
+	 */
+	public static int getPublishThreads() {
+		return publishThreads;
+	}
+
+	/**
+	 * Gets how long to wait for a connection when publishing.
+	 * 
+	 * @return The timeout in milliseconds.
+	 */
+	public static int getPublishConnectTimeout() {
+		return publishConnectTimeout;
+	}
+
+	/**
+	 * Gets how long to wait for an answer when publishing.
+	 * 
+	 * @return The timeout in milliseconds.
+	 */
+	public static int getPublishReadTimeout() {
+		return publishReadTimeout;
+	}
+
+	/**
+	 * Gets how often a publish is attempted before giving up.
+	 * 
+	 * @return The number of attempts.
+	 */
+	public static int getPublishMaxAttempts() {
+		return publishMaxAttempts;
+	}
+
+	/**
+	 * Gets how long a link to something that was published before is handed out without checking if it still works.
+	 * 
+	 * @return The time in hours.
+	 */
+	public static long getPublishCacheExpiry() {
+		return publishCacheExpiry;
+	}
+
+	/**
+	 * Gets where pastes are POSTed when the publisher is "paste".
+	 * 
+	 * @return The URL.
+	 */
+	public static String getPasteUrl() {
+		return pasteUrl;
+	}
+
+	/**
+	 * Gets the form field a paste is sent in.
+	 * 
+	 * @return The name of the field or an empty string to send the paste as the raw body.
+	 */
+	public static String getPasteFormField() {
+		return pasteFormField;
+	}
+
+	/**
+	 * Gets the field of the JSON answer to a paste that holds the link (or key).
+	 * 
+	 * @return The name of the field or an empty string if the answer is the link itself.
+	 */
+	public static String getPasteResponseField() {
+		return pasteResponseField;
+	}
+
+	/**
+	 * Gets the link to a paste with %s in place of the answer.
+	 * 
+	 * @return The template or an empty string if the answer is the link.
+	 */
+	public static String getPasteViewUrl() {
+		return pasteViewUrl;
+	}
+
+	/**
+	 * Gets how much memory recently viewed error logs may take up, so paging through them doesn't read them again.
+	 * 
+	 * @return The size in kilobytes.
+	 */
+	public static long getViewCacheSize() {
+		return viewCacheSize;
+	}
+
+	/**
+	 * Gets how many /ihd commands can run in the background at the same time.
+	 * 
+	 * @return The number of threads.
+	 */
+	public static int getCommandThreads() {
+		return commandThreads;
+	}
+
+	/**
+	 * Gets how many /ihd commands every player (or the console) can have running at the same time.
+	 * 
+	 * @return The number of commands.
+	 */
+	public static int getCommandsPerSender() {
+		return commandsPerSender;
+	}
 }
@@ -1,120 +1,264 @@
 package com.sammarder.iheartdevs;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.logging.Level;
 
+import com.sammarder.iheartdevs.storage.StoredTrace;
+import com.sammarder.iheartdevs.storage.TraceStore;
 import com.sammarder.iheartdevs.traceprocessing.ErrorFileComparator;
 import com.sammarder.iheartdevs.traceprocessing.ErrorFileFilter;
 
 public class FolderManager {
+	// The number of error logs on each page of getFilesFromPage().
+	private static final int PAGE_SIZE = 10;
+
 	private File directory;
-	private int nextFileNumber;
-	private ErrorFileFilter filter;
-	private ErrorFileComparator<File> comparator;
+	private TraceStore store;
 
-	public FolderManager(File directory, ErrorFileFilter filter, ErrorFileComparator<File> comparator) {
+	/**
+	 * Constructor for creating a new FolderManager. Error logs that were stored as one file each (#.txt) by older
+	 * versions are imported into the store (keeping their IDs) and moved to an "imported" folder.
+	 * 
+	 * @param directory
+	 *            The directory that contains the error logs.
+	 * @param store
+	 *            The TraceStore that holds the error logs.
+	 * @param filter
+	 *            Finds the old #.txt files.
+	 * @param comparator
+	 *            Sorts the old #.txt files by ID.
+	 */
+	public FolderManager(File directory, TraceStore store, ErrorFileFilter filter,
+			ErrorFileComparator<File> comparator) {
 		this.directory = directory;
-		this.filter = filter;
-		this.comparator = comparator;
-		List<File> files = Arrays.asList(directory.listFiles(filter));
-		Collections.sort(files, comparator);
-		if (files.size() > 0) {
-			File lastFile = files.get(files.size() - 1);
-			// Gets the integer portion of the last file sorted in this directory.
-			String lastFileName = lastFile.getName().split("\\.")[0];
-			nextFileNumber = Integer.parseInt(lastFileName);
-			nextFileNumber++;
-		} else {
-			nextFileNumber = 0;
-		}
-
+		this.store = store;
+		importFiles(filter, comparator);
 	}
 
 	/**
-	 * Creates a new file with an auto-generated, valid ID.
+	 * Stores a new error log with an auto-generated, valid ID.
 	 * 
-	 * @return A File object that points to the newly created file or null if it couldn't be created.
+	 * @param contents
+	 *            The text of the error log.
+	 * @param timestamp
+	 *            When (in milliseconds) the error happened.
+	 * @return The stored error log or null if it couldn't be stored.
 	 */
-	public File createFile() {
-		File file = createFile(String.valueOf(nextFileNumber) + ".txt");
-		// The file could be null for a few reasons, so just increment the counter anyway so the next attempt doesn't
-		// try to create a file that already exists.
-		nextFileNumber++;
-		// This may return null.
-		return file;
+	public StoredTrace createFile(String contents, long timestamp) {
+		try {
+			return store.append(contents, timestamp);
+		} catch (IOException e) {
+			return null;
+		}
 	}
 
 	/**
-	 * Creates a new file with a given filename in the directory referenced by this object.
+	 * Records the details of this server that every new error log refers to instead of containing them.
 	 * 
-	 * @param localName
-	 *            The name (without a path) of the new file.
-	 * @return A File object that points to the newly created file or null if it couldn't be created.
+	 * @param serverInfo
+	 *            The details of this server.
+	 * @return The ID of the session or -1 if it couldn't be recorded.
 	 */
-	private File createFile(String localName) {
+	public int startSession(String serverInfo) {
 		try {
-			File file = new File(directory, localName);
-			if (file.createNewFile()) {
-				return file;
-			} else {
-				return null;
-			}
+			return store.startSession(serverInfo);
 		} catch (IOException e) {
-			return null;
+			return -1;
 		}
 	}
 
 	/**
-	 * Gets an existing file from this directory.
+	 * Gets an existing error log.
+	 * 
+	 * @param id
+	 *            The ID of the error log.
+	 * @return The error log or null if it doesn't exist.
+	 */
+	public StoredTrace getFile(int id) {
+		return store.read(id);
+	}
+
+	/**
+	 * Gets an existing error log without reading it. Its contents are only read when they are asked for, or a piece at
+	 * a time with StoredTrace.openStream().
 	 * 
-	 * @param localName
-	 *            The name (without a path) of the existing file.
-	 * @return A File object that points to the existing file or null if it doesn't exist.
+	 * @param id
+	 *            The ID of the error log.
+	 * @return The error log or null if it doesn't exist.
 	 */
-	public File getFile(String localName) {
-		File file = new File(directory, localName);
-		if (file.exists()) {
-			return file;
-		} else {
+	public StoredTrace getEntry(int id) {
+		int index = store.indexOf(id);
+		return index < 0 ? null : store.getEntry(index);
+	}
+
+	/**
+	 * Determines if an error log exists without reading it.
+	 * 
+	 * @param id
+	 *            The ID of the error log.
+	 * @return true if the error log exists.
+	 */
+	public boolean exists(int id) {
+		return store.contains(id);
+	}
+
+	/**
+	 * Gets a page of error logs, newest first. This is just a slice of the store's index, so nothing is read from disk
+	 * until the contents of a log are asked for.
+	 * 
+	 * @param page
+	 *            The page to get. Page 1 has the newest logs. Illegal numbers are treated as page 1.
+	 * @return The error logs on the page or null if there aren't that many pages.
+	 */
+	public StoredTrace[] getFilesFromPage(int page) {
+		// lastIndex refers to the newest log on the page. Page 1 starts with the newest log in the store, and every
+		// page after that starts PAGE_SIZE logs earlier.
+		int size = store.size();
+		int lastIndex = size - 1;
+		if (page > 1) {
+			lastIndex = size - (PAGE_SIZE * (page - 1)) - 1;
+		}
+
+		if (lastIndex < 0) {
 			return null;
 		}
-	}
+		int displayNumber = Math.min(PAGE_SIZE, lastIndex + 1);
 
-	// TODO: Cleanup a bit
-	public File[] getFilesFromPage(int page) {
-		List<File> filesList = Arrays.asList(directory.listFiles(filter));
-		Collections.sort(filesList, comparator);
+		StoredTrace[] traces = new StoredTrace[displayNumber];
+		for (int i = 0; i < displayNumber; i++) {
+			traces[i] = store.getEntry(lastIndex - i);
+		}
+		return traces;
+	}
 
-		// lastIndex refers to the first index that should be used.
-		// filesList.size() - 1 refers to the last valid index (which is effectively the newest file in the directory).
-		// filesList.size() - (10 * (page - 1)) refers to the page modifier. One is subtracted from page so that page 1
-		// doesn't have a modifier - (0). Then the 10 items that are at the end of the list are put into an array (in
-		// reverse order).
-		int lastIndex = 0;
-		// Treat illegal numbers as page 1.
-		if (page <= 1) {
-			lastIndex = filesList.size() - 1;
-		} else {
-			lastIndex = filesList.size() - (10 * (page - 1)) - 1;
+	/**
+	 * Gets a page of some error logs (search results, for example), newest first, in the same way as
+	 * getFilesFromPage(int).
+	 * 
+	 * @param ids
+	 *            The IDs of the error logs in ascending order (or descending, to get the oldest first). IDs that
+	 *            aren't in the store are skipped.
+	 * @param page
+	 *            The page to get. Page 1 has the newest logs. Illegal numbers are treated as page 1.
+	 * @return The error logs on the page or null if there aren't that many pages.
+	 */
+	public StoredTrace[] getFilesFromPage(int[] ids, int page) {
+		int lastIndex = ids.length - 1;
+		if (page > 1) {
+			lastIndex = ids.length - (PAGE_SIZE * (page - 1)) - 1;
 		}
 
 		if (lastIndex < 0) {
 			return null;
 		}
-		int displayNumber = 10;
-		if (lastIndex < 10) {
-			displayNumber = lastIndex + 1;
+		List<StoredTrace> traces = new ArrayList<StoredTrace>(PAGE_SIZE);
+		for (int i = lastIndex; i >= 0 && i > lastIndex - PAGE_SIZE; i--) {
+			int index = store.indexOf(ids[i]);
+			if (index >= 0) {
+				traces.add(store.getEntry(index));
+			}
 		}
+		return traces.toArray(new StoredTrace[traces.size()]);
+	}
 
-		File[] filesArray = new File[displayNumber];
-		for (int i = 0; i < displayNumber; i++) {
-			filesArray[i] = filesList.get(lastIndex - i);
+	/**
+	 * Gets the IDs of every error log that was created in a time range.
+	 * 
+	 * @param from
+	 *            The earliest time (in milliseconds, inclusive).
+	 * @param to
+	 *            The latest time (in milliseconds, inclusive).
+	 * @return The IDs in ascending order.
+	 */
+	public int[] getIdsBetween(long from, long to) {
+		return store.getIdsBetween(from, to);
+	}
+
+	/**
+	 * Gets the ID of the newest error log.
+	 * 
+	 * @return The ID or -1 if there are no error logs.
+	 */
+	public int getLatestId() {
+		int size = store.size();
+		return size == 0 ? -1 : store.getId(size - 1);
+	}
+
+	/**
+	 * Gets how many pages some error logs fill.
+	 * 
+	 * @param logs
+	 *            The number of error logs.
+	 * @return The number of pages.
+	 */
+	public int getPageCount(int logs) {
+		return (logs + PAGE_SIZE - 1) / PAGE_SIZE;
+	}
+
+	/**
+	 * Imports every #.txt file in the directory into the store. A file that is already in the store (because the
+	 * server stopped half way through an earlier import) is just moved.
+	 */
+	private void importFiles(ErrorFileFilter filter, ErrorFileComparator<File> comparator) {
+		File[] files = directory.listFiles(filter);
+		if (files == null || files.length == 0) {
+			return;
 		}
+		List<File> filesList = Arrays.asList(files);
+		Collections.sort(filesList, comparator);
 
-		return filesArray;
+		File importedFolder = new File(directory, "imported");
+		importedFolder.mkdirs();
+		int imported = 0;
+		for (File file : filesList) {
+			int id = Integer.parseInt(file.getName().split("\\.")[0]);
+			try {
+				if (!store.contains(id)) {
+					// The old files were written with FileWriter, so they use the platform's default encoding.
+					String contents = new String(readFully(file));
+					if (store.size() == 0 || id > store.getId(store.size() - 1)) {
+						store.append(id, contents, file.lastModified());
+					} else {
+						// Somehow older than what's already stored, so it can't keep its ID.
+						store.append(contents, file.lastModified());
+					}
+					imported++;
+				}
+				if (!file.renameTo(new File(importedFolder, file.getName()))) {
+					IHeartDevs.log(Level.WARNING, "Could not move " + file + " to " + importedFolder);
+				}
+			} catch (IOException e) {
+				IHeartDevs.log(Level.WARNING, "Could not import " + file + ". It will be tried again next time.");
+			}
+		}
+		IHeartDevs.log("Imported " + imported + " error logs into the trace store.");
 	}
 
+	private static byte[] readFully(File file) throws IOException {
+		FileInputStream is = null;
+		try {
+			is = new FileInputStream(file);
+			byte[] bytes = new byte[(int) file.length()];
+			int read = 0;
+			while (read < bytes.length) {
+				int count = is.read(bytes, read, bytes.length - read);
+				if (count < 0) {
+					return Arrays.copyOf(bytes, read);
+				}
+				read += count;
+			}
+			return bytes;
+		} finally {
+			try {
+				is.close();
+			} catch (Exception e) {
+			}
+		}
+	}
 }
@@ -0,0 +1,14 @@
+package com.sammarder.iheartdevs;
+
+/**
+ * The part of a command that runs in the background (on a CommandRunner thread), away from the main thread.
+ */
+public interface ICommandTask {
+	/**
+	 * Runs the command. This must not touch the Bukkit API (other than what is known to be thread safe).
+	 * 
+	 * @param reply
+	 *            Collects the messages to send once the command is done.
+	 */
+	public void execute(CommandReply reply);
+}
@@ -1,18 +1,30 @@
 package com.sammarder.iheartdevs;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.text.SimpleDateFormat;
 import java.util.logging.Level;
 
 import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import com.sammarder.iheartdevs.metrics.PipelineMetrics;
+import com.sammarder.iheartdevs.storage.TraceStore;
+import com.sammarder.iheartdevs.traceprocessing.ChunkRingBuffer;
 import com.sammarder.iheartdevs.traceprocessing.ErrorFileComparator;
 import com.sammarder.iheartdevs.traceprocessing.ErrorFileFilter;
 import com.sammarder.iheartdevs.traceprocessing.FilteredErrorStream;
+import com.sammarder.iheartdevs.traceprocessing.FingerprintIndex;
 import com.sammarder.iheartdevs.traceprocessing.GistLogPublisher;
-import com.sammarder.iheartdevs.traceprocessing.IMessageProcessor;
+import com.sammarder.iheartdevs.traceprocessing.HttpTransport;
+import com.sammarder.iheartdevs.traceprocessing.ILogPublisher;
+import com.sammarder.iheartdevs.traceprocessing.PasteLogPublisher;
+import com.sammarder.iheartdevs.traceprocessing.PluginClassIndex;
+import com.sammarder.iheartdevs.traceprocessing.PublishCache;
+import com.sammarder.iheartdevs.traceprocessing.PublishQueue;
+import com.sammarder.iheartdevs.traceprocessing.SearchIndex;
 import com.sammarder.iheartdevs.traceprocessing.StackTraceProcessor;
 
 //TODO: Colored console log
@@ -24,20 +36,61 @@ public final class IHeartDevs extends JavaPlugin {
 	// The approximate time this plugin was loaded. If reload is used, this will be reset.
 	private static long startTime = System.currentTimeMillis();
 	// The print stream that replaces the regular System.err print stream.
-	private PrintStream filteredErrorStream;
+	private FilteredErrorStream filteredErrorStream;
 	// The original print stream that used to be bound to System.err.
 	private PrintStream oldErr;
 	// Only needed because onLoad() can't pass it to onEnable().
 	private FolderManager errorFolderManager = null;
+	// Holds every error log.
+	private TraceStore traceStore;
+	// Assembles the stack traces that are printed to filteredErrorStream.
+	private StackTraceProcessor stackTraceProcessor;
+	// Knows which plugin every class belongs to.
+	private PluginClassIndex pluginClassIndex = new PluginClassIndex();
+	// Counts how often every saved stack trace has happened.
+	private FingerprintIndex fingerprintIndex;
+	// Finds error logs by what is in them.
+	private SearchIndex searchIndex;
+	// Publishes error logs in the background.
+	private PublishQueue publishQueue;
+	// Runs /ihd commands in the background.
+	private CommandRunner commandRunner;
 
 	// onLoad() is called before onEnable. This forces loading before all plugins. If a stack trace occurs when another
 	// plugin is enabling, it will be caught by us.
 	@Override
 	public void onLoad() {
+		// The config decides how stack traces are captured, so it has to be loaded before capturing starts.
+		this.saveDefaultConfig();
+		ConfigurationManager.loadConfiguration(this);
+
 		// Ensure that all necessary directories exist.
 		File errorFolder = new File(this.getDataFolder(), "Errors");
 		errorFolder.mkdirs();
-		errorFolderManager = new FolderManager(errorFolder, new ErrorFileFilter(), new ErrorFileComparator<File>());
+		try {
+			traceStore = new TraceStore(errorFolder, ConfigurationManager.getStoreSegmentSize() * 1024 * 1024,
+					ConfigurationManager.shouldCompressTraces());
+		} catch (IOException e) {
+			log(Level.SEVERE, "Could not open the error logs in " + errorFolder
+					+ ". Stack traces will not be captured.");
+			return;
+		}
+		errorFolderManager = new FolderManager(errorFolder, traceStore, new ErrorFileFilter(),
+				new ErrorFileComparator<File>());
+		fingerprintIndex = new FingerprintIndex(new File(errorFolder, "fingerprints.dat"), new File(errorFolder,
+				"fingerprints-journal.dat"));
+		searchIndex = new SearchIndex(new File(errorFolder, "search.dat"), new File(errorFolder, "search-journal.dat"));
+		// New traces can only be indexed after every older one, so this has to happen before capturing starts.
+		searchIndex.catchUp(traceStore, fingerprintIndex);
+		// Anything imported above has already been written, so the writer only takes new error logs.
+		traceStore.startWriter(ConfigurationManager.getStoreSyncPolicy(), ConfigurationManager.getStoreSyncEvery(),
+				ConfigurationManager.getStoreSyncInterval());
+
+		// Every plugin is loaded (but not necessarily enabled) before any onLoad() is called, so traces printed while
+		// the others load and enable can be attributed. ListenerManager keeps the index up to date after onEnable().
+		for (Plugin plugin : Bukkit.getPluginManager().getPlugins()) {
+			pluginClassIndex.addPlugin(plugin);
+		}
 
 		// Begin capturing stack traces!
 		initializeLogFilter(errorFolderManager);
@@ -45,21 +98,71 @@ public final class IHeartDevs extends JavaPlugin {
 
 	@Override
 	public void onEnable() {
+		if (traceStore == null) {
+			// onLoad() already explained why.
+			Bukkit.getPluginManager().disablePlugin(this);
+			return;
+		}
 		// Setup standard plugin things.
-		this.saveDefaultConfig();
-		ConfigurationManager.loadConfiguration(this);
-		Bukkit.getPluginManager().registerEvents(new ListenerManager(), this);
-		this.getCommand("ihd").setExecutor(
-				new CommandManager(errorFolderManager, new GistLogPublisher(), new SimpleDateFormat()));
+		commandRunner = new CommandRunner(this, ConfigurationManager.getCommandThreads(),
+				ConfigurationManager.getCommandsPerSender());
+		Bukkit.getPluginManager().registerEvents(new ListenerManager(pluginClassIndex, commandRunner), this);
+		// Every publisher shares the same connections.
+		HttpTransport transport = new HttpTransport(ConfigurationManager.getPublishConnectTimeout(),
+				ConfigurationManager.getPublishReadTimeout());
+		ILogPublisher publisher;
+		if (ConfigurationManager.getPublisher().equals("paste")) {
+			publisher = new PasteLogPublisher(ConfigurationManager.getPasteUrl(),
+					ConfigurationManager.getPasteFormField(), ConfigurationManager.getPasteResponseField(),
+					ConfigurationManager.getPasteViewUrl(), transport);
+		} else {
+			publisher = new GistLogPublisher(ConfigurationManager.getGistApiUrl(), transport);
+		}
+		PublishCache publishCache = new PublishCache(new File(this.getDataFolder(), "publish-cache.dat"),
+				ConfigurationManager.getPublishCacheExpiry() * 60 * 60 * 1000);
+		publishQueue = new PublishQueue(this, errorFolderManager, publisher, publishCache, new File(
+				this.getDataFolder(), "Outbox"), ConfigurationManager.getPublishThreads(),
+				ConfigurationManager.getPublishMaxAttempts());
+		publishQueue.start();
+		CommandManager commandManager = new CommandManager(errorFolderManager, fingerprintIndex, searchIndex,
+				new TraceViewCache(errorFolderManager, ConfigurationManager.getViewCacheSize() * 1024), publishQueue,
+				commandRunner, new SimpleDateFormat());
+		this.getCommand("ihd").setExecutor(commandManager);
+		this.getCommand("ihd").setTabCompleter(commandManager);
+		PipelineMetrics.register();
 
 		// tempTesting();
 	}
 
 	@Override
 	public void onDisable() {
+		PipelineMetrics.unregister();
+		if (commandRunner != null) {
+			commandRunner.shutdown(1000);
+			commandRunner = null;
+		}
+		if (publishQueue != null) {
+			// Whatever doesn't finish in time is published after the next start.
+			publishQueue.shutdown(2000);
+			publishQueue = null;
+		}
+		if (filteredErrorStream == null) {
+			// Capturing never started.
+			return;
+		}
 		// Replace our error stream with the old one again.
 		System.setErr(oldErr);
+		// Give the consumer thread (if there is one) a moment to finish what was already printed.
+		filteredErrorStream.shutdown(1000);
+		ChunkRingBuffer ringBuffer = filteredErrorStream.getRingBuffer();
+		if (ringBuffer != null && ringBuffer.getDroppedChunks() > 0) {
+			log(Level.WARNING, "Dropped " + ringBuffer.getDroppedChunks() + " chunks of System.err output ("
+					+ ringBuffer.getDroppedOldest() + " oldest, " + ringBuffer.getDroppedNewest() + " newest).");
+		}
 		filteredErrorStream = null;
+		stackTraceProcessor.shutdown();
+		// Give the writer a bounded amount of time to get everything onto the disk.
+		traceStore.close(5000);
 	}
 
 	/**
@@ -67,8 +170,15 @@ public final class IHeartDevs extends JavaPlugin {
 	 */
 	private void initializeLogFilter(FolderManager folderManager) {
 		oldErr = System.err;
-		IMessageProcessor stackTraceProcessor = new StackTraceProcessor(this, folderManager);
-		filteredErrorStream = new FilteredErrorStream(stackTraceProcessor);
+		stackTraceProcessor = new StackTraceProcessor(this, folderManager, pluginClassIndex, fingerprintIndex,
+				searchIndex);
+		if (ConfigurationManager.shouldUseAsyncCapture()) {
+			ChunkRingBuffer ringBuffer = new ChunkRingBuffer(ConfigurationManager.getAsyncBufferSize(),
+					ConfigurationManager.getAsyncOverflowPolicy(), ConfigurationManager.getAsyncBlockTimeout());
+			filteredErrorStream = new FilteredErrorStream(ringBuffer, stackTraceProcessor);
+		} else {
+			filteredErrorStream = new FilteredErrorStream(stackTraceProcessor);
+		}
 		System.setErr(filteredErrorStream);
 	}
 
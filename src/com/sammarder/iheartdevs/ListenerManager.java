@@ -5,11 +5,70 @@ import java.util.logging.Level;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.server.PluginDisableEvent;
+import org.bukkit.event.server.PluginEnableEvent;
 import org.bukkit.plugin.Plugin;
 
+import com.sammarder.iheartdevs.traceprocessing.PluginClassIndex;
+import com.sammarder.iheartdevs.traceprocessing.ServerMetaInfo;
 import com.sammarder.iheartdevs.traceprocessing.StackTraceCreationEvent;
 
 public class ListenerManager implements Listener {
+	// Needs to know about every plugin that comes and goes.
+	private PluginClassIndex pluginClassIndex;
+	// Needs to know about every player that leaves.
+	private CommandRunner commandRunner;
+
+	/**
+	 * Constructor for creating a new ListenerManager.
+	 * 
+	 * @param pluginClassIndex
+	 *            The index to keep up to date as plugins are enabled and disabled.
+	 * @param commandRunner
+	 *            The CommandRunner whose commands are cancelled when their player leaves.
+	 */
+	public ListenerManager(PluginClassIndex pluginClassIndex, CommandRunner commandRunner) {
+		this.pluginClassIndex = pluginClassIndex;
+		this.commandRunner = commandRunner;
+	}
+
+	/**
+	 * Handles a PlayerQuitEvent by cancelling the commands the player still has running.
+	 * 
+	 * @param event
+	 *            The specifics for the player that left.
+	 */
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onPlayerQuit(PlayerQuitEvent event) {
+		commandRunner.cancel(event.getPlayer().getName());
+	}
+
+	/**
+	 * Handles a PluginEnableEvent by indexing the classes of the plugin. The plugin list of the next error log changes,
+	 * so it will start a new session.
+	 * 
+	 * @param event
+	 *            The specifics for the enabled plugin.
+	 */
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onPluginEnable(PluginEnableEvent event) {
+		pluginClassIndex.addPlugin(event.getPlugin());
+		ServerMetaInfo.refreshPluginNames();
+	}
+
+	/**
+	 * Handles a PluginDisableEvent by forgetting the classes of the plugin (and the plugin list of the current
+	 * session).
+	 * 
+	 * @param event
+	 *            The specifics for the disabled plugin.
+	 */
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onPluginDisable(PluginDisableEvent event) {
+		pluginClassIndex.removePlugin(event.getPlugin());
+		ServerMetaInfo.refreshPluginNames();
+	}
 
 	/**
 	 * Handles a StackTraceCreationEvent. This is called when a new stack trace is successfully logged to a file.
@@ -26,8 +85,8 @@ public class ListenerManager implements Listener {
 			pluginName = plugin.getName();
 		}
 
-		IHeartDevs.log(Level.WARNING,
-				"A stack trace from " + pluginName + " was logged to " + event.getQualifiedFileName());
+		IHeartDevs.log(Level.WARNING, "A stack trace from " + pluginName + " was logged as error log "
+				+ event.getTraceId());
 		IHeartDevs.log(Level.WARNING, "Type " + Utilities.formatCommand("IHD view latest") + " for more information.");
 
 		String message = "An error occurred with " + pluginName + ". Type "
@@ -0,0 +1,182 @@
+package com.sammarder.iheartdevs;
+
+import com.sammarder.iheartdevs.traceprocessing.SearchIndex;
+
+/**
+ * The filters of an "/ihd list ..." command. The logs that match are found by intersecting indices (plugin and
+ * exception type postings from the SearchIndex and the time ordered index of the store), so no log is read to filter
+ * them. The arguments are:
+ * 
+ * <pre>
+ * N                       page N of the results
+ * latest                  only the newest log that matches
+ * -plugin Name            logs caused by a plugin
+ * -exception Type         logs with a type of exception (simple or fully qualified name)
+ * -time 3D40M             logs from the last 3 days and 40 minutes
+ * -time 3D-1D             logs from between 3 days and 1 day ago
+ * -descending             the oldest logs first
+ * </pre>
+ * 
+ * Options may be shortened to their first letter and case doesn't matter.
+ */
+public class TraceQuery {
+	private String plugin;
+	private String exception;
+	private long from = Long.MIN_VALUE;
+	private long to = Long.MAX_VALUE;
+	private boolean descending;
+	private boolean latest;
+	private int page = 1;
+
+	// Instantiation is forbidden (use parse())
+	private TraceQuery() {
+	}
+
+	/**
+	 * Parses the arguments of a list command.
+	 * 
+	 * @param args
+	 *            The arguments of the command.
+	 * @param first
+	 *            The index of the first argument that belongs to the query.
+	 * @param now
+	 *            The current time (in milliseconds) that -time is relative to.
+	 * @return The query.
+	 * @throws InputProcessingException
+	 *             If an argument isn't understood. The message explains why.
+	 */
+	public static TraceQuery parse(String[] args, int first, long now) throws InputProcessingException {
+		TraceQuery query = new TraceQuery();
+		for (int i = first; i < args.length; i++) {
+			String arg = args[i].toLowerCase();
+			if (Utilities.isPositiveInteger(arg)) {
+				try {
+					query.page = Integer.parseInt(arg);
+				} catch (NumberFormatException e) {
+					query.page = 0;
+				}
+				if (query.page < 1) {
+					throw new InputProcessingException("There is no page " + arg + ".");
+				}
+			} else if (arg.equals("latest")) {
+				query.latest = true;
+			} else if (isOption(arg, "descending")) {
+				query.descending = true;
+			} else if (isOption(arg, "plugin") || isOption(arg, "exception") || isOption(arg, "time")) {
+				if (i + 1 == args.length) {
+					throw new InputProcessingException(args[i] + " needs a value.");
+				}
+				String value = args[++i];
+				if (isOption(arg, "plugin")) {
+					query.plugin = value;
+				} else if (isOption(arg, "exception")) {
+					query.exception = value;
+				} else {
+					query.parseTime(value, now);
+				}
+			} else {
+				throw new InputProcessingException("Unknown argument " + args[i] + ".");
+			}
+		}
+		return query;
+	}
+
+	/**
+	 * Gets the IDs of every log that matches the filters.
+	 * 
+	 * @param searchIndex
+	 *            Knows the plugin and exception types of every log.
+	 * @param folderManager
+	 *            Knows when every log was created.
+	 * @return The IDs in ascending order.
+	 */
+	public int[] select(SearchIndex searchIndex, FolderManager folderManager) {
+		int[] ids = null;
+		if (plugin != null) {
+			ids = searchIndex.getByPlugin(plugin);
+		}
+		if (exception != null) {
+			ids = intersect(ids, searchIndex.getByException(exception));
+		}
+		if (ids == null || from != Long.MIN_VALUE || to != Long.MAX_VALUE) {
+			ids = intersect(ids, folderManager.getIdsBetween(from, to));
+		}
+		return ids;
+	}
+
+	/**
+	 * @return true if anything other than the page was given.
+	 */
+	public boolean isFiltered() {
+		return plugin != null || exception != null || from != Long.MIN_VALUE || to != Long.MAX_VALUE;
+	}
+
+	/**
+	 * @return true if the oldest logs should be listed first.
+	 */
+	public boolean isDescending() {
+		return descending;
+	}
+
+	/**
+	 * @return true if only the newest log that matches should be listed.
+	 */
+	public boolean isLatest() {
+		return latest;
+	}
+
+	/**
+	 * @return The page of the results to list, starting at 1.
+	 */
+	public int getPage() {
+		return page;
+	}
+
+	/**
+	 * Parses "3D40M" (the last 3 days and 40 minutes) or "3D-1D" (between 3 days and 1 day ago).
+	 */
+	private void parseTime(String value, long now) throws InputProcessingException {
+		int dash = value.indexOf('-');
+		long start = Utilities.parseDuration(dash < 0 ? value : value.substring(0, dash));
+		long end = dash < 0 ? 0 : Utilities.parseDuration(value.substring(dash + 1));
+		if (start < 0 || end < 0) {
+			throw new InputProcessingException(value + " is not an amount of time like 3D40M or a range like 3D-1D.");
+		}
+		from = now - Math.max(start, end);
+		to = dash < 0 ? Long.MAX_VALUE : now - Math.min(start, end);
+	}
+
+	/**
+	 * Determines if an argument is an option (with a dash), either written out or shortened to its first letter.
+	 */
+	private static boolean isOption(String arg, String name) {
+		return arg.equals("-" + name) || arg.equals("-" + name.charAt(0));
+	}
+
+	/**
+	 * Gets the IDs that are in both lists. A null list stands for every ID.
+	 */
+	private static int[] intersect(int[] a, int[] b) {
+		if (a == null) {
+			return b;
+		}
+		int[] both = new int[Math.min(a.length, b.length)];
+		int count = 0;
+		int i = 0;
+		int j = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				both[count++] = a[i];
+				i++;
+				j++;
+			}
+		}
+		int[] result = new int[count];
+		System.arraycopy(both, 0, result, 0, count);
+		return result;
+	}
+}
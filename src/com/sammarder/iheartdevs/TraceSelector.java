@@ -0,0 +1,163 @@
+package com.sammarder.iheartdevs;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import com.sammarder.iheartdevs.traceprocessing.FingerprintIndex;
+import com.sammarder.iheartdevs.traceprocessing.FingerprintIndex.Occurrence;
+
+/**
+ * Turns what a command sender typed into a set of error log IDs. A selector is one of:
+ * 
+ * <pre>
+ * 12                  one log
+ * 10-20               every log from 10 to 20
+ * 3,7,10-12           any mix of the above
+ * plugin:Name         the saved log of every distinct trace caused by a plugin (case doesn't matter)
+ * fingerprint:1a2b3c  the saved log of a distinct trace
+ * </pre>
+ * 
+ * This class only contains static methods and therefore cannot be instantiated.
+ */
+public class TraceSelector {
+	/**
+	 * The most logs a selector may select.
+	 */
+	public static final int MAX_LOGS = 50;
+
+	private static final String PLUGIN_PREFIX = "plugin:";
+	private static final String FINGERPRINT_PREFIX = "fingerprint:";
+
+	// Instantiation is forbidden
+	private TraceSelector() {
+	}
+
+	/**
+	 * Selects error logs. IDs are not checked against the store, so the caller has to skip the ones that don't exist.
+	 * 
+	 * @param selector
+	 *            What the command sender typed.
+	 * @param fingerprintIndex
+	 *            Knows which logs belong to which plugin and fingerprint.
+	 * @return The IDs of the selected logs in ascending order. This is never empty.
+	 * @throws InputProcessingException
+	 *             If the selector is malformed, selects nothing or selects more than MAX_LOGS logs. The message
+	 *             explains why.
+	 */
+	public static int[] select(String selector, FingerprintIndex fingerprintIndex) throws InputProcessingException {
+		SortedSet<Integer> ids = new TreeSet<Integer>();
+		String lower = selector.toLowerCase();
+		if (lower.startsWith(PLUGIN_PREFIX)) {
+			selectPlugin(selector.substring(PLUGIN_PREFIX.length()).trim(), fingerprintIndex, ids);
+		} else if (lower.startsWith(FINGERPRINT_PREFIX)) {
+			Occurrence occurrence;
+			try {
+				long fingerprint = new BigInteger(selector.substring(FINGERPRINT_PREFIX.length()).trim(), 16)
+						.longValue();
+				occurrence = fingerprintIndex.getByFingerprint(fingerprint);
+			} catch (NumberFormatException e) {
+				throw new InputProcessingException("A fingerprint is a hexadecimal number.");
+			}
+			if (occurrence != null) {
+				ids.add(occurrence.getTraceId());
+			}
+		} else {
+			for (String part : selector.split(",")) {
+				selectRange(part.trim(), ids);
+			}
+		}
+
+		if (ids.isEmpty()) {
+			throw new InputProcessingException("No error logs match " + selector);
+		}
+		int[] selected = new int[ids.size()];
+		int i = 0;
+		for (int id : ids) {
+			selected[i++] = id;
+		}
+		return selected;
+	}
+
+	/**
+	 * Writes IDs the way a selector would select them, with every run of consecutive IDs as a range: 3,7,10-12
+	 * 
+	 * @param ids
+	 *            The IDs in ascending order.
+	 * @return The IDs as a selector.
+	 */
+	public static String format(int[] ids) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < ids.length; i++) {
+			int first = ids[i];
+			while (i + 1 < ids.length && ids[i + 1] == ids[i] + 1) {
+				i++;
+			}
+			if (sb.length() > 0) {
+				sb.append(',');
+			}
+			sb.append(first);
+			if (ids[i] != first) {
+				sb.append('-').append(ids[i]);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Adds a single ID or a range of IDs ("from-to").
+	 */
+	private static void selectRange(String range, SortedSet<Integer> ids) throws InputProcessingException {
+		int dash = range.indexOf('-', 1);
+		int from;
+		int to;
+		try {
+			if (dash < 0) {
+				from = to = Integer.parseInt(range);
+			} else {
+				from = Integer.parseInt(range.substring(0, dash).trim());
+				to = Integer.parseInt(range.substring(dash + 1).trim());
+			}
+		} catch (NumberFormatException e) {
+			throw new InputProcessingException(range + " is not an ID or a range of IDs.");
+		}
+		if (from > to) {
+			int temp = from;
+			from = to;
+			to = temp;
+		}
+		// Checked before adding anything, so a huge range can't fill up memory.
+		if ((long) to - from + 1 + ids.size() > MAX_LOGS) {
+			throw new InputProcessingException("At most " + MAX_LOGS + " error logs can be selected at once.");
+		}
+		for (int id = from; id <= to; id++) {
+			ids.add(id);
+		}
+	}
+
+	/**
+	 * Adds the saved log of every distinct trace caused by a plugin. If there are too many, only the ones that happened
+	 * most recently are added.
+	 */
+	private static void selectPlugin(String plugin, FingerprintIndex fingerprintIndex, SortedSet<Integer> ids) {
+		List<Occurrence> matches = new ArrayList<Occurrence>();
+		for (Occurrence occurrence : fingerprintIndex.getAll()) {
+			if (occurrence.getPlugin() != null && occurrence.getPlugin().equalsIgnoreCase(plugin)) {
+				matches.add(occurrence);
+			}
+		}
+		Collections.sort(matches, new Comparator<Occurrence>() {
+			@Override
+			public int compare(Occurrence a, Occurrence b) {
+				return b.getLastSeen() < a.getLastSeen() ? -1 : (b.getLastSeen() == a.getLastSeen() ? 0 : 1);
+			}
+		});
+		for (int i = 0; i < matches.size() && i < MAX_LOGS; i++) {
+			ids.add(matches.get(i).getTraceId());
+		}
+	}
+}
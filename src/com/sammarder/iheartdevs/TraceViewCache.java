@@ -0,0 +1,164 @@
+package com.sammarder.iheartdevs;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sammarder.iheartdevs.storage.StoredTrace;
+
+/**
+ * Keeps the most recently viewed error logs in memory, already split into pages, so paging through a long log with
+ * /ihd view doesn't read (and decompress) it again for every page. Every sender shares the same cache, which is limited
+ * by how much memory the logs in it take up. All methods are thread safe.
+ */
+public class TraceViewCache {
+	/**
+	 * The number of lines on each page of a log.
+	 */
+	public static final int PAGE_SIZE = 15;
+
+	private final FolderManager folderManager;
+	private final long maxSize;
+	// Logs by ID, least recently viewed first.
+	private final Map<Integer, ParsedTrace> traces = new LinkedHashMap<Integer, ParsedTrace>(16, 0.75f, true);
+	// The total size (in bytes) of traces.
+	private long size;
+
+	/**
+	 * Constructor for creating a new TraceViewCache.
+	 * 
+	 * @param folderManager
+	 *            The FolderManager to read error logs from.
+	 * @param maxSize
+	 *            How much memory (in bytes) the cached logs may take up.
+	 */
+	public TraceViewCache(FolderManager folderManager, long maxSize) {
+		this.folderManager = folderManager;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Gets an error log, split into pages.
+	 * 
+	 * @param id
+	 *            The ID of the error log.
+	 * @return The error log or null if it doesn't exist.
+	 */
+	public ParsedTrace get(int id) {
+		synchronized (this) {
+			ParsedTrace trace = traces.get(id);
+			if (trace != null) {
+				return trace;
+			}
+		}
+		// Nothing else has to wait for the store while this is read.
+		StoredTrace stored = folderManager.getFile(id);
+		if (stored == null) {
+			return null;
+		}
+		ParsedTrace trace = new ParsedTrace(stored.getContents());
+		synchronized (this) {
+			if (trace.getSize() <= maxSize && !traces.containsKey(id)) {
+				traces.put(id, trace);
+				size += trace.getSize();
+				Iterator<ParsedTrace> iterator = traces.values().iterator();
+				while (size > maxSize) {
+					size -= iterator.next().getSize();
+					iterator.remove();
+				}
+			}
+		}
+		return trace;
+	}
+
+	/**
+	 * The stack trace part of an error log (everything after the "Stacktrace:" line) with the position of every line,
+	 * so any page can be cut out of it directly.
+	 */
+	public static class ParsedTrace {
+		private static final String STACKTRACE_LINE = "Stacktrace:";
+
+		private final String contents;
+		// Where every line of the trace starts and where the line after the last one would start.
+		private final int[] lineStarts;
+
+		ParsedTrace(String contents) {
+			this.contents = contents;
+			List<Integer> starts = new ArrayList<Integer>();
+			boolean found = false;
+			int start = 0;
+			while (start < contents.length()) {
+				int end = contents.indexOf('\n', start);
+				end = end < 0 ? contents.length() : end + 1;
+				if (found) {
+					starts.add(start);
+				} else if (contents.startsWith(STACKTRACE_LINE, start)
+						&& contents.substring(start, end).trim().equals(STACKTRACE_LINE)) {
+					found = true;
+				}
+				start = end;
+			}
+			if (!found) {
+				lineStarts = null;
+				return;
+			}
+			lineStarts = new int[starts.size() + 1];
+			for (int i = 0; i < starts.size(); i++) {
+				lineStarts[i] = starts.get(i);
+			}
+			lineStarts[starts.size()] = contents.length();
+		}
+
+		/**
+		 * @return true if the log has no "Stacktrace:" line, so there is nothing to page through.
+		 */
+		public boolean isMalformed() {
+			return lineStarts == null;
+		}
+
+		/**
+		 * @return The number of pages (at least 1).
+		 */
+		public int getPageCount() {
+			int lines = isMalformed() ? 0 : lineStarts.length - 1;
+			return Math.max(1, (lines + PAGE_SIZE - 1) / PAGE_SIZE);
+		}
+
+		/**
+		 * Gets the lines on a page.
+		 * 
+		 * @param page
+		 *            The page, starting at 1.
+		 * @return The lines (without line separators) or an empty array if there is no such page.
+		 */
+		public String[] getPage(int page) {
+			if (isMalformed() || page < 1) {
+				return new String[0];
+			}
+			int first = (page - 1) * PAGE_SIZE;
+			int last = Math.min(lineStarts.length - 1, first + PAGE_SIZE);
+			if (first >= last) {
+				return new String[0];
+			}
+			String[] lines = new String[last - first];
+			for (int i = first; i < last; i++) {
+				int end = lineStarts[i + 1];
+				// Strip the line separator ("\n" or "\r\n").
+				while (end > lineStarts[i] && (contents.charAt(end - 1) == '\n' || contents.charAt(end - 1) == '\r')) {
+					end--;
+				}
+				lines[i - first] = contents.substring(lineStarts[i], end);
+			}
+			return lines;
+		}
+
+		/**
+		 * @return About how much memory (in bytes) this takes up.
+		 */
+		long getSize() {
+			return 2L * contents.length() + (lineStarts == null ? 0 : 4L * lineStarts.length);
+		}
+	}
+}
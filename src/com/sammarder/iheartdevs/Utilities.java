@@ -81,6 +81,55 @@ public class Utilities {
 		// Furthermore, months and longer aren't very exact.
 	}
 
+	/**
+	 * Parses a relative amount of time like 3D40M (3 days and 40 minutes). The units are W (weeks), D (days),
+	 * H (hours), M (minutes) and S (seconds), and case doesn't matter.
+	 * 
+	 * @param str
+	 *            A non-null String to parse.
+	 * @return The time in milliseconds or -1 if the string isn't an amount of time.
+	 */
+	public static long parseDuration(String str) {
+		long time = 0;
+		long number = -1;
+		for (int i = 0; i < str.length(); i++) {
+			char c = Character.toUpperCase(str.charAt(i));
+			if (c >= '0' && c <= '9') {
+				number = Math.max(number, 0) * 10 + (c - '0');
+				// Nobody needs to go back further than that, and it keeps the math from overflowing.
+				if (number > 1000000) {
+					return -1;
+				}
+				continue;
+			}
+			if (number < 0) {
+				return -1;
+			}
+			switch (c) {
+			case 'W':
+				time += number * 1000 * 60 * 60 * 24 * 7;
+				break;
+			case 'D':
+				time += number * 1000 * 60 * 60 * 24;
+				break;
+			case 'H':
+				time += number * 1000 * 60 * 60;
+				break;
+			case 'M':
+				time += number * 1000 * 60;
+				break;
+			case 'S':
+				time += number * 1000;
+				break;
+			default:
+				return -1;
+			}
+			number = -1;
+		}
+		// A number without a unit (or nothing at all) isn't an amount of time.
+		return number >= 0 || str.length() == 0 ? -1 : time;
+	}
+
 	/**
 	 * Determines if a string (probably) represents a positive Java integer.
 	 * 
@@ -0,0 +1,42 @@
+package com.sammarder.iheartdevs.metrics;
+
+/**
+ * The view of PipelineMetrics that is registered with the platform MBean server, so the metrics can be watched with
+ * JConsole, VisualVM or anything else that speaks JMX. All durations are in nanoseconds.
+ */
+public interface IPipelineMetricsMXBean {
+	/**
+	 * @return The number of lines printed to System.err.
+	 */
+	public long getLinesSeen();
+
+	/**
+	 * @return How long it took an IMessageProcessor to process a line.
+	 */
+	public LatencyHistogram.Snapshot getProcessTime();
+
+	/**
+	 * @return The number of stack traces that were assembled from lines.
+	 */
+	public long getTracesAssembled();
+
+	/**
+	 * @return How long it took to figure out which plugin caused a stack trace.
+	 */
+	public LatencyHistogram.Snapshot getAttributionTime();
+
+	/**
+	 * @return The number of bytes written to the trace store.
+	 */
+	public long getBytesWritten();
+
+	/**
+	 * @return How long it took to fire a StackTraceCreationEvent.
+	 */
+	public LatencyHistogram.Snapshot getDispatchTime();
+
+	/**
+	 * @return How long it took to publish error logs (whether or not it worked).
+	 */
+	public LatencyHistogram.Snapshot getPublishTime();
+}
@@ -0,0 +1,120 @@
+package com.sammarder.iheartdevs.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts how long something takes in fixed buckets, one for every power of two nanoseconds, so recording a duration is
+ * just a couple of striped increments and never allocates. Percentiles are only as accurate as the buckets (within a
+ * factor of two), which is plenty for spotting where time goes.
+ */
+public class LatencyHistogram {
+	// Bucket i counts the durations that are i bits long: bucket 1 is 1 ns, bucket 2 is 2-3 ns and so on. The last
+	// bucket catches everything from 2^38 ns (about 4.6 minutes) on.
+	private static final int BUCKETS = 40;
+
+	// STRIPES rows of BUCKETS counts.
+	private final AtomicLongArray counts = new AtomicLongArray(StripedCounter.STRIPES * BUCKETS);
+	private final StripedCounter total = new StripedCounter();
+
+	/**
+	 * Records how long something took.
+	 * 
+	 * @param nanos
+	 *            The duration in nanoseconds (from System.nanoTime()).
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			// System.nanoTime() isn't guaranteed to be monotonic across cores on every platform.
+			nanos = 0;
+		}
+		int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+		counts.incrementAndGet(StripedCounter.stripe() * BUCKETS + bucket);
+		total.add(nanos);
+	}
+
+	/**
+	 * Takes a snapshot of everything recorded so far. Durations that are recorded at the same time may or may not be
+	 * included.
+	 * 
+	 * @return The snapshot.
+	 */
+	public Snapshot snapshot() {
+		long[] buckets = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			long value = counts.get(i);
+			buckets[i % BUCKETS] += value;
+			count += value;
+		}
+		return new Snapshot(buckets, count, total.sum());
+	}
+
+	/**
+	 * What a LatencyHistogram looked like at some point. All durations are in nanoseconds.
+	 */
+	public static class Snapshot {
+		private final long[] buckets;
+		private final long count;
+		private final long total;
+
+		Snapshot(long[] buckets, long count, long total) {
+			this.buckets = buckets;
+			this.count = count;
+			this.total = total;
+		}
+
+		/**
+		 * @return The number of durations recorded.
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return The average duration or 0 if nothing was recorded.
+		 */
+		public long getMean() {
+			return count == 0 ? 0 : total / count;
+		}
+
+		/**
+		 * @return About the duration that half of the durations are shorter than.
+		 */
+		public long getMedian() {
+			return getPercentile(50);
+		}
+
+		/**
+		 * @return About the duration that 99% of the durations are shorter than.
+		 */
+		public long getP99() {
+			return getPercentile(99);
+		}
+
+		/**
+		 * @return About the longest duration.
+		 */
+		public long getMax() {
+			return getPercentile(100);
+		}
+
+		/**
+		 * Gets about the duration that a percentage of the durations are shorter than (or as long as).
+		 * 
+		 * @param percent
+		 *            The percentage, from 0 to 100.
+		 * @return The upper bound of the bucket the percentile falls in or 0 if nothing was recorded.
+		 */
+		public long getPercentile(double percent) {
+			long rank = (long) Math.ceil(count * percent / 100);
+			long seen = 0;
+			for (int i = 0; i < buckets.length; i++) {
+				seen += buckets[i];
+				if (seen >= rank && seen > 0) {
+					return i == 0 ? 0 : (1L << i) - 1;
+				}
+			}
+			return 0;
+		}
+	}
+}
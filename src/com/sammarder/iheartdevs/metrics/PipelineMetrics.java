@@ -0,0 +1,169 @@
+package com.sammarder.iheartdevs.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.sammarder.iheartdevs.IHeartDevs;
+import com.sammarder.iheartdevs.Utilities;
+
+/**
+ * Counts what the stack trace pipeline does and how long it takes, from the moment a line is printed to System.err
+ * until its trace is saved (and maybe published). Every metric is a static field, so the hot path can record into it
+ * without any lookups, and recording never takes a lock or allocates. The metrics are shown by /ihd stats and through
+ * JMX once register() is called.
+ */
+public class PipelineMetrics implements IPipelineMetricsMXBean {
+	/**
+	 * The name the metrics are registered under with the platform MBean server.
+	 */
+	public static final String OBJECT_NAME = "com.sammarder.iheartdevs:type=PipelineMetrics";
+
+	/**
+	 * Every line that FilteredErrorStream completes.
+	 */
+	public static final StripedCounter LINES_SEEN = new StripedCounter();
+	/**
+	 * Every call to IMessageProcessor.process().
+	 */
+	public static final LatencyHistogram PROCESS_TIME = new LatencyHistogram();
+	/**
+	 * Every stack trace that StackTraceProcessor completes, whether or not it is saved.
+	 */
+	public static final StripedCounter TRACES_ASSEMBLED = new StripedCounter();
+	/**
+	 * Every call to TraceMetaInfo.findPlugin().
+	 */
+	public static final LatencyHistogram ATTRIBUTION_TIME = new LatencyHistogram();
+	/**
+	 * Every byte (headers included) that the TraceStore writes to its segments.
+	 */
+	public static final StripedCounter BYTES_WRITTEN = new StripedCounter();
+	/**
+	 * Every StackTraceCreationEvent that is fired.
+	 */
+	public static final LatencyHistogram DISPATCH_TIME = new LatencyHistogram();
+	/**
+	 * Every attempt to publish error logs.
+	 */
+	public static final LatencyHistogram PUBLISH_TIME = new LatencyHistogram();
+
+	// The name registered by register() or null if the metrics aren't registered.
+	private static ObjectName registeredName;
+
+	/**
+	 * Constructor for creating the MBean view of the metrics. The metrics themselves are static, so every instance
+	 * shows the same thing.
+	 */
+	public PipelineMetrics() {
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server. Metrics left behind by an earlier instance of the plugin
+	 * (after a reload, for example) are replaced.
+	 */
+	public static synchronized void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(new PipelineMetrics(), name);
+			registeredName = name;
+		} catch (JMException e) {
+			IHeartDevs.log(Level.WARNING, "Could not register the pipeline metrics with JMX: " + e);
+		}
+	}
+
+	/**
+	 * Unregisters the metrics from the platform MBean server, if they are registered.
+	 */
+	public static synchronized void unregister() {
+		if (registeredName == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+		} catch (JMException e) {
+			// Somebody else already unregistered it.
+		}
+		registeredName = null;
+	}
+
+	/**
+	 * Describes every metric in a line of its own, for /ihd stats.
+	 * 
+	 * @return The lines.
+	 */
+	public static List<String> describe() {
+		List<String> lines = new ArrayList<String>();
+		lines.add("Lines seen: " + LINES_SEEN.sum());
+		lines.add("Traces assembled: " + TRACES_ASSEMBLED.sum());
+		lines.add("Bytes written: " + Utilities.formatBytes(BYTES_WRITTEN.sum()));
+		lines.add(describe("Process time", PROCESS_TIME.snapshot()));
+		lines.add(describe("Attribution time", ATTRIBUTION_TIME.snapshot()));
+		lines.add(describe("Event dispatch time", DISPATCH_TIME.snapshot()));
+		lines.add(describe("Publish time", PUBLISH_TIME.snapshot()));
+		return lines;
+	}
+
+	@Override
+	public long getLinesSeen() {
+		return LINES_SEEN.sum();
+	}
+
+	@Override
+	public LatencyHistogram.Snapshot getProcessTime() {
+		return PROCESS_TIME.snapshot();
+	}
+
+	@Override
+	public long getTracesAssembled() {
+		return TRACES_ASSEMBLED.sum();
+	}
+
+	@Override
+	public LatencyHistogram.Snapshot getAttributionTime() {
+		return ATTRIBUTION_TIME.snapshot();
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return BYTES_WRITTEN.sum();
+	}
+
+	@Override
+	public LatencyHistogram.Snapshot getDispatchTime() {
+		return DISPATCH_TIME.snapshot();
+	}
+
+	@Override
+	public LatencyHistogram.Snapshot getPublishTime() {
+		return PUBLISH_TIME.snapshot();
+	}
+
+	private static String describe(String name, LatencyHistogram.Snapshot snapshot) {
+		if (snapshot.getCount() == 0) {
+			return name + ": nothing recorded yet";
+		}
+		return name + ": " + snapshot.getCount() + " times, mean " + formatNanos(snapshot.getMean()) + ", median < "
+				+ formatNanos(snapshot.getMedian()) + ", 99% < " + formatNanos(snapshot.getP99()) + ", max < "
+				+ formatNanos(snapshot.getMax());
+	}
+
+	private static String formatNanos(long nanos) {
+		if (nanos < 1000) {
+			return nanos + " ns";
+		} else if (nanos < 1000 * 1000) {
+			return String.format("%.1f us", nanos / 1000.0);
+		} else {
+			return String.format("%.1f ms", nanos / 1000.0 / 1000.0);
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package com.sammarder.iheartdevs.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that many threads can add to at once without waiting on each other. Every thread adds to one of several
+ * stripes (picked by its ID) and reading the counter sums them up, so adding is cheap and never allocates while
+ * reading is a bit slower. This is what java.util.concurrent.atomic.LongAdder does on Java 8.
+ */
+public class StripedCounter {
+	/**
+	 * The number of stripes. A power of two, so the stripe of a thread is a mask away.
+	 */
+	static final int STRIPES = 16;
+	// Every stripe gets a cache line (8 longs) of its own, so threads that count at the same time don't slow each other
+	// down.
+	private static final int PADDING = 8;
+
+	private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+	/**
+	 * Adds to the counter.
+	 * 
+	 * @param value
+	 *            The amount to add.
+	 */
+	public void add(long value) {
+		cells.addAndGet(stripe() * PADDING, value);
+	}
+
+	/**
+	 * Adds one to the counter.
+	 */
+	public void increment() {
+		add(1);
+	}
+
+	/**
+	 * Gets the value of the counter. Adds that happen at the same time may or may not be included.
+	 * 
+	 * @return The sum of every stripe.
+	 */
+	public long sum() {
+		long sum = 0;
+		for (int i = 0; i < STRIPES; i++) {
+			sum += cells.get(i * PADDING);
+		}
+		return sum;
+	}
+
+	/**
+	 * @return The stripe of the calling thread, from 0 to STRIPES - 1.
+	 */
+	static int stripe() {
+		return (int) Thread.currentThread().getId() & (STRIPES - 1);
+	}
+}
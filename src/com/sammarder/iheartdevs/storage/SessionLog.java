@@ -0,0 +1,205 @@
+package com.sammarder.iheartdevs.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The details of the server (versions, memory, the plugin list) that every error log used to start with. They are
+ * recorded once per session (every time the server starts or its plugins change) in sessions.dat, and an error log
+ * only starts with a "Session: #" line that refers to one of them. Every record looks like this:
+ * 
+ * <pre>
+ * int  magic      (0x49484453, "IHDS")
+ * int  id
+ * long timestamp  (milliseconds)
+ * int  length     (of the text in bytes)
+ * </pre>
+ * 
+ * followed by the UTF-8 text. Sessions are small and few, so they are all kept in memory. This class is not thread
+ * safe.
+ */
+public class SessionLog {
+	/**
+	 * The start of the first line of an error log that refers to a session.
+	 */
+	public static final String SESSION_LINE = "Session: ";
+
+	// "IHDS"
+	private static final int MAGIC = 0x49484453;
+	private static final String CHARSET = "UTF-8";
+	// The longest first line that can refer to a session: the prefix, an int and a line separator.
+	private static final int MAX_SESSION_LINE = SESSION_LINE.length() + 13;
+
+	private final File file;
+	private final Map<Integer, String> sessions = new HashMap<Integer, String>();
+	private int nextId;
+
+	/**
+	 * Constructor for creating a new SessionLog. Every session that was recorded before is loaded. A record that was
+	 * only partially written is cut off.
+	 * 
+	 * @param file
+	 *            The file to keep the sessions in.
+	 * @throws IOException
+	 *             If the existing sessions could not be read.
+	 */
+	public SessionLog(File file) throws IOException {
+		this.file = file;
+		if (file.exists()) {
+			load();
+		}
+	}
+
+	/**
+	 * Records a new session. The record is forced to the disk before this returns, so no error log can refer to a
+	 * session that was lost.
+	 * 
+	 * @param serverInfo
+	 *            The details of the server, which are put in front of every error log of the session.
+	 * @param timestamp
+	 *            When (in milliseconds) the session started.
+	 * @return The ID of the session.
+	 * @throws IOException
+	 *             If the session could not be recorded.
+	 */
+	public int record(String serverInfo, long timestamp) throws IOException {
+		byte[] text = serverInfo.getBytes(CHARSET);
+		int id = nextId;
+		FileOutputStream fos = null;
+		try {
+			fos = new FileOutputStream(file, true);
+			DataOutputStream os = new DataOutputStream(fos);
+			os.writeInt(MAGIC);
+			os.writeInt(id);
+			os.writeLong(timestamp);
+			os.writeInt(text.length);
+			os.write(text);
+			os.flush();
+			fos.getFD().sync();
+		} finally {
+			try {
+				fos.close();
+			} catch (Exception e) {
+			}
+		}
+		sessions.put(id, serverInfo);
+		nextId++;
+		return id;
+	}
+
+	/**
+	 * Puts the details of its session back in front of an error log that refers to one.
+	 * 
+	 * @param contents
+	 *            The text of the error log as it was stored.
+	 * @return The full text of the error log. Logs that don't refer to a (known) session are returned as they are.
+	 */
+	public String expand(String contents) {
+		int end = contents.indexOf('\n');
+		String serverInfo = end < 0 ? null : getServerInfo(contents.substring(0, end));
+		if (serverInfo == null) {
+			return contents;
+		}
+		return serverInfo + contents.substring(end + 1);
+	}
+
+	/**
+	 * Puts the details of its session back in front of an error log that refers to one, while the log is read. Only
+	 * the first line is read ahead.
+	 * 
+	 * @param contents
+	 *            The UTF-8 text of the error log as it was stored.
+	 * @return The full UTF-8 text of the error log. Logs that don't refer to a (known) session are returned as they
+	 *         are.
+	 * @throws IOException
+	 *             If the first line could not be read.
+	 */
+	public InputStream expand(InputStream contents) throws IOException {
+		PushbackInputStream is = new PushbackInputStream(contents, MAX_SESSION_LINE);
+		byte[] line = new byte[MAX_SESSION_LINE];
+		int length = 0;
+		int b;
+		while (length < line.length && (b = is.read()) >= 0) {
+			line[length++] = (byte) b;
+			if (b == '\n') {
+				break;
+			}
+		}
+		String serverInfo = null;
+		if (length > 0 && line[length - 1] == '\n') {
+			serverInfo = getServerInfo(new String(line, 0, length - 1, CHARSET));
+		}
+		if (serverInfo == null) {
+			is.unread(line, 0, length);
+			return is;
+		}
+		return new SequenceInputStream(new ByteArrayInputStream(serverInfo.getBytes(CHARSET)), is);
+	}
+
+	/**
+	 * Gets the details of the session that the first line of an error log refers to.
+	 * 
+	 * @param firstLine
+	 *            The first line, without the line separator.
+	 * @return The details or null if the line doesn't refer to a (known) session.
+	 */
+	private String getServerInfo(String firstLine) {
+		if (!firstLine.startsWith(SESSION_LINE)) {
+			return null;
+		}
+		try {
+			return sessions.get(Integer.parseInt(firstLine.substring(SESSION_LINE.length()).trim()));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private void load() throws IOException {
+		long valid = 0;
+		DataInputStream is = null;
+		try {
+			is = new DataInputStream(new FileInputStream(file));
+			while (true) {
+				int magic = is.readInt();
+				int id = is.readInt();
+				is.readLong();
+				int length = is.readInt();
+				if (magic != MAGIC || length < 0 || valid + 20 + length > file.length()) {
+					break;
+				}
+				byte[] text = new byte[length];
+				is.readFully(text);
+				sessions.put(id, new String(text, CHARSET));
+				nextId = Math.max(nextId, id + 1);
+				valid += 20 + length;
+			}
+		} catch (EOFException e) {
+			// The last record is incomplete.
+		} finally {
+			try {
+				is.close();
+			} catch (Exception e) {
+			}
+		}
+		if (valid < file.length()) {
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.setLength(valid);
+			} finally {
+				raf.close();
+			}
+		}
+	}
+}
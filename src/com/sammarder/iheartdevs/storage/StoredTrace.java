@@ -0,0 +1,106 @@
+package com.sammarder.iheartdevs.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A single error log that has been read back out of a TraceStore.
+ */
+public class StoredTrace {
+	private final int id;
+	private final long timestamp;
+	// null until it is read from the store (for logs that were listed but not read yet).
+	private String contents;
+	private final String location;
+	private final TraceStore store;
+
+	/**
+	 * Constructor for creating a new StoredTrace.
+	 * 
+	 * @param id
+	 *            The ID of the log.
+	 * @param timestamp
+	 *            When (in milliseconds) the log was stored.
+	 * @param contents
+	 *            The text of the log.
+	 * @param location
+	 *            A human readable description of where the log is stored.
+	 */
+	public StoredTrace(int id, long timestamp, String contents, String location) {
+		this.id = id;
+		this.timestamp = timestamp;
+		this.contents = contents;
+		this.location = location;
+		this.store = null;
+	}
+
+	/**
+	 * Constructor for a StoredTrace whose contents are only read from the store when they are needed.
+	 */
+	StoredTrace(int id, long timestamp, String location, TraceStore store) {
+		this.id = id;
+		this.timestamp = timestamp;
+		this.location = location;
+		this.store = store;
+	}
+
+	/**
+	 * @return The ID of the log.
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * @return When (in milliseconds) the log was stored.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return The text of the log. This reads the log from the store the first time it is called on a listed log.
+	 */
+	public String getContents() {
+		if (contents == null) {
+			StoredTrace read = store.read(id);
+			contents = read == null ? "" : read.getContents();
+		}
+		return contents;
+	}
+
+	/**
+	 * Opens the text of the log for reading a piece at a time. A log that hasn't been read yet is read straight from
+	 * the store as the stream is read (see TraceStore.openStream()), so it never has to fit in memory as a whole.
+	 * 
+	 * @return The UTF-8 text of the log, which has to be closed.
+	 * @throws IOException
+	 *             If the log could not be read.
+	 */
+	public InputStream openStream() throws IOException {
+		if (contents == null) {
+			InputStream stream = store.openStream(id);
+			return stream == null ? new ByteArrayInputStream(new byte[0]) : stream;
+		}
+		return new ByteArrayInputStream(contents.getBytes("UTF-8"));
+	}
+
+	/**
+	 * Gets the text of the log split into lines.
+	 * 
+	 * @return The lines of the log, without line separators.
+	 */
+	public List<String> getLines() {
+		return Arrays.asList(getContents().split("\r?\n"));
+	}
+
+	/**
+	 * @return A human readable description of where the log is stored, such as a segment file and the ID.
+	 */
+	public String getLocation() {
+		return location;
+	}
+}
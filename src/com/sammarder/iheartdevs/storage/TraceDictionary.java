@@ -0,0 +1,112 @@
+package com.sammarder.iheartdevs.storage;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * The preset dictionary that error logs are compressed with. Deflate can refer back to anything in the dictionary as
+ * if it had already been seen, so filling it with the frames that show up in nearly every trace (the server's tick
+ * loop, the scheduler, the event bus, the command map, reflection) means even a short trace compresses well. The
+ * server specific part of a log (versions and the plugin list) isn't in the log at all: it is recorded once per session
+ * by SessionLog and the log only refers to it with a "Session: #" line. This class only contains static methods and
+ * therefore cannot be instantiated.
+ */
+public class TraceDictionary {
+	// Deflate only looks back 32 kilobytes, and the strings closest to the end are the cheapest to refer to. So the
+	// most common frames go last.
+	private static final String COMMON_FRAMES = ""
+			+ "at java.lang.reflect.Method.invoke(Method.java:606)\n"
+			+ "at sun.reflect.NativeMethodAccessorImpl.invoke0(Native Method)\n"
+			+ "at sun.reflect.NativeMethodAccessorImpl.invoke(NativeMethodAccessorImpl.java:57)\n"
+			+ "at sun.reflect.DelegatingMethodAccessorImpl.invoke(DelegatingMethodAccessorImpl.java:43)\n"
+			+ "at java.util.concurrent.FutureTask.run(FutureTask.java:262)\n"
+			+ "at java.util.concurrent.ThreadPoolExecutor.runWorker(ThreadPoolExecutor.java:1145)\n"
+			+ "at java.util.concurrent.ThreadPoolExecutor$Worker.run(ThreadPoolExecutor.java:615)\n"
+			+ "at java.util.HashMap$HashIterator.nextEntry(HashMap.java:926)\n"
+			+ "at java.util.ArrayList$Itr.next(ArrayList.java:831)\n"
+			+ "at java.util.ArrayList$Itr.checkForComodification(ArrayList.java:859)\n"
+			+ "at org.bukkit.craftbukkit.libs.jline.console.ConsoleReader.readLine(ConsoleReader.java:2365)\n"
+			+ "at org.bukkit.craftbukkit.Main.main(Main.java:152)\n"
+			+ "at org.bukkit.craftbukkit.CraftServer.loadPlugins(CraftServer.java:254)\n"
+			+ "at org.bukkit.craftbukkit.CraftServer.enablePlugins(CraftServer.java:298)\n"
+			+ "at org.bukkit.craftbukkit.CraftServer.enablePlugin(CraftServer.java:340)\n"
+			+ "at org.bukkit.craftbukkit.CraftServer.dispatchCommand(CraftServer.java:543)\n"
+			+ "at org.bukkit.craftbukkit.CraftServer.dispatchServerCommand(CraftServer.java:530)\n"
+			+ "at org.bukkit.plugin.java.JavaPluginLoader.loadPlugin(JavaPluginLoader.java:182)\n"
+			+ "at org.bukkit.plugin.java.JavaPluginLoader.enablePlugin(JavaPluginLoader.java:321)\n"
+			+ "at org.bukkit.plugin.java.JavaPlugin.setEnabled(JavaPlugin.java:250)\n"
+			+ "at org.bukkit.plugin.java.PluginClassLoader.<init>(PluginClassLoader.java:52)\n"
+			+ "at org.bukkit.plugin.SimplePluginManager.loadPlugins(SimplePluginManager.java:133)\n"
+			+ "at org.bukkit.plugin.SimplePluginManager.loadPlugin(SimplePluginManager.java:305)\n"
+			+ "at org.bukkit.plugin.SimplePluginManager.enablePlugin(SimplePluginManager.java:405)\n"
+			+ "at org.bukkit.command.PluginCommand.execute(PluginCommand.java:44)\n"
+			+ "at org.bukkit.command.SimpleCommandMap.dispatch(SimpleCommandMap.java:196)\n"
+			+ "at org.bukkit.craftbukkit.scheduler.CraftTask.run(CraftTask.java:53)\n"
+			+ "at org.bukkit.craftbukkit.scheduler.CraftAsyncTask.run(CraftAsyncTask.java:53)\n"
+			+ "at org.bukkit.craftbukkit.scheduler.CraftScheduler.mainThreadHeartbeat(CraftScheduler.java:345)\n"
+			+ "at org.bukkit.craftbukkit.event.CraftEventFactory.callPlayerInteractEvent(CraftEventFactory.java:190)\n"
+			+ "at org.bukkit.craftbukkit.event.CraftEventFactory.callBlockPlaceEvent(CraftEventFactory.java:96)\n"
+			+ "at org.bukkit.plugin.java.JavaPluginLoader$1.execute(JavaPluginLoader.java:298)\n"
+			+ "at co.aikar.timings.TimedEventExecutor.execute(TimedEventExecutor.java:78)\n"
+			+ "at org.bukkit.plugin.RegisteredListener.callEvent(RegisteredListener.java:62)\n"
+			+ "at org.bukkit.plugin.SimplePluginManager.fireEvent(SimplePluginManager.java:502)\n"
+			+ "at org.bukkit.plugin.SimplePluginManager.callEvent(SimplePluginManager.java:487)\n"
+			+ "at net.minecraft.server.PlayerConnection.a(PlayerConnection.java:1166)\n"
+			+ "at net.minecraft.server.PlayerConnection.handleCommand(PlayerConnection.java:955)\n"
+			+ "at net.minecraft.server.PlayerConnection.chat(PlayerConnection.java:880)\n"
+			+ "at net.minecraft.server.PacketPlayInChat.a(PacketPlayInChat.java:28)\n"
+			+ "at net.minecraft.server.PacketPlayInChat.handle(PacketPlayInChat.java:65)\n"
+			+ "at net.minecraft.server.PacketPlayInBlockPlace.a(PacketPlayInBlockPlace.java:60)\n"
+			+ "at net.minecraft.server.PacketPlayInUseEntity.a(PacketPlayInUseEntity.java:55)\n"
+			+ "at net.minecraft.server.NetworkManager.a(NetworkManager.java:157)\n"
+			+ "at net.minecraft.server.ServerConnection.c(ServerConnection.java:134)\n"
+			+ "at net.minecraft.server.PlayerList.a(PlayerList.java:238)\n"
+			+ "at net.minecraft.server.WorldServer.doTick(WorldServer.java:225)\n"
+			+ "at net.minecraft.server.World.tickEntities(World.java:1358)\n"
+			+ "at net.minecraft.server.Entity.move(Entity.java:616)\n"
+			+ "at net.minecraft.server.EntityPlayer.h(EntityPlayer.java:254)\n"
+			+ "at net.minecraft.server.DedicatedServer.aB(DedicatedServer.java:283)\n"
+			+ "at net.minecraft.server.DedicatedServer.v(DedicatedServer.java:248)\n"
+			+ "at net.minecraft.server.DedicatedServer.init(DedicatedServer.java:152)\n"
+			+ "at net.minecraft.server.MinecraftServer.v(MinecraftServer.java:660)\n"
+			+ "at net.minecraft.server.MinecraftServer.u(MinecraftServer.java:559)\n"
+			+ "at net.minecraft.server.MinecraftServer.run(MinecraftServer.java:469)\n"
+			+ "at net.minecraft.server.ThreadServerApplication.run(SourceFile:628)\n"
+			+ "at java.lang.Thread.run(Thread.java:745)\n"
+			+ "... 15 more\n"
+			+ "Caused by: java.lang.reflect.InvocationTargetException\n"
+			+ "Caused by: java.lang.IllegalArgumentException: \n"
+			+ "Caused by: java.lang.NullPointerException\n"
+			+ "org.bukkit.event.EventException\n"
+			+ "org.bukkit.command.CommandException: Unhandled exception executing command\n"
+			+ "java.lang.IllegalStateException: Asynchronous \n"
+			+ "java.lang.ArrayIndexOutOfBoundsException: \n"
+			+ "java.util.ConcurrentModificationException\n"
+			+ "java.lang.ClassCastException: \n"
+			+ "java.lang.NoClassDefFoundError: \n"
+			+ "java.lang.NullPointerException\n"
+			+ "Stacktrace:\n";
+
+	private static final byte[] DICTIONARY = toBytes(COMMON_FRAMES);
+
+	// Instantiation is forbidden
+	private TraceDictionary() {
+	}
+
+	/**
+	 * Gets the built-in dictionary. The returned array must not be modified.
+	 * 
+	 * @return The dictionary as UTF-8 bytes.
+	 */
+	public static byte[] getCommonFrames() {
+		return DICTIONARY;
+	}
+
+	private static byte[] toBytes(String s) {
+		try {
+			return s.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			// UTF-8 is always supported.
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,986 @@
+package com.sammarder.iheartdevs.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import com.sammarder.iheartdevs.IHeartDevs;
+import com.sammarder.iheartdevs.metrics.PipelineMetrics;
+
+/**
+ * Append-only storage for error logs. Instead of one file per log, logs are appended as records to a few large
+ * segment files (traces-00000.seg, traces-00001.seg, ...). A new segment is started once the current one would grow
+ * past a size cap. Every record starts with a fixed size header:
+ * 
+ * <pre>
+ * int  magic      (0x49484454, "IHDT")
+ * int  id
+ * long timestamp  (milliseconds)
+ * int  flags      (FLAG_DEFLATED or 0)
+ * int  length     (of the payload in bytes)
+ * </pre>
+ * 
+ * followed by the payload: the UTF-8 text of the log or, if FLAG_DEFLATED is set, the length of that text, the ID
+ * of the preset dictionary (always 0, TraceDictionary's common frames) and the text compressed with Deflate. A log
+ * starts with a "Session: #" line instead of the server's details, which a SessionLog puts back when it is read.
+ * 
+ * Which record lives where is kept in a sorted id -> (segment, offset, length) index in memory, which is saved to
+ * traces.idx every so often so startup only has to scan what was appended after that. Appends are queued and written
+ * by a TraceWriter thread (see startWriter()), and can be read before they are written. All methods are thread safe.
+ */
+public class TraceStore {
+	// The size of a record header in bytes.
+	public static final int HEADER_SIZE = 24;
+	// "IHDT"
+	private static final int MAGIC = 0x49484454;
+	private static final String SEGMENT_PREFIX = "traces-";
+	private static final String SEGMENT_SUFFIX = ".seg";
+	private static final String CHARSET = "UTF-8";
+	private static final String CHECKPOINT_NAME = "traces.idx";
+	// "IHDI"
+	private static final int CHECKPOINT_MAGIC = 0x49484449;
+	private static final int CHECKPOINT_VERSION = 1;
+	// How many appends (at most) have to be scanned again after a crash.
+	private static final int CHECKPOINT_INTERVAL = 1000;
+	// The payload is compressed.
+	private static final int FLAG_DEFLATED = 1;
+	// The ID of the dictionary that is just TraceDictionary.getCommonFrames().
+	private static final int COMMON_DICTIONARY = 0;
+	private static final String SESSIONS_NAME = "sessions.dat";
+
+	private final File directory;
+	private final long maxSegmentSize;
+	private final List<Segment> segments = new ArrayList<Segment>();
+	// Records that have been appended but not handed to the writer yet, oldest first.
+	private List<PendingRecord> pending = new ArrayList<PendingRecord>();
+	// Every record that isn't on disk yet (pending or being written), by ID.
+	private final Map<Integer, PendingRecord> unwritten = new HashMap<Integer, PendingRecord>();
+	// Segments that have been written to since they were last synced.
+	private final List<Segment> unsynced = new ArrayList<Segment>();
+	private TraceWriter writer;
+	private final boolean compress;
+	// Reused for every log, since setting one up (and its native memory) is the expensive part of deflating.
+	private final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+	private final Inflater inflater = new Inflater();
+	private byte[] deflateBuffer = new byte[8192];
+	private final SessionLog sessions;
+
+	// The index. Entry i describes the i-th record, and ids are always in ascending order.
+	private int size;
+	private int[] ids = new int[64];
+	private int[] segmentIndexes = new int[64];
+	private long[] offsets = new long[64];
+	private int[] lengths = new int[64];
+	private long[] timestamps = new long[64];
+	// true while every log was added after the ones that were created before it, so timestamps can be binary searched.
+	private boolean timeOrdered = true;
+	private int nextId;
+	// The first durableSize entries of the index are on disk, the rest are unwritten.
+	private int durableSize;
+	private int appendsSinceCheckpoint;
+
+	/**
+	 * Constructor for creating a new TraceStore. The index is loaded from the checkpoint (if there is a usable one)
+	 * and everything in the segments that the checkpoint doesn't cover is scanned. A record that was only partially
+	 * written (because the server crashed, for example) is cut off.
+	 * 
+	 * @param directory
+	 *            The directory to keep the segments in.
+	 * @param maxSegmentSize
+	 *            The size (in bytes) segments are capped at. A single record that is larger still gets a segment of
+	 *            its own.
+	 * @param compress
+	 *            true if new logs should be compressed. Compressed logs can always be read, no matter what this is.
+	 * @throws IOException
+	 *             If the existing segments could not be opened.
+	 */
+	public TraceStore(File directory, long maxSegmentSize, boolean compress) throws IOException {
+		this.directory = directory;
+		this.maxSegmentSize = maxSegmentSize;
+		this.compress = compress;
+		sessions = new SessionLog(new File(directory, SESSIONS_NAME));
+
+		File[] files = directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return getSegmentNumber(name) >= 0;
+			}
+		});
+		if (files == null) {
+			throw new IOException("Could not list " + directory);
+		}
+		int[] numbers = new int[files.length];
+		for (int i = 0; i < files.length; i++) {
+			numbers[i] = getSegmentNumber(files[i].getName());
+		}
+		Arrays.sort(numbers);
+		long[] checkpointed = loadCheckpoint(numbers);
+		long scanned = 0;
+		for (int i = 0; i < numbers.length; i++) {
+			Segment segment = new Segment(numbers[i]);
+			segments.add(segment);
+			long from = checkpointed != null && i < checkpointed.length ? checkpointed[i] : 0;
+			scanned += scan(i, segment, from);
+		}
+		if (segments.isEmpty()) {
+			segments.add(new Segment(0));
+		}
+		if (scanned > 0) {
+			// Don't scan the same bytes again next time.
+			writeCheckpoint();
+		}
+	}
+
+	/**
+	 * Starts the thread that writes appended logs in the background. Until this is called, every append is written
+	 * (but not synced) before it returns.
+	 * 
+	 * @param policy
+	 *            When written logs are synced to disk.
+	 * @param syncEvery
+	 *            How many logs are written between syncs if the policy is COUNT.
+	 * @param syncInterval
+	 *            How long (in milliseconds) written logs can go unsynced if the policy is INTERVAL.
+	 */
+	public synchronized void startWriter(TraceWriter.SyncPolicy policy, int syncEvery, long syncInterval) {
+		if (writer == null) {
+			writer = new TraceWriter(this, policy, syncEvery, syncInterval);
+			writer.start();
+		}
+	}
+
+	/**
+	 * Appends a new log under the next free ID.
+	 * 
+	 * @param contents
+	 *            The text of the log.
+	 * @param timestamp
+	 *            When (in milliseconds) the log was created.
+	 * @return The stored log. Its contents are only read (like those of getEntry()) when they are asked for.
+	 * @throws IOException
+	 *             If the log could not be written (only without a writer thread).
+	 */
+	public synchronized StoredTrace append(String contents, long timestamp) throws IOException {
+		return append(nextId, contents, timestamp);
+	}
+
+	/**
+	 * Appends a log under a specific ID. This is meant for importing logs that already have an ID.
+	 * 
+	 * @param id
+	 *            The ID of the log. It must be larger than every ID already in the store.
+	 * @param contents
+	 *            The text of the log.
+	 * @param timestamp
+	 *            When (in milliseconds) the log was created.
+	 * @return The stored log. Its contents are only read (like those of getEntry()) when they are asked for.
+	 * @throws IOException
+	 *             If the log could not be written (only without a writer thread).
+	 * @throws IllegalArgumentException
+	 *             If the ID is not larger than every ID already in the store.
+	 */
+	public synchronized StoredTrace append(int id, String contents, long timestamp) throws IOException {
+		if (id < nextId) {
+			throw new IllegalArgumentException("ID " + id + " is not larger than every ID in the store");
+		}
+		byte[] text = contents.getBytes(CHARSET);
+		byte[] payload = compress ? deflate(text) : null;
+		int flags = FLAG_DEFLATED;
+		if (payload == null) {
+			payload = text;
+			flags = 0;
+		}
+		Segment segment = segments.get(segments.size() - 1);
+		if (segment.size > 0 && segment.size + HEADER_SIZE + payload.length > maxSegmentSize) {
+			segment = new Segment(segment.number + 1);
+			segments.add(segment);
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putInt(id).putLong(timestamp).putInt(flags).putInt(payload.length);
+		header.flip();
+		// Space in the segment is handed out now, even though the bytes get there later.
+		long offset = segment.size;
+		segment.size += HEADER_SIZE + payload.length;
+		addToIndex(id, segments.size() - 1, offset, payload.length, timestamp);
+
+		PendingRecord record = new PendingRecord(segment, id, flags, header, payload);
+		pending.add(record);
+		unwritten.put(id, record);
+		if (writer != null) {
+			writer.wakeUp();
+		} else {
+			List<PendingRecord> batch = takePending();
+			try {
+				writeBatch(batch);
+			} catch (IOException e) {
+				requeue(batch);
+				throw e;
+			}
+			commit(batch);
+		}
+		// The contents were stored without the session's details, so they are read back like any other log's.
+		return new StoredTrace(id, timestamp, describe(segment, id), this);
+	}
+
+	/**
+	 * Reads a log.
+	 * 
+	 * @param id
+	 *            The ID of the log.
+	 * @return The log or null if there is no log with that ID (or it could not be read).
+	 */
+	public synchronized StoredTrace read(int id) {
+		int index = Arrays.binarySearch(ids, 0, size, id);
+		if (index < 0) {
+			return null;
+		}
+		Segment segment = segments.get(segmentIndexes[index]);
+		try {
+			byte[] payload;
+			int flags;
+			PendingRecord record = unwritten.get(id);
+			if (record != null) {
+				payload = record.payload;
+				flags = record.flags;
+			} else {
+				payload = new byte[lengths[index]];
+				ByteBuffer mapped = segment.map(offsets[index] + HEADER_SIZE + payload.length).duplicate();
+				// The flags are the fifth field of the header.
+				flags = mapped.getInt((int) offsets[index] + 16);
+				mapped.position((int) (offsets[index] + HEADER_SIZE));
+				mapped.get(payload);
+			}
+			if ((flags & FLAG_DEFLATED) != 0) {
+				payload = inflate(payload);
+			}
+			String contents = sessions.expand(new String(payload, CHARSET));
+			return new StoredTrace(id, timestamps[index], contents, describe(segment, id));
+		} catch (IOException e) {
+			IHeartDevs.log(Level.WARNING, "Could not read error log " + id + " from " + segment.file);
+			return null;
+		}
+	}
+
+	/**
+	 * Opens a log for reading a piece at a time. Unlike read(), the log is never in memory as a whole: it is
+	 * decompressed (and its session's details are put back in front of it) as the stream is read, straight out of the
+	 * memory mapped segment. The stream doesn't hold the store's lock, so other logs can be read and appended
+	 * meanwhile.
+	 * 
+	 * @param id
+	 *            The ID of the log.
+	 * @return The UTF-8 text of the log, which has to be closed, or null if there is no log with that ID.
+	 * @throws IOException
+	 *             If the log could not be read.
+	 */
+	public synchronized InputStream openStream(int id) throws IOException {
+		int index = Arrays.binarySearch(ids, 0, size, id);
+		if (index < 0) {
+			return null;
+		}
+		InputStream payload;
+		int flags;
+		PendingRecord record = unwritten.get(id);
+		if (record != null) {
+			payload = new ByteArrayInputStream(record.payload);
+			flags = record.flags;
+		} else {
+			int start = (int) offsets[index] + HEADER_SIZE;
+			ByteBuffer mapped = segments.get(segmentIndexes[index]).map(start + lengths[index]).duplicate();
+			// The flags are the fifth field of the header.
+			flags = mapped.getInt(start - 8);
+			mapped.limit(start + lengths[index]).position(start);
+			payload = new BufferInputStream(mapped.slice());
+		}
+		InputStream text = payload;
+		if ((flags & FLAG_DEFLATED) != 0) {
+			DataInputStream prefix = new DataInputStream(payload);
+			// The length of the text, which a stream doesn't need.
+			prefix.readInt();
+			if (prefix.readInt() != COMMON_DICTIONARY) {
+				throw new IOException("Unknown dictionary");
+			}
+			text = new PresetInflaterInputStream(payload);
+		}
+		try {
+			return sessions.expand(text);
+		} catch (IOException e) {
+			text.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Records the details of this server (versions, the plugin list, etc.) as a new session. Logs that start with a
+	 * SessionLog.SESSION_LINE that refers to it get these details put back in front of them when they are read.
+	 * 
+	 * @param serverInfo
+	 *            The details of this server.
+	 * @return The ID of the session.
+	 * @throws IOException
+	 *             If the session could not be recorded.
+	 */
+	public synchronized int startSession(String serverInfo) throws IOException {
+		return sessions.record(serverInfo, System.currentTimeMillis());
+	}
+
+	/**
+	 * Gets the log at a position in the store without reading it yet. Its contents are only read (with read()) the
+	 * first time they are asked for, so listing logs only costs an index lookup per log.
+	 * 
+	 * @param index
+	 *            The position of the log. Logs are ordered from oldest (0) to newest (size() - 1).
+	 * @return The log.
+	 */
+	public synchronized StoredTrace getEntry(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException(String.valueOf(index));
+		}
+		return new StoredTrace(ids[index], timestamps[index], describe(segments.get(segmentIndexes[index]), ids[index]),
+				this);
+	}
+
+	/**
+	 * Determines if a log is in the store.
+	 * 
+	 * @param id
+	 *            The ID of the log.
+	 * @return true if there is a log with that ID.
+	 */
+	public synchronized boolean contains(int id) {
+		return indexOf(id) >= 0;
+	}
+
+	/**
+	 * Gets the position of a log in the store.
+	 * 
+	 * @param id
+	 *            The ID of the log.
+	 * @return The position of the log or a negative number if there is no log with that ID.
+	 */
+	public synchronized int indexOf(int id) {
+		return Arrays.binarySearch(ids, 0, size, id);
+	}
+
+	/**
+	 * @return The number of logs in the store.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the ID of the log at a position in the store. Logs are ordered from oldest (0) to newest (size() - 1).
+	 * 
+	 * @param index
+	 *            The position of the log.
+	 * @return The ID of the log.
+	 */
+	public synchronized int getId(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException(String.valueOf(index));
+		}
+		return ids[index];
+	}
+
+	/**
+	 * Gets when the log at a position in the store was created, without reading the log.
+	 * 
+	 * @param index
+	 *            The position of the log.
+	 * @return The time in milliseconds.
+	 */
+	public synchronized long getTimestamp(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException(String.valueOf(index));
+		}
+		return timestamps[index];
+	}
+
+	/**
+	 * Gets the IDs of every log that was created in a time range, without reading any of them. As long as logs were
+	 * added in the order they were created (which they nearly always are), the range is found with a binary search.
+	 * 
+	 * @param from
+	 *            The earliest time (in milliseconds, inclusive).
+	 * @param to
+	 *            The latest time (in milliseconds, inclusive).
+	 * @return The IDs in ascending order.
+	 */
+	public synchronized int[] getIdsBetween(long from, long to) {
+		if (!timeOrdered) {
+			int[] found = new int[size];
+			int count = 0;
+			for (int i = 0; i < size; i++) {
+				if (timestamps[i] >= from && timestamps[i] <= to) {
+					found[count++] = ids[i];
+				}
+			}
+			return Arrays.copyOf(found, count);
+		}
+		int start = countBefore(from);
+		int end = to == Long.MAX_VALUE ? size : countBefore(to + 1);
+		return Arrays.copyOfRange(ids, start, Math.max(start, end));
+	}
+
+	/**
+	 * Writes every queued log, writes a checkpoint and closes every segment. The store can't be used after this.
+	 * 
+	 * @param timeout
+	 *            The maximum amount of time (in milliseconds) to wait for the writer thread to write what is queued.
+	 */
+	public void close(long timeout) {
+		TraceWriter writer;
+		synchronized (this) {
+			writer = this.writer;
+		}
+		if (writer != null) {
+			writer.shutdown(timeout);
+		}
+		synchronized (this) {
+			if (writer == null || !writer.isAlive()) {
+				List<PendingRecord> batch = takePending();
+				try {
+					writeBatch(batch);
+					commit(batch);
+					sync();
+				} catch (IOException e) {
+					requeue(batch);
+				}
+			}
+			if (!unwritten.isEmpty()) {
+				IHeartDevs.log(Level.WARNING, unwritten.size() + " error logs could not be written in time.");
+			}
+			writeCheckpoint();
+			for (Segment segment : segments) {
+				segment.close();
+			}
+			deflater.end();
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Takes every record that is waiting to be written. Only the writer (or an append without a writer) calls this.
+	 * 
+	 * @return The records, oldest first. They stay readable until they are committed.
+	 */
+	synchronized List<PendingRecord> takePending() {
+		if (pending.isEmpty()) {
+			return Collections.emptyList();
+		}
+		List<PendingRecord> batch = pending;
+		pending = new ArrayList<PendingRecord>();
+		return batch;
+	}
+
+	/**
+	 * Puts records that could not be written back at the front of the queue.
+	 */
+	synchronized void requeue(List<PendingRecord> batch) {
+		pending.addAll(0, batch);
+	}
+
+	/**
+	 * Writes a batch of records. Every run of records in the same segment is written with a single gathering write.
+	 * This does no locking, so only one thread (the writer) may call it at a time.
+	 */
+	void writeBatch(List<PendingRecord> batch) throws IOException {
+		int start = 0;
+		while (start < batch.size()) {
+			Segment segment = batch.get(start).segment;
+			int end = start;
+			while (end < batch.size() && batch.get(end).segment == segment) {
+				end++;
+			}
+			ByteBuffer[] buffers = new ByteBuffer[(end - start) * 2];
+			for (int i = start; i < end; i++) {
+				PendingRecord record = batch.get(i);
+				buffers[(i - start) * 2] = record.header.duplicate();
+				buffers[(i - start) * 2 + 1] = ByteBuffer.wrap(record.payload);
+			}
+			segment.write(buffers);
+			start = end;
+		}
+	}
+
+	/**
+	 * Marks a batch of records as written, so they are read from their segments from now on.
+	 */
+	synchronized void commit(List<PendingRecord> batch) {
+		for (PendingRecord record : batch) {
+			Segment segment = record.segment;
+			segment.written += HEADER_SIZE + record.payload.length;
+			unwritten.remove(record.id);
+			if (!unsynced.contains(segment)) {
+				unsynced.add(segment);
+			}
+		}
+		durableSize += batch.size();
+		appendsSinceCheckpoint += batch.size();
+		if (appendsSinceCheckpoint >= CHECKPOINT_INTERVAL) {
+			writeCheckpoint();
+		}
+	}
+
+	/**
+	 * Forces everything that has been written to the disk.
+	 */
+	void sync() throws IOException {
+		Segment[] toSync;
+		synchronized (this) {
+			toSync = unsynced.toArray(new Segment[unsynced.size()]);
+			unsynced.clear();
+		}
+		for (Segment segment : toSync) {
+			segment.channel.force(false);
+		}
+	}
+
+	/**
+	 * Compresses the text of a log with the common dictionary.
+	 * 
+	 * @return The payload of a FLAG_DEFLATED record or null if compressing doesn't make the log any smaller.
+	 */
+	private byte[] deflate(byte[] text) {
+		deflater.reset();
+		deflater.setDictionary(TraceDictionary.getCommonFrames());
+		deflater.setInput(text);
+		deflater.finish();
+		// The first 8 bytes are for the length of the text and the dictionary ID.
+		int length = 8;
+		while (!deflater.finished()) {
+			if (length == deflateBuffer.length) {
+				deflateBuffer = Arrays.copyOf(deflateBuffer, deflateBuffer.length * 2);
+			}
+			length += deflater.deflate(deflateBuffer, length, deflateBuffer.length - length);
+			if (length >= text.length) {
+				return null;
+			}
+		}
+		ByteBuffer.wrap(deflateBuffer).putInt(text.length).putInt(COMMON_DICTIONARY);
+		return Arrays.copyOf(deflateBuffer, length);
+	}
+
+	/**
+	 * Decompresses the payload of a FLAG_DEFLATED record.
+	 */
+	private byte[] inflate(byte[] payload) throws IOException {
+		ByteBuffer prefix = ByteBuffer.wrap(payload);
+		int length = prefix.getInt();
+		int id = prefix.getInt();
+		if (length < 0) {
+			throw new IOException("Bad length");
+		}
+		byte[] text = new byte[length];
+		inflater.reset();
+		inflater.setInput(payload, 8, payload.length - 8);
+		try {
+			int inflated = 0;
+			while (inflated < length && !inflater.finished()) {
+				int count = inflater.inflate(text, inflated, length - inflated);
+				if (count == 0) {
+					if (inflater.needsDictionary() && id == COMMON_DICTIONARY) {
+						inflater.setDictionary(TraceDictionary.getCommonFrames());
+					} else {
+						throw new IOException("Truncated");
+					}
+				}
+				inflated += count;
+			}
+			if (inflated != length) {
+				throw new IOException("Truncated");
+			}
+		} catch (DataFormatException e) {
+			throw new IOException(e.getMessage());
+		}
+		return text;
+	}
+
+	/**
+	 * Adds every complete record in a segment (starting at an offset) to the index. Anything after the last complete
+	 * record is cut off.
+	 * 
+	 * @return The number of bytes that were scanned.
+	 */
+	private long scan(int segmentIndex, Segment segment, long from) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+		long fileSize = segment.channel.size();
+		long offset = from;
+		while (offset + HEADER_SIZE <= fileSize) {
+			buffer.clear();
+			while (buffer.hasRemaining()) {
+				if (segment.channel.read(buffer, offset + buffer.position()) < 0) {
+					break;
+				}
+			}
+			if (buffer.hasRemaining()) {
+				break;
+			}
+			buffer.flip();
+			int magic = buffer.getInt();
+			int id = buffer.getInt();
+			long timestamp = buffer.getLong();
+			buffer.getInt();
+			int length = buffer.getInt();
+			if (magic != MAGIC || length < 0 || offset + HEADER_SIZE + length > fileSize || id < nextId) {
+				break;
+			}
+			addToIndex(id, segmentIndex, offset, length, timestamp);
+			offset += HEADER_SIZE + length;
+		}
+		if (offset < fileSize) {
+			IHeartDevs.log(Level.WARNING, "Discarding " + (fileSize - offset) + " bytes of damaged or partially written"
+					+ " error logs at the end of " + segment.file);
+			segment.channel.truncate(offset);
+		}
+		segment.size = offset;
+		segment.written = offset;
+		durableSize = size;
+		return fileSize - from;
+	}
+
+	/**
+	 * Loads the index from the checkpoint. The checkpoint is only used if every segment it covers still exists and is
+	 * at least as long as it was, otherwise everything is scanned from scratch.
+	 * 
+	 * @param numbers
+	 *            The (sorted) numbers of the segments in the directory.
+	 * @return How many bytes of each segment the loaded index covers, or null if there is no usable checkpoint.
+	 */
+	private long[] loadCheckpoint(int[] numbers) {
+		File file = new File(directory, CHECKPOINT_NAME);
+		if (!file.exists()) {
+			return null;
+		}
+		DataInputStream is = null;
+		try {
+			CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(new FileInputStream(file)),
+					new CRC32());
+			is = new DataInputStream(checked);
+			if (is.readInt() != CHECKPOINT_MAGIC || is.readInt() != CHECKPOINT_VERSION) {
+				throw new IOException();
+			}
+			int segmentCount = is.readInt();
+			if (segmentCount > numbers.length) {
+				throw new IOException();
+			}
+			long[] covered = new long[segmentCount];
+			for (int i = 0; i < segmentCount; i++) {
+				int number = is.readInt();
+				covered[i] = is.readLong();
+				if (number != numbers[i] || segmentFile(number).length() < covered[i]) {
+					throw new IOException();
+				}
+			}
+			int count = is.readInt();
+			for (int i = 0; i < count; i++) {
+				int id = is.readInt();
+				int segmentIndex = is.readInt();
+				long offset = is.readLong();
+				int length = is.readInt();
+				long timestamp = is.readLong();
+				if (segmentIndex < 0 || segmentIndex >= segmentCount || id < nextId) {
+					throw new IOException();
+				}
+				addToIndex(id, segmentIndex, offset, length, timestamp);
+			}
+			long expected = checked.getChecksum().getValue();
+			if (is.readLong() != expected) {
+				throw new IOException();
+			}
+			return covered;
+		} catch (IOException e) {
+			IHeartDevs.log(Level.WARNING, "The error log index is out of date. Rebuilding it from the segments.");
+			size = 0;
+			timeOrdered = true;
+			nextId = 0;
+			durableSize = 0;
+			return null;
+		} finally {
+			try {
+				is.close();
+			} catch (Exception e) {
+			}
+		}
+	}
+
+	/**
+	 * Saves the index (and how much of each segment it covers) to the checkpoint file.
+	 */
+	private void writeCheckpoint() {
+		appendsSinceCheckpoint = 0;
+		File file = new File(directory, CHECKPOINT_NAME);
+		// Write everything to a temporary file first so that a crash can't leave a half-written checkpoint behind.
+		File temp = new File(directory, CHECKPOINT_NAME + ".tmp");
+		DataOutputStream os = null;
+		try {
+			CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(new FileOutputStream(temp)),
+					new CRC32());
+			os = new DataOutputStream(checked);
+			os.writeInt(CHECKPOINT_MAGIC);
+			os.writeInt(CHECKPOINT_VERSION);
+			// Only what is actually on disk is covered.
+			os.writeInt(segments.size());
+			for (Segment segment : segments) {
+				os.writeInt(segment.number);
+				os.writeLong(segment.written);
+			}
+			os.writeInt(durableSize);
+			for (int i = 0; i < durableSize; i++) {
+				os.writeInt(ids[i]);
+				os.writeInt(segmentIndexes[i]);
+				os.writeLong(offsets[i]);
+				os.writeInt(lengths[i]);
+				os.writeLong(timestamps[i]);
+			}
+			os.writeLong(checked.getChecksum().getValue());
+			os.close();
+			os = null;
+			// renameTo() won't replace an existing file on every platform.
+			file.delete();
+			if (!temp.renameTo(file)) {
+				throw new IOException();
+			}
+		} catch (IOException e) {
+			// Not fatal, the next startup just has to scan more.
+			IHeartDevs.log(Level.WARNING, "Could not write the error log index to \"" + file.toString() + "\"");
+		} finally {
+			try {
+				os.close();
+			} catch (Exception e) {
+			}
+		}
+	}
+
+	private void addToIndex(int id, int segmentIndex, long offset, int length, long timestamp) {
+		if (size == ids.length) {
+			int capacity = size * 2;
+			ids = Arrays.copyOf(ids, capacity);
+			segmentIndexes = Arrays.copyOf(segmentIndexes, capacity);
+			offsets = Arrays.copyOf(offsets, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+			timestamps = Arrays.copyOf(timestamps, capacity);
+		}
+		if (size > 0 && timestamp < timestamps[size - 1]) {
+			timeOrdered = false;
+		}
+		ids[size] = id;
+		segmentIndexes[size] = segmentIndex;
+		offsets[size] = offset;
+		lengths[size] = length;
+		timestamps[size] = timestamp;
+		size++;
+		nextId = id + 1;
+	}
+
+	/**
+	 * Counts the logs that were created before a time. Only works while the index is time ordered.
+	 */
+	private int countBefore(long timestamp) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (timestamps[middle] < timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private File segmentFile(int number) {
+		return new File(directory, SEGMENT_PREFIX + String.format("%05d", number) + SEGMENT_SUFFIX);
+	}
+
+	private static String describe(Segment segment, int id) {
+		return segment.file.toString() + " (ID " + id + ")";
+	}
+
+	/**
+	 * Gets the number of a segment from its file name.
+	 * 
+	 * @return The number or -1 if the name isn't the name of a segment.
+	 */
+	private static int getSegmentNumber(String name) {
+		if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+			return -1;
+		}
+		try {
+			return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * A record that has been appended but isn't in its segment yet.
+	 */
+	static class PendingRecord {
+		final Segment segment;
+		final int id;
+		final int flags;
+		final ByteBuffer header;
+		final byte[] payload;
+
+		PendingRecord(Segment segment, int id, int flags, ByteBuffer header, byte[] payload) {
+			this.segment = segment;
+			this.id = id;
+			this.flags = flags;
+			this.header = header;
+			this.payload = payload;
+		}
+	}
+
+	/**
+	 * Reads the bytes of a (memory mapped) buffer.
+	 */
+	private static class BufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		BufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			len = Math.min(len, buffer.remaining());
+			buffer.get(b, off, len);
+			return len;
+		}
+	}
+
+	/**
+	 * Inflates the compressed text of a FLAG_DEFLATED payload as it is read. InflaterInputStream gives up when the
+	 * preset dictionary is needed, so this sets it and carries on. Every stream has an Inflater of its own, which is
+	 * ended when the stream is closed.
+	 */
+	private static class PresetInflaterInputStream extends InflaterInputStream {
+		PresetInflaterInputStream(InputStream in) {
+			super(in, new Inflater(), 8192);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			while (true) {
+				int count = super.read(b, off, len);
+				if (count >= 0 || !inf.needsDictionary()) {
+					return count;
+				}
+				inf.setDictionary(TraceDictionary.getCommonFrames());
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				inf.end();
+			}
+		}
+	}
+
+	/**
+	 * One segment file.
+	 */
+	private class Segment {
+		final int number;
+		final File file;
+		final FileChannel channel;
+		// The number of bytes handed out to records (written or not).
+		long size;
+		// The number of bytes of complete records in the file. Only changed by the writer (in commit()).
+		long written;
+		// A read only view of (at least) the first mapped.capacity() bytes. Remapped once reads go past it.
+		MappedByteBuffer mapped;
+
+		Segment(int number) throws IOException {
+			this.number = number;
+			this.file = segmentFile(number);
+			this.channel = new RandomAccessFile(file, "rw").getChannel();
+		}
+
+		/**
+		 * Writes buffers to the end of this segment.
+		 */
+		void write(ByteBuffer[] buffers) throws IOException {
+			channel.position(written);
+			long remaining = 0;
+			for (ByteBuffer buffer : buffers) {
+				remaining += buffer.remaining();
+			}
+			long count = 0;
+			try {
+				while (count < remaining) {
+					count += channel.write(buffers);
+				}
+				PipelineMetrics.BYTES_WRITTEN.add(count);
+			} catch (IOException e) {
+				// Don't leave half a record behind for the next one to be appended after.
+				try {
+					channel.truncate(written);
+				} catch (IOException ignored) {
+				}
+				throw e;
+			}
+		}
+
+		/**
+		 * Gets a mapping of this segment that covers at least the first end bytes.
+		 */
+		MappedByteBuffer map(long end) throws IOException {
+			if (mapped == null || mapped.capacity() < end) {
+				mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, written);
+			}
+			return mapped;
+		}
+
+		void close() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package com.sammarder.iheartdevs.storage;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+import com.sammarder.iheartdevs.IHeartDevs;
+import com.sammarder.iheartdevs.storage.TraceStore.PendingRecord;
+
+/**
+ * Writes the error logs that are appended to a TraceStore in the background. Whatever has queued up since the last
+ * write is written together (group commit), so a burst of logs costs a few large writes instead of one small write and
+ * sync each. Use TraceStore.startWriter() to create one.
+ */
+public class TraceWriter extends Thread {
+	/**
+	 * When written error logs are forced to the disk.
+	 */
+	public enum SyncPolicy {
+		/**
+		 * Sync after a number of logs have been written.
+		 */
+		COUNT,
+		/**
+		 * Sync when written logs have been waiting for a while.
+		 */
+		INTERVAL,
+		/**
+		 * Leave it to the operating system.
+		 */
+		NEVER
+	}
+
+	// How long to wait before trying again after a write failed.
+	private static final long RETRY_DELAY = TimeUnit.SECONDS.toNanos(1);
+
+	private final TraceStore store;
+	private final SyncPolicy policy;
+	private final int syncEvery;
+	private final long syncInterval;
+	private volatile boolean running = true;
+	// The number of logs written since the last sync.
+	private int unsynced;
+	private long lastSync = System.nanoTime();
+
+	TraceWriter(TraceStore store, SyncPolicy policy, int syncEvery, long syncInterval) {
+		super("IHeartDevs trace writer");
+		setDaemon(true);
+		this.store = store;
+		this.policy = policy;
+		this.syncEvery = Math.max(1, syncEvery);
+		this.syncInterval = TimeUnit.MILLISECONDS.toNanos(Math.max(0, syncInterval));
+	}
+
+	/**
+	 * Tells the writer that something was appended.
+	 */
+	void wakeUp() {
+		LockSupport.unpark(this);
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			List<PendingRecord> batch = store.takePending();
+			if (batch.isEmpty()) {
+				if (!running) {
+					break;
+				}
+				if (policy == SyncPolicy.INTERVAL && unsynced > 0) {
+					long wait = lastSync + syncInterval - System.nanoTime();
+					if (wait <= 0) {
+						sync();
+					} else {
+						LockSupport.parkNanos(this, wait);
+					}
+				} else {
+					// A permit from wakeUp() makes this return immediately, so an append can't be missed.
+					LockSupport.park(this);
+				}
+				continue;
+			}
+
+			try {
+				store.writeBatch(batch);
+			} catch (IOException e) {
+				IHeartDevs.log(Level.WARNING, "Could not write " + batch.size() + " error logs: " + e.getMessage());
+				store.requeue(batch);
+				if (!running) {
+					break;
+				}
+				LockSupport.parkNanos(this, RETRY_DELAY);
+				continue;
+			}
+			store.commit(batch);
+			unsynced += batch.size();
+			if ((policy == SyncPolicy.COUNT && unsynced >= syncEvery)
+					|| (policy == SyncPolicy.INTERVAL && System.nanoTime() - lastSync >= syncInterval)) {
+				sync();
+			}
+		}
+		if (policy != SyncPolicy.NEVER && unsynced > 0) {
+			sync();
+		}
+	}
+
+	/**
+	 * Writes what is still queued and stops.
+	 * 
+	 * @param timeout
+	 *            The maximum amount of time (in milliseconds) to wait. The writer may still be running afterwards.
+	 */
+	void shutdown(long timeout) {
+		running = false;
+		wakeUp();
+		try {
+			join(Math.max(1, timeout));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void sync() {
+		try {
+			store.sync();
+		} catch (IOException e) {
+			IHeartDevs.log(Level.WARNING, "Could not sync the error logs to disk: " + e.getMessage());
+		}
+		unsynced = 0;
+		lastSync = System.nanoTime();
+	}
+}
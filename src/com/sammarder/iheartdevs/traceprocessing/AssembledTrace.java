@@ -0,0 +1,55 @@
+package com.sammarder.iheartdevs.traceprocessing;
+
+import java.util.List;
+
+/**
+ * A stack trace that has been completely assembled but not saved yet.
+ */
+public class AssembledTrace {
+	private final List<String> lines;
+	private final long fingerprint;
+	private final long timestamp;
+
+	/**
+	 * Constructor for creating a new AssembledTrace.
+	 * 
+	 * @param lines
+	 *            The lines of the trace.
+	 * @param fingerprint
+	 *            The TraceFingerprint of the lines.
+	 * @param timestamp
+	 *            When (in System.currentTimeMillis()) the trace was printed.
+	 */
+	public AssembledTrace(List<String> lines, long fingerprint, long timestamp) {
+		this.lines = lines;
+		this.fingerprint = fingerprint;
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * Gets the lines of this trace.
+	 * 
+	 * @return The lines, starting with the Throwable's header.
+	 */
+	public List<String> getLines() {
+		return lines;
+	}
+
+	/**
+	 * Gets the fingerprint of this trace.
+	 * 
+	 * @return A fingerprint that is shared by every trace thrown from the same place.
+	 */
+	public long getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * Gets when this trace was printed.
+	 * 
+	 * @return The time in milliseconds.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+}
@@ -0,0 +1,79 @@
+package com.sammarder.iheartdevs.traceprocessing;
+
+/**
+ * Fixed-size Bloom filter over 64 bit keys. mightContain() never returns false for a key that was put() in, and for a
+ * key that wasn't it returns true only rarely, so it is a cheap way to rule keys out before a real lookup. This class
+ * is not thread safe.
+ */
+public class BloomFilter {
+	private final long[] bits;
+	private final int mask;
+	private final int hashes;
+
+	/**
+	 * Constructor for creating a new, empty BloomFilter.
+	 * 
+	 * @param size
+	 *            The number of bits in the filter. This is rounded up to the next power of two (and at least 64).
+	 * @param hashes
+	 *            The number of bits set per key.
+	 */
+	public BloomFilter(int size, int hashes) {
+		int bitCount = 64;
+		while (bitCount < size && bitCount < (1 << 30)) {
+			bitCount <<= 1;
+		}
+		bits = new long[bitCount / 64];
+		mask = bitCount - 1;
+		this.hashes = hashes;
+	}
+
+	/**
+	 * Adds a key to the filter.
+	 * 
+	 * @param key
+	 *            The key to add.
+	 */
+	public void put(long key) {
+		long hash = spread(key);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32) | 1;
+		for (int i = 0; i < hashes; i++) {
+			int bit = (h1 + i * h2) & mask;
+			bits[bit >>> 6] |= 1L << bit;
+		}
+	}
+
+	/**
+	 * Determines if a key may have been added to the filter.
+	 * 
+	 * @param key
+	 *            The key to look for.
+	 * @return false if the key was definitely never added, true if it probably was.
+	 */
+	public boolean mightContain(long key) {
+		long hash = spread(key);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32) | 1;
+		for (int i = 0; i < hashes; i++) {
+			int bit = (h1 + i * h2) & mask;
+			if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Scrambles a key so that similar keys set very different bits.
+	 */
+	private static long spread(long key) {
+		// The finalizer of MurmurHash3.
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return key;
+	}
+}
@@ -0,0 +1,271 @@
+package com.sammarder.iheartdevs.traceprocessing;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded, preallocated ring buffer that any number of threads can publish chunks (lines) of System.err output into
+ * and that a single consumer thread drains. Publishing never takes a lock and chunks are copied into storage owned by
+ * the slot, so neither side allocates in the common case. When the buffer is full the configured OverflowPolicy decides
+ * what gets thrown away (and every thrown away chunk is counted).
+ */
+// This is the usual "sequence per slot" bounded queue. A slot is free for the producer claiming position p when its
+// sequence equals p and readable for the consumer at position p when its sequence equals p + 1.
+public class ChunkRingBuffer {
+	/**
+	 * What to do with a chunk that is published while the buffer is full.
+	 */
+	public enum OverflowPolicy {
+		// Throw away the oldest unread chunk to make room for the new one.
+		DROP_OLDEST,
+		// Throw away the chunk that is being published.
+		DROP_NEWEST,
+		// Wait (up to the block timeout) for the consumer to make room, then throw away the new chunk.
+		BLOCK
+	}
+
+	// How long a waiting thread parks between attempts.
+	private static final long PARK_NANOS = 50 * 1000;
+	// How long the consumer sleeps at most when there is nothing to read. Publishers wake it up early.
+	private static final long IDLE_PARK_NANOS = 1000 * 1000;
+
+	private final Slot[] slots;
+	private final int mask;
+	private final OverflowPolicy policy;
+	private final long blockTimeoutNanos;
+
+	// The next position to publish to and the next position to read from.
+	private final AtomicLong tail = new AtomicLong();
+	private final AtomicLong head = new AtomicLong();
+
+	private final AtomicLong droppedOldest = new AtomicLong();
+	private final AtomicLong droppedNewest = new AtomicLong();
+
+	// The thread that drains this buffer, set before it starts draining.
+	private volatile Thread consumer;
+	// The consumer again, but only while it is asleep in take().
+	private volatile Thread parkedConsumer;
+
+	/**
+	 * Constructor for creating a new ChunkRingBuffer.
+	 * 
+	 * @param capacity
+	 *            The minimum number of chunks the buffer can hold. This is rounded up to the next power of two.
+	 * @param policy
+	 *            What to do when the buffer is full.
+	 * @param blockTimeout
+	 *            How long (in milliseconds) a publisher waits for room when the policy is BLOCK.
+	 */
+	public ChunkRingBuffer(int capacity, OverflowPolicy policy, long blockTimeout) {
+		int size = 2;
+		while (size < capacity && size < (1 << 30)) {
+			size <<= 1;
+		}
+		slots = new Slot[size];
+		for (int i = 0; i < size; i++) {
+			slots[i] = new Slot(i);
+		}
+		mask = size - 1;
+		this.policy = policy;
+		this.blockTimeoutNanos = blockTimeout * 1000 * 1000;
+	}
+
+	/**
+	 * Registers the thread that drains this buffer. This must be called before the thread starts, so it is known even
+	 * if it prints to System.err before it ever ran out of chunks to read.
+	 * 
+	 * @param consumer
+	 *            The consumer thread.
+	 */
+	public void setConsumer(Thread consumer) {
+		this.consumer = consumer;
+	}
+
+	/**
+	 * Publishes a chunk for the consumer thread. This never blocks unless the policy is BLOCK and the buffer is full.
+	 * 
+	 * @param chunk
+	 *            The non-null chunk to publish. It is copied, so the caller may reuse it as soon as this returns.
+	 * @return true if the chunk was queued, false if it was dropped.
+	 */
+	public boolean publish(CharSequence chunk) {
+		if (offer(chunk)) {
+			return true;
+		}
+
+		if (policy == OverflowPolicy.DROP_OLDEST) {
+			// Keep making room until our chunk fits. Other producers may steal the room first, so this can loop.
+			do {
+				if (poll(null) != null) {
+					droppedOldest.incrementAndGet();
+				}
+			} while (!offer(chunk));
+			return true;
+		} else if (policy == OverflowPolicy.BLOCK && Thread.currentThread() != consumer) {
+			// The consumer must never wait on itself (it prints to System.err too), so it always drops instead.
+			long deadline = System.nanoTime() + blockTimeoutNanos;
+			while (System.nanoTime() - deadline < 0) {
+				wakeConsumer();
+				LockSupport.parkNanos(PARK_NANOS);
+				if (offer(chunk)) {
+					return true;
+				}
+			}
+		}
+
+		droppedNewest.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Attempts to publish a chunk exactly once.
+	 * 
+	 * @param chunk
+	 *            The chunk to publish.
+	 * @return true if the chunk was queued, false if the buffer is full.
+	 */
+	private boolean offer(CharSequence chunk) {
+		while (true) {
+			long position = tail.get();
+			Slot slot = slots[(int) position & mask];
+			long difference = slot.sequence - position;
+			if (difference == 0) {
+				if (tail.compareAndSet(position, position + 1)) {
+					slot.chunk.set(chunk);
+					slot.writer = Thread.currentThread();
+					// The volatile write publishes the chunk to the consumer.
+					slot.sequence = position + 1;
+					wakeConsumer();
+					return true;
+				}
+			} else if (difference < 0) {
+				// The slot still holds an unread chunk from a lap ago.
+				return false;
+			}
+			// Another producer claimed this position first. Try the next one.
+		}
+	}
+
+	/**
+	 * Removes the oldest chunk from the buffer.
+	 * 
+	 * @param into
+	 *            The buffer to copy the chunk into or null to throw the chunk away.
+	 * @return The thread that published the chunk or null if the buffer is empty.
+	 */
+	public Thread poll(LineBuffer into) {
+		while (true) {
+			long position = head.get();
+			Slot slot = slots[(int) position & mask];
+			long difference = slot.sequence - (position + 1);
+			if (difference == 0) {
+				if (head.compareAndSet(position, position + 1)) {
+					if (into != null) {
+						into.set(slot.chunk);
+					}
+					Thread writer = slot.writer;
+					slot.writer = null;
+					// Hand the slot back to producers for the next lap.
+					slot.sequence = position + slots.length;
+					return writer;
+				}
+			} else if (difference < 0) {
+				return null;
+			}
+			// Another thread (a DROP_OLDEST producer) took this chunk first. Try the next one.
+		}
+	}
+
+	/**
+	 * Removes the oldest chunk from the buffer, sleeping while the buffer is empty. Only the consumer thread (see
+	 * setConsumer()) should call this.
+	 * 
+	 * @param into
+	 *            The buffer to copy the chunk into.
+	 * @return The thread that published the chunk or null if the consumer thread was woken up without anything to
+	 *         read.
+	 */
+	public Thread take(LineBuffer into) {
+		Thread writer = poll(into);
+		if (writer != null) {
+			return writer;
+		}
+		parkedConsumer = Thread.currentThread();
+		// Check again after advertising that we're asleep, otherwise a publish in between would never wake us up.
+		writer = poll(into);
+		if (writer == null) {
+			LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+			writer = poll(into);
+		}
+		parkedConsumer = null;
+		return writer;
+	}
+
+	/**
+	 * Wakes up the consumer thread if it is sleeping in take().
+	 */
+	public void wakeConsumer() {
+		Thread consumer = parkedConsumer;
+		if (consumer != null) {
+			LockSupport.unpark(consumer);
+		}
+	}
+
+	/**
+	 * Determines if there are unread chunks in the buffer.
+	 * 
+	 * @return true if the buffer is empty, false otherwise.
+	 */
+	public boolean isEmpty() {
+		return head.get() >= tail.get();
+	}
+
+	/**
+	 * Gets the number of chunks this buffer can hold.
+	 * 
+	 * @return The capacity of this buffer.
+	 */
+	public int getCapacity() {
+		return slots.length;
+	}
+
+	/**
+	 * Gets the number of unread chunks that were thrown away to make room for newer ones.
+	 * 
+	 * @return The number of chunks dropped by DROP_OLDEST.
+	 */
+	public long getDroppedOldest() {
+		return droppedOldest.get();
+	}
+
+	/**
+	 * Gets the number of chunks that were thrown away because the buffer was full when they were published.
+	 * 
+	 * @return The number of chunks dropped by DROP_NEWEST or by BLOCK timing out.
+	 */
+	public long getDroppedNewest() {
+		return droppedNewest.get();
+	}
+
+	/**
+	 * Gets the total number of chunks that never reached the consumer.
+	 * 
+	 * @return The total number of dropped chunks.
+	 */
+	public long getDroppedChunks() {
+		return droppedOldest.get() + droppedNewest.get();
+	}
+
+	/**
+	 * A preallocated entry in the ring.
+	 */
+	private static class Slot {
+		volatile long sequence;
+		final LineBuffer chunk = new LineBuffer(128);
+		Thread writer;
+
+		Slot(long sequence) {
+			this.sequence = sequence;
+		}
+	}
+}
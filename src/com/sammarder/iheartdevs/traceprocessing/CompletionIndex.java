@@ -0,0 +1,154 @@
+package com.sammarder.iheartdevs.traceprocessing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Everything tab completion suggests: the ID of every saved trace and the names of the plugins and exceptions (both
+ * simple and fully qualified) that traces were saved with. The names are kept in sorted sets, so every name that starts
+ * with what was typed is next to each other, and the IDs in ascending order. It is kept up to date by the SearchIndex
+ * and never touches the disk, because Bukkit asks for completions on every keystroke. Names are lower case, like the
+ * terms of the SearchIndex. All methods are thread safe and don't wait for the SearchIndex.
+ */
+public class CompletionIndex {
+	private static final String PLUGIN_PREFIX = "plugin:";
+	private static final String EXCEPTION_PREFIX = "exception:";
+
+	private final SortedSet<String> plugins = new TreeSet<String>();
+	private final SortedSet<String> exceptions = new TreeSet<String>();
+	private int[] ids = new int[64];
+	private int idCount;
+
+	/**
+	 * Gets the IDs of the traces that start with a prefix, newest first.
+	 * 
+	 * @param prefix
+	 *            What was typed so far.
+	 * @param max
+	 *            The most IDs to return.
+	 * @return The IDs.
+	 */
+	public synchronized List<String> completeId(String prefix, int max) {
+		List<String> matches = new ArrayList<String>();
+		if (prefix.length() == 0) {
+			for (int i = idCount - 1; i >= 0 && matches.size() < max; i--) {
+				matches.add(String.valueOf(ids[i]));
+			}
+			return matches;
+		}
+		// IDs never have leading zeros (other than 0 itself) and are never longer than 10 digits.
+		if (idCount == 0 || prefix.length() > 10 || (prefix.length() > 1 && prefix.charAt(0) == '0')) {
+			return matches;
+		}
+		long value = 0;
+		for (int i = 0; i < prefix.length(); i++) {
+			char c = prefix.charAt(i);
+			if (c < '0' || c > '9') {
+				return matches;
+			}
+			value = value * 10 + c - '0';
+		}
+
+		// The IDs that start with 12 are 12, 120-129, 1200-1299 and so on. Longer IDs are newer.
+		List<long[]> ranges = new ArrayList<long[]>();
+		long low = value;
+		long high = value;
+		while (low <= ids[idCount - 1]) {
+			ranges.add(new long[] { low, high });
+			if (value == 0) {
+				break;
+			}
+			low *= 10;
+			high = high * 10 + 9;
+		}
+		for (int r = ranges.size() - 1; r >= 0 && matches.size() < max; r--) {
+			long[] range = ranges.get(r);
+			for (int i = countAtMost(range[1]) - 1; i >= 0 && ids[i] >= range[0] && matches.size() < max; i--) {
+				matches.add(String.valueOf(ids[i]));
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * Gets the names of the plugins that traces were saved with that start with a prefix.
+	 * 
+	 * @param prefix
+	 *            What was typed so far. Case doesn't matter.
+	 * @param max
+	 *            The most names to return.
+	 * @return The names in alphabetical order.
+	 */
+	public List<String> completePlugin(String prefix, int max) {
+		return complete(plugins, prefix, max);
+	}
+
+	/**
+	 * Gets the simple and fully qualified names of the exceptions that traces were saved with that start with a prefix.
+	 * 
+	 * @param prefix
+	 *            What was typed so far. Case doesn't matter.
+	 * @param max
+	 *            The most names to return.
+	 * @return The names in alphabetical order.
+	 */
+	public List<String> completeException(String prefix, int max) {
+		return complete(exceptions, prefix, max);
+	}
+
+	/**
+	 * Adds the ID of a trace. IDs that aren't larger than every ID before are ignored.
+	 */
+	synchronized void addId(int id) {
+		if (idCount > 0 && id <= ids[idCount - 1]) {
+			return;
+		}
+		if (idCount == ids.length) {
+			ids = Arrays.copyOf(ids, idCount * 2);
+		}
+		ids[idCount++] = id;
+	}
+
+	/**
+	 * Adds a term of the SearchIndex if it is the name of a plugin or an exception.
+	 */
+	synchronized void addTerm(String term) {
+		if (term.startsWith(PLUGIN_PREFIX)) {
+			plugins.add(term.substring(PLUGIN_PREFIX.length()));
+		} else if (term.startsWith(EXCEPTION_PREFIX)) {
+			exceptions.add(term.substring(EXCEPTION_PREFIX.length()));
+		}
+	}
+
+	private synchronized List<String> complete(SortedSet<String> names, String prefix, int max) {
+		List<String> matches = new ArrayList<String>();
+		prefix = prefix.toLowerCase();
+		for (String name : names.tailSet(prefix)) {
+			if (!name.startsWith(prefix) || matches.size() >= max) {
+				break;
+			}
+			matches.add(name);
+		}
+		return matches;
+	}
+
+	/**
+	 * Gets the number of IDs that are less than or equal to a value.
+	 */
+	private int countAtMost(long value) {
+		int low = 0;
+		int high = idCount;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (ids[middle] <= value) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+}
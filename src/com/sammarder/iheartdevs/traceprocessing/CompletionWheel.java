@@ -0,0 +1,258 @@
+package com.sammarder.iheartdevs.traceprocessing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+import com.sammarder.iheartdevs.IHeartDevs;
+import com.sammarder.iheartdevs.IRemindable;
+
+/**
+ * Hashed timing wheel that reminds IRemindables once they have been "quiet" for a while. Any number of Deadlines can
+ * share one wheel and a single thread services all of them. Pushing a Deadline back (which happens for every line of
+ * a stack trace) is a single volatile write. No task is created or cancelled for it.
+ */
+public class CompletionWheel {
+	private final long tickNanos;
+	private final int mask;
+	// Only the wheel thread touches the buckets.
+	private final List<Deadline>[] buckets;
+	// Deadlines that were armed since the wheel thread last looked.
+	private final Queue<Deadline> armedDeadlines = new ConcurrentLinkedQueue<Deadline>();
+	private final WheelThread thread;
+
+	/**
+	 * Constructor for creating a new CompletionWheel. This starts the wheel thread immediately.
+	 * 
+	 * @param tick
+	 *            The resolution of the wheel in milliseconds. Deadlines fire up to one tick late.
+	 * @param wheelSize
+	 *            The number of buckets. This is rounded up to the next power of two. Deadlines further away than
+	 *            tick * wheelSize still work, they are just looked at once per revolution.
+	 */
+	@SuppressWarnings("unchecked")
+	public CompletionWheel(long tick, int wheelSize) {
+		int size = 2;
+		while (size < wheelSize) {
+			size <<= 1;
+		}
+		buckets = (List<Deadline>[]) new List<?>[size];
+		for (int i = 0; i < size; i++) {
+			buckets[i] = new ArrayList<Deadline>();
+		}
+		mask = size - 1;
+		tickNanos = Math.max(1, tick) * 1000 * 1000;
+		thread = new WheelThread();
+		thread.start();
+	}
+
+	/**
+	 * Creates a new (unarmed) Deadline on this wheel.
+	 * 
+	 * @param remindable
+	 *            The object to remind once the Deadline passes.
+	 * @param quietPeriod
+	 *            How long (in milliseconds) after the last call to Deadline.touch() the Deadline passes.
+	 * @return The new Deadline. Nothing happens until touch() is called for the first time.
+	 */
+	public Deadline newDeadline(IRemindable remindable, long quietPeriod) {
+		return new Deadline(remindable, quietPeriod * 1000 * 1000);
+	}
+
+	/**
+	 * Stops the wheel thread. Every armed Deadline is reminded immediately (on the wheel thread) before it stops.
+	 * 
+	 * @param timeout
+	 *            The maximum amount of time (in milliseconds) to wait for the wheel thread to finish.
+	 */
+	public void shutdown(long timeout) {
+		thread.running = false;
+		LockSupport.unpark(thread);
+		try {
+			thread.join(timeout);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * A single "remind me after N milliseconds of quiet" registration.
+	 */
+	public class Deadline {
+		private final IRemindable remindable;
+		private final long quietNanos;
+		// When (in System.nanoTime()) this Deadline passes.
+		private volatile long expiresAt;
+		// true while this Deadline is in (or on its way to) a bucket.
+		private final AtomicBoolean armed = new AtomicBoolean();
+
+		private Deadline(IRemindable remindable, long quietNanos) {
+			this.remindable = remindable;
+			this.quietNanos = quietNanos;
+		}
+
+		/**
+		 * Pushes this Deadline back to a full quiet period from now, arming it if necessary.
+		 */
+		public void touch() {
+			expiresAt = System.nanoTime() + quietNanos;
+			// Already being tracked by the wheel thread, which will notice the new time on its own.
+			if (!armed.get() && armed.compareAndSet(false, true)) {
+				armedDeadlines.add(this);
+				thread.wakeUp();
+			}
+		}
+
+		/**
+		 * Arms this Deadline to pass a full quiet period from now, unless it is already armed. Unlike touch(), this
+		 * never pushes an armed Deadline back, so it can be used for "at most once every N milliseconds" reminders.
+		 */
+		public void arm() {
+			if (!armed.get() && armed.compareAndSet(false, true)) {
+				expiresAt = System.nanoTime() + quietNanos;
+				armedDeadlines.add(this);
+				thread.wakeUp();
+			}
+		}
+
+		/**
+		 * Called by the wheel thread when this Deadline's bucket comes around.
+		 * 
+		 * @return false if the Deadline has to go back into a bucket, true if it doesn't (because it passed and was
+		 *         reminded or because touch() already queued it again).
+		 */
+		private boolean expire(long now) {
+			if (now - expiresAt < 0) {
+				return false;
+			}
+			// Disarm first and then look again, in case touch() pushed the Deadline back in between.
+			armed.set(false);
+			if (now - expiresAt < 0) {
+				// If touch() saw us disarmed, it queued us again itself. Either way, the trace isn't over.
+				return !armed.compareAndSet(false, true);
+			}
+			remindable.remind();
+			return true;
+		}
+
+		/**
+		 * Reminds this Deadline right now, whether it has passed or not.
+		 */
+		private void fire() {
+			armed.set(false);
+			remindable.remind();
+		}
+	}
+
+	/**
+	 * The single thread that services every Deadline on this wheel.
+	 */
+	private class WheelThread extends Thread {
+		private volatile boolean running = true;
+		// true while the wheel is empty and this thread is asleep until something is armed.
+		private volatile boolean idle;
+		// The number of Deadlines in the buckets.
+		private int size;
+		// An empty list that gets swapped with the bucket being expired.
+		private List<Deadline> spare = new ArrayList<Deadline>();
+
+		WheelThread() {
+			super("IHeartDevs trace completion");
+			setDaemon(true);
+		}
+
+		void wakeUp() {
+			if (idle) {
+				LockSupport.unpark(this);
+			}
+		}
+
+		@Override
+		public void run() {
+			long tick = System.nanoTime() / tickNanos;
+			while (running) {
+				if (size == 0 && armedDeadlines.isEmpty()) {
+					idle = true;
+					// Check again after advertising that we're asleep, otherwise an arm in between would be missed.
+					if (armedDeadlines.isEmpty() && running) {
+						LockSupport.park(this);
+					}
+					idle = false;
+					tick = System.nanoTime() / tickNanos;
+				} else {
+					long sleep = (tick + 1) * tickNanos - System.nanoTime();
+					if (sleep > 0) {
+						LockSupport.parkNanos(this, sleep);
+						continue;
+					}
+					tick++;
+				}
+
+				Deadline armed;
+				while ((armed = armedDeadlines.poll()) != null) {
+					schedule(armed, tick);
+				}
+				expireBucket(tick);
+			}
+
+			// Shutting down. Everything that is still waiting fires now.
+			Deadline armed;
+			while ((armed = armedDeadlines.poll()) != null) {
+				fire(armed);
+			}
+			for (List<Deadline> bucket : buckets) {
+				for (Deadline deadline : bucket) {
+					fire(deadline);
+				}
+				bucket.clear();
+			}
+		}
+
+		private void fire(Deadline deadline) {
+			try {
+				deadline.fire();
+			} catch (RuntimeException e) {
+				IHeartDevs.log(Level.WARNING, "Could not complete a pending stack trace: " + e);
+			}
+		}
+
+		/**
+		 * Puts a Deadline in the bucket for the tick it expires on (or the current tick, if that has already passed).
+		 */
+		private void schedule(Deadline deadline, long currentTick) {
+			long expiresOn = (deadline.expiresAt + tickNanos - 1) / tickNanos;
+			buckets[(int) Math.max(expiresOn, currentTick) & mask].add(deadline);
+			size++;
+		}
+
+		/**
+		 * Reminds every passed Deadline in the bucket for a tick and moves the rest to the bucket they belong in now.
+		 */
+		private void expireBucket(long tick) {
+			List<Deadline> bucket = buckets[(int) tick & mask];
+			if (bucket.isEmpty()) {
+				return;
+			}
+			long now = System.nanoTime();
+			// Swap in the empty spare since rescheduled Deadlines may land back in this same bucket.
+			buckets[(int) tick & mask] = spare;
+			size -= bucket.size();
+			for (Deadline deadline : bucket) {
+				try {
+					if (!deadline.expire(now)) {
+						schedule(deadline, tick + 1);
+					}
+				} catch (RuntimeException e) {
+					// One broken IRemindable must not stop every other Deadline from firing.
+					IHeartDevs.log(Level.WARNING, "Could not complete a pending stack trace: " + e);
+				}
+			}
+			bucket.clear();
+			spare = bucket;
+		}
+	}
+}
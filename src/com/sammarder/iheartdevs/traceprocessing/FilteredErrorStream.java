@@ -1,20 +1,40 @@
 package com.sammarder.iheartdevs.traceprocessing;
 
 import java.io.PrintStream;
+import java.nio.charset.Charset;
 import java.util.Locale;
+import java.util.logging.Level;
 
+import com.sammarder.iheartdevs.IHeartDevs;
 import com.sammarder.iheartdevs.InputProcessingException;
+import com.sammarder.iheartdevs.metrics.PipelineMetrics;
 
 /**
- * Pseudo PrintStream that redirects all output to each IMessageProcessor passed into the constructor. Once an
- * IMessageProcessor "accepts" the message, further IMessageProcessors will not be called.
+ * Pseudo PrintStream that redirects all output, one complete line at a time, to each IMessageProcessor passed into the
+ * constructor. Once an IMessageProcessor "accepts" the line, further IMessageProcessors will not be called. If a
+ * ChunkRingBuffer is passed into the constructor, the calling thread only publishes the line and a dedicated consumer
+ * thread calls the IMessageProcessors instead.
  */
 public class FilteredErrorStream extends PrintStream {
-	// I know this is technically just a char, but it is easier to call it a string.
-	public static final String NL = "\n";
-
 	// The size of this can't change so it might as well be ultra-efficient.
 	private final IMessageProcessor[] processors;
+	// Both of these are null unless messages are handed off to another thread.
+	private final ChunkRingBuffer ringBuffer;
+	private final ConsumerThread consumer;
+
+	// Every thread gets its own LineAssembler so that half-printed lines from different threads never get mixed up and
+	// writing never has to take a lock.
+	private final ThreadLocal<LineAssembler> assemblers = new ThreadLocal<LineAssembler>() {
+		@Override
+		protected LineAssembler initialValue() {
+			return new LineAssembler(new LineAssembler.LineListener() {
+				@Override
+				public void onLine(CharSequence line) {
+					process(line);
+				}
+			}, Charset.defaultCharset());
+		}
+	};
 
 	/**
 	 * Constructor for initializing a new FilteredErrorStream.
@@ -25,18 +45,86 @@ public class FilteredErrorStream extends PrintStream {
 	public FilteredErrorStream(IMessageProcessor... processors) {
 		super(System.err);
 		this.processors = processors;
+		this.ringBuffer = null;
+		this.consumer = null;
+	}
+
+	/**
+	 * Constructor for initializing a new FilteredErrorStream that never runs the IMessageProcessors on the thread that
+	 * printed the message. This starts the consumer thread immediately.
+	 * 
+	 * @param ringBuffer
+	 *            The buffer that printed messages are handed off through.
+	 * @param processors
+	 *            A list of IMessageProcessors to call (from the consumer thread) when input is received.
+	 */
+	public FilteredErrorStream(ChunkRingBuffer ringBuffer, IMessageProcessor... processors) {
+		super(System.err);
+		this.processors = processors;
+		this.ringBuffer = ringBuffer;
+		this.consumer = new ConsumerThread();
+		ringBuffer.setConsumer(consumer);
+		consumer.start();
+	}
+
+	/**
+	 * Stops the consumer thread (if there is one) after it has processed everything that was already published.
+	 * 
+	 * @param timeout
+	 *            The maximum amount of time (in milliseconds) to wait for the consumer thread to finish.
+	 */
+	public void shutdown(long timeout) {
+		if (consumer == null) {
+			return;
+		}
+		consumer.running = false;
+		ringBuffer.wakeConsumer();
+		try {
+			consumer.join(timeout);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
 	}
 
 	/**
-	 * All printX, format, append, and write calls get forwarded here. This calls all IMessageProcessors associated with
-	 * this object in an attempt to successfully resolve the message.
+	 * Gets the buffer that messages are handed off through.
+	 * 
+	 * @return The ChunkRingBuffer passed into the constructor or null if messages are processed synchronously.
+	 */
+	public ChunkRingBuffer getRingBuffer() {
+		return ringBuffer;
+	}
+
+	/**
+	 * Every line that is completed by a printX, format, append, or write call gets forwarded here. Depending on how
+	 * this object was constructed, the line is either dispatched immediately or published for the consumer thread.
 	 * 
 	 * @param s
-	 *            The message to interpret.
+	 *            The line to interpret. This may be a reused buffer, so it must not be kept.
 	 */
-	private void process(String s) {
+	private void process(CharSequence s) {
+		PipelineMetrics.LINES_SEEN.increment();
+		if (ringBuffer != null) {
+			ringBuffer.publish(s);
+		} else {
+			dispatch(Thread.currentThread(), s);
+		}
+	}
+
+	/**
+	 * Calls all IMessageProcessors associated with this object in an attempt to successfully resolve the message.
+	 * 
+	 * @param source
+	 *            The thread that printed the line.
+	 * @param s
+	 *            The line to interpret. This may be a reused buffer, so it must not be kept.
+	 */
+	private void dispatch(Thread source, CharSequence s) {
 		for (IMessageProcessor processor : processors) {
-			if (processor.process(s)) {
+			long start = System.nanoTime();
+			boolean accepted = processor.process(source, s);
+			PipelineMetrics.PROCESS_TIME.record(System.nanoTime() - start);
+			if (accepted) {
 				// process() returns true if the processor successfully digested the message.
 				return;
 			}
@@ -47,8 +135,8 @@ public class FilteredErrorStream extends PrintStream {
 		new InputProcessingException("Input: " + s).printStackTrace();
 	}
 
-	// All of the below methods defer the act of writing output to process(). process() will determine what to do with
-	// the message and act accordingly.
+	// All of the below methods defer the act of writing output to the calling thread's LineAssembler. Every time it
+	// completes a line, the line is passed on to process(), which will determine what to do with it.
 
 	// Also overrides anything to do with setting the error state of this stream. Because this stream doesn't actually
 	// write anything, it can never be in an error state.
@@ -56,21 +144,49 @@ public class FilteredErrorStream extends PrintStream {
 	// flush() and close() get passed up the parent. Like the real System.err, you should never call either of those
 	// anyways.
 
+	/**
+	 * Appends a string to the calling thread's current line.
+	 * 
+	 * @param s
+	 *            The string to append. Any newlines in it complete lines.
+	 */
+	private void print0(String s) {
+		assemblers.get().append(s, 0, s.length());
+	}
+
+	/**
+	 * Appends a string to the calling thread's current line and then completes the line.
+	 * 
+	 * @param s
+	 *            The string to append.
+	 */
+	private void println0(String s) {
+		LineAssembler assembler = assemblers.get();
+		assembler.append(s, 0, s.length());
+		assembler.endLine();
+	}
+
 	@Override
 	public PrintStream append(char c) {
-		process(String.valueOf(c));
+		assemblers.get().append(c);
 		return this;
 	}
 
 	@Override
 	public PrintStream append(CharSequence csq) {
-		process(csq.toString());
+		if (csq == null) {
+			csq = "null";
+		}
+		assemblers.get().append(csq, 0, csq.length());
 		return this;
 	}
 
 	@Override
 	public PrintStream append(CharSequence csq, int start, int end) {
-		process(csq.subSequence(start, end).toString());
+		if (csq == null) {
+			csq = "null";
+		}
+		assemblers.get().append(csq, start, end);
 		return this;
 	}
 
@@ -99,121 +215,125 @@ public class FilteredErrorStream extends PrintStream {
 
 	@Override
 	public PrintStream format(Locale l, String format, Object... args) {
-		process(String.format(l, format, args));
+		print0(String.format(l, format, args));
 		return this;
 	}
 
 	@Override
 	public PrintStream format(String format, Object... args) {
-		process(String.format(format, args));
+		print0(String.format(format, args));
 		return this;
 	}
 
 	@Override
 	public void print(boolean b) {
-		process(String.valueOf(b));
+		print0(String.valueOf(b));
 	}
 
 	@Override
 	public void print(char c) {
-		process(String.valueOf(c));
+		assemblers.get().append(c);
 	}
 
 	@Override
 	public void print(char[] chars) {
-		process(String.valueOf(chars));
+		assemblers.get().append(chars, 0, chars.length);
 	}
 
 	@Override
 	public void print(double d) {
-		process(String.valueOf(d));
+		print0(String.valueOf(d));
 	}
 
 	@Override
 	public void print(float f) {
-		process(String.valueOf(f));
+		print0(String.valueOf(f));
 	}
 
 	@Override
 	public void print(int i) {
-		process(String.valueOf(i));
+		print0(String.valueOf(i));
 	}
 
 	@Override
 	public void print(long l) {
-		process(String.valueOf(l));
+		print0(String.valueOf(l));
 	}
 
 	@Override
 	public void print(Object obj) {
-		process(String.valueOf(obj));
+		print0(String.valueOf(obj));
 	}
 
 	@Override
 	public void print(String s) {
-		process(s);
+		print0(String.valueOf(s));
 	}
 
 	@Override
 	public PrintStream printf(Locale l, String format, Object... args) {
-		process(String.format(l, format, args));
+		print0(String.format(l, format, args));
 		return this;
 	}
 
 	@Override
 	public PrintStream printf(String format, Object... args) {
-		process(String.format(format, args));
+		print0(String.format(format, args));
 		return this;
 	}
 
 	@Override
 	public void println() {
-		process(NL);
+		assemblers.get().endLine();
 	}
 
 	@Override
 	public void println(boolean b) {
-		process(String.valueOf(b) + NL);
+		println0(String.valueOf(b));
 	}
 
 	@Override
 	public void println(char c) {
-		process(String.valueOf(c) + NL);
+		LineAssembler assembler = assemblers.get();
+		assembler.append(c);
+		assembler.endLine();
 	}
 
 	@Override
 	public void println(char[] chars) {
-		process(String.valueOf(chars) + NL);
+		LineAssembler assembler = assemblers.get();
+		assembler.append(chars, 0, chars.length);
+		assembler.endLine();
 	}
 
 	@Override
 	public void println(double d) {
-		process(String.valueOf(d) + NL);
+		println0(String.valueOf(d));
 	}
 
 	@Override
 	public void println(float f) {
-		process(String.valueOf(f) + NL);
+		println0(String.valueOf(f));
 	}
 
 	@Override
 	public void println(int i) {
-		process(String.valueOf(i) + NL);
+		println0(String.valueOf(i));
 	}
 
 	@Override
 	public void println(long l) {
-		process(String.valueOf(l) + NL);
+		println0(String.valueOf(l));
 	}
 
 	@Override
 	public void println(Object o) {
-		process(String.valueOf(o) + NL);
+		println0(String.valueOf(o));
 	}
 
 	@Override
 	public void println(String s) {
-		process(String.valueOf(s) + NL);
+		println0(String.valueOf(s));
 	}
 
 	@Override
@@ -223,11 +343,44 @@ public class FilteredErrorStream extends PrintStream {
 
 	@Override
 	public void write(int b) {
-		process(String.valueOf(b));
+		// This is a raw byte (not a number to print), so it goes through the decoder.
+		assemblers.get().write((byte) b);
 	}
 
 	@Override
 	public void write(byte[] buf, int off, int len) {
-		process(new String(buf, off, len));
+		assemblers.get().write(buf, off, len);
+	}
+
+	/**
+	 * Daemon thread that drains the ring buffer into the IMessageProcessors.
+	 */
+	private class ConsumerThread extends Thread {
+		private volatile boolean running = true;
+		// Every line is copied out of the ring into this buffer so the slot can be reused right away.
+		private final LineBuffer line = new LineBuffer(256);
+
+		ConsumerThread() {
+			super("IHeartDevs stderr consumer");
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			// Keep going after being stopped until everything that was published before shutdown() is processed.
+			while (running || !ringBuffer.isEmpty()) {
+				Thread source = ringBuffer.take(line);
+				if (source == null) {
+					continue;
+				}
+				try {
+					dispatch(source, line);
+				} catch (RuntimeException e) {
+					// A broken processor must not kill the only thread that drains the buffer.
+					// I can't say e.printStackTrace() otherwise I could create an infinite loop!
+					IHeartDevs.log(Level.WARNING, "Could not process a message from System.err: " + e);
+				}
+			}
+		}
 	}
 }
@@ -0,0 +1,376 @@
+package com.sammarder.iheartdevs.traceprocessing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+import com.sammarder.iheartdevs.IHeartDevs;
+
+/**
+ * Remembers every distinct stack trace (by TraceFingerprint) that has been saved, so that repeats only bump a counter
+ * instead of being saved again. A Bloom filter sits in front of the real lookup, which keeps the common case (a trace
+ * that has never been seen before) cheap. Occurrences are kept in memory and written to disk every now and then. A new
+ * trace is also appended to a journal right away, so it isn't saved again after a crash, without rewriting the whole
+ * file for every trace.
+ */
+public class FingerprintIndex {
+	// "IHDF"
+	private static final int MAGIC = 0x49484446;
+	private static final int VERSION = 1;
+	// Don't write the file more often than this (in milliseconds) while traces keep repeating.
+	private static final long SAVE_INTERVAL = 10 * 1000;
+
+	private final File file;
+	private final File journalFile;
+	private final Map<Long, Occurrence> byFingerprint = new HashMap<Long, Occurrence>();
+	private final Map<Integer, Occurrence> byTraceId = new HashMap<Integer, Occurrence>();
+	private final BloomFilter seen = new BloomFilter(1 << 20, 4);
+	// true if something changed since the file was last written.
+	private boolean dirty;
+	private long lastSave;
+	// Opened when the first trace is journaled.
+	private DataOutputStream journal;
+	// The number of traces in the journal.
+	private int journalCount;
+
+	/**
+	 * Constructor for creating a new FingerprintIndex. Existing occurrences are loaded from the file and the journal (if
+	 * they exist).
+	 * 
+	 * @param file
+	 *            The file to store occurrences in.
+	 * @param journalFile
+	 *            The file to journal new traces in.
+	 */
+	public FingerprintIndex(File file, File journalFile) {
+		this.file = file;
+		this.journalFile = journalFile;
+		load();
+		replay();
+		if (journalCount > 0) {
+			// Also gets rid of a half-written record at the end of the journal, which appending after would corrupt.
+			dirty = true;
+			save();
+		}
+	}
+
+	/**
+	 * Counts a trace if it has been seen before.
+	 * 
+	 * @param fingerprint
+	 *            The fingerprint of the trace.
+	 * @param timestamp
+	 *            When the trace was printed.
+	 * @return true if the trace is a repeat (and was counted), false if it has never been seen before.
+	 */
+	public synchronized boolean recordRepeat(long fingerprint, long timestamp) {
+		if (!seen.mightContain(fingerprint)) {
+			return false;
+		}
+		Occurrence occurrence = byFingerprint.get(fingerprint);
+		if (occurrence == null) {
+			// The Bloom filter was wrong. This should be rare.
+			return false;
+		}
+		occurrence.count++;
+		occurrence.lastSeen = Math.max(occurrence.lastSeen, timestamp);
+		dirty = true;
+		return true;
+	}
+
+	/**
+	 * Remembers a trace that has just been saved for the first time.
+	 * 
+	 * @param fingerprint
+	 *            The fingerprint of the trace.
+	 * @param traceId
+	 *            The ID the trace was saved under.
+	 * @param timestamp
+	 *            When the trace was printed.
+	 * @param plugin
+	 *            The name of the plugin that caused the trace or null if it is unknown.
+	 */
+	public synchronized void add(long fingerprint, int traceId, long timestamp, String plugin) {
+		Occurrence occurrence = new Occurrence(fingerprint, traceId, 1, timestamp, timestamp, plugin);
+		put(occurrence);
+		dirty = true;
+		// The whole file is written by saveIfDue(), which only happens every now and then during a storm of new traces.
+		journal(occurrence);
+	}
+
+	/**
+	 * Gets the occurrences of the trace saved under an ID.
+	 * 
+	 * @param traceId
+	 *            The ID of the saved trace.
+	 * @return A snapshot of the occurrences or null if the ID isn't known.
+	 */
+	public synchronized Occurrence getByTraceId(int traceId) {
+		Occurrence occurrence = byTraceId.get(traceId);
+		return occurrence == null ? null : occurrence.copy();
+	}
+
+	/**
+	 * Gets the occurrences of a trace by its fingerprint.
+	 * 
+	 * @param fingerprint
+	 *            The fingerprint of the trace.
+	 * @return A snapshot of the occurrences or null if the fingerprint has never been seen.
+	 */
+	public synchronized Occurrence getByFingerprint(long fingerprint) {
+		Occurrence occurrence = byFingerprint.get(fingerprint);
+		return occurrence == null ? null : occurrence.copy();
+	}
+
+	/**
+	 * Gets the occurrences of every distinct trace.
+	 * 
+	 * @return A snapshot of every occurrence, in no particular order.
+	 */
+	public synchronized List<Occurrence> getAll() {
+		List<Occurrence> all = new ArrayList<Occurrence>(byFingerprint.size());
+		for (Occurrence occurrence : byFingerprint.values()) {
+			all.add(occurrence.copy());
+		}
+		return all;
+	}
+
+	/**
+	 * Writes the occurrences to disk if they have changed and haven't been written in a while.
+	 */
+	public synchronized void saveIfDue() {
+		if (dirty && System.currentTimeMillis() - lastSave >= SAVE_INTERVAL) {
+			save();
+		}
+	}
+
+	/**
+	 * Writes the occurrences to disk if they have changed. This empties the journal.
+	 */
+	public synchronized void save() {
+		if (!dirty) {
+			return;
+		}
+		lastSave = System.currentTimeMillis();
+		// Write everything to a temporary file first so that a crash can't leave a half-written index behind.
+		File temp = new File(file.getPath() + ".tmp");
+		DataOutputStream os = null;
+		try {
+			os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			os.writeInt(MAGIC);
+			os.writeInt(VERSION);
+			os.writeInt(byFingerprint.size());
+			for (Occurrence occurrence : byFingerprint.values()) {
+				os.writeLong(occurrence.fingerprint);
+				os.writeInt(occurrence.traceId);
+				os.writeLong(occurrence.count);
+				os.writeLong(occurrence.firstSeen);
+				os.writeLong(occurrence.lastSeen);
+				os.writeUTF(occurrence.plugin == null ? "" : occurrence.plugin);
+			}
+			os.close();
+			os = null;
+			// renameTo() won't replace an existing file on every platform.
+			file.delete();
+			if (!temp.renameTo(file)) {
+				throw new IOException();
+			}
+		} catch (IOException e) {
+			// The journal still has every new trace.
+			IHeartDevs.log(Level.WARNING, "Could not write the trace fingerprints to \"" + file.toString() + "\"");
+			return;
+		} finally {
+			try {
+				os.close();
+			} catch (Exception e) {
+			}
+		}
+		dirty = false;
+		closeJournal();
+		journalFile.delete();
+		journalCount = 0;
+	}
+
+	/**
+	 * Appends a new trace to the journal. If that fails, the trace is only saved again if the server stops without
+	 * calling save() first.
+	 */
+	private void journal(Occurrence occurrence) {
+		try {
+			if (journal == null) {
+				journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile, true)));
+			}
+			journal.writeLong(occurrence.fingerprint);
+			journal.writeInt(occurrence.traceId);
+			journal.writeLong(occurrence.firstSeen);
+			journal.writeUTF(occurrence.plugin == null ? "" : occurrence.plugin);
+			journal.flush();
+			journalCount++;
+		} catch (IOException e) {
+			IHeartDevs.log(Level.WARNING, "Could not write to the fingerprint journal \"" + journalFile.toString()
+					+ "\"");
+			closeJournal();
+		}
+	}
+
+	private void closeJournal() {
+		try {
+			journal.close();
+		} catch (Exception e) {
+		}
+		journal = null;
+	}
+
+	/**
+	 * Reads the occurrences from disk. A missing or broken file just means starting over.
+	 */
+	private void load() {
+		if (!file.exists()) {
+			return;
+		}
+		DataInputStream is = null;
+		try {
+			is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (is.readInt() != MAGIC || is.readInt() != VERSION) {
+				throw new IOException();
+			}
+			int count = is.readInt();
+			for (int i = 0; i < count; i++) {
+				long fingerprint = is.readLong();
+				int traceId = is.readInt();
+				long occurrences = is.readLong();
+				long firstSeen = is.readLong();
+				long lastSeen = is.readLong();
+				String plugin = is.readUTF();
+				put(new Occurrence(fingerprint, traceId, occurrences, firstSeen, lastSeen, plugin.length() == 0 ? null
+						: plugin));
+			}
+		} catch (IOException e) {
+			IHeartDevs.log(Level.WARNING, "Could not read the trace fingerprints from \"" + file.toString()
+					+ "\". Repeated traces will be saved again.");
+		} finally {
+			try {
+				is.close();
+			} catch (Exception e) {
+			}
+		}
+	}
+
+	/**
+	 * Adds every trace in the journal that isn't in the file yet. A half-written record at the end is ignored.
+	 */
+	private void replay() {
+		if (!journalFile.exists()) {
+			return;
+		}
+		DataInputStream is = null;
+		try {
+			is = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+			while (true) {
+				long fingerprint = is.readLong();
+				int traceId = is.readInt();
+				long timestamp = is.readLong();
+				String plugin = is.readUTF();
+				if (!byFingerprint.containsKey(fingerprint)) {
+					put(new Occurrence(fingerprint, traceId, 1, timestamp, timestamp, plugin.length() == 0 ? null
+							: plugin));
+				}
+				journalCount++;
+			}
+		} catch (EOFException e) {
+			// The end of the journal.
+		} catch (IOException e) {
+			IHeartDevs.log(Level.WARNING, "Could not read all of the fingerprint journal \"" + journalFile.toString()
+					+ "\"");
+		} finally {
+			try {
+				is.close();
+			} catch (Exception e) {
+			}
+		}
+	}
+
+	private void put(Occurrence occurrence) {
+		byFingerprint.put(occurrence.fingerprint, occurrence);
+		byTraceId.put(occurrence.traceId, occurrence);
+		seen.put(occurrence.fingerprint);
+	}
+
+	/**
+	 * How often (and when) one distinct trace has happened.
+	 */
+	public static class Occurrence {
+		private final long fingerprint;
+		private final int traceId;
+		private long count;
+		private final long firstSeen;
+		private long lastSeen;
+		private final String plugin;
+
+		Occurrence(long fingerprint, int traceId, long count, long firstSeen, long lastSeen, String plugin) {
+			this.fingerprint = fingerprint;
+			this.traceId = traceId;
+			this.count = count;
+			this.firstSeen = firstSeen;
+			this.lastSeen = lastSeen;
+			this.plugin = plugin;
+		}
+
+		Occurrence copy() {
+			return new Occurrence(fingerprint, traceId, count, firstSeen, lastSeen, plugin);
+		}
+
+		/**
+		 * @return The fingerprint of the trace.
+		 */
+		public long getFingerprint() {
+			return fingerprint;
+		}
+
+		/**
+		 * @return The ID of the saved copy of the trace.
+		 */
+		public int getTraceId() {
+			return traceId;
+		}
+
+		/**
+		 * @return How many times the trace has happened (including the first time).
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return When (in milliseconds) the trace first happened.
+		 */
+		public long getFirstSeen() {
+			return firstSeen;
+		}
+
+		/**
+		 * @return When (in milliseconds) the trace last happened.
+		 */
+		public long getLastSeen() {
+			return lastSeen;
+		}
+
+		/**
+		 * @return The name of the plugin that caused the trace or null if it is unknown.
+		 */
+		public String getPlugin() {
+			return plugin;
+		}
+	}
+}
@@ -1,109 +1,85 @@
 package com.sammarder.iheartdevs.traceprocessing;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.util.logging.Level;
+import java.util.Map;
 
 import org.bukkit.craftbukkit.libs.com.google.gson.JsonObject;
 import org.bukkit.craftbukkit.libs.com.google.gson.JsonParser;
 
-import com.sammarder.iheartdevs.IHeartDevs;
+import com.sammarder.iheartdevs.storage.StoredTrace;
 
 /**
  * Contains objects for publishing a log file to gist.github.com. As a general rule, you should pass in non-null
- * objects. If you receive a non-null object back, everything wen't well.
+ * objects. Several logs are published as the files of a single gist.
  */
-public class GistLogPublisher {
-
-	// If I end up supporting more "pastebin-like" sites, this will support much more abstraction.
+public class GistLogPublisher implements ILogPublisher {
+	/**
+	 * Where gists are created unless told otherwise.
+	 */
+	public static final String DEFAULT_URL = "https://api.github.com/gists";
+	// How many characters of a log are read and encoded at a time.
+	private static final int BUFFER_SIZE = 4096;
 
-	// No explicit constructor because it is not needed.
+	private final String postURL;
+	private final HttpTransport transport;
 
 	/**
-	 * Publishes a log file to gist.github.com.
+	 * Constructor for creating a new GistLogPublisher.
 	 * 
-	 * @param title
-	 *            The non-null title of the file.
-	 * @param description
-	 *            The non-null description of the file.
-	 * @param log
-	 *            the non-null file that contains the log information.
-	 * @return A string with the url of the log, null otherwise.
+	 * @param postURL
+	 *            The URL to POST new gists to. This is DEFAULT_URL unless you are testing against a stand-in.
+	 * @param transport
+	 *            The (shared) HttpTransport to send requests with.
 	 */
-	public String publish(String title, String description, File log) {
-		StringBuilder payload = new StringBuilder();
-		String temp;
-		BufferedReader reader = null;
-		try {
-			reader = new BufferedReader(new FileReader(log));
-			while ((temp = reader.readLine()) != null) {
-				// Escape the json newline
-				payload.append(temp + "\\n");
-			}
-		} catch (FileNotFoundException e) {
-			IHeartDevs.log(Level.WARNING, "Could not find the file to publish.");
-			return null;
-		} catch (IOException e) {
-			IHeartDevs.log(Level.WARNING, "Could not read from file to publish.");
-			return null;
-		} finally {
-			try {
-				reader.close();
-			} catch (Exception e) {
-			}
-		}
-
-		// TODO: Actually use JSON/GSON
-		String json = "{\"description\": \"" + description + "\",\"public\": true, \"files\": {\"" + title
-				+ "\": {\"content\": \"" + payload.toString() + "\"}}}";
-		String postURL = "https://api.github.com/gists";
-
-		String response = doPOST(postURL, json);
-		if (response == null) {
-			return null;
-		}
+	public GistLogPublisher(String postURL, HttpTransport transport) {
+		this.postURL = postURL;
+		this.transport = transport;
+	}
 
-		String urlString = getURL(response);
-		try {
-			// Tests to make sure that the returned result is a website.
-			new URL(urlString);
-			return urlString;
-		} catch (Exception e) {
-			return null;
-		}
+	@Override
+	public String getName() {
+		return "gist.github.com";
 	}
 
 	/**
-	 * Performs a POST request to a given url with the given payload.
-	 * 
-	 * @param urlString
-	 *            The URL to POST.
-	 * @param payload
-	 *            The payload to send.
-	 * @return The response from the POST request. This is null if something went wrong.
+	 * Publishes one or more log files to gist.github.com as a single gist. Every log is read, encoded as JSON and sent
+	 * a buffer at a time, so how much memory this takes doesn't depend on how large the logs are.
 	 */
-	private String doPOST(String urlString, String payload) {
-		HttpURLConnection connection = getPOSTConnection(urlString);
-		if (connection == null) {
-			return null;
-		}
-
-		DataOutputStream os = null;
+	@Override
+	public String publish(String description, Map<String, StoredTrace> logs) throws PublishException {
+		HttpURLConnection connection = transport.openPost(postURL, "application/json");
+		Writer os = transport.getWriter(connection);
+		char[] buffer = new char[BUFFER_SIZE];
 		try {
-			os = new DataOutputStream(connection.getOutputStream());
-			os.writeBytes(payload);
+			os.write("{\"description\": ");
+			writeString(os, description);
+			os.write(", \"public\": true, \"files\": {");
+			boolean first = true;
+			for (Map.Entry<String, StoredTrace> log : logs.entrySet()) {
+				if (!first) {
+					os.write(", ");
+				}
+				first = false;
+				writeString(os, log.getKey());
+				os.write(": {\"content\": ");
+				Reader reader = new InputStreamReader(log.getValue().openStream(), HttpTransport.CHARSET);
+				try {
+					writeString(os, reader, buffer);
+				} finally {
+					reader.close();
+				}
+				os.write("}");
+			}
+			os.write("}}");
 			os.flush();
 		} catch (IOException e) {
-			IHeartDevs.log(Level.WARNING, "Could not POST data to Gist.");
-			e.printStackTrace();
-			return null;
+			throw new PublishException("Could not POST data to Gist: " + e.getMessage(), true, 0);
 		} finally {
 			try {
 				os.close();
@@ -111,76 +87,84 @@ public class GistLogPublisher {
 			}
 		}
 
-		StringBuilder sb = new StringBuilder();
-		String temp;
-		BufferedReader is = null;
+		String urlString = getURL(transport.getResponse(connection));
 		try {
-			is = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-			while ((temp = is.readLine()) != null) {
-				sb.append(temp);
-			}
-		} catch (IOException e) {
-			IHeartDevs.log(Level.WARNING, "Could not receive POST message from Gist.");
-			e.printStackTrace();
-			return null;
-		} finally {
-			try {
-				is.close();
-			} catch (Exception e) {
-			}
+			// Tests to make sure that the returned result is a website.
+			new URL(urlString);
+			return urlString;
+		} catch (Exception e) {
+			throw new PublishException("Gist answered with something that isn't a URL.", false, 0);
 		}
+	}
 
-		return sb.toString();
+	@Override
+	public boolean exists(String url) throws PublishException {
+		return transport.exists(url);
+	}
 
+	/**
+	 * Writes a string as a JSON string literal (quoted and escaped).
+	 */
+	private static void writeString(Writer os, String s) throws IOException {
+		writeString(os, new StringReader(s), new char[s.length() + 1]);
 	}
 
 	/**
-	 * Creates a connection that is ready for a POST request.
+	 * Writes text as a JSON string literal (quoted and escaped) as it is read. Runs of characters that don't need
+	 * escaping are written as they are.
 	 * 
-	 * @param urlString
-	 *            The url to establish a connection with.
-	 * @return A connection to the given url or null if something went wrong.
+	 * @param os
+	 *            The writer to write to.
+	 * @param reader
+	 *            The text to write.
+	 * @param buffer
+	 *            The buffer to read the text into.
+	 * @throws IOException
+	 *             If the text could not be read or the writer fails.
 	 */
-	private HttpURLConnection getPOSTConnection(String urlString) {
-		URL url = null;
-		try {
-			url = new URL(urlString);
-		} catch (Exception e) {
-			System.out.println("Bad url given.");
-			e.printStackTrace();
-			return null;
-		}
-
-		HttpURLConnection connection = null;
-		try {
-			connection = (HttpURLConnection) url.openConnection();
-		} catch (Exception e) {
-			System.out.println("Could not establish connection to URL.");
-			e.printStackTrace();
-			return null;
-		}
-
-		try {
-			connection.setRequestMethod("POST");
-		} catch (Exception e) {
-			System.out.println("URL does not support POST.");
-			e.printStackTrace();
-			return null;
-		}
-
-		connection.setDoInput(true);
-		connection.setDoOutput(true);
-		connection.setUseCaches(false);
-
-		try {
-			connection.connect();
-		} catch (Exception e) {
-			System.out.println("Could not establish connection to URL.");
-			e.printStackTrace();
-			return null;
+	private static void writeString(Writer os, Reader reader, char[] buffer) throws IOException {
+		os.write('"');
+		int count;
+		while ((count = reader.read(buffer)) >= 0) {
+			int start = 0;
+			for (int i = 0; i < count; i++) {
+				char c = buffer[i];
+				String escaped;
+				switch (c) {
+				case '"':
+					escaped = "\\\"";
+					break;
+				case '\\':
+					escaped = "\\\\";
+					break;
+				case '\n':
+					escaped = "\\n";
+					break;
+				case '\r':
+					escaped = "\\r";
+					break;
+				case '\t':
+					escaped = "\\t";
+					break;
+				case '\b':
+					escaped = "\\b";
+					break;
+				case '\f':
+					escaped = "\\f";
+					break;
+				default:
+					if (c >= 0x20) {
+						continue;
+					}
+					escaped = String.format("\\u%04x", (int) c);
+				}
+				os.write(buffer, start, i - start);
+				os.write(escaped);
+				start = i + 1;
+			}
+			os.write(buffer, start, count - start);
 		}
-
-		return connection;
+		os.write('"');
 	}
 
 	/**
@@ -188,14 +172,20 @@ public class GistLogPublisher {
 	 * 
 	 * @param response
 	 *            The response from the server from the POST request.
-	 * @return The url to the log or null if something went wrong.
+	 * @return The url to the log.
+	 * @throws PublishException
+	 *             If the response doesn't contain a URL.
 	 */
-	private String getURL(String response) {
-		JsonObject object = new JsonParser().parse(response).getAsJsonObject();
-		String url = object.get("html_url").toString();
-		// JSON is known to leave strings as "string"
-		url = url.replace("\"", "");
-		return url;
+	private String getURL(String response) throws PublishException {
+		try {
+			JsonObject object = new JsonParser().parse(response).getAsJsonObject();
+			String url = object.get("html_url").toString();
+			// JSON is known to leave strings as "string"
+			url = url.replace("\"", "");
+			return url;
+		} catch (Exception e) {
+			throw new PublishException("Gist answered with something unexpected.", false, 0);
+		}
 	}
 
 }
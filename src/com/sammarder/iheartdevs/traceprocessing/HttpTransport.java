@@ -0,0 +1,245 @@
+package com.sammarder.iheartdevs.traceprocessing;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * The HTTP plumbing that every ILogPublisher shares: timeouts, chunked uploads and turning error responses into
+ * PublishExceptions. Connections are kept alive and reused between publishes (by the JVM's keep-alive cache, which
+ * also keeps TLS sessions), which only works if every response is read to the end and closed, and connections are
+ * never disconnected. That is what this class makes sure of. All methods are thread safe.
+ */
+public class HttpTransport {
+	/**
+	 * The character set that everything is sent and read in.
+	 */
+	public static final String CHARSET = "UTF-8";
+	// The size of the chunks requests are sent in.
+	private static final int BUFFER_SIZE = 8192;
+
+	private final int connectTimeout;
+	private final int readTimeout;
+
+	/**
+	 * Constructor for creating a new HttpTransport.
+	 * 
+	 * @param connectTimeout
+	 *            How long (in milliseconds) to wait for a connection.
+	 * @param readTimeout
+	 *            How long (in milliseconds) to wait for the site to answer.
+	 */
+	public HttpTransport(int connectTimeout, int readTimeout) {
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+	}
+
+	/**
+	 * Starts a POST request. The body is sent in chunks as it is written, so it is never held in memory as a whole.
+	 * 
+	 * @param urlString
+	 *            The URL to POST.
+	 * @param contentType
+	 *            The content type of the body (without a character set, which is always CHARSET).
+	 * @return A connection to the given url.
+	 * @throws PublishException
+	 *             If something went wrong.
+	 */
+	public HttpURLConnection openPost(String urlString, String contentType) throws PublishException {
+		HttpURLConnection connection = open(urlString, "POST");
+		connection.setDoOutput(true);
+		connection.setRequestProperty("Content-Type", contentType + "; charset=" + CHARSET);
+		// Otherwise the whole request is buffered in memory to find out how long it is.
+		connection.setChunkedStreamingMode(BUFFER_SIZE);
+		return connection;
+	}
+
+	/**
+	 * Gets a writer for the body of a POST request.
+	 * 
+	 * @param connection
+	 *            A connection from openPost().
+	 * @return A buffered writer that writes CHARSET. Closing it sends the rest of the request.
+	 * @throws PublishException
+	 *             If the request could not be sent.
+	 */
+	public Writer getWriter(HttpURLConnection connection) throws PublishException {
+		try {
+			return new BufferedWriter(new OutputStreamWriter(connection.getOutputStream(), CHARSET), BUFFER_SIZE);
+		} catch (IOException e) {
+			throw new PublishException("Could not POST data to " + getHost(connection) + ": " + e.getMessage(),
+					true, 0);
+		}
+	}
+
+	/**
+	 * Reads the whole answer to a request.
+	 * 
+	 * @param connection
+	 *            The connection the request was sent on.
+	 * @return The body of the answer.
+	 * @throws PublishException
+	 *             If there was no answer or it was an error.
+	 */
+	public String getResponse(HttpURLConnection connection) throws PublishException {
+		int status;
+		try {
+			status = connection.getResponseCode();
+		} catch (IOException e) {
+			throw new PublishException("Could not receive an answer from " + getHost(connection) + ": "
+					+ e.getMessage(), true, 0);
+		}
+		if (status < 200 || status >= 300) {
+			throw getError(connection, status);
+		}
+
+		InputStream is = null;
+		try {
+			is = connection.getInputStream();
+			return new String(readFully(is), CHARSET);
+		} catch (IOException e) {
+			throw new PublishException("Could not receive an answer from " + getHost(connection) + ": "
+					+ e.getMessage(), true, 0);
+		} finally {
+			try {
+				is.close();
+			} catch (Exception e) {
+			}
+		}
+	}
+
+	/**
+	 * Determines if a URL still works, using a HEAD request.
+	 * 
+	 * @param urlString
+	 *            The URL to check.
+	 * @return true if the URL works, false if it is gone.
+	 * @throws PublishException
+	 *             If the site could not be asked.
+	 */
+	public boolean exists(String urlString) throws PublishException {
+		HttpURLConnection connection = open(urlString, "HEAD");
+		int status;
+		try {
+			status = connection.getResponseCode();
+		} catch (IOException e) {
+			throw new PublishException("Could not check " + urlString + ": " + e.getMessage(), true, 0);
+		}
+		if (status == HttpURLConnection.HTTP_NOT_FOUND || status == HttpURLConnection.HTTP_GONE) {
+			drain(connection.getErrorStream());
+			return false;
+		}
+		if (status >= 400) {
+			throw getError(connection, status);
+		}
+		try {
+			drain(connection.getInputStream());
+		} catch (IOException e) {
+			// Nothing to reuse then.
+		}
+		return true;
+	}
+
+	/**
+	 * Creates a connection with the timeouts set.
+	 */
+	private HttpURLConnection open(String urlString, String method) throws PublishException {
+		URL url = null;
+		try {
+			url = new URL(urlString);
+		} catch (Exception e) {
+			throw new PublishException("Bad url given: " + urlString, false, 0);
+		}
+
+		HttpURLConnection connection = null;
+		try {
+			connection = (HttpURLConnection) url.openConnection();
+			connection.setRequestMethod(method);
+		} catch (Exception e) {
+			throw new PublishException("Could not establish connection to URL: " + e.getMessage(), true, 0);
+		}
+		connection.setDoInput(true);
+		connection.setUseCaches(false);
+		// Without these, a slow network could keep a publish hanging forever.
+		connection.setConnectTimeout(connectTimeout);
+		connection.setReadTimeout(readTimeout);
+		return connection;
+	}
+
+	/**
+	 * Describes an error response. Server errors and rate limits are worth trying again (after the time the site asked
+	 * for, if it did), anything else isn't.
+	 * 
+	 * @param connection
+	 *            The connection that was answered with an error.
+	 * @param status
+	 *            The HTTP status code of the answer.
+	 * @return The exception to throw.
+	 */
+	private PublishException getError(HttpURLConnection connection, int status) {
+		// The connection can only be reused once the error is read.
+		drain(connection.getErrorStream());
+
+		long retryAfter = 0;
+		boolean rateLimited = status == 429;
+		try {
+			String header = connection.getHeaderField("Retry-After");
+			if (header != null) {
+				retryAfter = Long.parseLong(header.trim()) * 1000;
+			} else if ("0".equals(connection.getHeaderField("X-RateLimit-Remaining"))) {
+				// GitHub says when the limit is reset as seconds since the epoch.
+				rateLimited = true;
+				String reset = connection.getHeaderField("X-RateLimit-Reset");
+				if (reset != null) {
+					retryAfter = Long.parseLong(reset.trim()) * 1000 - System.currentTimeMillis();
+				}
+			}
+		} catch (NumberFormatException e) {
+			// Just back off the usual way.
+		}
+		String message = getHost(connection) + " answered with " + status;
+		if (rateLimited) {
+			message += " (rate limited)";
+		}
+		return new PublishException(message, rateLimited || status >= 500, Math.max(0, retryAfter));
+	}
+
+	private static String getHost(HttpURLConnection connection) {
+		return connection.getURL().getHost();
+	}
+
+	private static byte[] readFully(InputStream is) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int count;
+		while ((count = is.read(buffer)) >= 0) {
+			bytes.write(buffer, 0, count);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Reads a stream to the end and closes it.
+	 */
+	private static void drain(InputStream is) {
+		if (is == null) {
+			return;
+		}
+		try {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			while (is.read(buffer) >= 0) {
+			}
+		} catch (IOException e) {
+		} finally {
+			try {
+				is.close();
+			} catch (Exception e) {
+			}
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package com.sammarder.iheartdevs.traceprocessing;
+
+import java.util.Map;
+
+import com.sammarder.iheartdevs.storage.StoredTrace;
+
+/**
+ * Designates that an object can publish error logs to a "pastebin-like" site. Publishing blocks until the site answers
+ * (or the timeouts run out), so it should never be done on the main thread. See PublishQueue.
+ */
+public interface ILogPublisher {
+	/**
+	 * Gets a short name for the site that logs are published to, such as "gist.github.com".
+	 * 
+	 * @return The name of the site.
+	 */
+	public String getName();
+
+	/**
+	 * Publishes one or more logs together, so they can be shared with one link.
+	 * 
+	 * @param description
+	 *            The non-null description of the logs.
+	 * @param logs
+	 *            The non-null, non-empty stored logs to publish by their (unique) titles.
+	 * @return The url of the published logs.
+	 * @throws PublishException
+	 *             If the logs could not be published.
+	 */
+	public String publish(String description, Map<String, StoredTrace> logs) throws PublishException;
+
+	/**
+	 * Determines if something that was published is still there.
+	 * 
+	 * @param url
+	 *            The url that publish() returned.
+	 * @return true if the url still works, false if it is gone.
+	 * @throws PublishException
+	 *             If the site could not be asked.
+	 */
+	public boolean exists(String url) throws PublishException;
+}
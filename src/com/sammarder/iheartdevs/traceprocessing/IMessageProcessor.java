@@ -9,9 +9,12 @@ public interface IMessageProcessor {
 	 * Processes a given message. If this returns true, the caller should treat the message as if it were fully
 	 * processed and does not need further handling. Note that process() cannot partially interpret a message.
 	 * 
+	 * @param source
+	 *            The thread that printed the message.
 	 * @param message
-	 *            The message to process.
+	 *            The message (a single line without its line terminator) to process. This is usually a reused
+	 *            buffer, so it is only valid for the duration of the call. Use toString() to keep it.
 	 * @return true if the message was consumed and does not require further handling.
 	 */
-	public boolean process(final String message);
+	public boolean process(final Thread source, final CharSequence message);
 }
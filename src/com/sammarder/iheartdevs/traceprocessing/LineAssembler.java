@@ -0,0 +1,185 @@
+package com.sammarder.iheartdevs.traceprocessing;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Turns a stream of bytes and characters into complete lines without creating a String for every write. Bytes are
+ * decoded with a reusable CharsetDecoder (so multi-byte characters split across writes survive) and every completed
+ * line is handed to the LineListener as a view of an internal buffer. An instance must only be used by one thread at
+ * a time.
+ */
+public class LineAssembler {
+	/**
+	 * Receives each completed line from a LineAssembler.
+	 */
+	public interface LineListener {
+		/**
+		 * Called once for every completed line.
+		 * 
+		 * @param line
+		 *            The line without its line terminator. This is only valid for the duration of the call.
+		 */
+		public void onLine(CharSequence line);
+	}
+
+	private static final int BUFFER_SIZE = 512;
+
+	private final LineListener listener;
+	private final CharsetDecoder decoder;
+	// Bytes waiting to be decoded. This may hold the first half of a multi-byte character between writes.
+	private final ByteBuffer pendingBytes = ByteBuffer.allocate(BUFFER_SIZE);
+	// Scratch space that decoded characters pass through on their way into the line.
+	private final CharBuffer decodedChars = CharBuffer.allocate(BUFFER_SIZE);
+	private LineBuffer line = new LineBuffer(256);
+	// The buffer the next line will be assembled in. See endLine().
+	private LineBuffer spare = new LineBuffer(256);
+
+	/**
+	 * Constructor for creating a new LineAssembler.
+	 * 
+	 * @param listener
+	 *            The object to hand every completed line to.
+	 * @param charset
+	 *            The charset that written bytes are encoded in.
+	 */
+	public LineAssembler(LineListener listener, Charset charset) {
+		this.listener = listener;
+		this.decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	/**
+	 * Appends a single (encoded) byte.
+	 * 
+	 * @param b
+	 *            The byte to append.
+	 */
+	public void write(byte b) {
+		pendingBytes.put(b);
+		decodePendingBytes();
+	}
+
+	/**
+	 * Appends part of an array of (encoded) bytes.
+	 * 
+	 * @param bytes
+	 *            The bytes to append.
+	 * @param offset
+	 *            The index of the first byte to append.
+	 * @param count
+	 *            How many bytes to append.
+	 */
+	public void write(byte[] bytes, int offset, int count) {
+		while (count > 0) {
+			int chunk = Math.min(count, pendingBytes.remaining());
+			pendingBytes.put(bytes, offset, chunk);
+			offset += chunk;
+			count -= chunk;
+			decodePendingBytes();
+		}
+	}
+
+	/**
+	 * Decodes as much of pendingBytes as possible and appends the result.
+	 */
+	private void decodePendingBytes() {
+		pendingBytes.flip();
+		while (true) {
+			decoder.decode(pendingBytes, decodedChars, false);
+			decodedChars.flip();
+			if (!decodedChars.hasRemaining()) {
+				break;
+			}
+			append(decodedChars.array(), decodedChars.arrayOffset() + decodedChars.position(),
+					decodedChars.remaining());
+			decodedChars.clear();
+		}
+		decodedChars.clear();
+		// Whatever is left is an incomplete character. Keep it for the next write.
+		pendingBytes.compact();
+	}
+
+	/**
+	 * Appends a single character.
+	 * 
+	 * @param c
+	 *            The character to append.
+	 */
+	public void append(char c) {
+		if (c == '\n') {
+			endLine();
+		} else {
+			line.append(c);
+		}
+	}
+
+	/**
+	 * Appends part of a character array.
+	 * 
+	 * @param chars
+	 *            The characters to append.
+	 * @param offset
+	 *            The index of the first character to append.
+	 * @param count
+	 *            How many characters to append.
+	 */
+	public void append(char[] chars, int offset, int count) {
+		int end = offset + count;
+		int start = offset;
+		for (int i = offset; i < end; i++) {
+			if (chars[i] == '\n') {
+				line.append(chars, start, i - start);
+				endLine();
+				start = i + 1;
+			}
+		}
+		line.append(chars, start, end - start);
+	}
+
+	/**
+	 * Appends part of a CharSequence.
+	 * 
+	 * @param chars
+	 *            The characters to append.
+	 * @param start
+	 *            The index of the first character to append.
+	 * @param end
+	 *            The index after the last character to append.
+	 */
+	public void append(CharSequence chars, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (chars.charAt(i) == '\n') {
+				line.append(chars, start, i);
+				endLine();
+				start = i + 1;
+			}
+		}
+		line.append(chars, start, end);
+	}
+
+	/**
+	 * Ends the current line, even if it is empty.
+	 */
+	public void endLine() {
+		LineBuffer completed = line;
+		int length = completed.length();
+		// Treat \r\n the same as \n.
+		if (length > 0 && completed.charAt(length - 1) == '\r') {
+			completed.truncate(length - 1);
+		}
+		// The listener is allowed to print (which comes right back here on the same thread), so start the next line
+		// in a different buffer instead of scribbling over the one the listener is looking at.
+		line = spare != null ? spare : new LineBuffer(256);
+		spare = null;
+		try {
+			listener.onLine(completed);
+		} finally {
+			completed.clear();
+			spare = completed;
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package com.sammarder.iheartdevs.traceprocessing;
+
+/**
+ * Reusable, growable CharSequence for holding a single line of output. Because the same LineBuffer gets refilled over
+ * and over, anyone who wants to keep a line around must copy it with toString().
+ */
+public class LineBuffer implements CharSequence {
+	// Anything past this is silently thrown away. Nobody reads a megabyte-long line anyways.
+	public static final int MAX_LENGTH = 1 << 20;
+
+	private char[] chars;
+	private int length;
+
+	/**
+	 * Constructor for creating a new LineBuffer.
+	 * 
+	 * @param initialCapacity
+	 *            How many characters the buffer can hold before it has to grow.
+	 */
+	public LineBuffer(int initialCapacity) {
+		chars = new char[Math.max(16, initialCapacity)];
+	}
+
+	/**
+	 * Appends a single character.
+	 * 
+	 * @param c
+	 *            The character to append.
+	 */
+	public void append(char c) {
+		if (ensureCapacity(1) > 0) {
+			chars[length++] = c;
+		}
+	}
+
+	/**
+	 * Appends part of a character array.
+	 * 
+	 * @param source
+	 *            The characters to append.
+	 * @param offset
+	 *            The index of the first character to append.
+	 * @param count
+	 *            How many characters to append.
+	 */
+	public void append(char[] source, int offset, int count) {
+		count = ensureCapacity(count);
+		System.arraycopy(source, offset, chars, length, count);
+		length += count;
+	}
+
+	/**
+	 * Appends part of a CharSequence.
+	 * 
+	 * @param source
+	 *            The characters to append.
+	 * @param start
+	 *            The index of the first character to append.
+	 * @param end
+	 *            The index after the last character to append.
+	 */
+	public void append(CharSequence source, int start, int end) {
+		int count = ensureCapacity(end - start);
+		if (source instanceof String) {
+			// getChars() is a straight array copy instead of a call per character.
+			((String) source).getChars(start, start + count, chars, length);
+		} else if (source instanceof LineBuffer) {
+			System.arraycopy(((LineBuffer) source).chars, start, chars, length, count);
+		} else {
+			for (int i = 0; i < count; i++) {
+				chars[length + i] = source.charAt(start + i);
+			}
+		}
+		length += count;
+	}
+
+	/**
+	 * Replaces the contents of this buffer with the given characters.
+	 * 
+	 * @param source
+	 *            The new contents of this buffer.
+	 */
+	public void set(CharSequence source) {
+		length = 0;
+		append(source, 0, source.length());
+	}
+
+	/**
+	 * Empties this buffer without giving up its storage.
+	 */
+	public void clear() {
+		length = 0;
+	}
+
+	/**
+	 * Removes characters from the end of this buffer.
+	 * 
+	 * @param newLength
+	 *            The new length of this buffer. This must not be greater than the current length.
+	 */
+	public void truncate(int newLength) {
+		length = newLength;
+	}
+
+	/**
+	 * Makes room for more characters, growing the backing array if necessary.
+	 * 
+	 * @param count
+	 *            How many characters are about to be appended.
+	 * @return How many of those characters actually fit (less than count only when MAX_LENGTH is reached).
+	 */
+	private int ensureCapacity(int count) {
+		count = Math.min(count, MAX_LENGTH - length);
+		int needed = length + count;
+		if (needed > chars.length) {
+			char[] larger = new char[Math.min(MAX_LENGTH, Math.max(needed, chars.length * 2))];
+			System.arraycopy(chars, 0, larger, 0, length);
+			chars = larger;
+		}
+		return count;
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index >= length) {
+			throw new IndexOutOfBoundsException(String.valueOf(index));
+		}
+		return chars[index];
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		if (start < 0 || end > length || start > end) {
+			throw new IndexOutOfBoundsException(start + " to " + end);
+		}
+		return new String(chars, start, end - start);
+	}
+
+	@Override
+	public String toString() {
+		return new String(chars, 0, length);
+	}
+}
@@ -0,0 +1,174 @@
+package com.sammarder.iheartdevs.traceprocessing;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Map;
+
+import org.bukkit.craftbukkit.libs.com.google.gson.JsonElement;
+import org.bukkit.craftbukkit.libs.com.google.gson.JsonParser;
+
+import com.sammarder.iheartdevs.storage.StoredTrace;
+
+/**
+ * Publishes logs by POSTing them to a generic paste endpoint (hastebin, sprunge, ix.io, a self-hosted paste service,
+ * etc.), as configured in config.yml. The logs are sent as one plain text document, either as the raw body or as a
+ * single form field. The link is either the whole answer or a field of a JSON answer, optionally put into a URL
+ * template.
+ */
+public class PasteLogPublisher implements ILogPublisher {
+	// Logs are read (and form encoded) a piece at a time, so long ones never have to be in memory.
+	private static final int ENCODE_CHUNK = 4096;
+
+	private final String postURL;
+	private final String formField;
+	private final String responseField;
+	private final String viewURL;
+	private final HttpTransport transport;
+
+	/**
+	 * Constructor for creating a new PasteLogPublisher.
+	 * 
+	 * @param postURL
+	 *            The URL to POST pastes to.
+	 * @param formField
+	 *            The form field to send the paste in or an empty string to send it as the raw body.
+	 * @param responseField
+	 *            The field of the JSON answer that holds the link (or key) or an empty string if the answer is the link
+	 *            itself.
+	 * @param viewURL
+	 *            The link with %s in place of the answer (for sites that answer with a key) or an empty string if the
+	 *            answer is the link.
+	 * @param transport
+	 *            The (shared) HttpTransport to send requests with.
+	 */
+	public PasteLogPublisher(String postURL, String formField, String responseField, String viewURL,
+			HttpTransport transport) {
+		this.postURL = postURL;
+		this.formField = formField;
+		this.responseField = responseField;
+		this.viewURL = viewURL;
+		this.transport = transport;
+	}
+
+	@Override
+	public String getName() {
+		try {
+			return new URL(postURL).getHost();
+		} catch (Exception e) {
+			return postURL;
+		}
+	}
+
+	@Override
+	public String publish(String description, Map<String, StoredTrace> logs) throws PublishException {
+		boolean form = formField.length() > 0;
+		HttpURLConnection connection = transport.openPost(postURL, form ? "application/x-www-form-urlencoded"
+				: "text/plain");
+		Writer os = transport.getWriter(connection);
+		char[] buffer = new char[ENCODE_CHUNK];
+		try {
+			if (form) {
+				os.write(URLEncoder.encode(formField, HttpTransport.CHARSET) + "=");
+			}
+			write(os, description + "\n", form, buffer);
+			for (Map.Entry<String, StoredTrace> log : logs.entrySet()) {
+				// A paste is a single document, so every log gets a heading instead of a file of its own.
+				write(os, "\n===== " + log.getKey() + " =====\n", form, buffer);
+				Reader reader = new InputStreamReader(log.getValue().openStream(), HttpTransport.CHARSET);
+				try {
+					write(os, reader, form, buffer);
+				} finally {
+					reader.close();
+				}
+			}
+			os.flush();
+		} catch (IOException e) {
+			throw new PublishException("Could not POST data to " + getName() + ": " + e.getMessage(), true, 0);
+		} finally {
+			try {
+				os.close();
+			} catch (Exception e) {
+			}
+		}
+
+		String urlString = getURL(transport.getResponse(connection));
+		try {
+			// Tests to make sure that the returned result is a website.
+			new URL(urlString);
+			return urlString;
+		} catch (Exception e) {
+			throw new PublishException(getName() + " answered with something that isn't a URL.", false, 0);
+		}
+	}
+
+	@Override
+	public boolean exists(String url) throws PublishException {
+		return transport.exists(url);
+	}
+
+	/**
+	 * Writes text, form encoded if necessary.
+	 */
+	private static void write(Writer os, String s, boolean form, char[] buffer) throws IOException {
+		write(os, new StringReader(s), form, buffer);
+	}
+
+	/**
+	 * Writes text as it is read, form encoded if necessary.
+	 * 
+	 * @param os
+	 *            The writer to write to.
+	 * @param reader
+	 *            The text to write.
+	 * @param form
+	 *            If the text has to be form encoded.
+	 * @param buffer
+	 *            The buffer to read the text into. Each piece of it is encoded on its own.
+	 * @throws IOException
+	 *             If the text could not be read or the writer fails.
+	 */
+	private static void write(Writer os, Reader reader, boolean form, char[] buffer) throws IOException {
+		// A high surrogate at the end of a piece is kept for the next one, so a surrogate pair is never split.
+		int carried = 0;
+		int count;
+		while ((count = reader.read(buffer, carried, buffer.length - carried)) >= 0) {
+			int end = carried + count;
+			if (!form) {
+				os.write(buffer, 0, end);
+				continue;
+			}
+			carried = Character.isHighSurrogate(buffer[end - 1]) ? 1 : 0;
+			os.write(URLEncoder.encode(new String(buffer, 0, end - carried), HttpTransport.CHARSET));
+			if (carried > 0) {
+				buffer[0] = buffer[end - 1];
+			}
+		}
+		if (carried > 0) {
+			// A lone high surrogate at the very end.
+			os.write(URLEncoder.encode(new String(buffer, 0, carried), HttpTransport.CHARSET));
+		}
+	}
+
+	/**
+	 * Gets the link to the paste out of the answer.
+	 */
+	private String getURL(String response) throws PublishException {
+		String value = response.trim();
+		if (responseField.length() > 0) {
+			try {
+				JsonElement element = new JsonParser().parse(response).getAsJsonObject().get(responseField);
+				// JSON is known to leave strings as "string"
+				value = element.toString().replace("\"", "");
+			} catch (Exception e) {
+				throw new PublishException(getName() + " answered with something unexpected.", false, 0);
+			}
+		}
+		return viewURL.length() > 0 ? viewURL.replace("%s", value) : value;
+	}
+}
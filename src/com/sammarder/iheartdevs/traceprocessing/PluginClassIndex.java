@@ -0,0 +1,216 @@
+package com.sammarder.iheartdevs.traceprocessing;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.bukkit.plugin.Plugin;
+
+import com.sammarder.iheartdevs.IHeartDevs;
+
+/**
+ * Maps fully qualified class names to the plugin whose jar contains them. Every plugin jar is scanned once (only its
+ * central directory is read, no classes are loaded) into a trie of package names, so attributing a stack trace frame
+ * is a single walk down the trie instead of asking every plugin for a resource. Lookups may happen on any thread while
+ * plugins are being added or removed.
+ */
+public class PluginClassIndex {
+	private static final Plugin[] NO_PLUGINS = new Plugin[0];
+
+	private final Node root = new Node();
+
+	/**
+	 * Indexes every class in a plugin's jar. Adding a plugin that is already indexed does nothing.
+	 * 
+	 * @param plugin
+	 *            The plugin to index.
+	 */
+	public void addPlugin(Plugin plugin) {
+		File jar = getJar(plugin);
+		if (jar != null) {
+			addPlugin(plugin, jar);
+		}
+	}
+
+	/**
+	 * Indexes every class in a jar as belonging to a plugin, no matter where the plugin itself was loaded from. This is
+	 * meant for plugins that aren't loaded from a jar of their own, such as the synthetic plugins of the benchmarks.
+	 * 
+	 * @param plugin
+	 *            The plugin to index.
+	 * @param jar
+	 *            The jar that contains the classes of the plugin.
+	 */
+	public void addPlugin(Plugin plugin, File jar) {
+		ZipFile zip = null;
+		try {
+			zip = new ZipFile(jar);
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while (entries.hasMoreElements()) {
+				String name = entries.nextElement().getName();
+				if (name.endsWith(".class") && !name.startsWith("META-INF/")) {
+					// com/foo/Bar$Inner.class is attributed through com/foo/Bar, so there's no need to store it.
+					if (name.indexOf('$') == -1) {
+						insert(name, plugin);
+					}
+				}
+			}
+		} catch (IOException e) {
+			IHeartDevs.log(Level.WARNING, "Could not read the classes of " + plugin.getName() + " from " + jar);
+		} finally {
+			try {
+				zip.close();
+			} catch (Exception e) {
+			}
+		}
+	}
+
+	/**
+	 * Forgets every class that belonged to a plugin.
+	 * 
+	 * @param plugin
+	 *            The plugin to remove.
+	 */
+	public void removePlugin(Plugin plugin) {
+		remove(root, plugin);
+	}
+
+	/**
+	 * Determines what plugin a (fully qualified) class name came from. Nested, anonymous and lambda classes are
+	 * attributed to the class that declares them. Classes that aren't in any jar (generated at runtime, for example)
+	 * are attributed to the plugin that owns their package.
+	 * 
+	 * @param qualifiedClass
+	 *            The class name, such as com.sammarder.iheartdevs.IHeartDevs$1.
+	 * @return The plugin that contains the class, or null if no plugin (or more than one plugin) contains it.
+	 */
+	public Plugin getPlugin(CharSequence qualifiedClass) {
+		int length = qualifiedClass.length();
+		Node node = root;
+		Plugin best = null;
+		int start = 0;
+		for (int i = 0; i <= length; i++) {
+			char c = i < length ? qualifiedClass.charAt(i) : '.';
+			if (c == '$' || c == '/') {
+				// Everything after this belongs to the declaring class. This covers Foo$1, Foo$Inner and
+				// Foo$$Lambda$14/0x0000000800c03000.
+				c = '.';
+				length = i;
+			}
+			if (c != '.') {
+				continue;
+			}
+			node = node.children.get(qualifiedClass.subSequence(start, i).toString());
+			if (node == null) {
+				break;
+			}
+			Plugin[] owners = node.owners;
+			if (owners.length == 1) {
+				best = owners[0];
+			} else if (owners.length > 1 && i == length) {
+				// A class that is shaded into more than one plugin can't be blamed on any of them.
+				return null;
+			}
+			start = i + 1;
+		}
+		return best;
+	}
+
+	/**
+	 * Adds a class (in the form com/foo/Bar.class) to the trie. The class and the package that directly contains it
+	 * are claimed by the plugin.
+	 */
+	private void insert(String path, Plugin plugin) {
+		String[] segments = path.substring(0, path.length() - ".class".length()).split("/");
+		Node node = root;
+		for (int i = 0; i < segments.length; i++) {
+			Node child = node.children.get(segments[i]);
+			if (child == null) {
+				child = new Node();
+				Node existing = node.children.putIfAbsent(segments[i], child);
+				if (existing != null) {
+					child = existing;
+				}
+			}
+			node = child;
+			// Only the class itself and its package are claimed. Claiming every parent package would make com.* belong
+			// to whichever plugin happened to be the only one using it.
+			if (i >= segments.length - 2) {
+				node.claim(plugin);
+			}
+		}
+	}
+
+	/**
+	 * Removes a plugin's claims from a subtree, pruning nodes that are no longer needed.
+	 * 
+	 * @return true if the node is now empty.
+	 */
+	private boolean remove(Node node, Plugin plugin) {
+		node.release(plugin);
+		for (String segment : node.children.keySet()) {
+			Node child = node.children.get(segment);
+			if (child != null && remove(child, plugin)) {
+				node.children.remove(segment, child);
+			}
+		}
+		return node.owners.length == 0 && node.children.isEmpty();
+	}
+
+	/**
+	 * Finds the jar file a plugin was loaded from.
+	 * 
+	 * @param plugin
+	 *            The plugin to find.
+	 * @return The plugin's jar or null if it couldn't be determined.
+	 */
+	private static File getJar(Plugin plugin) {
+		try {
+			URL location = plugin.getClass().getProtectionDomain().getCodeSource().getLocation();
+			File jar = new File(location.toURI());
+			return jar.isFile() ? jar : null;
+		} catch (Exception e) {
+			// No code source, a strange URL, a security manager... Just don't index it.
+			return null;
+		}
+	}
+
+	/**
+	 * A package or class in the trie.
+	 */
+	private static class Node {
+		final ConcurrentMap<String, Node> children = new ConcurrentHashMap<String, Node>(4);
+		// Copy-on-write, so readers never see a half-updated array.
+		volatile Plugin[] owners = NO_PLUGINS;
+
+		synchronized void claim(Plugin plugin) {
+			for (Plugin owner : owners) {
+				if (owner == plugin) {
+					return;
+				}
+			}
+			Plugin[] larger = Arrays.copyOf(owners, owners.length + 1);
+			larger[owners.length] = plugin;
+			owners = larger;
+		}
+
+		synchronized void release(Plugin plugin) {
+			for (int i = 0; i < owners.length; i++) {
+				if (owners[i] == plugin) {
+					Plugin[] smaller = new Plugin[owners.length - 1];
+					System.arraycopy(owners, 0, smaller, 0, i);
+					System.arraycopy(owners, i + 1, smaller, i, smaller.length - i);
+					owners = smaller;
+					return;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,242 @@
+package com.sammarder.iheartdevs.traceprocessing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+
+import com.sammarder.iheartdevs.IHeartDevs;
+import com.sammarder.iheartdevs.storage.StoredTrace;
+
+/**
+ * Remembers where everything that was published ended up, by a SHA-1 hash of exactly what was published. Publishing the
+ * same logs again just gives back the old link. A link is only trusted for a while, after which the site is asked if it
+ * still exists before it is handed out again. The cache is saved to a file whenever it changes. All methods are thread
+ * safe.
+ */
+public class PublishCache {
+	// "IHDP"
+	private static final int MAGIC = 0x49484450;
+	private static final int VERSION = 1;
+	// Only the most recently used links are kept.
+	private static final int MAX_ENTRIES = 1000;
+
+	private final File file;
+	private final long expiry;
+	// Links by hash, least recently used first.
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	/**
+	 * Constructor for creating a new PublishCache. The cache is loaded from the file if it exists.
+	 * 
+	 * @param file
+	 *            The file to keep the cache in.
+	 * @param expiry
+	 *            How long (in milliseconds) a link is trusted before it has to be checked again.
+	 */
+	public PublishCache(File file, long expiry) {
+		this.file = file;
+		this.expiry = expiry;
+		if (file.exists()) {
+			load();
+		}
+	}
+
+	/**
+	 * Gets the key that publishing logs is cached under.
+	 * 
+	 * @param site
+	 *            The name of the site the logs are published to.
+	 * @param description
+	 *            The description the logs are published with.
+	 * @param logs
+	 *            The logs by their file titles.
+	 * @return A hex encoded SHA-1 hash of everything that is published.
+	 * @throws IOException
+	 *             If a log could not be read.
+	 */
+	public static String getKey(String site, String description, Map<String, StoredTrace> logs) throws IOException {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			update(digest, site);
+			update(digest, description);
+			// The logs are hashed as they are read, one at a time, so they never have to be in memory.
+			byte[] buffer = new byte[8192];
+			for (Map.Entry<String, StoredTrace> log : logs.entrySet()) {
+				update(digest, log.getKey());
+				InputStream is = log.getValue().openStream();
+				try {
+					long length = 0;
+					int count;
+					while ((count = is.read(buffer)) >= 0) {
+						digest.update(buffer, 0, count);
+						length += count;
+					}
+					updateLength(digest, length);
+				} finally {
+					is.close();
+				}
+			}
+			StringBuilder key = new StringBuilder();
+			for (byte b : digest.digest()) {
+				key.append(String.format("%02x", b & 0xff));
+			}
+			return key.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// Every JVM has SHA-1.
+			throw new IllegalStateException(e);
+		} catch (UnsupportedEncodingException e) {
+			// UTF-8 is always supported.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Gets where something was published.
+	 * 
+	 * @param key
+	 *            The key from getKey().
+	 * @return The link or null if it was never published (or forgotten).
+	 */
+	public synchronized String getUrl(String key) {
+		Entry entry = entries.get(key);
+		return entry == null ? null : entry.url;
+	}
+
+	/**
+	 * Determines if a link has to be checked before it is handed out again.
+	 * 
+	 * @param key
+	 *            The key from getKey().
+	 * @return true if the link hasn't been checked in a while.
+	 */
+	public synchronized boolean isExpired(String key) {
+		Entry entry = entries.get(key);
+		return entry == null || System.currentTimeMillis() - entry.verified >= expiry;
+	}
+
+	/**
+	 * Remembers (or confirms) where something was published.
+	 * 
+	 * @param key
+	 *            The key from getKey().
+	 * @param url
+	 *            The link.
+	 */
+	public synchronized void put(String key, String url) {
+		entries.put(key, new Entry(url, System.currentTimeMillis()));
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (entries.size() > MAX_ENTRIES) {
+			iterator.next();
+			iterator.remove();
+		}
+		save();
+	}
+
+	/**
+	 * Forgets where something was published, because the link doesn't work anymore.
+	 * 
+	 * @param key
+	 *            The key from getKey().
+	 */
+	public synchronized void remove(String key) {
+		if (entries.remove(key) != null) {
+			save();
+		}
+	}
+
+	private static void update(MessageDigest digest, String s) throws UnsupportedEncodingException {
+		byte[] bytes = s.getBytes("UTF-8");
+		digest.update(bytes);
+		updateLength(digest, bytes.length);
+	}
+
+	/**
+	 * Ends a string with its length, which keeps "ab" + "c" from hashing the same as "a" + "bc". The length comes after
+	 * the string because a log's length is only known once it has been read.
+	 */
+	private static void updateLength(MessageDigest digest, long length) {
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			digest.update((byte) (length >>> shift));
+		}
+	}
+
+	private void save() {
+		File temp = new File(file.getPath() + ".tmp");
+		DataOutputStream os = null;
+		try {
+			os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			os.writeInt(MAGIC);
+			os.writeInt(VERSION);
+			os.writeInt(entries.size());
+			for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+				os.writeUTF(entry.getKey());
+				os.writeUTF(entry.getValue().url);
+				os.writeLong(entry.getValue().verified);
+			}
+			os.close();
+			os = null;
+			file.delete();
+			if (!temp.renameTo(file)) {
+				throw new IOException("Could not rename " + temp);
+			}
+		} catch (IOException e) {
+			IHeartDevs.log(Level.WARNING, "Could not save the publish cache to " + file);
+		} finally {
+			try {
+				os.close();
+			} catch (Exception e) {
+			}
+		}
+	}
+
+	private void load() {
+		DataInputStream is = null;
+		try {
+			is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (is.readInt() != MAGIC || is.readInt() != VERSION) {
+				throw new IOException("Unknown format");
+			}
+			int count = is.readInt();
+			for (int i = 0; i < count; i++) {
+				String key = is.readUTF();
+				String url = is.readUTF();
+				entries.put(key, new Entry(url, is.readLong()));
+			}
+		} catch (IOException e) {
+			// Things are just published again.
+			IHeartDevs.log(Level.WARNING, "Could not read the publish cache from " + file + ". Starting over.");
+			entries.clear();
+		} finally {
+			try {
+				is.close();
+			} catch (Exception e) {
+			}
+		}
+	}
+
+	/**
+	 * Where something was published and when that link was last known to work.
+	 */
+	private static class Entry {
+		final String url;
+		final long verified;
+
+		Entry(String url, long verified) {
+			this.url = url;
+			this.verified = verified;
+		}
+	}
+}
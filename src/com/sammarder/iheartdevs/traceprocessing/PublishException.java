@@ -0,0 +1,43 @@
+package com.sammarder.iheartdevs.traceprocessing;
+
+/**
+ * Thrown when an error log could not be published. It says whether trying again later might work and, if the site said
+ * so, how long to wait before doing that.
+ */
+public class PublishException extends Exception {
+	// Shutup Eclipse...
+	private static final long serialVersionUID = -3419577342508615377L;
+
+	private final boolean retryable;
+	private final long retryAfter;
+
+	/**
+	 * Only constructor for creating a PublishException.
+	 * 
+	 * @param message
+	 *            The message to associate with this exception.
+	 * @param retryable
+	 *            true if the same publish might work later (the network is down, the site is overloaded, etc.).
+	 * @param retryAfter
+	 *            How long (in milliseconds) the site asked to be left alone or 0 if it didn't say.
+	 */
+	public PublishException(String message, boolean retryable, long retryAfter) {
+		super(message);
+		this.retryable = retryable;
+		this.retryAfter = retryAfter;
+	}
+
+	/**
+	 * @return true if the same publish might work later.
+	 */
+	public boolean isRetryable() {
+		return retryable;
+	}
+
+	/**
+	 * @return How long (in milliseconds) the site asked to be left alone or 0 if it didn't say.
+	 */
+	public long getRetryAfter() {
+		return retryAfter;
+	}
+}
@@ -0,0 +1,425 @@
+package com.sammarder.iheartdevs.traceprocessing;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import org.bukkit.Bukkit;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+
+import com.sammarder.iheartdevs.FolderManager;
+import com.sammarder.iheartdevs.IHeartDevs;
+import com.sammarder.iheartdevs.TraceSelector;
+import com.sammarder.iheartdevs.Utilities;
+import com.sammarder.iheartdevs.metrics.PipelineMetrics;
+import com.sammarder.iheartdevs.storage.StoredTrace;
+
+/**
+ * Publishes error logs in the background, so a slow network never holds up the server. Every publish is saved to an
+ * outbox folder (one #.job file each) until it is done, so publishes that were still queued when the server stopped
+ * are picked up again the next time it starts. A publish that fails in a way that might go away (the network is down,
+ * the site is overloaded or rate limited) is tried again with exponential backoff. When the site says how long to wait,
+ * every publish waits that long. Whoever asked for the publish is told how it went on the main thread. Logs that were
+ * published before are looked up in a PublishCache instead of being uploaded again, unless that is forced.
+ */
+public class PublishQueue {
+	// The title of a log that is published on its own. Logs that are published together are told apart by their IDs.
+	private static final String TITLE = "Stacktrace";
+	private static final String DESCRIPTION = "Bug Report provided by IHeartDevs";
+	private static final String JOB_SUFFIX = ".job";
+	// The delay before the first retry. Every retry after that waits twice as long, up to MAX_DELAY.
+	private static final long BASE_DELAY = 2000;
+	private static final long MAX_DELAY = 10 * 60 * 1000;
+
+	private final Plugin plugin;
+	private final FolderManager folderManager;
+	private final ILogPublisher publisher;
+	private final PublishCache cache;
+	private final File outbox;
+	private final int maxAttempts;
+	private final ScheduledThreadPoolExecutor executor;
+	private final AtomicInteger nextJobId = new AtomicInteger();
+	private final Random random = new Random();
+	// No publish is attempted before this time (in milliseconds), because the site asked to be left alone.
+	private volatile long pausedUntil;
+	// Set by shutdown(). Jobs that haven't started publishing by then are left in the outbox.
+	private volatile boolean stopping;
+
+	/**
+	 * Constructor for creating a new PublishQueue. Nothing is published until start() is called.
+	 * 
+	 * @param plugin
+	 *            The plugin to schedule notifications with.
+	 * @param folderManager
+	 *            Where the error logs to publish are read from.
+	 * @param publisher
+	 *            Does the actual publishing.
+	 * @param cache
+	 *            Remembers what has been published before.
+	 * @param outbox
+	 *            The folder to save queued publishes in.
+	 * @param threads
+	 *            How many publishes can be in progress at the same time.
+	 * @param maxAttempts
+	 *            How often a publish is attempted before giving up.
+	 */
+	public PublishQueue(Plugin plugin, FolderManager folderManager, ILogPublisher publisher, PublishCache cache,
+			File outbox, int threads, int maxAttempts) {
+		this.plugin = plugin;
+		this.folderManager = folderManager;
+		this.publisher = publisher;
+		this.cache = cache;
+		this.outbox = outbox;
+		this.maxAttempts = Math.max(1, maxAttempts);
+		executor = new ScheduledThreadPoolExecutor(Math.max(1, threads), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "IHeartDevs publisher #" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		// Retries that are waiting when the server stops are still in the outbox, so they don't have to run.
+		executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+	}
+
+	/**
+	 * Starts publishing, beginning with everything that was left in the outbox.
+	 */
+	public void start() {
+		outbox.mkdirs();
+		File[] files = outbox.listFiles();
+		if (files == null) {
+			return;
+		}
+		int resumed = 0;
+		for (File file : files) {
+			if (!file.getName().endsWith(JOB_SUFFIX)) {
+				continue;
+			}
+			Job job = load(file);
+			if (job == null) {
+				IHeartDevs.log(Level.WARNING, "Could not read the queued publish " + file + ". It will be skipped.");
+				file.delete();
+				continue;
+			}
+			nextJobId.set(Math.max(nextJobId.get(), job.id + 1));
+			schedule(job, 0);
+			resumed++;
+		}
+		if (resumed > 0) {
+			IHeartDevs.log("Resuming " + resumed + " queued publishes.");
+		}
+	}
+
+	/**
+	 * Queues error logs to be published together as one gist. This returns immediately. The sender is told how it went
+	 * later.
+	 * 
+	 * @param traceIds
+	 *            The IDs of the error logs.
+	 * @param sender
+	 *            Whoever asked for the publish.
+	 * @param force
+	 *            true to upload the logs even if they were published before.
+	 */
+	public void submit(int[] traceIds, CommandSender sender, boolean force) {
+		// Players are looked up again by name when they are told, since they may have logged out by then.
+		String requester = sender instanceof Player ? sender.getName() : null;
+		Job job = new Job(nextJobId.getAndIncrement(), traceIds.clone(), requester, force, 0);
+		try {
+			save(job);
+		} catch (IOException e) {
+			IHeartDevs.log(Level.WARNING, "Could not save the publish of " + job + " to the outbox. It will be lost if"
+					+ " the server stops first.");
+		}
+		schedule(job, 0);
+	}
+
+	/**
+	 * Stops publishing. Publishes that are in progress get some time to finish. Everything else stays in the outbox.
+	 * The publisher threads are never interrupted, because an interrupt closes the trace store's FileChannels while
+	 * they are reading from them.
+	 * 
+	 * @param timeout
+	 *            The maximum amount of time (in milliseconds) to wait.
+	 */
+	public void shutdown(long timeout) {
+		stopping = true;
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+				IHeartDevs.log(Level.WARNING, "Gave up waiting for publishes to finish. They will be tried again the next"
+						+ " time the server starts.");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void schedule(final Job job, long delay) {
+		try {
+			executor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					attempt(job);
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		} catch (Exception e) {
+			// Shutting down. The job is still in the outbox.
+		}
+	}
+
+	private void attempt(Job job) {
+		if (stopping) {
+			return;
+		}
+		long wait = pausedUntil - System.currentTimeMillis();
+		if (wait > 0) {
+			schedule(job, wait);
+			return;
+		}
+		// Only the index entries. Every log is read a piece at a time while it is hashed and uploaded.
+		Map<String, StoredTrace> traces = new LinkedHashMap<String, StoredTrace>();
+		for (int traceId : job.traceIds) {
+			StoredTrace trace = folderManager.getEntry(traceId);
+			if (trace != null) {
+				traces.put(job.traceIds.length == 1 ? TITLE : TITLE + "-" + traceId, trace);
+			}
+		}
+		if (stopping) {
+			// The store may already be closing, so a missing log doesn't mean much. Try again next time.
+			return;
+		}
+		if (traces.isEmpty()) {
+			finish(job, null, "Could not find the error logs", false);
+			return;
+		}
+
+		String key;
+		try {
+			key = PublishCache.getKey(publisher.getName(), DESCRIPTION, traces);
+		} catch (IOException e) {
+			if (!stopping) {
+				finish(job, null, "Could not read the error logs: " + e.getMessage(), false);
+			}
+			return;
+		}
+		try {
+			String url = job.force ? null : getCachedUrl(key);
+			if (url != null) {
+				finish(job, url, null, true);
+				return;
+			}
+			long start = System.nanoTime();
+			try {
+				url = publisher.publish(DESCRIPTION, traces);
+			} finally {
+				PipelineMetrics.PUBLISH_TIME.record(System.nanoTime() - start);
+			}
+			cache.put(key, url);
+			finish(job, url, null, false);
+		} catch (PublishException e) {
+			job.attempts++;
+			if (e.getRetryAfter() > 0) {
+				pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + e.getRetryAfter());
+			}
+			if (!e.isRetryable() || job.attempts >= maxAttempts) {
+				finish(job, null, e.getMessage(), false);
+				return;
+			}
+			if (stopping) {
+				// Not counted as a failure, since the job won't be retried until the server starts again anyway.
+				return;
+			}
+			long delay = Math.max(e.getRetryAfter(), getBackoff(job.attempts));
+			IHeartDevs.log(Level.WARNING, "Could not publish " + job + " (attempt " + job.attempts + " of "
+					+ maxAttempts + "): " + e.getMessage() + ". Trying again in " + Utilities.formatMilliseconds(delay)
+					+ ".");
+			try {
+				save(job);
+			} catch (IOException ignored) {
+				// The old attempt count is close enough.
+			}
+			schedule(job, delay);
+		}
+	}
+
+	/**
+	 * Gets where the same logs were published before. A link that hasn't been checked in a while is only handed out if
+	 * it still works.
+	 * 
+	 * @return The link or null if the logs have to be uploaded.
+	 * @throws PublishException
+	 *             If the link could not be checked.
+	 */
+	private String getCachedUrl(String key) throws PublishException {
+		String url = cache.getUrl(key);
+		if (url == null || !cache.isExpired(key)) {
+			return url;
+		}
+		if (!publisher.exists(url)) {
+			cache.remove(key);
+			return null;
+		}
+		cache.put(key, url);
+		return url;
+	}
+
+	/**
+	 * Gets how long to wait before the next attempt. A bit of randomness keeps publishes that failed together from
+	 * being retried together.
+	 */
+	private long getBackoff(int attempts) {
+		long delay = Math.min(MAX_DELAY, BASE_DELAY << Math.min(attempts - 1, 20));
+		synchronized (random) {
+			return delay + (long) (random.nextDouble() * delay / 2);
+		}
+	}
+
+	/**
+	 * Removes a job from the outbox and tells whoever asked for it how it went.
+	 * 
+	 * @param url
+	 *            Where the log was published or null if it failed.
+	 * @param error
+	 *            Why it failed or null if it didn't.
+	 * @param cached
+	 *            true if the link is from an earlier publish.
+	 */
+	private void finish(Job job, final String url, String error, boolean cached) {
+		getFile(job.id).delete();
+		final String[] messages;
+		if (cached) {
+			messages = new String[] { "The same " + job + " was already published to " + url,
+					"Use " + Utilities.formatCommand("/ihd publish -force ...") + " to upload it again." };
+		} else if (url != null) {
+			IHeartDevs.log("Published " + job + " to " + url);
+			messages = new String[] { "Successfully published " + job + " to " + url,
+					"Please pass that link on to the developer of the plugin." };
+		} else {
+			IHeartDevs.log(Level.WARNING, "Could not publish " + job + ": " + error);
+			messages = new String[] { "An error occurred when trying to publish " + job + ": " + error };
+		}
+
+		final String requester = job.requester;
+		try {
+			Bukkit.getScheduler().runTask(plugin, new Runnable() {
+				@Override
+				public void run() {
+					CommandSender sender = requester == null ? Bukkit.getConsoleSender() : Bukkit
+							.getPlayerExact(requester);
+					if (sender != null) {
+						sender.sendMessage(messages);
+					}
+				}
+			});
+		} catch (Exception e) {
+			// The plugin is being disabled. The result was logged above.
+		}
+	}
+
+	private File getFile(int id) {
+		return new File(outbox, id + JOB_SUFFIX);
+	}
+
+	private void save(Job job) throws IOException {
+		File file = getFile(job.id);
+		File temp = new File(outbox, file.getName() + ".tmp");
+		DataOutputStream os = null;
+		try {
+			os = new DataOutputStream(new FileOutputStream(temp));
+			os.writeInt(job.traceIds.length);
+			for (int traceId : job.traceIds) {
+				os.writeInt(traceId);
+			}
+			os.writeUTF(job.requester == null ? "" : job.requester);
+			os.writeBoolean(job.force);
+			os.writeInt(job.attempts);
+			os.close();
+			os = null;
+			file.delete();
+			if (!temp.renameTo(file)) {
+				throw new IOException("Could not rename " + temp);
+			}
+		} finally {
+			try {
+				os.close();
+			} catch (Exception e) {
+			}
+		}
+	}
+
+	/**
+	 * Reads a job from the outbox.
+	 * 
+	 * @return The job or null if it could not be read.
+	 */
+	private Job load(File file) {
+		DataInputStream is = null;
+		try {
+			int id = Integer.parseInt(file.getName().substring(0, file.getName().length() - JOB_SUFFIX.length()));
+			is = new DataInputStream(new FileInputStream(file));
+			int[] traceIds = new int[is.readInt()];
+			for (int i = 0; i < traceIds.length; i++) {
+				traceIds[i] = is.readInt();
+			}
+			String requester = is.readUTF();
+			boolean force = is.readBoolean();
+			int attempts = is.readInt();
+			return new Job(id, traceIds, requester.length() == 0 ? null : requester, force, attempts);
+		} catch (Exception e) {
+			return null;
+		} finally {
+			try {
+				is.close();
+			} catch (Exception e) {
+			}
+		}
+	}
+
+	/**
+	 * A single queued publish of one or more error logs.
+	 */
+	private static class Job {
+		final int id;
+		final int[] traceIds;
+		// The name of the player who asked for it or null for the console.
+		final String requester;
+		// Upload even if the logs were published before.
+		final boolean force;
+		// Only touched by the thread that is attempting the job.
+		int attempts;
+
+		Job(int id, int[] traceIds, String requester, boolean force, int attempts) {
+			this.id = id;
+			this.traceIds = traceIds;
+			this.requester = requester;
+			this.force = force;
+			this.attempts = attempts;
+		}
+
+		@Override
+		public String toString() {
+			if (traceIds.length == 1) {
+				return "error log " + traceIds[0];
+			}
+			return traceIds.length + " error logs (" + TraceSelector.format(traceIds) + ")";
+		}
+	}
+}
@@ -0,0 +1,549 @@
+package com.sammarder.iheartdevs.traceprocessing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+
+import com.sammarder.iheartdevs.IHeartDevs;
+import com.sammarder.iheartdevs.storage.StoredTrace;
+import com.sammarder.iheartdevs.storage.TraceStore;
+
+/**
+ * An inverted index over every saved trace, so /ihd search doesn't have to read any of them. The terms of a trace are
+ * the class names (and their parts) of its exceptions, the words of their messages, the classes and methods of its
+ * frames, the plugin that caused it ("plugin:name") and the types of its exceptions, both fully qualified and simple
+ * ("exception:java.lang.nullpointerexception" and "exception:nullpointerexception"). Every term is lower case.
+ * <p>
+ * The postings of every term (the IDs of the traces that contain it) are kept in memory as delta encoded varints, which
+ * works because IDs only ever grow. New traces are appended to a journal as they are saved, and the journal is merged
+ * into the postings file every now and then (and at shutdown), so saving a trace never rewrites the whole index.
+ */
+public class SearchIndex {
+	// "IHDI"
+	private static final int MAGIC = 0x49484449;
+	private static final int VERSION = 2;
+	// The journal is merged into the postings file once it holds this many traces (or an eighth of every indexed trace,
+	// whichever is more, so the postings file isn't rewritten over and over again once it gets big).
+	private static final int COMPACT_EVERY = 1000;
+	// Longer words are almost certainly not worth searching for.
+	private static final int MAX_TERM_LENGTH = 64;
+	private static final String PLUGIN_PREFIX = "plugin:";
+	private static final String EXCEPTION_PREFIX = "exception:";
+	private static final String STACKTRACE_LINE = "Stacktrace:";
+
+	private final File file;
+	private final File journalFile;
+	private final Map<String, Postings> postings = new HashMap<String, Postings>();
+	// Has its own lock, so tab completion never waits for the index to be written.
+	private final CompletionIndex completions = new CompletionIndex();
+	// The newest trace that has been indexed.
+	private int lastId = -1;
+	// Opened when the first trace is journaled.
+	private DataOutputStream journal;
+	// The number of traces in the journal.
+	private int journalCount;
+	// true if something was indexed since the postings file was last written.
+	private boolean dirty;
+
+	/**
+	 * Constructor for creating a new SearchIndex. The postings file and the journal are loaded if they exist.
+	 * 
+	 * @param file
+	 *            The file to store the postings in.
+	 * @param journalFile
+	 *            The file to journal new traces in.
+	 */
+	public SearchIndex(File file, File journalFile) {
+		this.file = file;
+		this.journalFile = journalFile;
+		if (load()) {
+			replay();
+		} else {
+			// The journal only makes sense on top of the postings it was written after. Everything is indexed again
+			// by catchUp().
+			journalFile.delete();
+		}
+		if (journalCount > 0) {
+			// Also gets rid of a half-written record at the end of the journal, which appending after would corrupt.
+			dirty = true;
+			compact();
+		}
+	}
+
+	/**
+	 * Indexes every log in a store that is newer than the newest indexed trace. This covers logs that were saved
+	 * before the index existed (or while it was lost). It has to be called before any new trace is added.
+	 * 
+	 * @param store
+	 *            The store to index.
+	 * @param fingerprints
+	 *            Knows which plugin caused every trace.
+	 */
+	public synchronized void catchUp(TraceStore store, FingerprintIndex fingerprints) {
+		for (int i = 0; i < store.size(); i++) {
+			completions.addId(store.getId(i));
+		}
+		int index = store.size();
+		while (index > 0 && store.getId(index - 1) > lastId) {
+			index--;
+		}
+		int indexed = 0;
+		for (; index < store.size(); index++) {
+			int id = store.getId(index);
+			StoredTrace trace = store.read(id);
+			if (trace == null) {
+				continue;
+			}
+			List<String> lines = trace.getLines();
+			int start = lines.indexOf(STACKTRACE_LINE);
+			FingerprintIndex.Occurrence occurrence = fingerprints.getByTraceId(id);
+			String plugin = occurrence == null ? null : occurrence.getPlugin();
+			// Not journaled, because the postings file is written once at the end anyway.
+			put(id, getTerms(lines.subList(start + 1, lines.size()), plugin));
+			indexed++;
+		}
+		if (indexed > 0) {
+			compact();
+			IHeartDevs.log("Indexed " + indexed + " error logs for /ihd search.");
+		}
+	}
+
+	/**
+	 * Indexes a trace that has just been saved.
+	 * 
+	 * @param traceId
+	 *            The ID the trace was saved under. It must be larger than the ID of every trace indexed before.
+	 * @param lines
+	 *            The lines of the trace.
+	 * @param plugin
+	 *            The name of the plugin that caused the trace or null if it is unknown.
+	 */
+	public synchronized void add(int traceId, List<String> lines, String plugin) {
+		completions.addId(traceId);
+		if (traceId <= lastId) {
+			// Already indexed (and the postings can only grow at the end anyway).
+			return;
+		}
+		Set<String> terms = getTerms(lines, plugin);
+		put(traceId, terms);
+		journal(traceId, terms);
+		if (journalCount >= Math.max(COMPACT_EVERY, lastId / 8)) {
+			compact();
+		}
+	}
+
+	/**
+	 * Finds every trace that contains all of the given terms. A term that isn't indexed as it is (such as
+	 * "Listener.onJoin") has to match all of its parts instead.
+	 * 
+	 * @param query
+	 *            The terms, separated by whitespace. Case doesn't matter.
+	 * @return The IDs of the matching traces in ascending order.
+	 */
+	public synchronized int[] search(String query) {
+		List<Postings> lists = new ArrayList<Postings>();
+		for (String term : query.toLowerCase().trim().split("\\s+")) {
+			Postings list = postings.get(term);
+			if (list != null) {
+				lists.add(list);
+				continue;
+			}
+			Set<String> parts = new HashSet<String>();
+			addWords(term, parts);
+			for (String part : parts) {
+				list = postings.get(part);
+				if (list == null) {
+					return new int[0];
+				}
+				lists.add(list);
+			}
+		}
+		if (lists.isEmpty()) {
+			return new int[0];
+		}
+
+		// Start with the rarest term, so the candidates only get fewer.
+		Postings smallest = lists.get(0);
+		for (Postings list : lists) {
+			if (list.count < smallest.count) {
+				smallest = list;
+			}
+		}
+		int[] matches = smallest.decode();
+		int count = matches.length;
+		for (Postings list : lists) {
+			if (list != smallest && count > 0) {
+				count = list.retain(matches, count);
+			}
+		}
+		int[] result = new int[count];
+		System.arraycopy(matches, 0, result, 0, count);
+		return result;
+	}
+
+	/**
+	 * Gets every trace caused by a plugin.
+	 * 
+	 * @param plugin
+	 *            The name of the plugin. Case doesn't matter.
+	 * @return The IDs of the traces in ascending order.
+	 */
+	public synchronized int[] getByPlugin(String plugin) {
+		return getPostings(PLUGIN_PREFIX + plugin.toLowerCase());
+	}
+
+	/**
+	 * Gets every trace that contains (or was caused by) a type of exception.
+	 * 
+	 * @param type
+	 *            The simple or fully qualified class name of the exception. Case doesn't matter.
+	 * @return The IDs of the traces in ascending order.
+	 */
+	public synchronized int[] getByException(String type) {
+		return getPostings(EXCEPTION_PREFIX + type.toLowerCase());
+	}
+
+	/**
+	 * @return The IDs and the plugin and exception names of every indexed trace, for tab completion.
+	 */
+	public CompletionIndex getCompletions() {
+		return completions;
+	}
+
+	/**
+	 * Merges the journal into the postings file, if anything was indexed since it was last written.
+	 */
+	public synchronized void compact() {
+		if (!dirty) {
+			return;
+		}
+		File temp = new File(file.getPath() + ".tmp");
+		DataOutputStream os = null;
+		try {
+			os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			os.writeInt(MAGIC);
+			os.writeInt(VERSION);
+			os.writeInt(lastId);
+			os.writeInt(postings.size());
+			for (Map.Entry<String, Postings> entry : postings.entrySet()) {
+				Postings list = entry.getValue();
+				os.writeUTF(entry.getKey());
+				os.writeInt(list.count);
+				os.writeInt(list.last);
+				os.writeInt(list.length);
+				os.write(list.data, 0, list.length);
+			}
+			os.close();
+			os = null;
+			// renameTo() won't replace an existing file on every platform.
+			file.delete();
+			if (!temp.renameTo(file)) {
+				throw new IOException();
+			}
+		} catch (IOException e) {
+			// The journal still has everything.
+			IHeartDevs.log(Level.WARNING, "Could not write the search index to \"" + file.toString() + "\"");
+			return;
+		} finally {
+			try {
+				os.close();
+			} catch (Exception e) {
+			}
+		}
+		dirty = false;
+		closeJournal();
+		journalFile.delete();
+		journalCount = 0;
+	}
+
+	/**
+	 * Gets the terms of a trace.
+	 */
+	private static Set<String> getTerms(List<String> lines, String plugin) {
+		Set<String> terms = new HashSet<String>();
+		for (String line : lines) {
+			int type = TraceLineClassifier.classify(line);
+			if (type == TraceLineClassifier.START || type == TraceLineClassifier.CAUSED_BY
+					|| type == TraceLineClassifier.SUPPRESSED) {
+				long bounds = TraceLineClassifier.throwableNameBounds(line);
+				if (bounds == -1) {
+					continue;
+				}
+				int end = (int) bounds;
+				String name = line.substring((int) (bounds >>> 32), end).toLowerCase();
+				terms.add(name);
+				terms.add(EXCEPTION_PREFIX + name);
+				terms.add(EXCEPTION_PREFIX + name.substring(name.lastIndexOf('.') + 1));
+				addWords(name, terms);
+				addWords(line.substring(end).toLowerCase(), terms);
+			} else if (type == TraceLineClassifier.FRAME) {
+				int start = TraceLineClassifier.frameClassStart(line);
+				int classEnd = TraceLineClassifier.frameClassEnd(line);
+				int open = line.indexOf('(', classEnd);
+				String className = line.substring(start, classEnd).toLowerCase();
+				terms.add(className);
+				// Only the simple name, because the package of every frame would make every posting list huge.
+				addWords(className.substring(className.lastIndexOf('.') + 1), terms);
+				if (open > classEnd) {
+					addWords(line.substring(classEnd + 1, open).toLowerCase(), terms);
+				}
+			}
+		}
+		if (plugin != null) {
+			terms.add(PLUGIN_PREFIX + plugin.toLowerCase());
+		}
+		return terms;
+	}
+
+	/**
+	 * Adds every word (a run of letters, digits and underscores) of some text. Words that are just a number (like the
+	 * 1 in Foo$1) and single characters are left out.
+	 */
+	private static void addWords(String text, Set<String> terms) {
+		int length = text.length();
+		int start = 0;
+		while (start < length) {
+			while (start < length && !isWordChar(text.charAt(start))) {
+				start++;
+			}
+			int end = start;
+			boolean number = true;
+			while (end < length && isWordChar(text.charAt(end))) {
+				number &= Character.isDigit(text.charAt(end));
+				end++;
+			}
+			if (end - start >= 2 && end - start <= MAX_TERM_LENGTH && !number) {
+				terms.add(text.substring(start, end));
+			}
+			start = end;
+		}
+	}
+
+	private static boolean isWordChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '_';
+	}
+
+	private int[] getPostings(String term) {
+		Postings list = postings.get(term);
+		return list == null ? new int[0] : list.decode();
+	}
+
+	private void put(int traceId, Set<String> terms) {
+		for (String term : terms) {
+			Postings list = postings.get(term);
+			if (list == null) {
+				list = new Postings();
+				postings.put(term, list);
+				completions.addTerm(term);
+			}
+			list.add(traceId);
+		}
+		lastId = traceId;
+		dirty = true;
+	}
+
+	/**
+	 * Appends a trace to the journal. If that fails, the trace is only lost if the server stops before the next
+	 * compact().
+	 */
+	private void journal(int traceId, Set<String> terms) {
+		try {
+			if (journal == null) {
+				journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile, true)));
+			}
+			journal.writeInt(traceId);
+			journal.writeInt(terms.size());
+			for (String term : terms) {
+				journal.writeUTF(term);
+			}
+			journal.flush();
+			journalCount++;
+		} catch (IOException e) {
+			IHeartDevs.log(Level.WARNING, "Could not write to the search journal \"" + journalFile.toString() + "\"");
+			closeJournal();
+		}
+	}
+
+	private void closeJournal() {
+		try {
+			journal.close();
+		} catch (Exception e) {
+		}
+		journal = null;
+	}
+
+	/**
+	 * Reads the postings file.
+	 * 
+	 * @return false if there is a postings file but it couldn't be read.
+	 */
+	private boolean load() {
+		if (!file.exists()) {
+			return true;
+		}
+		DataInputStream is = null;
+		try {
+			is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (is.readInt() != MAGIC || is.readInt() != VERSION) {
+				throw new IOException();
+			}
+			lastId = is.readInt();
+			int terms = is.readInt();
+			for (int i = 0; i < terms; i++) {
+				String term = is.readUTF();
+				Postings list = new Postings();
+				list.count = is.readInt();
+				list.last = is.readInt();
+				list.length = is.readInt();
+				list.data = new byte[list.length];
+				is.readFully(list.data);
+				postings.put(term, list);
+			}
+			for (String term : postings.keySet()) {
+				completions.addTerm(term);
+			}
+			return true;
+		} catch (IOException e) {
+			IHeartDevs.log(Level.WARNING, "Could not read the search index from \"" + file.toString()
+					+ "\". Every error log will be indexed again.");
+			postings.clear();
+			lastId = -1;
+			return false;
+		} finally {
+			try {
+				is.close();
+			} catch (Exception e) {
+			}
+		}
+	}
+
+	/**
+	 * Indexes every trace in the journal that isn't in the postings file yet. A half-written record at the end is
+	 * ignored.
+	 */
+	private void replay() {
+		if (!journalFile.exists()) {
+			return;
+		}
+		DataInputStream is = null;
+		try {
+			is = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+			while (true) {
+				int traceId = is.readInt();
+				int count = is.readInt();
+				Set<String> terms = new HashSet<String>();
+				for (int i = 0; i < count; i++) {
+					terms.add(is.readUTF());
+				}
+				if (traceId > lastId) {
+					put(traceId, terms);
+				}
+				journalCount++;
+			}
+		} catch (EOFException e) {
+			// The end of the journal.
+		} catch (IOException e) {
+			IHeartDevs.log(Level.WARNING, "Could not read all of the search journal \"" + journalFile.toString()
+					+ "\"");
+		} finally {
+			try {
+				is.close();
+			} catch (Exception e) {
+			}
+		}
+	}
+
+	/**
+	 * The IDs of the traces that contain a term, in ascending order, as varints of the difference to the ID before.
+	 */
+	private static class Postings {
+		byte[] data = new byte[4];
+		int length;
+		int count;
+		// The ID the next difference is relative to.
+		int last = -1;
+
+		void add(int id) {
+			if (length + 5 > data.length) {
+				byte[] grown = new byte[data.length * 2];
+				System.arraycopy(data, 0, grown, 0, length);
+				data = grown;
+			}
+			int delta = id - last;
+			while ((delta & ~0x7f) != 0) {
+				data[length++] = (byte) ((delta & 0x7f) | 0x80);
+				delta >>>= 7;
+			}
+			data[length++] = (byte) delta;
+			last = id;
+			count++;
+		}
+
+		int[] decode() {
+			int[] ids = new int[count];
+			int id = -1;
+			int position = 0;
+			for (int i = 0; i < count; i++) {
+				int delta = 0;
+				int shift = 0;
+				byte b;
+				do {
+					b = data[position++];
+					delta |= (b & 0x7f) << shift;
+					shift += 7;
+				} while (b < 0);
+				id += delta;
+				ids[i] = id;
+			}
+			return ids;
+		}
+
+		/**
+		 * Keeps only the candidates that are in this list.
+		 * 
+		 * @param candidates
+		 *            IDs in ascending order. The ones that are kept are moved to the front.
+		 * @param count
+		 *            The number of candidates.
+		 * @return The number of candidates that were kept.
+		 */
+		int retain(int[] candidates, int count) {
+			int kept = 0;
+			int candidate = 0;
+			int id = -1;
+			int position = 0;
+			for (int i = 0; i < this.count && candidate < count; i++) {
+				int delta = 0;
+				int shift = 0;
+				byte b;
+				do {
+					b = data[position++];
+					delta |= (b & 0x7f) << shift;
+					shift += 7;
+				} while (b < 0);
+				id += delta;
+				while (candidate < count && candidates[candidate] < id) {
+					candidate++;
+				}
+				if (candidate < count && candidates[candidate] == id) {
+					candidates[kept++] = id;
+					candidate++;
+				}
+			}
+			return kept;
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package com.sammarder.iheartdevs.traceprocessing;
 
 import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.PluginDescriptionFile;
 
 /**
@@ -15,7 +16,8 @@ public class ServerMetaInfo {
 	private static String osArch = null;
 	private static long maxMemory = -1;
 
-	private static String[] plugins = null;
+	// Forgotten whenever a plugin is enabled or disabled, which happens on the main thread.
+	private static volatile String[] plugins = null;
 
 	// Instantiation is forbidden
 	private ServerMetaInfo() {
@@ -89,13 +91,24 @@ public class ServerMetaInfo {
 	 * @return A list of strings which represents all of the plugins (with versions) on this server.
 	 */
 	public static String[] getPluginNames() {
-		if (plugins == null) {
-			plugins = new String[Bukkit.getPluginManager().getPlugins().length];
-			for (int i = 0; i < plugins.length; i++) {
-				PluginDescriptionFile pdf = Bukkit.getPluginManager().getPlugins()[i].getDescription();
-				plugins[i] = pdf.getFullName();
+		String[] names = plugins;
+		if (names == null) {
+			Plugin[] loaded = Bukkit.getPluginManager().getPlugins();
+			names = new String[loaded.length];
+			for (int i = 0; i < names.length; i++) {
+				PluginDescriptionFile pdf = loaded[i].getDescription();
+				names[i] = pdf.getFullName();
 			}
+			plugins = names;
 		}
-		return plugins;
+		return names;
+	}
+
+	/**
+	 * Forgets the list of plugins, so the next call to getPluginNames() builds it again. Call this whenever a plugin
+	 * is enabled or disabled.
+	 */
+	public static void refreshPluginNames() {
+		plugins = null;
 	}
 }
@@ -31,10 +31,22 @@ public class StackTraceCreationEvent extends Event {
 	}
 
 	/**
-	 * Gets the full file name where the
+	 * Gets the ID of the error log the stack trace was saved as.
 	 * 
-	 * @return
+	 * @return The ID of the error log, which /ihd view and /ihd publish take.
 	 */
+	public int getTraceId() {
+		return info.getTraceId();
+	}
+
+	/**
+	 * Gets where the stack trace was saved. Error logs are no longer files of their own, so this is the segment file
+	 * of the trace store that holds it, followed by its ID: "/path/to/traces-00000000.seg (ID 12)".
+	 * 
+	 * @return A description of where the stack trace is, which is not the name of a file.
+	 * @deprecated Use getTraceId() to refer to the error log.
+	 */
+	@Deprecated
 	public String getQualifiedFileName() {
 		return info.getFile();
 	}
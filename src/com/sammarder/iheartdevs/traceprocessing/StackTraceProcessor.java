@@ -1,11 +1,16 @@
 package com.sammarder.iheartdevs.traceprocessing;
 
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Timer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 
 import org.bukkit.Bukkit;
@@ -17,17 +22,60 @@ import com.sammarder.iheartdevs.FolderManager;
 import com.sammarder.iheartdevs.IHeartDevs;
 import com.sammarder.iheartdevs.IRemindable;
 import com.sammarder.iheartdevs.Utilities;
+import com.sammarder.iheartdevs.metrics.PipelineMetrics;
+import com.sammarder.iheartdevs.storage.SessionLog;
+import com.sammarder.iheartdevs.storage.StoredTrace;
 
 /**
  * Deals with converting multiple single-line strings into a multi-line stack trace. Fires a StackTraceCreationEvent
- * when a complete stack trace is formed.
+ * when a complete stack trace is formed. Lines can be grouped by the thread that printed them, so traces printed by
+ * different threads at the same time don't get mixed together.
  */
-public class StackTraceProcessor implements IMessageProcessor, IRemindable {
+public class StackTraceProcessor implements IMessageProcessor {
 	private static final String NL = "\n";
+	// How long (in milliseconds) a trace has to stay quiet before it is considered complete.
+	private static final long COMPLETION_DELAY = 10;
+	// The resolution (in milliseconds) and number of buckets of the completion wheel.
+	private static final long WHEEL_TICK = 5;
+	private static final int WHEEL_SIZE = 64;
+	// How often (in milliseconds) buffers belonging to dead threads are cleaned up.
+	private static final long SWEEP_PERIOD = 30 * 1000;
+	// The key every line is filed under when traces aren't assembled per thread.
+	private static final Long SHARED_KEY = Long.valueOf(-1);
 
-	private List<String> currentTrace;
-	private SingleCompletionTimer timer;
+	// Traces that are still being assembled, keyed by the id of the thread printing them (or SHARED_KEY).
+	private final ConcurrentMap<Long, TraceBuffer> buffers = new ConcurrentHashMap<Long, TraceBuffer>();
+	// Traces that are complete but not saved yet.
+	private final Queue<AssembledTrace> completedTraces = new ConcurrentLinkedQueue<AssembledTrace>();
+	// true while some thread is busy saving completedTraces.
+	private final AtomicBoolean draining = new AtomicBoolean();
+	private final boolean perThread;
+	private final boolean deduplicate;
+	private final boolean ignoreLineNumbers;
+	// Services the completion deadline of every TraceBuffer.
+	private final CompletionWheel wheel;
+	// When (in System.nanoTime()) dead threads were last looked for. Only used by the wheel thread.
+	private long lastSweep = System.nanoTime();
 	private FolderManager folderManager;
+	private PluginClassIndex classIndex;
+	// Every distinct trace that has been saved and how often it happened.
+	private FingerprintIndex fingerprints;
+	// Makes every saved trace searchable.
+	private SearchIndex searchIndex;
+	// Limits how many traces are saved, in total and per plugin. Only used while draining.
+	private final TokenBucket globalLimit;
+	private final Map<String, TokenBucket> pluginLimits = new HashMap<String, TokenBucket>();
+	// The traces that were over the limit since the last storm summary was saved. Only used while draining.
+	private final StormSummary stormSummary;
+	// Armed by the first trace over the limit, so a storm is summarized at most once per interval.
+	private final CompletionWheel.Deadline stormDeadline;
+	// true when the storm summary should be saved the next time traces are drained.
+	private volatile boolean stormSummaryDue;
+	private final SimpleDateFormat dateFormat = new SimpleDateFormat();
+	// The server details of the current session. Only used while draining.
+	private String lastServerInfo;
+	// The session that lastServerInfo was recorded as or -1 if it couldn't be recorded.
+	private int sessionId = -1;
 
 	/**
 	 * Constructor for creating a new StackTraceProcessor.
@@ -35,157 +83,312 @@ public class StackTraceProcessor implements IMessageProcessor, IRemindable {
 	 * @param rootTraceFolderString
 	 *            A string pointing to the root directory where stack traces should be stored. It is recommended to make
 	 *            this pluginDataDirectory/Errors.
+	 * @param classIndex
+	 *            The index used to figure out which plugin caused each trace.
+	 * @param fingerprints
+	 *            The index used to recognize traces that have already been saved.
+	 * @param searchIndex
+	 *            The index that every saved trace is added to.
 	 */
-	public StackTraceProcessor(Plugin plugin, FolderManager folderManager) {
+	public StackTraceProcessor(Plugin plugin, FolderManager folderManager, PluginClassIndex classIndex,
+			FingerprintIndex fingerprints, SearchIndex searchIndex) {
 		this.folderManager = folderManager;
-		currentTrace = new ArrayList<String>();
-		timer = new SingleCompletionTimer(new Timer(), this, 10);
+		this.classIndex = classIndex;
+		this.fingerprints = fingerprints;
+		this.searchIndex = searchIndex;
+		this.perThread = ConfigurationManager.shouldUsePerThreadAssembly();
+		this.deduplicate = ConfigurationManager.shouldDeduplicateTraces();
+		this.ignoreLineNumbers = ConfigurationManager.shouldFingerprintIgnoreLineNumbers();
+		wheel = new CompletionWheel(WHEEL_TICK, WHEEL_SIZE);
+		globalLimit = new TokenBucket(ConfigurationManager.getTraceRateLimit(),
+				ConfigurationManager.getTraceRateBurst());
+		stormSummary = new StormSummary(ConfigurationManager.getStormSampleSize());
+		stormDeadline = wheel.newDeadline(new IRemindable() {
+			@Override
+			public void remind() {
+				stormSummaryDue = true;
+				drainCompletedTraces();
+			}
+		}, ConfigurationManager.getStormSummaryInterval() * 1000);
+	}
+
+	/**
+	 * Stops the completion thread. Traces that are still being assembled are completed and saved first.
+	 */
+	public void shutdown() {
+		for (TraceBuffer buffer : buffers.values()) {
+			buffer.complete();
+		}
+		wheel.shutdown(1000);
+		// Whatever was held back gets summarized now rather than lost.
+		stormSummaryDue = true;
+		drainCompletedTraces();
+		fingerprints.save();
+		searchIndex.compact();
 	}
 
 	@Override
-	public boolean process(String message) {
-		message = message.trim();
-		if (isStartOfTrace(message)) {
-			if (currentTrace.size() != 0) {
-				// We have finished a trace. Do something with it.
-				saveTrace();
+	public boolean process(Thread source, CharSequence line) {
+		// Only lines that actually belong to a trace get copied into a String.
+		int type = TraceLineClassifier.classify(line);
+		if (type == TraceLineClassifier.NOT_TRACE) {
+			return false;
+		}
+
+		Long key = perThread ? Long.valueOf(source.getId()) : SHARED_KEY;
+		TraceBuffer buffer = buffers.get(key);
+		if (buffer == null) {
+			if (type != TraceLineClassifier.START) {
+				// Can't continue a trace that never started.
+				return false;
 			}
-			currentTrace.clear();
-			currentTrace.add(message);
+			buffer = new TraceBuffer(key, perThread ? source : null);
+			TraceBuffer existing = buffers.putIfAbsent(key, buffer);
+			if (existing != null) {
+				buffer = existing;
+			}
+		}
 
-			// Start the timer (or invalidate the current one).
-			// Because the timer isn't attached to the old trace, this is perfectly acceptable.
-			timer.setReminder();
-			return true;
-		} else if (currentTrace.size() != 0 && isContinuationOfTrace(message)) {
-			currentTrace.add(message);
-			timer.setReminder();
-			return true;
-		} else {
-			return false;
+		boolean accepted = buffer.add(type, line);
+		// Adding a line may have completed the previous trace.
+		drainCompletedTraces();
+		return accepted;
+	}
+
+	/**
+	 * Saves every completed trace (and the storm summary, if it is due). If another thread is already saving, it will
+	 * save ours too, so this never waits.
+	 */
+	private void drainCompletedTraces() {
+		while ((!completedTraces.isEmpty() || stormSummaryDue) && draining.compareAndSet(false, true)) {
+			try {
+				AssembledTrace trace;
+				while ((trace = completedTraces.poll()) != null) {
+					saveTrace(trace);
+				}
+				if (stormSummaryDue) {
+					stormSummaryDue = false;
+					saveStormSummary();
+				}
+				// Repeats only change counters, so they are written out every now and then instead of every time.
+				fingerprints.saveIfDue();
+			} finally {
+				draining.set(false);
+			}
+			// A trace may have been queued right after we stopped looking, so check again.
 		}
 	}
 
 	/**
-	 * Processes a completed trace (stored as strings in currentTrace). This is responsible for saving the trace to a
-	 * file and firing a StackTraceCreationEvent about it.
+	 * Finishes the traces of threads that have died and forgets about their buffers.
 	 */
-	private void saveTrace() {
+	private void reclaimDeadBuffers() {
+		for (TraceBuffer buffer : buffers.values()) {
+			Thread owner = buffer.owner.get();
+			if (owner == null || !owner.isAlive()) {
+				buffer.complete();
+				buffers.remove(buffer.key, buffer);
+			}
+		}
+		drainCompletedTraces();
+	}
+
+	/**
+	 * Processes a completed trace. This is responsible for saving the trace to a file and firing a
+	 * StackTraceCreationEvent about it. A trace that has been saved before is only counted, and so is a trace that is
+	 * over the rate limit (in the storm summary).
+	 * 
+	 * @param trace
+	 *            The completed trace.
+	 */
+	private void saveTrace(AssembledTrace trace) {
+		if (deduplicate && fingerprints.recordRepeat(trace.getFingerprint(), trace.getTimestamp())) {
+			return;
+		}
+		Plugin culprit = TraceMetaInfo.findPlugin(trace.getLines(), classIndex);
+		String pluginName = culprit == null ? null : culprit.getName();
+		if (!acquirePermit(pluginName)) {
+			stormSummary.add(trace, pluginName);
+			stormDeadline.arm();
+			return;
+		}
 		System.out.println("Saving trace.");
-		File outputFile = generateFile();
-		if (outputFile != null) {
-			TraceMetaInfo traceInfo = new TraceMetaInfo(currentTrace, outputFile.toString());
+		StoredTrace stored = generateFile(trace.getLines(), trace.getFingerprint(), trace.getTimestamp());
+		if (stored != null) {
+			fingerprints.add(trace.getFingerprint(), stored.getId(), trace.getTimestamp(),
+					pluginName);
+			searchIndex.add(stored.getId(), trace.getLines(), pluginName);
+			TraceMetaInfo traceInfo = new TraceMetaInfo(culprit, stored.getId(), stored.getLocation());
 			Event event = new StackTraceCreationEvent(traceInfo);
+			long start = System.nanoTime();
 			Bukkit.getPluginManager().callEvent(event);
+			PipelineMetrics.DISPATCH_TIME.record(System.nanoTime() - start);
 		}
 	}
 
 	/**
-	 * Generates a file from currentTrace.
+	 * Determines if the global limit and the limit of a plugin both allow another trace to be saved. If they do, a
+	 * token is taken from both.
 	 * 
-	 * @return The path of the file where the trace is stored or null if the file could not be written.
+	 * @param pluginName
+	 *            The name of the plugin that caused the trace or null if it is unknown.
+	 * @return true if the trace may be saved, false if it is over the limit.
 	 */
-	private File generateFile() {
-		File file = folderManager.createFile();
-		if (file == null) {
-			System.out.println("Could not create file.");
-			return null;
-		}
-		FileWriter os = null;
-		try {
-			// Write contents to the file.
-			if (file.canWrite()) {
-				os = new FileWriter(file);
-
-				os.append(ServerMetaInfo.getBukkitVersion() + NL);
-				os.append("Java Version: " + ServerMetaInfo.getJavaVersion() + NL);
-				os.append("Operating System: " + ServerMetaInfo.getOSName() + NL);
-				os.append("OS Architecture: " + ServerMetaInfo.getOSArchitecture() + NL);
-				os.append("Total Memory: " + Utilities.formatBytes(ServerMetaInfo.getTotalMemory()) + NL);
-				os.append("Server Uptime: " + Utilities.formatMilliseconds(Utilities.getServerUptime()) + NL);
-
-				if (ConfigurationManager.shouldUseExtendedInfo()) {
-					os.append(NL + "Plugins:" + NL);
-					for (String s : ServerMetaInfo.getPluginNames()) {
-						os.append(s + NL);
-					}
-					os.append(NL);
-				}
-
-				os.append("Stacktrace:" + NL);
-				for (String s : currentTrace) {
-					os.append(s + NL);
-				}
-
-				os.flush();
-			} else {
-				throw new IOException();
+	private boolean acquirePermit(String pluginName) {
+		long now = System.nanoTime();
+		TokenBucket pluginLimit = null;
+		if (pluginName != null) {
+			pluginLimit = pluginLimits.get(pluginName);
+			if (pluginLimit == null) {
+				pluginLimit = new TokenBucket(ConfigurationManager.getPluginTraceRateLimit(),
+						ConfigurationManager.getPluginTraceRateBurst());
+				pluginLimits.put(pluginName, pluginLimit);
 			}
-		} catch (IOException e) {
-			// I can't say e.printStackTrace() otherwise I could create an infinite loop!
-			IHeartDevs.log(Level.WARNING, "Could not write error report to \"" + file.toString() + "\"");
-			return null;
-		} finally {
-			try {
-				os.close();
-			} catch (Exception e) {
-				// Oh well.
+			if (!pluginLimit.hasToken(now)) {
+				return false;
 			}
 		}
-		return file;
+		if (!globalLimit.hasToken(now)) {
+			return false;
+		}
+		globalLimit.take();
+		if (pluginLimit != null) {
+			pluginLimit.take();
+		}
+		return true;
 	}
 
-	@Override
-	public void remind() {
-		saveTrace();
-		currentTrace.clear();
+	/**
+	 * Saves a single record that describes every trace that was over the rate limit since the last one.
+	 */
+	private void saveStormSummary() {
+		if (stormSummary.isEmpty()) {
+			return;
+		}
+		long count = stormSummary.getCount();
+		StoredTrace stored = generateFile(stormSummary.toLines(dateFormat), null, System.currentTimeMillis());
+		stormSummary.reset();
+		if (stored != null) {
+			IHeartDevs.log(Level.WARNING, count + " stack traces were not saved individually because too many"
+					+ " happened too quickly. A summary was logged to " + stored.getLocation());
+		}
 	}
 
 	/**
-	 * Helper method for determining if a string starts a stack trace.
+	 * Stores a completed trace (or a storm summary) in the error log store.
 	 * 
-	 * @param message
-	 *            The string to interpret.
-	 * @return true if the string is believed to be the beginning of a stack trace, false otherwise.
+	 * @param trace
+	 *            The lines of the completed trace.
+	 * @param fingerprint
+	 *            The fingerprint of the trace or null if the lines aren't a single trace.
+	 * @param timestamp
+	 *            When the trace happened.
+	 * @return The stored trace or null if it could not be stored.
 	 */
-	private boolean isStartOfTrace(String message) {
-		if (message.startsWith("Exception in thread \"")) {
-			return true;
+	private StoredTrace generateFile(List<String> trace, Long fingerprint, long timestamp) {
+		StringBuilder os = new StringBuilder();
+		os.append(ServerMetaInfo.getBukkitVersion() + NL);
+		os.append("Java Version: " + ServerMetaInfo.getJavaVersion() + NL);
+		os.append("Operating System: " + ServerMetaInfo.getOSName() + NL);
+		os.append("OS Architecture: " + ServerMetaInfo.getOSArchitecture() + NL);
+		os.append("Total Memory: " + Utilities.formatBytes(ServerMetaInfo.getTotalMemory()) + NL);
+		if (ConfigurationManager.shouldUseExtendedInfo()) {
+			os.append(NL + "Plugins:" + NL);
+			for (String s : ServerMetaInfo.getPluginNames()) {
+				os.append(s + NL);
+			}
+			os.append(NL);
 		}
-		String[] pieces = message.split(" ", 2);
-		if (pieces[0].endsWith("Exception:") || pieces[0].endsWith("Exception")) {
-			return true;
+		// Everything so far is the same in every log of a session, so it is only stored once per session.
+		String serverInfo = os.toString();
+		if (!serverInfo.equals(lastServerInfo)) {
+			sessionId = folderManager.startSession(serverInfo);
+			lastServerInfo = sessionId < 0 ? null : serverInfo;
+		}
+		if (sessionId >= 0) {
+			os.setLength(0);
+			os.append(SessionLog.SESSION_LINE + sessionId + NL);
+		}
+		os.append("Server Uptime: " + Utilities.formatMilliseconds(Utilities.getServerUptime()) + NL);
+
+		if (fingerprint != null) {
+			os.append("Fingerprint: " + Long.toHexString(fingerprint) + NL);
+		}
+		os.append("Stacktrace:" + NL);
+		for (String s : trace) {
+			os.append(s + NL);
 		}
-		return false;
+
+		StoredTrace stored = folderManager.createFile(os.toString(), timestamp);
+		if (stored == null) {
+			// I can't say e.printStackTrace() otherwise I could create an infinite loop!
+			IHeartDevs.log(Level.WARNING, "Could not write error report to the trace store.");
+		}
+		return stored;
 	}
 
 	/**
-	 * Helper method for determining if a string is part of an existing stack trace.
-	 * 
-	 * @param message
-	 *            The string to interpret.
-	 * @return true if the string is believed to be the beginning of a stack trace, false otherwise.
+	 * Holds the trace that one thread (or every thread, if traces aren't assembled per thread) is printing.
 	 */
-	private static boolean isContinuationOfTrace(String message) {
-		// tab/whitespace before "at: xxx" lines is now just a single space.
-		message = message.trim();
-		String[] pieces = message.split(" ");
-		if (pieces.length != 2) {
-			return false;
+	private class TraceBuffer implements IRemindable {
+		private final Long key;
+		// The thread printing this trace. Only used to notice when it dies, so it must not be kept alive by us.
+		private final WeakReference<Thread> owner;
+		private final CompletionWheel.Deadline completionDeadline;
+		private List<String> lines = new ArrayList<String>();
+		// Built up one line at a time, so completing a trace doesn't have to look at it again.
+		private long fingerprint = TraceFingerprint.EMPTY;
+		// When the first line of the trace was printed.
+		private long timestamp;
+
+		TraceBuffer(Long key, Thread owner) {
+			this.key = key;
+			this.owner = new WeakReference<Thread>(owner);
+			this.completionDeadline = wheel.newDeadline(this, COMPLETION_DELAY);
 		}
-		// Caused by: xxx.xxx.xxx.XxxXxxException
-		if (pieces.length == 2 && pieces[0].equals("Caused by:") && pieces[1].contains("Exception")) {
-			return true;
-			// [tab] at xxxx.xxx.xx.XxxXxx(Xxxxx.java:###)
-		} else if (pieces.length == 2 && pieces[0].equals("at") && pieces[1].endsWith(")")) {
-			return true;
-			// ... ## more
-		} else if (pieces.length == 3 && pieces[0].equals("...") && Utilities.isPositiveInteger(pieces[1])
-				&& pieces[2].equals("more")) {
+
+		/**
+		 * Adds a line to this trace. A new trace completes the one before it.
+		 * 
+		 * @return true if the line was added, false if it doesn't belong to anything.
+		 */
+		synchronized boolean add(int type, CharSequence line) {
+			if (type == TraceLineClassifier.START) {
+				complete();
+				fingerprint = TraceFingerprint.EMPTY;
+				timestamp = System.currentTimeMillis();
+			} else if (lines.isEmpty()) {
+				return false;
+			}
+			lines.add(line.toString().trim());
+			fingerprint = TraceFingerprint.update(fingerprint, type, line, ignoreLineNumbers);
+			// Push the completion deadline back (arming it if this is the first line).
+			completionDeadline.touch();
 			return true;
 		}
-		// Didn't match. Oh well.
-		return false;
-	}
 
+		/**
+		 * Moves the lines collected so far (if any) to the completed traces.
+		 */
+		synchronized void complete() {
+			if (!lines.isEmpty()) {
+				completedTraces.add(new AssembledTrace(lines, fingerprint, timestamp));
+				PipelineMetrics.TRACES_ASSEMBLED.increment();
+				lines = new ArrayList<String>();
+			}
+		}
+
+		@Override
+		public void remind() {
+			// Nothing has been printed for a while, so the trace must be done.
+			complete();
+			// Dead threads can only leave buffers behind if traces are being printed, so this is a good time to look.
+			// (A timer of its own would keep the wheel thread from ever sleeping.)
+			if (perThread && System.nanoTime() - lastSweep > SWEEP_PERIOD * 1000 * 1000) {
+				lastSweep = System.nanoTime();
+				reclaimDeadBuffers();
+			}
+			drainCompletedTraces();
+		}
+	}
 }
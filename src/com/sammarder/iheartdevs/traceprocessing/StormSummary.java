@@ -0,0 +1,120 @@
+package com.sammarder.iheartdevs.traceprocessing;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Keeps track of the stack traces that were not saved because too many happened too quickly. Instead of every trace,
+ * only a count (in total and per plugin) and a small, uniformly random sample of the traces are kept, so memory use
+ * stays the same no matter how big the storm gets. This class is not thread safe.
+ */
+public class StormSummary {
+	private static final String UNKNOWN_PLUGIN = "Unknown";
+
+	private final int sampleSize;
+	private final List<AssembledTrace> sample;
+	private final Map<String, Long> countsByPlugin = new TreeMap<String, Long>();
+	private final Random random = new Random();
+	private long count;
+	private long firstTimestamp;
+	private long lastTimestamp;
+
+	/**
+	 * Constructor for creating a new, empty StormSummary.
+	 * 
+	 * @param sampleSize
+	 *            The maximum number of traces to keep.
+	 */
+	public StormSummary(int sampleSize) {
+		this.sampleSize = Math.max(0, sampleSize);
+		this.sample = new ArrayList<AssembledTrace>(this.sampleSize);
+	}
+
+	/**
+	 * Counts a trace that was not saved.
+	 * 
+	 * @param trace
+	 *            The trace.
+	 * @param pluginName
+	 *            The name of the plugin that caused the trace or null if it is unknown.
+	 */
+	public void add(AssembledTrace trace, String pluginName) {
+		if (count == 0) {
+			firstTimestamp = trace.getTimestamp();
+		}
+		lastTimestamp = trace.getTimestamp();
+		count++;
+		String key = pluginName == null ? UNKNOWN_PLUGIN : pluginName;
+		Long pluginCount = countsByPlugin.get(key);
+		countsByPlugin.put(key, pluginCount == null ? 1 : pluginCount + 1);
+
+		// Reservoir sampling: after n traces, every one of them has had the same sampleSize / n chance of being kept.
+		if (sample.size() < sampleSize) {
+			sample.add(trace);
+		} else if (sampleSize > 0) {
+			long slot = (long) (random.nextDouble() * count);
+			if (slot < sampleSize) {
+				sample.set((int) slot, trace);
+			}
+		}
+	}
+
+	/**
+	 * Determines if any traces have been counted since the last reset().
+	 * 
+	 * @return true if nothing has been counted.
+	 */
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	/**
+	 * Gets the number of traces that have been counted since the last reset().
+	 * 
+	 * @return The number of traces.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Describes the storm in a human readable way, including every sampled trace.
+	 * 
+	 * @param dateFormat
+	 *            Used to format when the storm started and ended.
+	 * @return The lines of the summary.
+	 */
+	public List<String> toLines(SimpleDateFormat dateFormat) {
+		List<String> lines = new ArrayList<String>();
+		lines.add("Storm summary: " + count + " stack traces were not saved individually because too many happened"
+				+ " too quickly.");
+		lines.add("From " + dateFormat.format(new Date(firstTimestamp)) + " to "
+				+ dateFormat.format(new Date(lastTimestamp)));
+		lines.add("");
+		lines.add("By plugin:");
+		for (Map.Entry<String, Long> entry : countsByPlugin.entrySet()) {
+			lines.add(entry.getKey() + ": " + entry.getValue());
+		}
+		lines.add("");
+		lines.add("Sample (" + sample.size() + " of " + count + "):");
+		for (AssembledTrace trace : sample) {
+			lines.add("");
+			lines.addAll(trace.getLines());
+		}
+		return lines;
+	}
+
+	/**
+	 * Forgets everything that has been counted.
+	 */
+	public void reset() {
+		count = 0;
+		countsByPlugin.clear();
+		sample.clear();
+	}
+}
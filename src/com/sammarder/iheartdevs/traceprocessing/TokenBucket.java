@@ -0,0 +1,58 @@
+package com.sammarder.iheartdevs.traceprocessing;
+
+/**
+ * Classic token bucket rate limiter. The bucket holds up to a burst worth of tokens and refills at a steady rate, so a
+ * short burst is let through while a sustained flood is cut down to the refill rate. This class is not thread safe.
+ */
+public class TokenBucket {
+	private final double capacity;
+	private final double tokensPerNano;
+	private final boolean unlimited;
+	private double tokens;
+	// When (in System.nanoTime()) tokens were last added.
+	private long lastRefill;
+
+	/**
+	 * Constructor for creating a new, full TokenBucket.
+	 * 
+	 * @param tokensPerSecond
+	 *            How quickly tokens are added back. Anything less than or equal to 0 means the bucket never runs dry.
+	 * @param burst
+	 *            The maximum number of tokens in the bucket (at least 1).
+	 */
+	public TokenBucket(double tokensPerSecond, double burst) {
+		this.capacity = Math.max(1, burst);
+		this.tokensPerNano = tokensPerSecond / (1000 * 1000 * 1000);
+		this.unlimited = tokensPerSecond <= 0;
+		this.tokens = capacity;
+		this.lastRefill = System.nanoTime();
+	}
+
+	/**
+	 * Determines if a token can be taken right now.
+	 * 
+	 * @param now
+	 *            The current System.nanoTime().
+	 * @return true if take() would succeed.
+	 */
+	public boolean hasToken(long now) {
+		if (unlimited) {
+			return true;
+		}
+		long elapsed = now - lastRefill;
+		if (elapsed > 0) {
+			tokens = Math.min(capacity, tokens + elapsed * tokensPerNano);
+			lastRefill = now;
+		}
+		return tokens >= 1;
+	}
+
+	/**
+	 * Takes a token. hasToken() should be checked first.
+	 */
+	public void take() {
+		if (!unlimited) {
+			tokens--;
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package com.sammarder.iheartdevs.traceprocessing;
+
+/**
+ * Computes a stable 64 bit fingerprint of a stack trace, one line at a time, while the trace is being assembled. Two
+ * traces get the same fingerprint when they were thrown from the same place: exception messages, "... N more" counts,
+ * module versions, jar names and lambda/anonymous class numbers are ignored, and line numbers can be ignored too (so a
+ * plugin update that only shifts code around doesn't count as a new bug). This class only contains static methods and
+ * therefore cannot be instantiated.
+ */
+// This is 64 bit FNV-1a over the normalized characters of each line.
+public class TraceFingerprint {
+	// The fingerprint of a trace with no lines.
+	public static final long EMPTY = 0xcbf29ce484222325L;
+	private static final long PRIME = 0x100000001b3L;
+
+	// Instantiation is forbidden
+	private TraceFingerprint() {
+	}
+
+	/**
+	 * Folds one line of a trace into a fingerprint.
+	 * 
+	 * @param fingerprint
+	 *            The fingerprint of the lines before this one (EMPTY for the first line).
+	 * @param type
+	 *            The result of TraceLineClassifier.classify() for this line.
+	 * @param line
+	 *            The line to add.
+	 * @param ignoreLineNumbers
+	 *            true if frames that only differ by their line number should count as the same.
+	 * @return The fingerprint including this line.
+	 */
+	public static long update(long fingerprint, int type, CharSequence line, boolean ignoreLineNumbers) {
+		switch (type) {
+		case TraceLineClassifier.START:
+		case TraceLineClassifier.CAUSED_BY:
+		case TraceLineClassifier.SUPPRESSED:
+			// Just the Throwable's class. The message usually contains player names, coordinates, etc.
+			long bounds = TraceLineClassifier.throwableNameBounds(line);
+			if (bounds == -1) {
+				return fingerprint;
+			}
+			fingerprint = mix(fingerprint, (char) ('0' + type));
+			return mixName(fingerprint, line, (int) (bounds >>> 32), (int) bounds);
+		case TraceLineClassifier.FRAME:
+			int start = TraceLineClassifier.frameClassStart(line);
+			int open = indexOf(line, '(', start);
+			fingerprint = mix(fingerprint, (char) ('0' + type));
+			fingerprint = mixName(fingerprint, line, start, open);
+			// (Foo.java:123) - the file name always counts, the line number only if asked to.
+			int length = line.length();
+			for (int i = open; i < length; i++) {
+				char c = line.charAt(i);
+				if (c == ')' || (c == ':' && ignoreLineNumbers)) {
+					break;
+				}
+				fingerprint = mix(fingerprint, c);
+			}
+			return fingerprint;
+		default:
+			// "... N more" lines depend on how deep the caller was, not on what went wrong.
+			return fingerprint;
+		}
+	}
+
+	/**
+	 * Folds a class or method name into a fingerprint, skipping the parts that change from run to run: the digits of
+	 * Foo$1 and Foo$$Lambda$14, and the /0x0000000800c03000 suffix of hidden classes.
+	 */
+	private static long mixName(long fingerprint, CharSequence line, int start, int end) {
+		boolean afterDollar = false;
+		for (int i = start; i < end; i++) {
+			char c = line.charAt(i);
+			if (c == '/') {
+				// Skip the hidden class address up to the method name.
+				while (i + 1 < end && line.charAt(i + 1) != '.') {
+					i++;
+				}
+				continue;
+			}
+			if (afterDollar && c >= '0' && c <= '9') {
+				continue;
+			}
+			afterDollar = c == '$';
+			fingerprint = mix(fingerprint, c);
+		}
+		return fingerprint;
+	}
+
+	private static long mix(long fingerprint, char c) {
+		fingerprint ^= c & 0xff;
+		fingerprint *= PRIME;
+		fingerprint ^= c >>> 8;
+		fingerprint *= PRIME;
+		return fingerprint;
+	}
+
+	private static int indexOf(CharSequence line, char c, int from) {
+		int length = line.length();
+		for (int i = from; i < length; i++) {
+			if (line.charAt(i) == c) {
+				return i;
+			}
+		}
+		return length;
+	}
+}
@@ -0,0 +1,329 @@
+package com.sammarder.iheartdevs.traceprocessing;
+
+/**
+ * Recognizes the lines that Throwable.printStackTrace() (and the common logging frameworks) produce. Every method
+ * scans the characters exactly once and never allocates, so it is safe to call on every line printed to System.err.
+ * This class only contains static methods and therefore cannot be instantiated.
+ */
+// The grammar (leading whitespace is always ignored):
+// START: [Exception in thread "name" ]qualified.Name[: message]
+// CAUSED_BY: Caused by: qualified.Name[: message]
+// SUPPRESSED: Suppressed: qualified.Name[: message]
+// FRAME: at [loader/][module[@version]/]qualified.Class.method(source)[ [~][jar:version]]
+// MORE: ... N more
+// OMITTED: ... N common frames omitted
+// A qualified name only counts as a Throwable if its simple name ends with Exception, Error or Throwable.
+public class TraceLineClassifier {
+	public static final int NOT_TRACE = 0;
+	public static final int START = 1;
+	public static final int CAUSED_BY = 2;
+	public static final int SUPPRESSED = 3;
+	public static final int FRAME = 4;
+	public static final int MORE = 5;
+	public static final int OMITTED = 6;
+
+	// Instantiation is forbidden
+	private TraceLineClassifier() {
+	}
+
+	/**
+	 * Determines what part of a stack trace (if any) a line is.
+	 * 
+	 * @param line
+	 *            The line to classify.
+	 * @return One of the constants in this class. NOT_TRACE if the line isn't part of a stack trace.
+	 */
+	public static int classify(CharSequence line) {
+		int length = line.length();
+		int i = skipWhitespace(line, 0);
+		if (i == length) {
+			return NOT_TRACE;
+		}
+
+		switch (line.charAt(i)) {
+		case 'a':
+			if (isFrame(line, i)) {
+				return FRAME;
+			}
+			break;
+		case '.':
+			return classifyEllipsis(line, i);
+		case 'C':
+			if (regionMatches(line, i, "Caused by: ")) {
+				return isThrowableHeader(line, i + "Caused by: ".length()) ? CAUSED_BY : NOT_TRACE;
+			}
+			break;
+		case 'S':
+			if (regionMatches(line, i, "Suppressed: ")) {
+				return isThrowableHeader(line, i + "Suppressed: ".length()) ? SUPPRESSED : NOT_TRACE;
+			}
+			break;
+		case 'E':
+			if (regionMatches(line, i, "Exception in thread \"")) {
+				return uncaughtHeaderStart(line, i) >= 0 ? START : NOT_TRACE;
+			}
+			break;
+		}
+		return isThrowableHeader(line, i) ? START : NOT_TRACE;
+	}
+
+	/**
+	 * Determines if a line belongs to a trace that has already started (everything except START).
+	 * 
+	 * @param type
+	 *            The result of classify().
+	 * @return true if the line continues a trace, false otherwise.
+	 */
+	public static boolean isContinuation(int type) {
+		return type > START;
+	}
+
+	/**
+	 * Finds where the fully qualified class name starts in a FRAME line, skipping the class loader and module
+	 * prefixes.
+	 * 
+	 * @param line
+	 *            A line that classify() reported as a FRAME.
+	 * @return The index of the first character of the class name.
+	 */
+	public static int frameClassStart(CharSequence line) {
+		int start = skipWhitespace(line, 0) + "at ".length();
+		int end = frameMethodEnd(line, start);
+		int classStart = start;
+		for (int i = start; i < end; i++) {
+			// Hidden classes (lambdas) look like Foo$$Lambda$14/0x0000000800c03000, which isn't a prefix.
+			if (line.charAt(i) == '/' && !regionMatches(line, i + 1, "0x")) {
+				classStart = i + 1;
+			}
+		}
+		return classStart;
+	}
+
+	/**
+	 * Finds where the fully qualified class name ends in a FRAME line (which is also where the method name starts,
+	 * minus the dot).
+	 * 
+	 * @param line
+	 *            A line that classify() reported as a FRAME.
+	 * @return The index after the last character of the class name.
+	 */
+	public static int frameClassEnd(CharSequence line) {
+		int start = skipWhitespace(line, 0) + "at ".length();
+		int end = frameMethodEnd(line, start);
+		for (int i = end - 1; i > start; i--) {
+			if (line.charAt(i) == '.') {
+				return i;
+			}
+		}
+		return start;
+	}
+
+	/**
+	 * Finds where the Throwable's class name starts and ends in a START, CAUSED_BY or SUPPRESSED line.
+	 * 
+	 * @param line
+	 *            A line that classify() reported as a START, CAUSED_BY or SUPPRESSED.
+	 * @return The start index in the upper 32 bits and the end index in the lower 32 bits, or -1 if the line isn't a
+	 *         header.
+	 */
+	public static long throwableNameBounds(CharSequence line) {
+		int i = skipWhitespace(line, 0);
+		if (regionMatches(line, i, "Caused by: ")) {
+			i += "Caused by: ".length();
+		} else if (regionMatches(line, i, "Suppressed: ")) {
+			i += "Suppressed: ".length();
+		} else if (regionMatches(line, i, "Exception in thread \"")) {
+			i = uncaughtHeaderStart(line, i);
+		}
+		if (i < 0 || !isThrowableHeader(line, i)) {
+			return -1;
+		}
+		return ((long) i << 32) | qualifiedNameEnd(line, i);
+	}
+
+	/**
+	 * Finds where the Throwable's toString() starts in an uncaught exception line (Exception in thread "name" ...).
+	 * Both the thread name and the message can contain quotes, so the name ends at the first quote and space that are
+	 * followed by a Throwable header rather than at the first or the last quote.
+	 * 
+	 * @param line
+	 *            The line.
+	 * @param i
+	 *            The index where "Exception in thread" starts.
+	 * @return The index of the first character of the Throwable's class name or -1 if there isn't one.
+	 */
+	private static int uncaughtHeaderStart(CharSequence line, int i) {
+		int length = line.length();
+		for (int j = i + "Exception in thread \"".length(); j + 1 < length; j++) {
+			if (line.charAt(j) == '"' && line.charAt(j + 1) == ' ' && isThrowableHeader(line, j + 2)) {
+				return j + 2;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Determines if a line (starting at an index) is "at " followed by a method reference in parentheses.
+	 */
+	private static boolean isFrame(CharSequence line, int i) {
+		if (!regionMatches(line, i, "at ")) {
+			return false;
+		}
+		int start = i + "at ".length();
+		int length = line.length();
+		int open = frameMethodEnd(line, start);
+		if (open == start || open == length) {
+			return false;
+		}
+
+		boolean sawDot = false;
+		for (int j = start; j < open; j++) {
+			char c = line.charAt(j);
+			if (c == '.') {
+				sawDot = true;
+			} else if (!isFrameNameChar(c)) {
+				return false;
+			}
+		}
+		if (!sawDot) {
+			return false;
+		}
+
+		// (Foo.java:12), (Native Method), (Unknown Source), etc.
+		int close = open + 1;
+		while (close < length && line.charAt(close) != ')') {
+			if (line.charAt(close) == '(') {
+				return false;
+			}
+			close++;
+		}
+		if (close == length) {
+			return false;
+		}
+
+		// Log4j (and therefore newer CraftBukkit) adds the jar: " ~[craftbukkit.jar:git-Bukkit-1.7.2]" or " [?:?]"
+		int j = skipWhitespace(line, close + 1);
+		if (j == length) {
+			return true;
+		}
+		if (line.charAt(j) == '~') {
+			j++;
+		}
+		return j < length && line.charAt(j) == '[' && line.charAt(length - 1) == ']';
+	}
+
+	/**
+	 * Finds the opening parenthesis that ends the method reference of a frame.
+	 * 
+	 * @return The index of the '(' or the length of the line if there isn't one.
+	 */
+	private static int frameMethodEnd(CharSequence line, int start) {
+		int length = line.length();
+		for (int i = start; i < length; i++) {
+			char c = line.charAt(i);
+			if (c == '(') {
+				return i;
+			} else if (c == ' ') {
+				return length;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Classifies "... N more" and "... N common frames omitted".
+	 */
+	private static int classifyEllipsis(CharSequence line, int i) {
+		if (!regionMatches(line, i, "... ")) {
+			return NOT_TRACE;
+		}
+		int start = i + "... ".length();
+		int end = start;
+		int length = line.length();
+		while (end < length && line.charAt(end) >= '0' && line.charAt(end) <= '9') {
+			end++;
+		}
+		if (end == start) {
+			return NOT_TRACE;
+		}
+		if (regionMatches(line, end, " more") && isBlankFrom(line, end + " more".length())) {
+			return MORE;
+		}
+		if (regionMatches(line, end, " common frames omitted")
+				&& isBlankFrom(line, end + " common frames omitted".length())) {
+			return OMITTED;
+		}
+		return NOT_TRACE;
+	}
+
+	/**
+	 * Determines if a Throwable's toString() starts at an index: a qualified name whose simple name ends with
+	 * Exception, Error or Throwable, followed by either the end of the line or a colon.
+	 */
+	private static boolean isThrowableHeader(CharSequence line, int start) {
+		int length = line.length();
+		if (start >= length || !Character.isJavaIdentifierStart(line.charAt(start))) {
+			return false;
+		}
+		int end = qualifiedNameEnd(line, start);
+		if (end < length && line.charAt(end) != ':') {
+			return false;
+		}
+		return regionEndsWith(line, start, end, "Exception") || regionEndsWith(line, start, end, "Error")
+				|| regionEndsWith(line, start, end, "Throwable");
+	}
+
+	/**
+	 * Finds the end of a run of Java identifier characters and dots.
+	 */
+	private static int qualifiedNameEnd(CharSequence line, int start) {
+		int length = line.length();
+		int end = start;
+		while (end < length) {
+			char c = line.charAt(end);
+			if (c != '.' && !Character.isJavaIdentifierPart(c)) {
+				break;
+			}
+			end++;
+		}
+		return end;
+	}
+
+	/**
+	 * Characters that may appear between "at " and "(": identifiers, dots, &lt;init&gt;, and class loader/module
+	 * prefixes such as app// or java.base@17.0.1/
+	 */
+	private static boolean isFrameNameChar(char c) {
+		return Character.isJavaIdentifierPart(c) || c == '/' || c == '<' || c == '>' || c == '@' || c == '-'
+				|| c == '+';
+	}
+
+	private static int skipWhitespace(CharSequence line, int i) {
+		int length = line.length();
+		while (i < length && (line.charAt(i) == ' ' || line.charAt(i) == '\t')) {
+			i++;
+		}
+		return i;
+	}
+
+	private static boolean isBlankFrom(CharSequence line, int i) {
+		return skipWhitespace(line, i) == line.length();
+	}
+
+	private static boolean regionMatches(CharSequence line, int offset, String expected) {
+		int count = expected.length();
+		if (offset < 0 || offset + count > line.length()) {
+			return false;
+		}
+		for (int i = 0; i < count; i++) {
+			if (line.charAt(offset + i) != expected.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean regionEndsWith(CharSequence line, int start, int end, String suffix) {
+		return end - start >= suffix.length() && regionMatches(line, end - suffix.length(), suffix);
+	}
+}
@@ -2,11 +2,10 @@ package com.sammarder.iheartdevs.traceprocessing;
 
 import java.util.List;
 
-import org.bukkit.Bukkit;
 import org.bukkit.plugin.Plugin;
 
-import com.sammarder.iheartdevs.InputProcessingException;
 import com.sammarder.iheartdevs.Utilities;
+import com.sammarder.iheartdevs.metrics.PipelineMetrics;
 
 /**
  * Gathers and stores info related to a specific stack trace. Because this information changes for every stack trace, a
@@ -14,39 +13,53 @@ import com.sammarder.iheartdevs.Utilities;
  */
 public class TraceMetaInfo {
 	private Plugin plugin;
+	private int traceId;
 	private String fileLoc;
 
 	/**
-	 * Constructs a new TraceMetaInfo object for a given "ad hoc" trace and the name of the file it's stored in.
+	 * Constructs a new TraceMetaInfo object for a trace that has already been attributed and saved.
+	 * 
+	 * @param plugin
+	 *            The plugin that caused the trace (see findPlugin()) or null if it is unknown.
+	 * @param traceId
+	 *            The ID the trace was saved with.
+	 * @param location
+	 *            Where in the trace store the trace is, such as "/path/to/traces-00000000.seg (ID 12)".
+	 */
+	public TraceMetaInfo(Plugin plugin, int traceId, String location) {
+		this.plugin = plugin;
+		this.traceId = traceId;
+		this.fileLoc = location;
+	}
+
+	/**
+	 * Determines what plugin caused an "ad hoc" trace. This only needs the lines, so it can happen before the trace is
+	 * saved (or instead of saving it).
 	 * 
 	 * @param trace
 	 *            The series of strings that composes the stack trace.
-	 * @param qualifiedFileName
-	 *            The full path to the file where the trace is stored.
+	 * @param classIndex
+	 *            The index used to figure out which plugin each line of the trace came from.
+	 * @return The plugin that caused the trace or null if it is unknown.
 	 */
-	public TraceMetaInfo(List<String> trace, String qualifiedFileName) {
-		this.fileLoc = qualifiedFileName;
-
+	public static Plugin findPlugin(List<String> trace, PluginClassIndex classIndex) {
+		long start = System.nanoTime();
+		Plugin culprit = null;
 		for (String s : trace) {
 			String className = getQualifiedClassNameFromStackTrace(s);
 			if (className == null) {
 				continue;
 			}
 
-			Plugin plugin = getPluginFromQualifiedClassName(className);
+			Plugin plugin = classIndex.getPlugin(className);
 			if (plugin == null) {
 				continue;
 			}
 
-			this.plugin = plugin;
-		}
-		StringBuilder exceptionMessage = new StringBuilder();
-		exceptionMessage.append("Could not process the following exception: ");
-		for (String line : trace) {
-			// Wrap lines in '~' to prevent them from being parsed like an exception.
-			exceptionMessage.append("\n~" + line + "~");
+			culprit = plugin;
 		}
-		new InputProcessingException(exceptionMessage.toString());
+		PipelineMetrics.ATTRIBUTION_TIME.record(System.nanoTime() - start);
+		return culprit;
 	}
 
 	/**
@@ -68,10 +81,22 @@ public class TraceMetaInfo {
 	}
 
 	/**
-	 * Gets the file that the stack trace has been exported to.
+	 * Gets the ID of the error log the stack trace was saved as. This is what /ihd view and /ihd publish take.
+	 * 
+	 * @return The ID of the error log.
+	 */
+	public int getTraceId() {
+		return traceId;
+	}
+
+	/**
+	 * Gets where the stack trace has been saved. Error logs are no longer files of their own, so this is the segment
+	 * file of the trace store that holds it, followed by its ID: "/path/to/traces-00000000.seg (ID 12)".
 	 * 
-	 * @return The file name with full path where the stack trace is.
+	 * @return A description of where the stack trace is, which is not the name of a file.
+	 * @deprecated Use getTraceId() to refer to the error log.
 	 */
+	@Deprecated
 	public String getFile() {
 		return fileLoc;
 	}
@@ -85,45 +110,11 @@ public class TraceMetaInfo {
 	 *         a line of code at all. Otherwise, returns the plugin object that the line references.
 	 */
 	private static String getQualifiedClassNameFromStackTrace(String line) {
-		// A bunch of things could go wrong, so just pokemon exception handle them.
-		try {
-			line = line.trim();
-			if (line.startsWith("at ")) {
-				int endPos = line.lastIndexOf('(');
-				int startPos = "at ".length();
-				// Contains the fully qualified class with a method at the end.
-				line = line.substring(startPos, endPos);
-				// Contains just the fully qualified class name.
-				line = line.substring(0, line.lastIndexOf('.'));
-				// Can return null if the line is referencing a library like Bukkit, Java, Minecraft, etc.
-				return line;
-			} else {
-				return null;
-			}
-		} catch (Exception e) {
-			// Something went wrong with parsing, but it doesn't matter.
+		if (TraceLineClassifier.classify(line) != TraceLineClassifier.FRAME) {
 			return null;
 		}
-	}
-
-	/**
-	 * Determines what plugin a (fully qualified) class name came from.
-	 * 
-	 * @param qualifiedClass
-	 * @return The plugin associated with
-	 */
-	private static Plugin getPluginFromQualifiedClassName(String qualifiedClass) {
-		// com.sammarder.iheartdevs.IHeartDevs to com/sammarder/iheartdevs/IHeartDevs
-		qualifiedClass = qualifiedClass.replace('.', '/');
-		for (Plugin plugin : Bukkit.getPluginManager().getPlugins()) {
-			try {
-				if (plugin.getResource(qualifiedClass) != null) {
-					return plugin;
-				}
-			} catch (Exception e) {
-				// I am trying every plugin so a bunch of them will Exception.
-			}
-		}
-		return null;
+		// Contains just the fully qualified class name (without the method or any module prefix).
+		// This can be a library like Bukkit, Java, Minecraft, etc.
+		return line.substring(TraceLineClassifier.frameClassStart(line), TraceLineClassifier.frameClassEnd(line));
 	}
 }
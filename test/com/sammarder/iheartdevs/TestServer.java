@@ -0,0 +1,50 @@
+package com.sammarder.iheartdevs;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.logging.Logger;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+
+/**
+ * The least a Bukkit server has to do for tests: it has a logger (so IHeartDevs.log() works) and every other method
+ * returns null (or false or 0).
+ */
+public class TestServer {
+	private static final Logger logger = Logger.getLogger("TestServer");
+
+	// Instantiation is forbidden
+	private TestServer() {
+	}
+
+	/**
+	 * Makes the test server the one Bukkit.getServer() returns, unless there already is a server.
+	 */
+	public static synchronized void install() {
+		if (Bukkit.getServer() != null) {
+			return;
+		}
+		Bukkit.setServer((Server) Proxy.newProxyInstance(Server.class.getClassLoader(), new Class<?>[] { Server.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						if (method.getName().equals("getLogger")) {
+							return logger;
+						} else if (method.getName().equals("getName")) {
+							return "TestServer";
+						}
+						Class<?> type = method.getReturnType();
+						if (type == boolean.class) {
+							return false;
+						} else if (type == int.class) {
+							return 0;
+						} else if (type == long.class) {
+							return 0L;
+						}
+						return null;
+					}
+				}));
+	}
+}
@@ -0,0 +1,26 @@
+package com.sammarder.iheartdevs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class TraceSelectorTest {
+	@Test
+	public void selectsIdsAndRanges() throws InputProcessingException {
+		assertArrayEquals(new int[] { 3, 7, 10, 11, 12 }, TraceSelector.select("12-10, 7,3", null));
+	}
+
+	@Test
+	public void formatsRunsAsRanges() {
+		assertEquals("5", TraceSelector.format(new int[] { 5 }));
+		assertEquals("10-15,18", TraceSelector.format(new int[] { 10, 11, 12, 13, 14, 15, 18 }));
+		assertEquals("1,3,5-6", TraceSelector.format(new int[] { 1, 3, 5, 6 }));
+	}
+
+	@Test
+	public void formatIsTheInverseOfSelect() throws InputProcessingException {
+		int[] ids = { 2, 4, 5, 6, 9, 20, 21 };
+		assertArrayEquals(ids, TraceSelector.select(TraceSelector.format(ids), null));
+	}
+}
@@ -0,0 +1,87 @@
+package com.sammarder.iheartdevs.storage;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sammarder.iheartdevs.TestServer;
+
+public class TraceStoreTest {
+	private File directory;
+	private TraceStore store;
+
+	@Before
+	public void setUp() throws IOException {
+		TestServer.install();
+		directory = File.createTempFile("ihd-store", "");
+		directory.delete();
+		directory.mkdir();
+	}
+
+	@After
+	public void tearDown() {
+		if (store != null) {
+			store.close(5000);
+		}
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void streamedLogMatchesReadLog() throws IOException {
+		assertStreamsLikeRead(false);
+	}
+
+	@Test
+	public void streamedCompressedLogMatchesReadLog() throws IOException {
+		assertStreamsLikeRead(true);
+	}
+
+	@Test
+	public void appendedLogHasItsSessionDetails() throws IOException {
+		store = new TraceStore(directory, 1024 * 1024, false);
+		int session = store.startSession("Server: Test\n");
+		StoredTrace stored = store.append(SessionLog.SESSION_LINE + session + "\njava.lang.Exception: Oops\n", 1000);
+		assertEquals("Server: Test\njava.lang.Exception: Oops\n", stored.getContents());
+		assertEquals(store.read(stored.getId()).getContents(), stored.getContents());
+	}
+
+	private void assertStreamsLikeRead(boolean compress) throws IOException {
+		store = new TraceStore(directory, 1024 * 1024, compress);
+		int session = store.startSession("Server: Test\n");
+		StringBuilder trace = new StringBuilder("java.lang.IllegalStateException: \u00e9t\u00e9\n");
+		for (int i = 0; i < 2000; i++) {
+			trace.append("\tat com.example.Plugin.method").append(i).append("(Plugin.java:").append(i).append(")\n");
+		}
+		int id = store.append(SessionLog.SESSION_LINE + session + "\n" + trace, 1000).getId();
+		int plain = store.append("No session here\n" + trace, 2000).getId();
+
+		assertEquals("Server: Test\n" + trace, read(store.openStream(id)));
+		assertEquals(store.read(id).getContents(), read(store.openStream(id)));
+		assertEquals("No session here\n" + trace, read(store.openStream(plain)));
+		assertEquals(null, store.openStream(plain + 1));
+	}
+
+	private static String read(InputStream is) throws IOException {
+		try {
+			ByteArrayOutputStream os = new ByteArrayOutputStream();
+			byte[] buffer = new byte[100];
+			int count;
+			while ((count = is.read(buffer)) >= 0) {
+				os.write(buffer, 0, count);
+			}
+			return os.toString("UTF-8");
+		} finally {
+			is.close();
+		}
+	}
+}
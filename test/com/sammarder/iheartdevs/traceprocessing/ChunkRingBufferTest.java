@@ -0,0 +1,59 @@
+package com.sammarder.iheartdevs.traceprocessing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.sammarder.iheartdevs.traceprocessing.ChunkRingBuffer.OverflowPolicy;
+
+public class ChunkRingBufferTest {
+	@Test
+	public void consumerNeverBlocksOnItselfBeforeItWasIdle() {
+		ChunkRingBuffer buffer = new ChunkRingBuffer(2, OverflowPolicy.BLOCK, 10 * 1000);
+		buffer.setConsumer(Thread.currentThread());
+		assertTrue(buffer.publish("first"));
+		assertTrue(buffer.publish("second"));
+
+		long start = System.nanoTime();
+		assertFalse(buffer.publish("third"));
+		assertTrue(System.nanoTime() - start < 1000 * 1000 * 1000);
+		assertEquals(1, buffer.getDroppedNewest());
+	}
+
+	@Test
+	public void publisherWaitsForRoom() throws InterruptedException {
+		final ChunkRingBuffer buffer = new ChunkRingBuffer(2, OverflowPolicy.BLOCK, 10 * 1000);
+		buffer.setConsumer(new Thread());
+		buffer.publish("first");
+		buffer.publish("second");
+		Thread reader = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+				}
+				buffer.poll(null);
+			}
+		};
+		reader.start();
+		assertTrue(buffer.publish("third"));
+		reader.join();
+		assertEquals(0, buffer.getDroppedChunks());
+	}
+
+	@Test
+	public void dropOldestKeepsNewestChunks() {
+		ChunkRingBuffer buffer = new ChunkRingBuffer(2, OverflowPolicy.DROP_OLDEST, 0);
+		buffer.publish("first");
+		buffer.publish("second");
+		buffer.publish("third");
+		LineBuffer line = new LineBuffer(16);
+		assertSame(Thread.currentThread(), buffer.poll(line));
+		assertEquals("second", line.toString());
+		assertEquals(1, buffer.getDroppedOldest());
+	}
+}
@@ -0,0 +1,75 @@
+package com.sammarder.iheartdevs.traceprocessing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Test;
+
+import com.sammarder.iheartdevs.IRemindable;
+import com.sammarder.iheartdevs.traceprocessing.CompletionWheel.Deadline;
+
+public class CompletionWheelTest {
+	@Test
+	public void remindsOnceAfterTheQuietPeriod() throws InterruptedException {
+		CompletionWheel wheel = new CompletionWheel(1, 64);
+		Counter counter = new Counter();
+		try {
+			Deadline deadline = wheel.newDeadline(counter, 20);
+			deadline.touch();
+			deadline.touch();
+			Thread.sleep(200);
+			assertEquals(1, counter.count.get());
+
+			deadline.touch();
+			Thread.sleep(200);
+			assertEquals(2, counter.count.get());
+		} finally {
+			wheel.shutdown(1000);
+		}
+	}
+
+	@Test
+	public void touchingWhileExpiringNeverLeavesTheDeadlineStuck() throws InterruptedException {
+		CompletionWheel wheel = new CompletionWheel(1, 64);
+		Counter counter = new Counter();
+		try {
+			final Deadline deadline = wheel.newDeadline(counter, 2);
+			// Touch about once per quiet period, so many touches land right while the wheel is expiring the deadline.
+			Random random = new Random(42);
+			int touches = 0;
+			long end = System.nanoTime() + 500L * 1000 * 1000;
+			while (System.nanoTime() < end) {
+				deadline.touch();
+				touches++;
+				LockSupport.parkNanos(1500 * 1000 + random.nextInt(1000 * 1000));
+			}
+
+			Thread.sleep(100);
+			int reminded = counter.count.get();
+			assertTrue(reminded >= 1 && reminded <= touches);
+			// Nothing is left queued to fire again later.
+			Thread.sleep(100);
+			assertEquals(reminded, counter.count.get());
+
+			// And it still works.
+			deadline.touch();
+			Thread.sleep(100);
+			assertEquals(reminded + 1, counter.count.get());
+		} finally {
+			wheel.shutdown(1000);
+		}
+	}
+
+	private static class Counter implements IRemindable {
+		final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public void remind() {
+			count.incrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package com.sammarder.iheartdevs.traceprocessing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local, in-process stand-in for the sites that logs are published to. Every request is answered with the next
+ * queued Response (or the default one once the queue is empty) and remembered, so tests can check what was sent and
+ * over which connection.
+ */
+public class FakeHttpServer {
+	private final HttpServer server;
+	private final BlockingQueue<Response> responses = new LinkedBlockingQueue<Response>();
+	private final List<Request> requests = new CopyOnWriteArrayList<Request>();
+	private volatile Response defaultResponse = new Response(404, "");
+
+	/**
+	 * Constructor for creating a new FakeHttpServer. It listens on a free port of the loopback address right away.
+	 * 
+	 * @throws IOException
+	 *             If the server could not be started.
+	 */
+	public FakeHttpServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				answer(exchange);
+			}
+		});
+		server.start();
+	}
+
+	/**
+	 * Gets the URL of a path on this server.
+	 * 
+	 * @param path
+	 *            The path, starting with a slash.
+	 * @return The URL.
+	 */
+	public String getUrl(String path) {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+	}
+
+	/**
+	 * Queues the answer to a future request. Requests are answered in the order the answers were queued.
+	 * 
+	 * @param response
+	 *            The answer.
+	 */
+	public void enqueue(Response response) {
+		responses.add(response);
+	}
+
+	/**
+	 * Sets the answer to every request once the queue is empty. This is a 404 unless it is changed.
+	 * 
+	 * @param response
+	 *            The answer.
+	 */
+	public void setDefaultResponse(Response response) {
+		defaultResponse = response;
+	}
+
+	/**
+	 * @return Every request so far, in the order they arrived.
+	 */
+	public List<Request> getRequests() {
+		return new ArrayList<Request>(requests);
+	}
+
+	/**
+	 * Stops the server.
+	 */
+	public void stop() {
+		server.stop(0);
+	}
+
+	private void answer(HttpExchange exchange) throws IOException {
+		// The whole request has to be read for the connection to be kept alive.
+		byte[] body = readFully(exchange.getRequestBody());
+		requests.add(new Request(exchange.getRequestMethod(), exchange.getRequestURI().toString(), exchange
+				.getRequestHeaders(), new String(body, "UTF-8"), exchange.getRemoteAddress().getPort()));
+
+		Response response = responses.poll();
+		if (response == null) {
+			response = defaultResponse;
+		}
+		for (Map.Entry<String, String> header : response.headers.entrySet()) {
+			exchange.getResponseHeaders().set(header.getKey(), header.getValue());
+		}
+		byte[] bytes = response.body.getBytes("UTF-8");
+		boolean noBody = bytes.length == 0 || exchange.getRequestMethod().equals("HEAD");
+		exchange.sendResponseHeaders(response.status, noBody ? -1 : bytes.length);
+		OutputStream os = exchange.getResponseBody();
+		if (!noBody) {
+			os.write(bytes);
+		}
+		os.close();
+	}
+
+	private static byte[] readFully(InputStream is) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int count;
+		while ((count = is.read(buffer)) >= 0) {
+			bytes.write(buffer, 0, count);
+		}
+		is.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * A request the server got.
+	 */
+	public static class Request {
+		private final String method;
+		private final String path;
+		private final Headers headers;
+		private final String body;
+		private final int clientPort;
+		private final long time = System.currentTimeMillis();
+
+		Request(String method, String path, Headers headers, String body, int clientPort) {
+			this.method = method;
+			this.path = path;
+			this.headers = headers;
+			this.body = body;
+			this.clientPort = clientPort;
+		}
+
+		/**
+		 * @return The HTTP method.
+		 */
+		public String getMethod() {
+			return method;
+		}
+
+		/**
+		 * @return The path (and query) that was requested.
+		 */
+		public String getPath() {
+			return path;
+		}
+
+		/**
+		 * @param name
+		 *            The name of the header (case doesn't matter).
+		 * @return The first value of the header or null if it wasn't sent.
+		 */
+		public String getHeader(String name) {
+			return headers.getFirst(name);
+		}
+
+		/**
+		 * @return The body, decoded as UTF-8.
+		 */
+		public String getBody() {
+			return body;
+		}
+
+		/**
+		 * @return The port the client connected from. Requests sent over the same connection have the same one.
+		 */
+		public int getClientPort() {
+			return clientPort;
+		}
+
+		/**
+		 * @return When (in milliseconds) the request arrived.
+		 */
+		public long getTime() {
+			return time;
+		}
+	}
+
+	/**
+	 * An answer to a request.
+	 */
+	public static class Response {
+		private final int status;
+		private final String body;
+		private final Map<String, String> headers = new LinkedHashMap<String, String>();
+
+		/**
+		 * Constructor for creating a new Response.
+		 * 
+		 * @param status
+		 *            The HTTP status code.
+		 * @param body
+		 *            The body (sent as UTF-8), which may be empty.
+		 */
+		public Response(int status, String body) {
+			this.status = status;
+			this.body = body;
+		}
+
+		/**
+		 * Adds a header to the answer.
+		 * 
+		 * @param name
+		 *            The name of the header.
+		 * @param value
+		 *            Its value.
+		 * @return This answer.
+		 */
+		public Response header(String name, String value) {
+			headers.put(name, value);
+			return this;
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package com.sammarder.iheartdevs.traceprocessing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FingerprintIndexTest {
+	private File directory;
+	private File file;
+	private File journalFile;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = File.createTempFile("ihd-fingerprints", "");
+		directory.delete();
+		directory.mkdir();
+		file = new File(directory, "fingerprints.dat");
+		journalFile = new File(directory, "fingerprints-journal.dat");
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+		journalFile.delete();
+		directory.delete();
+	}
+
+	@Test
+	public void newTracesAreJournaledInsteadOfRewritingTheFile() {
+		FingerprintIndex index = new FingerprintIndex(file, journalFile);
+		for (int i = 0; i < 100; i++) {
+			index.add(i, i, 1000 + i, i % 2 == 0 ? "Plugin" : null);
+		}
+		assertFalse(file.exists());
+		assertEquals(100 * (8 + 4 + 8 + 2) + 50 * "Plugin".length(), journalFile.length());
+
+		index.save();
+		assertTrue(file.exists());
+		assertFalse(journalFile.exists());
+	}
+
+	@Test
+	public void journalIsReplayedAfterACrash() {
+		FingerprintIndex index = new FingerprintIndex(file, journalFile);
+		index.add(1, 10, 1000, "Plugin");
+		index.save();
+		index.add(2, 11, 2000, null);
+		assertTrue(index.recordRepeat(2, 3000));
+
+		// Nothing saved the repeat, but the new trace is in the journal.
+		FingerprintIndex reopened = new FingerprintIndex(file, journalFile);
+		assertEquals("Plugin", reopened.getByTraceId(10).getPlugin());
+		FingerprintIndex.Occurrence occurrence = reopened.getByFingerprint(2);
+		assertEquals(11, occurrence.getTraceId());
+		assertEquals(1, occurrence.getCount());
+		assertNull(occurrence.getPlugin());
+		assertTrue(reopened.recordRepeat(2, 4000));
+		// The journal was merged into the file when it was opened.
+		assertFalse(journalFile.exists());
+	}
+}
@@ -0,0 +1,112 @@
+package com.sammarder.iheartdevs.traceprocessing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.craftbukkit.libs.com.google.gson.JsonObject;
+import org.bukkit.craftbukkit.libs.com.google.gson.JsonParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sammarder.iheartdevs.storage.StoredTrace;
+import com.sammarder.iheartdevs.traceprocessing.FakeHttpServer.Request;
+import com.sammarder.iheartdevs.traceprocessing.FakeHttpServer.Response;
+
+public class GistLogPublisherTest {
+	// Everything the JSON encoder has to escape, plus characters outside of ASCII and the BMP.
+	private static final String AWKWARD = "java.lang.NumberFormatException: For input string: \"abc\"\r\n"
+			+ "\tat C:\\plugins\\Foo.java\b\f\u0001\u001f caf\u00e9 \u20ac \ud83d\ude00";
+
+	private FakeHttpServer server;
+	private GistLogPublisher publisher;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new FakeHttpServer();
+		publisher = new GistLogPublisher(server.getUrl("/gists"), new HttpTransport(2000, 2000));
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+	}
+
+	@Test
+	public void sendsEveryLogAsAFileOfOneGist() throws Exception {
+		server.enqueue(new Response(201, "{\"id\": \"abc\", \"html_url\": \"https://gist.github.com/abc\"}"));
+		Map<String, StoredTrace> logs = new LinkedHashMap<String, StoredTrace>();
+		logs.put("Stacktrace-1", new StoredTrace(1, 0, AWKWARD, null));
+		logs.put("Stacktrace-2", new StoredTrace(2, 0, repeat("x", 20000), null));
+
+		assertEquals("https://gist.github.com/abc", publisher.publish("Bug \"Report\"", logs));
+
+		Request request = server.getRequests().get(0);
+		assertEquals("POST", request.getMethod());
+		assertEquals("/gists", request.getPath());
+		assertEquals("application/json; charset=UTF-8", request.getHeader("Content-Type"));
+		assertEquals("chunked", request.getHeader("Transfer-Encoding"));
+		JsonObject gist = new JsonParser().parse(request.getBody()).getAsJsonObject();
+		assertEquals("Bug \"Report\"", gist.get("description").getAsString());
+		assertTrue(gist.get("public").getAsBoolean());
+		JsonObject files = gist.getAsJsonObject("files");
+		assertEquals(2, files.entrySet().size());
+		assertEquals(AWKWARD, files.getAsJsonObject("Stacktrace-1").get("content").getAsString());
+		assertEquals(repeat("x", 20000), files.getAsJsonObject("Stacktrace-2").get("content").getAsString());
+	}
+
+	@Test
+	public void answerWithoutALinkIsNotRetried() {
+		server.enqueue(new Response(201, "{\"id\": \"abc\"}"));
+		try {
+			publisher.publish("Bug Report", single("java.lang.Exception"));
+			fail();
+		} catch (PublishException e) {
+			assertFalse(e.isRetryable());
+		}
+	}
+
+	@Test
+	public void connectionIsReusedBetweenPublishes() throws Exception {
+		server.enqueue(new Response(201, "{\"html_url\": \"https://gist.github.com/1\"}"));
+		server.enqueue(new Response(503, "Service Unavailable"));
+		server.enqueue(new Response(201, "{\"html_url\": \"https://gist.github.com/2\"}"));
+		server.enqueue(new Response(200, ""));
+
+		publisher.publish("Bug Report", single("java.lang.Exception"));
+		try {
+			publisher.publish("Bug Report", single("java.lang.Exception"));
+			fail();
+		} catch (PublishException e) {
+			assertTrue(e.isRetryable());
+		}
+		publisher.publish("Bug Report", single("java.lang.Exception"));
+		assertTrue(publisher.exists(server.getUrl("/1")));
+
+		List<Request> requests = server.getRequests();
+		assertEquals(4, requests.size());
+		for (Request request : requests) {
+			assertEquals(requests.get(0).getClientPort(), request.getClientPort());
+		}
+	}
+
+	private static Map<String, StoredTrace> single(String contents) {
+		Map<String, StoredTrace> logs = new LinkedHashMap<String, StoredTrace>();
+		logs.put("Stacktrace", new StoredTrace(1, 0, contents, null));
+		return logs;
+	}
+
+	private static String repeat(String s, int count) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			sb.append(s);
+		}
+		return sb.toString();
+	}
+}
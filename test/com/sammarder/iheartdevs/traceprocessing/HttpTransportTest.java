@@ -0,0 +1,101 @@
+package com.sammarder.iheartdevs.traceprocessing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.Writer;
+import java.net.HttpURLConnection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sammarder.iheartdevs.traceprocessing.FakeHttpServer.Response;
+
+public class HttpTransportTest {
+	private FakeHttpServer server;
+	private HttpTransport transport;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new FakeHttpServer();
+		transport = new HttpTransport(2000, 2000);
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+	}
+
+	@Test
+	public void serverErrorsAreRetryable() {
+		server.enqueue(new Response(503, "Service Unavailable"));
+		PublishException e = post();
+		assertTrue(e.isRetryable());
+		assertEquals(0, e.getRetryAfter());
+	}
+
+	@Test
+	public void tooManyRequestsIsRetryableAfterTheTimeTheSiteAskedFor() {
+		server.enqueue(new Response(429, "Slow down").header("Retry-After", "120"));
+		PublishException e = post();
+		assertTrue(e.isRetryable());
+		assertEquals(120000, e.getRetryAfter());
+		assertTrue(e.getMessage().contains("rate limited"));
+	}
+
+	@Test
+	public void exhaustedRateLimitIsRetryableAfterTheReset() {
+		long reset = System.currentTimeMillis() / 1000 + 60;
+		server.enqueue(new Response(403, "{\"message\": \"API rate limit exceeded\"}").header("X-RateLimit-Remaining",
+				"0").header("X-RateLimit-Reset", String.valueOf(reset)));
+		PublishException e = post();
+		assertTrue(e.isRetryable());
+		assertTrue(e.getRetryAfter() > 55000 && e.getRetryAfter() <= 60000);
+	}
+
+	@Test
+	public void clientErrorsAreNotRetryable() {
+		server.enqueue(new Response(400, "Bad Request"));
+		assertFalse(post().isRetryable());
+	}
+
+	@Test
+	public void existsUsesHeadAndTreatsMissingAsGone() throws Exception {
+		server.enqueue(new Response(200, "ignored"));
+		server.enqueue(new Response(404, "Not Found"));
+		server.enqueue(new Response(410, ""));
+		assertTrue(transport.exists(server.getUrl("/a")));
+		assertFalse(transport.exists(server.getUrl("/b")));
+		assertFalse(transport.exists(server.getUrl("/c")));
+		assertEquals("HEAD", server.getRequests().get(0).getMethod());
+
+		server.enqueue(new Response(500, ""));
+		try {
+			transport.exists(server.getUrl("/d"));
+			fail();
+		} catch (PublishException e) {
+			assertTrue(e.isRetryable());
+		}
+	}
+
+	/**
+	 * POSTs a small body and expects the answer to be an error.
+	 */
+	private PublishException post() {
+		try {
+			HttpURLConnection connection = transport.openPost(server.getUrl("/"), "text/plain");
+			Writer os = transport.getWriter(connection);
+			os.write("body");
+			os.close();
+			transport.getResponse(connection);
+		} catch (PublishException e) {
+			return e;
+		} catch (Exception e) {
+			throw new AssertionError(e);
+		}
+		throw new AssertionError("The error was not reported");
+	}
+}
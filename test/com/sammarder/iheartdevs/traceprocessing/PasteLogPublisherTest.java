@@ -0,0 +1,86 @@
+package com.sammarder.iheartdevs.traceprocessing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.URLDecoder;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sammarder.iheartdevs.storage.StoredTrace;
+import com.sammarder.iheartdevs.traceprocessing.FakeHttpServer.Request;
+import com.sammarder.iheartdevs.traceprocessing.FakeHttpServer.Response;
+
+public class PasteLogPublisherTest {
+	private FakeHttpServer server;
+	private HttpTransport transport;
+	private Map<String, StoredTrace> logs;
+	private String document;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new FakeHttpServer();
+		transport = new HttpTransport(2000, 2000);
+		// Long enough to be form encoded in several pieces, with a surrogate pair right where the first piece ends.
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 4095; i++) {
+			sb.append('a');
+		}
+		String longLog = sb.append("\ud83d\ude00 & = + % caf\u00e9").toString();
+		logs = new LinkedHashMap<String, StoredTrace>();
+		logs.put("Stacktrace-1", new StoredTrace(1, 0, "java.lang.Exception: \"quoted\"", null));
+		logs.put("Stacktrace-2", new StoredTrace(2, 0, longLog, null));
+		document = "Bug Report\n\n===== Stacktrace-1 =====\njava.lang.Exception: \"quoted\"\n===== Stacktrace-2 =====\n"
+				+ longLog;
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+	}
+
+	@Test
+	public void sendsTheRawDocumentAndAnswersWithTheLink() throws Exception {
+		server.enqueue(new Response(200, "https://paste.example/abc\n"));
+		PasteLogPublisher publisher = new PasteLogPublisher(server.getUrl("/"), "", "", "", transport);
+
+		assertEquals("https://paste.example/abc", publisher.publish("Bug Report", logs));
+		Request request = server.getRequests().get(0);
+		assertEquals("POST", request.getMethod());
+		assertEquals("text/plain; charset=UTF-8", request.getHeader("Content-Type"));
+		assertEquals(document, request.getBody());
+	}
+
+	@Test
+	public void sendsAFormFieldAndPutsTheKeyIntoTheViewUrl() throws Exception {
+		server.enqueue(new Response(200, "{\"key\": \"xyz\"}"));
+		PasteLogPublisher publisher = new PasteLogPublisher(server.getUrl("/documents"), "content", "key",
+				"https://paste.example/%s", transport);
+
+		assertEquals("https://paste.example/xyz", publisher.publish("Bug Report", logs));
+		Request request = server.getRequests().get(0);
+		assertEquals("/documents", request.getPath());
+		assertEquals("application/x-www-form-urlencoded; charset=UTF-8", request.getHeader("Content-Type"));
+		assertTrue(request.getBody().startsWith("content="));
+		assertEquals(document, URLDecoder.decode(request.getBody().substring("content=".length()), "UTF-8"));
+	}
+
+	@Test
+	public void answerWithoutTheFieldIsNotRetried() {
+		server.enqueue(new Response(200, "{\"message\": \"Document exceeds maximum length.\"}"));
+		PasteLogPublisher publisher = new PasteLogPublisher(server.getUrl("/documents"), "", "key",
+				"https://paste.example/%s", transport);
+		try {
+			publisher.publish("Bug Report", logs);
+			fail();
+		} catch (PublishException e) {
+			assertFalse(e.isRetryable());
+		}
+	}
+}
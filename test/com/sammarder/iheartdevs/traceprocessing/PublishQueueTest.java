@@ -0,0 +1,128 @@
+package com.sammarder.iheartdevs.traceprocessing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sammarder.iheartdevs.FolderManager;
+import com.sammarder.iheartdevs.TestServer;
+import com.sammarder.iheartdevs.storage.TraceStore;
+import com.sammarder.iheartdevs.traceprocessing.FakeHttpServer.Request;
+import com.sammarder.iheartdevs.traceprocessing.FakeHttpServer.Response;
+
+public class PublishQueueTest {
+	private static final String GIST = "{\"html_url\": \"https://gist.github.com/abc\"}";
+
+	private File directory;
+	private File outbox;
+	private FakeHttpServer server;
+	private TraceStore store;
+	private PublishQueue queue;
+	private int traceId;
+
+	@Before
+	public void setUp() throws IOException {
+		TestServer.install();
+		directory = File.createTempFile("ihd-publish", "");
+		directory.delete();
+		directory.mkdir();
+		outbox = new File(directory, "outbox");
+		server = new FakeHttpServer();
+		File storeDirectory = new File(directory, "store");
+		storeDirectory.mkdir();
+		store = new TraceStore(storeDirectory, 1024 * 1024, false);
+		traceId = store.append("java.lang.Exception: Oops", 1000).getId();
+		FolderManager folderManager = new FolderManager(directory, store, new ErrorFileFilter(),
+				new ErrorFileComparator<File>());
+		queue = new PublishQueue(null, folderManager, new GistLogPublisher(server.getUrl("/gists"),
+				new HttpTransport(2000, 2000)), new PublishCache(new File(directory, "published.dat"), 60000),
+				outbox, 1, 3);
+		queue.start();
+	}
+
+	@After
+	public void tearDown() {
+		queue.shutdown(5000);
+		store.close(5000);
+		server.stop();
+		delete(directory);
+	}
+
+	@Test
+	public void serverErrorIsRetriedWithBackoff() throws InterruptedException {
+		server.enqueue(new Response(503, "Service Unavailable"));
+		server.enqueue(new Response(201, GIST));
+		queue.submit(new int[] { traceId }, null, false);
+
+		awaitEmptyOutbox(10000);
+		List<Request> requests = server.getRequests();
+		assertEquals(2, requests.size());
+		// The first retry waits BASE_DELAY plus up to half of that.
+		long gap = requests.get(1).getTime() - requests.get(0).getTime();
+		assertTrue("Retried after " + gap + " ms", gap >= 2000 - 50 && gap < 3000 + 1000);
+	}
+
+	@Test
+	public void rateLimitWaitsAsLongAsTheSiteAsked() throws InterruptedException {
+		server.enqueue(new Response(429, "Slow down").header("Retry-After", "3"));
+		server.enqueue(new Response(201, GIST));
+		queue.submit(new int[] { traceId }, null, false);
+
+		awaitEmptyOutbox(10000);
+		List<Request> requests = server.getRequests();
+		assertEquals(2, requests.size());
+		long gap = requests.get(1).getTime() - requests.get(0).getTime();
+		assertTrue("Retried after " + gap + " ms", gap >= 3000 - 50);
+	}
+
+	@Test
+	public void clientErrorIsNotRetried() throws InterruptedException {
+		server.setDefaultResponse(new Response(422, "Validation Failed"));
+		queue.submit(new int[] { traceId }, null, false);
+
+		awaitEmptyOutbox(5000);
+		Thread.sleep(500);
+		assertEquals(1, server.getRequests().size());
+	}
+
+	@Test
+	public void waitingRetryStaysInTheOutboxOnShutdown() throws InterruptedException {
+		server.setDefaultResponse(new Response(429, "Slow down").header("Retry-After", "60"));
+		queue.submit(new int[] { traceId }, null, false);
+		while (server.getRequests().isEmpty()) {
+			Thread.sleep(10);
+		}
+
+		long start = System.currentTimeMillis();
+		queue.shutdown(5000);
+		assertTrue(System.currentTimeMillis() - start < 2000);
+		assertEquals(1, outbox.listFiles().length);
+	}
+
+	private void awaitEmptyOutbox(long timeout) throws InterruptedException {
+		long end = System.currentTimeMillis() + timeout;
+		while (outbox.listFiles().length > 0) {
+			if (System.currentTimeMillis() > end) {
+				throw new AssertionError("The publish never finished");
+			}
+			Thread.sleep(10);
+		}
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,118 @@
+package com.sammarder.iheartdevs.traceprocessing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import org.junit.Test;
+
+/**
+ * Checks TraceLineClassifier against the corpus of real stack traces and log lines in the corpus directory.
+ */
+public class TraceLineClassifierTest {
+	private static final String[] TYPES = { "NOT_TRACE", "START", "CAUSED_BY", "SUPPRESSED", "FRAME", "MORE",
+			"OMITTED" };
+
+	@Test
+	public void classifiesCraftBukkitTraces() throws IOException {
+		checkCorpus("craftbukkit.txt");
+	}
+
+	@Test
+	public void classifiesJavaTraces() throws IOException {
+		checkCorpus("jdk17.txt");
+	}
+
+	@Test
+	public void classifiesModernTraces() throws IOException {
+		checkCorpus("modern.txt");
+	}
+
+	@Test
+	public void ignoresLogLines() throws IOException {
+		checkCorpus("not-trace.txt");
+	}
+
+	@Test
+	public void findsUncaughtExceptionWithQuotedMessage() {
+		String line = "Exception in thread \"main\" java.lang.NumberFormatException: For input string: \"abc\"";
+		assertEquals(TraceLineClassifier.START, TraceLineClassifier.classify(line));
+		assertEquals("java.lang.NumberFormatException", throwableName(line));
+	}
+
+	@Test
+	public void findsUncaughtExceptionWithQuotedThreadName() {
+		String line = "Exception in thread \"say \"hi\" \" java.lang.IllegalStateException: \"x\" ";
+		assertEquals(TraceLineClassifier.START, TraceLineClassifier.classify(line));
+		assertEquals("java.lang.IllegalStateException", throwableName(line));
+	}
+
+	@Test
+	public void classifiesLineBuffers() {
+		LineBuffer line = new LineBuffer(16);
+		line.set("\tat com.example.Foo.bar(Foo.java:12)");
+		assertEquals(TraceLineClassifier.FRAME, TraceLineClassifier.classify(line));
+		line.set("\t... 3 more");
+		assertEquals(TraceLineClassifier.MORE, TraceLineClassifier.classify(line));
+	}
+
+	@Test
+	public void onlyStartIsNotAContinuation() {
+		assertFalse(TraceLineClassifier.isContinuation(TraceLineClassifier.NOT_TRACE));
+		assertFalse(TraceLineClassifier.isContinuation(TraceLineClassifier.START));
+		for (int type = TraceLineClassifier.CAUSED_BY; type <= TraceLineClassifier.OMITTED; type++) {
+			assertTrue(TraceLineClassifier.isContinuation(type));
+		}
+	}
+
+	/**
+	 * Classifies every line of a corpus file. A line of the file is the expected type (optionally followed by = and
+	 * the class name the line is about), a tab and the line to classify. Lines that start with # are comments.
+	 */
+	private static void checkCorpus(String name) throws IOException {
+		InputStream is = TraceLineClassifierTest.class.getResourceAsStream("corpus/" + name);
+		BufferedReader reader = new BufferedReader(new InputStreamReader(is, "UTF-8"));
+		try {
+			String entry;
+			int lineNumber = 0;
+			while ((entry = reader.readLine()) != null) {
+				lineNumber++;
+				if (entry.startsWith("#")) {
+					continue;
+				}
+				int tab = entry.indexOf('\t');
+				String expected = entry.substring(0, tab);
+				String line = entry.substring(tab + 1);
+				String className = null;
+				if (expected.indexOf('=') >= 0) {
+					className = expected.substring(expected.indexOf('=') + 1);
+					expected = expected.substring(0, expected.indexOf('='));
+				}
+
+				String message = name + ":" + lineNumber + ": " + line;
+				int type = TraceLineClassifier.classify(line);
+				assertEquals(message, expected, TYPES[type]);
+				if (type == TraceLineClassifier.FRAME) {
+					assertEquals(message, className, line.substring(TraceLineClassifier.frameClassStart(line),
+							TraceLineClassifier.frameClassEnd(line)));
+				} else if (type == TraceLineClassifier.START || type == TraceLineClassifier.CAUSED_BY
+						|| type == TraceLineClassifier.SUPPRESSED) {
+					assertEquals(message, className, throwableName(line));
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static String throwableName(String line) {
+		long bounds = TraceLineClassifier.throwableNameBounds(line);
+		assertTrue(line, bounds >= 0);
+		return line.substring((int) (bounds >>> 32), (int) bounds);
+	}
+}